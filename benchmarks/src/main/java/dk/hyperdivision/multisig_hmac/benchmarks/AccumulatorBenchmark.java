@@ -0,0 +1,116 @@
+package dk.hyperdivision.multisig_hmac.benchmarks;
+
+import dk.hyperdivision.multisig_hmac.Key;
+import dk.hyperdivision.multisig_hmac.MultisigHMAC;
+import dk.hyperdivision.multisig_hmac.Signature;
+import dk.hyperdivision.multisig_hmac.SignatureAccumulator;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Throughput of 64 producer threads handing signatures to a coordinator.
+ * locked collects them in a list under a lock and combines once threshold
+ * distinct keys are present, accumulator adds them to a
+ * SignatureAccumulator. Both start over once the threshold is reached.
+ * Each thread cycles through the 32 keys from a random start, so some
+ * hand-ins are repeats which are rejected. The accepted counter reports
+ * the hand-ins which made it into a combined signature.
+ *
+ * @author Amalie Due Jensen
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(64)
+public class AccumulatorBenchmark {
+    @State(Scope.Benchmark)
+    public static class Coordinator {
+        @Param({"HmacSHA256", "HmacSHA512"})
+        public MultisigHMAC.Algorithm algorithm;
+
+        @Param({"8", "32"})
+        public int threshold;
+
+        MultisigHMAC m;
+        Signature[] signatures = new Signature[32];
+        AtomicReference<SignatureAccumulator> accumulator = new AtomicReference<>();
+
+        final Object lock = new Object();
+        List<Signature> collected = new ArrayList<>();
+        int collectedBits;
+        Signature last;
+
+        @Setup
+        public void setup() throws InvalidKeyException, NoSuchAlgorithmException {
+            m = new MultisigHMAC(algorithm);
+            byte[] message = Fixtures.message(256);
+            for (int i = 0; i < 32; i++) {
+                Key key = m.generate(i);
+                signatures[i] = m.sign(key, message);
+            }
+            accumulator.set(new SignatureAccumulator(m, threshold));
+        }
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Producer {
+        int next = ThreadLocalRandom.current().nextInt(32);
+
+        /**
+         * Hand-ins which were accepted, reported next to the hand-ins
+         */
+        public long accepted;
+    }
+
+    @Benchmark
+    public boolean locked(Coordinator c, Producer p) {
+        int i = p.next++ & 31;
+        synchronized (c.lock) {
+            if ((c.collectedBits & (1 << i)) != 0) return false;
+
+            p.accepted++;
+            c.collected.add(c.signatures[i]);
+            c.collectedBits |= 1 << i;
+            if (Integer.bitCount(c.collectedBits) == c.threshold) {
+                c.last = c.m.combine(c.collected);
+                c.collected = new ArrayList<>();
+                c.collectedBits = 0;
+            }
+            return true;
+        }
+    }
+
+    @Benchmark
+    public boolean accumulator(Coordinator c, Producer p) {
+        SignatureAccumulator accumulator = c.accumulator.get();
+        if (accumulator.add(c.signatures[p.next++ & 31])) {
+            p.accepted++;
+            return true;
+        }
+
+        if (accumulator.isComplete()) c.accumulator.compareAndSet(accumulator, new SignatureAccumulator(c.m, c.threshold));
+        // The last tags are still being folded, likely by a thread which is
+        // not running, so let it run rather than spin
+        else Thread.yield();
+        return false;
+    }
+}
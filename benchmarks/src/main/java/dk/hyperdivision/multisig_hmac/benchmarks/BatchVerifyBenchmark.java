@@ -0,0 +1,86 @@
+package dk.hyperdivision.multisig_hmac.benchmarks;
+
+import dk.hyperdivision.multisig_hmac.Key;
+import dk.hyperdivision.multisig_hmac.MultisigHMAC;
+import dk.hyperdivision.multisig_hmac.Signature;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Messages verified per second when a batch of 1000 messages is verified
+ * one verify call at a time, compared to a single verifyBatch call
+ *
+ * @author Amalie Due Jensen
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BatchVerifyBenchmark {
+    private static final int BATCH = 1000;
+
+    @Param({"HmacSHA256", "HmacSHA512"})
+    public MultisigHMAC.Algorithm algorithm;
+
+    @Param({"64", "256", "4096"})
+    public int messageSize;
+
+    @Param({"false", "true"})
+    public boolean parallel;
+
+    private MultisigHMAC m;
+    private List<Key> keys;
+    private Signature[] signatures;
+    private byte[][] messages;
+
+    @Setup
+    public void setup() throws InvalidKeyException, NoSuchAlgorithmException {
+        m = new MultisigHMAC(algorithm);
+        m.setParallelVerify(parallel);
+        keys = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            keys.add(m.generate(i));
+        }
+
+        signatures = new Signature[BATCH];
+        messages = new byte[BATCH][];
+        for (int i = 0; i < BATCH; i++) {
+            messages[i] = Fixtures.message(messageSize);
+            messages[i][0] = (byte) i;
+            signatures[i] = m.combine(Fixtures.signAll(m, keys.subList(0, 3), messages[i]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int verifyLoop() throws InvalidKeyException, NoSuchAlgorithmException {
+        int valid = 0;
+        for (int i = 0; i < BATCH; i++) {
+            if (m.verify(keys, signatures[i], messages[i], 3)) valid++;
+        }
+
+        return valid;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public BitSet verifyBatch() throws InvalidKeyException, NoSuchAlgorithmException {
+        return m.verifyBatch(keys, signatures, messages, 3);
+    }
+}
@@ -0,0 +1,87 @@
+package dk.hyperdivision.multisig_hmac.benchmarks;
+
+import dk.hyperdivision.multisig_hmac.MultisigHMAC;
+import dk.hyperdivision.multisig_hmac.ParallelPolicy;
+import dk.hyperdivision.multisig_hmac.Signature;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to combine large collections of signatures, comparing the bulk
+ * path of MultisigHMAC.combine against the byte at a time loop it
+ * replaced. The tags are random, since combine does not care where they
+ * came from. parallelism 1 keeps the bulk path on the calling thread.
+ *
+ * @author Amalie Due Jensen
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BulkCombineBenchmark {
+    @Param({"HmacSHA256", "HmacSHA512"})
+    public MultisigHMAC.Algorithm algorithm;
+
+    @Param({"1000", "100000", "1000000"})
+    public int signatures;
+
+    @Param({"1", "4"})
+    public int parallelism;
+
+    private MultisigHMAC m;
+    private List<Signature> list;
+    private List<byte[]> tags;
+
+    @Setup
+    public void setup() {
+        m = new MultisigHMAC(algorithm);
+        m.setParallelPolicy(new ParallelPolicy(ForkJoinPool.commonPool(), parallelism));
+
+        Random random = new Random(42);
+        list = new ArrayList<>(signatures);
+        tags = new ArrayList<>(signatures);
+        for (int i = 0; i < signatures; i++) {
+            byte[] tag = new byte[m.getBYTES()];
+            random.nextBytes(tag);
+            list.add(new Signature(random.nextInt(), tag));
+            tags.add(tag);
+        }
+    }
+
+    @Benchmark
+    public Signature combine() {
+        return m.combine(list);
+    }
+
+    @Benchmark
+    public byte[] bytewise() {
+        // The combine loop before the bulk path, with a new array per signature
+        byte[] current = new byte[m.getBYTES()];
+        for (byte[] tag : tags) {
+            byte[] next = new byte[current.length];
+            for (int i = 0; i < current.length; i++) {
+                next[i] = (byte) (current[i] ^ tag[i]);
+            }
+            current = next;
+        }
+
+        return current;
+    }
+}
@@ -0,0 +1,96 @@
+package dk.hyperdivision.multisig_hmac.benchmarks;
+
+import dk.hyperdivision.multisig_hmac.Key;
+import dk.hyperdivision.multisig_hmac.MultisigHMAC;
+import dk.hyperdivision.multisig_hmac.ParallelPolicy;
+import dk.hyperdivision.multisig_hmac.Signature;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to sign a file on local disk in chunked mode with a growing number
+ * of threads, compared to streaming it through a single HMAC
+ *
+ * @author Amalie Due Jensen
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ChunkedSignBenchmark {
+    @Param({"HmacSHA256", "HmacSHA512"})
+    public MultisigHMAC.Algorithm algorithm;
+
+    @Param({"268435456"})
+    public long fileSize;
+
+    @Param({"4194304"})
+    public int chunkBytes;
+
+    @Param({"1", "2", "4", "8", "16"})
+    public int threads;
+
+    private MultisigHMAC m;
+    private Key key;
+    private Path file;
+    private FileChannel channel;
+    private ForkJoinPool pool;
+
+    @Setup
+    public void setup() throws IOException, NoSuchAlgorithmException {
+        m = new MultisigHMAC(algorithm);
+        key = m.prepare(m.generate(0));
+        pool = new ForkJoinPool(threads);
+        m.setParallelPolicy(new ParallelPolicy(pool, threads));
+
+        file = Files.createTempFile("multisig-bench", ".bin");
+        byte[] block = Fixtures.message(1 << 20);
+        try (FileChannel out = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            for (long written = 0; written < fileSize; written += block.length) {
+                out.write(ByteBuffer.wrap(block, 0, (int) Math.min(block.length, fileSize - written)));
+            }
+        }
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        channel.close();
+        Files.delete(file);
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public Signature signChunked() throws InvalidKeyException, NoSuchAlgorithmException, IOException {
+        return m.signChunked(key, channel, chunkBytes);
+    }
+
+    @Benchmark
+    public Signature signStreaming() throws InvalidKeyException, NoSuchAlgorithmException, IOException {
+        channel.position(0);
+        return m.sign(key, channel);
+    }
+}
@@ -0,0 +1,57 @@
+package dk.hyperdivision.multisig_hmac.benchmarks;
+
+import dk.hyperdivision.multisig_hmac.Key;
+import dk.hyperdivision.multisig_hmac.MultisigHMAC;
+import dk.hyperdivision.multisig_hmac.Signature;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Throughput of MultisigHMAC.combine. The message size does not affect
+ * combine, so only the number of signers is varied.
+ *
+ * @author Amalie Due Jensen
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CombineBenchmark {
+    @Param({"HmacSHA256", "HmacSHA384", "HmacSHA512"})
+    public MultisigHMAC.Algorithm algorithm;
+
+    @Param({"1", "2", "8", "16", "31"})
+    public int signers;
+
+    private MultisigHMAC m;
+    private List<Signature> signatures;
+
+    @Setup
+    public void setup() throws InvalidKeyException, NoSuchAlgorithmException {
+        m = new MultisigHMAC(algorithm);
+        List<Key> keys = new ArrayList<>();
+        for (int i = 0; i < signers; i++) {
+            keys.add(m.generate(i));
+        }
+        signatures = Fixtures.signAll(m, keys, Fixtures.message(32));
+    }
+
+    @Benchmark
+    public Signature combine() {
+        return m.combine(signatures);
+    }
+}
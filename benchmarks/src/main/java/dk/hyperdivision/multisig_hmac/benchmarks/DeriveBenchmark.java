@@ -0,0 +1,48 @@
+package dk.hyperdivision.multisig_hmac.benchmarks;
+
+import dk.hyperdivision.multisig_hmac.DerivedMultisigHMAC;
+import dk.hyperdivision.multisig_hmac.Key;
+import dk.hyperdivision.multisig_hmac.MultisigHMAC;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Throughput of DerivedMultisigHMAC.generate, deriving a single sub key
+ * from a master key
+ *
+ * @author Amalie Due Jensen
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DeriveBenchmark {
+    @Param({"HmacSHA256", "HmacSHA384", "HmacSHA512"})
+    public MultisigHMAC.Algorithm algorithm;
+
+    private DerivedMultisigHMAC m;
+    private byte[] masterKey;
+
+    @Setup
+    public void setup() {
+        m = new DerivedMultisigHMAC(algorithm);
+        masterKey = m.generateMasterKey();
+    }
+
+    @Benchmark
+    public Key generate() throws InvalidKeyException, NoSuchAlgorithmException {
+        return m.generate(7, masterKey);
+    }
+}
@@ -0,0 +1,65 @@
+package dk.hyperdivision.multisig_hmac.benchmarks;
+
+import dk.hyperdivision.multisig_hmac.DerivedMultisigHMAC;
+import dk.hyperdivision.multisig_hmac.Key;
+import dk.hyperdivision.multisig_hmac.MultisigHMAC;
+import dk.hyperdivision.multisig_hmac.Signature;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Throughput of DerivedMultisigHMAC.verify, which derives every used
+ * sub key from the master key before tagging the message
+ *
+ * @author Amalie Due Jensen
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DerivedVerifyBenchmark {
+    @Param({"HmacSHA256", "HmacSHA384", "HmacSHA512"})
+    public MultisigHMAC.Algorithm algorithm;
+
+    @Param({"32", "256", "4096", "65536", "1048576", "16777216"})
+    public int messageSize;
+
+    @Param({"1", "2", "8", "16", "31"})
+    public int signers;
+
+    private DerivedMultisigHMAC m;
+    private byte[] masterKey;
+    private Signature combined;
+    private byte[] message;
+
+    @Setup
+    public void setup() throws InvalidKeyException, NoSuchAlgorithmException {
+        m = new DerivedMultisigHMAC(algorithm);
+        masterKey = m.generateMasterKey();
+        List<Key> keys = new ArrayList<>();
+        for (int i = 0; i < signers; i++) {
+            keys.add(m.generate(i, masterKey));
+        }
+        message = Fixtures.message(messageSize);
+        combined = m.combine(Fixtures.signAll(m, keys, message));
+    }
+
+    @Benchmark
+    public boolean verify() throws InvalidKeyException, NoSuchAlgorithmException {
+        return m.verify(masterKey, combined, message, signers);
+    }
+}
@@ -0,0 +1,51 @@
+package dk.hyperdivision.multisig_hmac.benchmarks;
+
+import dk.hyperdivision.multisig_hmac.Key;
+import dk.hyperdivision.multisig_hmac.MultisigHMAC;
+import dk.hyperdivision.multisig_hmac.Signature;
+
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Shared helpers for setting up benchmark inputs
+ *
+ * @author Amalie Due Jensen
+ */
+final class Fixtures {
+    private Fixtures() {
+    }
+
+    /**
+     * Creates a message of pseudo random bytes. A fixed seed is used so
+     * runs are comparable.
+     *
+     * @param size - length of the message in bytes
+     * @return the message
+     */
+    static byte[] message(int size) {
+        byte[] message = new byte[size];
+        new Random(42).nextBytes(message);
+        return message;
+    }
+
+    /**
+     * Signs message with every key in keys
+     *
+     * @param m - instance used for signing
+     * @param keys - keys which should sign
+     * @param message - message which should be signed
+     * @return one signature per key
+     */
+    static List<Signature> signAll(MultisigHMAC m, List<Key> keys, byte[] message) throws InvalidKeyException, NoSuchAlgorithmException {
+        List<Signature> signatures = new ArrayList<>(keys.size());
+        for (Key key : keys) {
+            signatures.add(m.sign(key, message));
+        }
+
+        return signatures;
+    }
+}
@@ -0,0 +1,120 @@
+package dk.hyperdivision.multisig_hmac.benchmarks;
+
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import dk.hyperdivision.multisig_hmac.AuthenticationFilter;
+import dk.hyperdivision.multisig_hmac.Key;
+import dk.hyperdivision.multisig_hmac.MultisigHMAC;
+import dk.hyperdivision.multisig_hmac.Signature;
+import dk.hyperdivision.multisig_hmac.SignatureCodec;
+import dk.hyperdivision.multisig_hmac.SignedHttp;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Round trip time of a signed POST to an in-process HttpServer whose
+ * handler reads the body, with and without an AuthenticationFilter in
+ * front of it. The body is sent with a known length, which the filter
+ * verifies up front if it fits its buffer, or in chunks, which it
+ * verifies as the handler reads them.
+ *
+ * @author Amalie Due Jensen
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HttpAuthBenchmark {
+    @Param({"1024", "65536", "1048576"})
+    public int bodySize;
+
+    @Param({"true", "false"})
+    public boolean chunked;
+
+    private HttpServer server;
+    private ExecutorService executor;
+    private HttpClient client;
+    private HttpRequest plain;
+    private HttpRequest authenticated;
+
+    @Setup
+    public void setup() throws IOException, InterruptedException, NoSuchAlgorithmException, InvalidKeyException {
+        MultisigHMAC m = new MultisigHMAC(MultisigHMAC.Algorithm.HmacSHA256);
+        List<Key> keys = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            keys.add(m.generate(i));
+        }
+
+        HttpHandler handler = exchange -> {
+            try (InputStream in = exchange.getRequestBody()) {
+                in.transferTo(OutputStream.nullOutputStream());
+            }
+            exchange.sendResponseHeaders(204, -1);
+            exchange.close();
+        };
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        executor = Executors.newFixedThreadPool(2);
+        server.setExecutor(executor);
+        server.createContext("/plain", handler);
+        server.createContext("/auth", handler).getFilters().add(AuthenticationFilter.of(m, keys, 2));
+        server.start();
+
+        byte[] body = Fixtures.message(bodySize);
+        HttpRequest.BodyPublisher publisher = chunked
+                ? HttpRequest.BodyPublishers.ofInputStream(() -> new ByteArrayInputStream(body))
+                : HttpRequest.BodyPublishers.ofByteArray(body);
+        URI base = URI.create("http://localhost:" + server.getAddress().getPort());
+        Signature signature = m.signer(keys.subList(0, 2)).update(SignedHttp.canonicalRequest("POST", base.resolve("/auth"))).update(body).finish();
+        String header = new SignatureCodec(m.getALGORITHM()).toBase64Url(signature);
+        plain = HttpRequest.newBuilder(base.resolve("/plain")).header(SignedHttp.HEADER, header).POST(publisher).build();
+        authenticated = HttpRequest.newBuilder(base.resolve("/auth")).header(SignedHttp.HEADER, header).POST(publisher).build();
+        client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        if (authenticated() != 204) throw new IllegalStateException("Signed request was not accepted");
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.stop(0);
+        executor.shutdown();
+    }
+
+    @Benchmark
+    public int plain() throws IOException, InterruptedException {
+        return client.send(plain, HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+
+    @Benchmark
+    public int authenticated() throws IOException, InterruptedException {
+        return client.send(authenticated, HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+}
@@ -0,0 +1,103 @@
+package dk.hyperdivision.multisig_hmac.benchmarks;
+
+import dk.hyperdivision.multisig_hmac.Key;
+import dk.hyperdivision.multisig_hmac.MultisigHMAC;
+import dk.hyperdivision.multisig_hmac.OffHeapKeyring;
+import dk.hyperdivision.multisig_hmac.WideSignature;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.management.ManagementFactory;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Key storage on the heap, as a list of Key instances, against an
+ * OffHeapKeyring. verify checks a signature by 8 keys spread over the
+ * whole key set, fullGc measures the pause of a full collection with the
+ * keys alive. The heap used after setup is printed once per fork, so the
+ * footprint of the two storages can be compared directly.
+ *
+ * @author Amalie Due Jensen
+ */
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class KeyringBenchmark {
+    @Param({"1000", "100000", "1000000"})
+    public int keyCount;
+
+    @Param({"heap", "offHeap"})
+    public String storage;
+
+    private MultisigHMAC m;
+    private List<Key> keys;
+    private OffHeapKeyring keyring;
+    private WideSignature combined;
+    private byte[] message;
+
+    @Setup(Level.Trial)
+    public void setup() throws InvalidKeyException, NoSuchAlgorithmException {
+        m = new MultisigHMAC(MultisigHMAC.Algorithm.HmacSHA256);
+        message = Fixtures.message(256);
+
+        List<Key> generated = new ArrayList<>(keyCount);
+        for (int i = 0; i < keyCount; i++) {
+            generated.add(m.generate(i));
+        }
+
+        List<WideSignature> signatures = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            signatures.add(m.signWide(generated.get(i * (keyCount / 8)), message));
+        }
+        combined = m.combineWide(signatures);
+
+        if (storage.equals("heap")) {
+            keys = generated;
+        } else {
+            keyring = OffHeapKeyring.of(generated);
+        }
+        generated = null;
+
+        System.gc();
+        long used = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        System.out.printf("%n%s storage of %d keys: %d KB of heap in use%n", storage, keyCount, used / 1024);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (keyring != null) keyring.close();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    public boolean verify() throws InvalidKeyException, NoSuchAlgorithmException {
+        return keyring != null
+                ? m.verifyWide(keyring, combined, message, 8)
+                : m.verifyWide(keys, combined, message, 8);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 3, batchSize = 1)
+    @Measurement(iterations = 10, batchSize = 1)
+    public void fullGc() {
+        System.gc();
+    }
+}
@@ -0,0 +1,110 @@
+package dk.hyperdivision.multisig_hmac.benchmarks;
+
+import dk.hyperdivision.multisig_hmac.Key;
+import dk.hyperdivision.multisig_hmac.MappedKeyring;
+import dk.hyperdivision.multisig_hmac.MultisigHMAC;
+import dk.hyperdivision.multisig_hmac.Signature;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time from nothing to the first verification for a keyring of keyCount
+ * SHA-256 keys. openMapped maps a MappedKeyring file, loadList reads every
+ * key of a flat file of index || key records into a List of Key, as a
+ * boot-time load from a database does. The files are in the page cache,
+ * so this measures decoding rather than disk reads.
+ *
+ * @author Amalie Due Jensen
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, batchSize = 1)
+@Measurement(iterations = 20, batchSize = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MappedKeyringStartupBenchmark {
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int keyCount;
+
+    private MultisigHMAC m;
+    private Path dir;
+    private Path mappedFile;
+    private Path flatFile;
+    private Signature signature;
+    private byte[] message;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException, InvalidKeyException, NoSuchAlgorithmException {
+        m = new MultisigHMAC(MultisigHMAC.Algorithm.HmacSHA256);
+        message = Fixtures.message(256);
+
+        List<Key> keys = new ArrayList<>(keyCount);
+        for (int i = 0; i < keyCount; i++) {
+            keys.add(m.generate(i));
+        }
+        signature = m.sign(keys.get(keyCount % 32), message);
+
+        dir = Files.createTempDirectory("keyring");
+        mappedFile = dir.resolve("keys.msk");
+        MappedKeyring.write(mappedFile, keys, 1);
+
+        // The key bytes are only reachable through a keyring from outside the library
+        ByteBuffer flat = ByteBuffer.allocate(keyCount * (4 + m.getKEYBYTES()));
+        try (MappedKeyring keyring = MappedKeyring.open(mappedFile)) {
+            for (int i = 0; i < keyCount; i++) {
+                flat.putInt(i).put(keyring.key(i));
+            }
+        }
+        flatFile = dir.resolve("keys.flat");
+        Files.write(flatFile, flat.array());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.delete(mappedFile);
+        Files.delete(flatFile);
+        Files.delete(dir);
+    }
+
+    @Benchmark
+    public boolean openMapped() throws IOException, NoSuchAlgorithmException {
+        try (MappedKeyring keyring = MappedKeyring.open(mappedFile)) {
+            return m.verify(keyring, signature, message, 1);
+        }
+    }
+
+    @Benchmark
+    public boolean loadList() throws IOException, InvalidKeyException, NoSuchAlgorithmException {
+        ByteBuffer flat = ByteBuffer.wrap(Files.readAllBytes(flatFile));
+        List<Key> keys = new ArrayList<>(keyCount);
+        while (flat.hasRemaining()) {
+            int index = flat.getInt();
+            byte[] key = new byte[m.getKEYBYTES()];
+            flat.get(key);
+            keys.add(new Key(index, key));
+        }
+
+        return m.verify(keys, signature, message, 1);
+    }
+}
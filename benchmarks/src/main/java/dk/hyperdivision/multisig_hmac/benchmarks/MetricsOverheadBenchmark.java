@@ -0,0 +1,71 @@
+package dk.hyperdivision.multisig_hmac.benchmarks;
+
+import dk.hyperdivision.multisig_hmac.Key;
+import dk.hyperdivision.multisig_hmac.MetricsRecorder;
+import dk.hyperdivision.multisig_hmac.MultisigHMAC;
+import dk.hyperdivision.multisig_hmac.Signature;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of metrics on verify with a short message, where it is largest
+ * relative to the work. listener is "none" for no listener, "noop" for a
+ * listener which does nothing and "recorder" for a MetricsRecorder.
+ *
+ * @author Amalie Due Jensen
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MetricsOverheadBenchmark {
+    @Param({"none", "noop", "recorder"})
+    public String listener;
+
+    @Param({"32", "4096"})
+    public int messageSize;
+
+    private MultisigHMAC m;
+    private List<Key> keys;
+    private Signature combined;
+    private byte[] message;
+
+    @Setup
+    public void setup() throws InvalidKeyException, NoSuchAlgorithmException {
+        m = new MultisigHMAC(MultisigHMAC.Algorithm.HmacSHA256);
+        keys = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            keys.add(m.generate(i));
+        }
+        message = Fixtures.message(messageSize);
+        combined = m.combine(Fixtures.signAll(m, keys, message));
+
+        if (listener.equals("noop")) {
+            m.setMetricsListener((operation, algorithm, nanos, messageBytes, signers, outcome) -> { });
+        } else if (listener.equals("recorder")) {
+            new MetricsRecorder().attachTo(m);
+        }
+    }
+
+    @Benchmark
+    public boolean verify() throws InvalidKeyException, NoSuchAlgorithmException {
+        return m.verify(keys, combined, message, 2);
+    }
+}
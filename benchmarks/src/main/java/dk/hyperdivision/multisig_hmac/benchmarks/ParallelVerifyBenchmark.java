@@ -0,0 +1,67 @@
+package dk.hyperdivision.multisig_hmac.benchmarks;
+
+import dk.hyperdivision.multisig_hmac.Key;
+import dk.hyperdivision.multisig_hmac.MultisigHMAC;
+import dk.hyperdivision.multisig_hmac.Signature;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of a 10-of-16 verification with and without parallel
+ * verification
+ *
+ * @author Amalie Due Jensen
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParallelVerifyBenchmark {
+    @Param({"HmacSHA256", "HmacSHA512"})
+    public MultisigHMAC.Algorithm algorithm;
+
+    @Param({"4096", "65536", "1048576", "52428800"})
+    public int messageSize;
+
+    @Param({"false", "true"})
+    public boolean parallel;
+
+    private MultisigHMAC m;
+    private List<Key> keys;
+    private Signature combined;
+    private byte[] message;
+
+    @Setup
+    public void setup() throws InvalidKeyException, NoSuchAlgorithmException {
+        m = new MultisigHMAC(algorithm);
+        m.setParallelVerify(parallel);
+        keys = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            keys.add(m.generate(i));
+        }
+        message = Fixtures.message(messageSize);
+        combined = m.combine(Fixtures.signAll(m, keys.subList(0, 10), message));
+    }
+
+    @Benchmark
+    public boolean verify() throws InvalidKeyException, NoSuchAlgorithmException {
+        return m.verify(keys, combined, message, 10);
+    }
+}
@@ -0,0 +1,80 @@
+package dk.hyperdivision.multisig_hmac.benchmarks;
+
+import dk.hyperdivision.multisig_hmac.Key;
+import dk.hyperdivision.multisig_hmac.MultisigHMAC;
+import dk.hyperdivision.multisig_hmac.PreparedVerifier;
+import dk.hyperdivision.multisig_hmac.Signature;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Throughput of PreparedVerifier.verify against MultisigHMAC.verify with
+ * the same stored keys, plain and prepared. Every key takes part in the
+ * combined signature.
+ *
+ * @author Amalie Due Jensen
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PreparedVerifierBenchmark {
+    @Param({"HmacSHA256", "HmacSHA512"})
+    public MultisigHMAC.Algorithm algorithm;
+
+    @Param({"32", "256", "4096"})
+    public int messageSize;
+
+    @Param({"2", "8"})
+    public int signers;
+
+    private MultisigHMAC m;
+    private List<Key> keys;
+    private List<Key> preparedKeys;
+    private PreparedVerifier verifier;
+    private Signature combined;
+    private byte[] message;
+
+    @Setup
+    public void setup() throws InvalidKeyException, NoSuchAlgorithmException {
+        m = new MultisigHMAC(algorithm);
+        keys = new ArrayList<>();
+        preparedKeys = new ArrayList<>();
+        for (int i = 0; i < signers; i++) {
+            keys.add(m.generate(i));
+            preparedKeys.add(m.prepare(keys.get(i)));
+        }
+        verifier = PreparedVerifier.of(m, keys, signers);
+        message = Fixtures.message(messageSize);
+        combined = m.combine(Fixtures.signAll(m, keys, message));
+    }
+
+    @Benchmark
+    public boolean verify() throws InvalidKeyException, NoSuchAlgorithmException {
+        return m.verify(keys, combined, message, signers);
+    }
+
+    @Benchmark
+    public boolean verifyPreparedKeys() throws InvalidKeyException, NoSuchAlgorithmException {
+        return m.verify(preparedKeys, combined, message, signers);
+    }
+
+    @Benchmark
+    public boolean preparedVerifier() throws NoSuchAlgorithmException {
+        return verifier.verify(combined, message);
+    }
+}
@@ -0,0 +1,109 @@
+package dk.hyperdivision.multisig_hmac.benchmarks;
+
+import dk.hyperdivision.multisig_hmac.DerivedMultisigHMAC;
+import dk.hyperdivision.multisig_hmac.Key;
+import dk.hyperdivision.multisig_hmac.MultisigHMAC;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to provision a batch of keys, one call per key against the range
+ * APIs. perCallSecureRandom generates stored keys the way generate(int)
+ * did before it shared an entropy source.
+ *
+ * @author Amalie Due Jensen
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProvisioningBenchmark {
+    @Param({"1000", "10000"})
+    public int keys;
+
+    private DerivedMultisigHMAC m;
+    private byte[] masterKey;
+    private ByteBuffer out;
+
+    @Setup
+    public void setup() {
+        m = new DerivedMultisigHMAC(MultisigHMAC.Algorithm.HmacSHA256);
+        masterKey = m.generateMasterKey();
+        out = ByteBuffer.allocateDirect(keys * m.getKEYBYTES());
+    }
+
+    @Benchmark
+    public List<Key> perCallSecureRandom() {
+        List<Key> result = new ArrayList<>(keys);
+        for (int i = 0; i < keys; i++) {
+            byte[] key = new byte[m.getKEYBYTES()];
+            new SecureRandom().nextBytes(key);
+            result.add(new Key(i, key));
+        }
+
+        return result;
+    }
+
+    @Benchmark
+    public List<Key> generateLoop() {
+        List<Key> result = new ArrayList<>(keys);
+        for (int i = 0; i < keys; i++) {
+            result.add(m.generate(i));
+        }
+
+        return result;
+    }
+
+    @Benchmark
+    public List<Key> generateRange() {
+        return m.generateRange(0, keys);
+    }
+
+    @Benchmark
+    public ByteBuffer generateRangeIntoBuffer() {
+        out.clear();
+        m.generateRange(0, keys, out);
+        return out;
+    }
+
+    @Benchmark
+    public List<Key> deriveLoop() throws InvalidKeyException, NoSuchAlgorithmException {
+        List<Key> result = new ArrayList<>(keys);
+        for (int i = 0; i < keys; i++) {
+            result.add(m.generate(i, masterKey));
+        }
+
+        return result;
+    }
+
+    @Benchmark
+    public List<Key> deriveRange() throws NoSuchAlgorithmException {
+        return m.deriveRange(0, keys, masterKey);
+    }
+
+    @Benchmark
+    public ByteBuffer deriveRangeIntoBuffer() throws NoSuchAlgorithmException {
+        out.clear();
+        m.deriveRange(0, keys, masterKey, out);
+        return out;
+    }
+}
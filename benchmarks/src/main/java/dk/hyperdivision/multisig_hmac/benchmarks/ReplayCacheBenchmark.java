@@ -0,0 +1,143 @@
+package dk.hyperdivision.multisig_hmac.benchmarks;
+
+import dk.hyperdivision.multisig_hmac.Key;
+import dk.hyperdivision.multisig_hmac.MultisigHMAC;
+import dk.hyperdivision.multisig_hmac.NonceCache;
+import dk.hyperdivision.multisig_hmac.PreparedVerifier;
+import dk.hyperdivision.multisig_hmac.ReplayGuard;
+import dk.hyperdivision.multisig_hmac.Signature;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Throughput of ReplayGuard.verify for replayed messages, which the nonce
+ * cache turns away before any HMAC, next to a replay table behind one
+ * global lock and next to verifying a fresh message. The replay checks
+ * run on one and on four threads.
+ *
+ * @author Amalie Due Jensen
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReplayCacheBenchmark {
+    /**
+     * Number of distinct bound messages replayed
+     */
+    private static final int MESSAGES = 4096;
+
+    @State(Scope.Benchmark)
+    public static class Shared {
+        ReplayGuard guard;
+        Map<String, Long> table;
+        byte[][] bound;
+        Signature[] signatures;
+
+        @Setup(Level.Trial)
+        public void setup() throws NoSuchAlgorithmException, InvalidKeyException {
+            MultisigHMAC m = new MultisigHMAC(MultisigHMAC.Algorithm.HmacSHA256);
+            List<Key> keys = Arrays.asList(m.generate(0), m.generate(1));
+            guard = new ReplayGuard(PreparedVerifier.of(m, keys, 2), new NonceCache(Duration.ofMinutes(5), 1 << 20));
+            table = new HashMap<>();
+
+            bound = new byte[MESSAGES][];
+            signatures = new Signature[MESSAGES];
+            for (int i = 0; i < MESSAGES; i++) {
+                bound[i] = ReplayGuard.bind(Fixtures.message(256));
+                signatures[i] = m.signAndCombine(keys, bound[i]);
+                guard.verify(signatures[i], bound[i]);
+                table.put(nonceOf(bound[i]), ReplayGuard.timestampOf(bound[i]));
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+    }
+
+    private static String nonceOf(byte[] bound) {
+        return new String(bound, Long.BYTES, ReplayGuard.NONCE_BYTES, StandardCharsets.ISO_8859_1);
+    }
+
+    private static ReplayGuard.Outcome replay(Shared shared, Cursor cursor) throws NoSuchAlgorithmException {
+        int i = cursor.next++ & (MESSAGES - 1);
+        return shared.guard.verify(shared.signatures[i], shared.bound[i]);
+    }
+
+    private static boolean globalLock(Shared shared, Cursor cursor) {
+        int i = cursor.next++ & (MESSAGES - 1);
+        byte[] bound = shared.bound[i];
+        String nonce = nonceOf(bound);
+        synchronized (shared.table) {
+            return shared.table.putIfAbsent(nonce, ReplayGuard.timestampOf(bound)) == null;
+        }
+    }
+
+    @Benchmark
+    public ReplayGuard.Outcome replayed(Shared shared, Cursor cursor) throws NoSuchAlgorithmException {
+        return replay(shared, cursor);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public ReplayGuard.Outcome replayedThreads(Shared shared, Cursor cursor) throws NoSuchAlgorithmException {
+        return replay(shared, cursor);
+    }
+
+    @Benchmark
+    public boolean globalLockTable(Shared shared, Cursor cursor) {
+        return globalLock(shared, cursor);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean globalLockTableThreads(Shared shared, Cursor cursor) {
+        return globalLock(shared, cursor);
+    }
+
+    @State(Scope.Thread)
+    public static class Fresh {
+        MultisigHMAC m;
+        List<Key> keys;
+        PreparedVerifier verifier;
+        byte[] bound;
+        Signature signature;
+
+        @Setup(Level.Trial)
+        public void setup() throws NoSuchAlgorithmException, InvalidKeyException {
+            m = new MultisigHMAC(MultisigHMAC.Algorithm.HmacSHA256);
+            keys = Arrays.asList(m.generate(0), m.generate(1));
+            verifier = PreparedVerifier.of(m, keys, 2);
+            bound = ReplayGuard.bind(Fixtures.message(256));
+            signature = m.signAndCombine(keys, bound);
+        }
+    }
+
+    /**
+     * The HMAC work a replay check saves: verifying the bound message
+     */
+    @Benchmark
+    public boolean verifyFresh(Fresh fresh) throws NoSuchAlgorithmException {
+        return fresh.verifier.verify(fresh.signature, fresh.bound);
+    }
+}
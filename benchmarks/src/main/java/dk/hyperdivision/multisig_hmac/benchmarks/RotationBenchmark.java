@@ -0,0 +1,82 @@
+package dk.hyperdivision.multisig_hmac.benchmarks;
+
+import dk.hyperdivision.multisig_hmac.DerivedMultisigHMAC;
+import dk.hyperdivision.multisig_hmac.Key;
+import dk.hyperdivision.multisig_hmac.KeyRotation;
+import dk.hyperdivision.multisig_hmac.MultisigHMAC;
+import dk.hyperdivision.multisig_hmac.Signature;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Verifying a signature by the previous master key during a rotation.
+ * rotation names the generation and verifies once against prepared keys,
+ * tryBoth is the by-hand approach of verifying against the new master key
+ * first and the old one when that fails.
+ *
+ * @author Amalie Due Jensen
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RotationBenchmark {
+    @Param({"HmacSHA256", "HmacSHA512"})
+    public MultisigHMAC.Algorithm algorithm;
+
+    @Param({"256", "65536"})
+    public int messageSize;
+
+    @Param({"2", "8"})
+    public int signers;
+
+    private DerivedMultisigHMAC m;
+    private byte[] oldMaster;
+    private byte[] newMaster;
+    private KeyRotation rotation;
+    private Signature combined;
+    private byte[] message;
+
+    @Setup
+    public void setup() throws InvalidKeyException, NoSuchAlgorithmException {
+        m = new DerivedMultisigHMAC(algorithm);
+        oldMaster = m.generateMasterKey();
+        newMaster = m.generateMasterKey();
+        List<Key> keys = new ArrayList<>();
+        for (int i = 0; i < signers; i++) {
+            keys.add(m.generate(i, oldMaster));
+        }
+        message = Fixtures.message(messageSize);
+        combined = m.combine(Fixtures.signAll(m, keys, message));
+
+        rotation = new KeyRotation(m);
+        rotation.stage(1, oldMaster);
+        rotation.promote();
+        rotation.stage(2, newMaster);
+        rotation.promote();
+    }
+
+    @Benchmark
+    public boolean rotation() throws InvalidKeyException, NoSuchAlgorithmException {
+        return rotation.verify(1, combined, message, signers);
+    }
+
+    @Benchmark
+    public boolean tryBoth() throws InvalidKeyException, NoSuchAlgorithmException {
+        return m.verify(newMaster, combined, message, signers) || m.verify(oldMaster, combined, message, signers);
+    }
+}
@@ -0,0 +1,70 @@
+package dk.hyperdivision.multisig_hmac.benchmarks;
+
+import dk.hyperdivision.multisig_hmac.Key;
+import dk.hyperdivision.multisig_hmac.MultisigHMAC;
+import dk.hyperdivision.multisig_hmac.Signature;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to sign a message with several keys held by one service:
+ * signing with each key and combining, against signAndCombine, which
+ * reads the message once
+ *
+ * @author Amalie Due Jensen
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Benchmark)
+public class SignAndCombineBenchmark {
+    @Param({"HmacSHA256", "HmacSHA512"})
+    public MultisigHMAC.Algorithm algorithm;
+
+    @Param({"1024", "1048576", "67108864", "1073741824"})
+    public int messageSize;
+
+    @Param({"4"})
+    public int signers;
+
+    private MultisigHMAC m;
+    private List<Key> keys;
+    private byte[] message;
+
+    @Setup
+    public void setup() throws NoSuchAlgorithmException {
+        m = new MultisigHMAC(algorithm);
+        keys = new ArrayList<>();
+        for (int i = 0; i < signers; i++) {
+            keys.add(m.prepare(m.generate(i)));
+        }
+        message = Fixtures.message(messageSize);
+    }
+
+    @Benchmark
+    public Signature signThenCombine() throws InvalidKeyException, NoSuchAlgorithmException {
+        return m.combine(Fixtures.signAll(m, keys, message));
+    }
+
+    @Benchmark
+    public Signature signAndCombine() throws InvalidKeyException, NoSuchAlgorithmException {
+        return m.signAndCombine(keys, message);
+    }
+}
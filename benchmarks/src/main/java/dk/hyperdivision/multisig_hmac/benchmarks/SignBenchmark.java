@@ -0,0 +1,60 @@
+package dk.hyperdivision.multisig_hmac.benchmarks;
+
+import dk.hyperdivision.multisig_hmac.Key;
+import dk.hyperdivision.multisig_hmac.MultisigHMAC;
+import dk.hyperdivision.multisig_hmac.Signature;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Throughput of MultisigHMAC.sign for a single key, both as a plain
+ * Key and as a PreparedKey
+ *
+ * @author Amalie Due Jensen
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SignBenchmark {
+    @Param({"HmacSHA256", "HmacSHA384", "HmacSHA512"})
+    public MultisigHMAC.Algorithm algorithm;
+
+    @Param({"32", "256", "4096", "65536", "1048576", "16777216"})
+    public int messageSize;
+
+    private MultisigHMAC m;
+    private Key key;
+    private Key preparedKey;
+    private byte[] message;
+
+    @Setup
+    public void setup() throws NoSuchAlgorithmException {
+        m = new MultisigHMAC(algorithm);
+        key = m.generate(0);
+        preparedKey = m.prepare(key);
+        message = Fixtures.message(messageSize);
+    }
+
+    @Benchmark
+    public Signature sign() throws InvalidKeyException, NoSuchAlgorithmException {
+        return m.sign(key, message);
+    }
+
+    @Benchmark
+    public Signature signPrepared() throws InvalidKeyException, NoSuchAlgorithmException {
+        return m.sign(preparedKey, message);
+    }
+}
@@ -0,0 +1,257 @@
+package dk.hyperdivision.multisig_hmac;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+/**
+ * AuthenticationFilter authenticates requests to a
+ * com.sun.net.httpserver.HttpServer against the combined signature in the
+ * SignedHttp.HEADER header. The signature covers the method, raw path and
+ * query, and body of the request, see SignedHttp.canonicalRequest, so a
+ * signed request is only accepted by the endpoint it was signed for. It
+ * can still be replayed to that endpoint unless the body is also checked
+ * with a ReplayGuard.
+ *
+ * A request without a valid signature header, or with one made with fewer
+ * than threshold keys or with keys the filter does not have, is answered
+ * with 401 before the handler runs. So is a body of at most
+ * getBufferBytes() bytes with a known length, which is read and verified
+ * up front and handed to the handler from memory.
+ *
+ * Larger bodies, and bodies of unknown length, are verified as the
+ * handler reads them: the request body stream feeds every byte to the
+ * verifier and throws an IOException at its end if the body does not
+ * match the signature. A handler must therefore read such a body to its
+ * end before acting on it. The signature of an authenticated request is
+ * available from the exchange attribute SIGNATURE_ATTRIBUTE.
+ *
+ * A filter built from a master key keeps a copy of it until it is closed.
+ * Closing overwrites the copy with zeros, after which requests signed
+ * with sub keys the filter has not used yet are answered with 401.
+ *
+ * The filter is thread safe.
+ *
+ * @author Amalie Due Jensen
+ */
+public class AuthenticationFilter extends Filter implements AutoCloseable {
+    /**
+     * Exchange attribute holding the Signature of the request
+     */
+    public static final String SIGNATURE_ATTRIBUTE = "dk.hyperdivision.multisig_hmac.signature";
+
+    /**
+     * Default largest body which is verified before the handler runs
+     */
+    public static final int DEFAULT_BUFFER_BYTES = 64 * 1024;
+
+    private final SignatureCodec codec;
+    private final SignedHttp.Verifiers verifiers;
+    private final int threshold;
+    private volatile int bufferBytes = DEFAULT_BUFFER_BYTES;
+
+    private AuthenticationFilter(MultisigHMAC multisig, SignedHttp.Verifiers verifiers, int threshold) {
+        this.codec = new SignatureCodec(multisig.getALGORITHM());
+        this.verifiers = verifiers;
+        this.threshold = threshold;
+    }
+
+    /**
+     * Constructs a filter which authenticates against a list of keys
+     *
+     * @param multisig - instance whose algorithm and Mac pool are used
+     * @param keys - a list of all keys
+     * @param threshold - minimum number of keys each request must be signed with
+     * @return the filter
+     * @throws NoSuchAlgorithmException - if the specified algorithm is not available
+     */
+    public static AuthenticationFilter of(MultisigHMAC multisig, List<Key> keys, int threshold) throws NoSuchAlgorithmException {
+        return new AuthenticationFilter(multisig, SignedHttp.verifiers(multisig, keys, threshold), threshold);
+    }
+
+    /**
+     * Constructs a filter which authenticates against keys derived from a
+     * master key
+     *
+     * @param multisig - instance whose algorithm and key cache are used
+     * @param masterKey - master key in bytes of length KEYBYTES which the keys are derived from
+     * @param threshold - minimum number of keys each request must be signed with
+     * @return the filter
+     */
+    public static AuthenticationFilter of(DerivedMultisigHMAC multisig, byte[] masterKey, int threshold) {
+        return new AuthenticationFilter(multisig, SignedHttp.verifiers(multisig, masterKey, threshold), threshold);
+    }
+
+    /**
+     * Returns the largest body which is verified before the handler runs
+     *
+     * @return the limit in bytes
+     */
+    public int getBufferBytes() {
+        return bufferBytes;
+    }
+
+    /**
+     * Sets the largest body which is verified before the handler runs.
+     * Such bodies are held in memory, 0 streams every body with content.
+     *
+     * @param bufferBytes - the limit in bytes
+     */
+    public void setBufferBytes(int bufferBytes) {
+        if (bufferBytes < 0) throw new IllegalArgumentException("Buffer bytes must be at least 0");
+
+        this.bufferBytes = bufferBytes;
+    }
+
+    @Override
+    public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+        String header = exchange.getRequestHeaders().getFirst(SignedHttp.HEADER);
+        Signature signature = null;
+        StreamingVerifier verifier = null;
+        try {
+            if (header != null) signature = codec.fromBase64Url(header.trim());
+            if (signature != null && Integer.bitCount(signature.index) >= threshold) {
+                verifier = verifiers.start(signature)
+                        .update(SignedHttp.canonicalRequest(exchange.getRequestMethod(), exchange.getRequestURI()));
+            }
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            verifier = null;
+        } catch (GeneralSecurityException e) {
+            throw new IOException(e);
+        }
+        if (verifier == null) {
+            reject(exchange);
+            return;
+        }
+
+        long length = contentLength(exchange);
+        if (length >= 0 && length <= bufferBytes) {
+            byte[] body = exchange.getRequestBody().readAllBytes();
+            if (!verifier.update(body).finish()) {
+                reject(exchange);
+                return;
+            }
+            exchange.setStreams(new ByteArrayInputStream(body), null);
+        } else {
+            exchange.setStreams(new VerifyingInputStream(exchange.getRequestBody(), verifier), null);
+        }
+
+        exchange.setAttribute(SIGNATURE_ATTRIBUTE, signature);
+        chain.doFilter(exchange);
+    }
+
+    /**
+     * Overwrites the filter's copy of a master key with zeros. Closing a
+     * filter of a list of keys does nothing.
+     */
+    @Override
+    public void close() {
+        verifiers.destroy();
+    }
+
+    @Override
+    public String description() {
+        return "Multisig HMAC request authentication";
+    }
+
+    /**
+     * Returns the length of the request body, 0 if there is none, or -1
+     * if it is sent in chunks
+     */
+    private static long contentLength(HttpExchange exchange) {
+        String encoding = exchange.getRequestHeaders().getFirst("Transfer-encoding");
+        if (encoding != null && encoding.equalsIgnoreCase("chunked")) return -1;
+
+        String length = exchange.getRequestHeaders().getFirst("Content-length");
+        try {
+            return length == null ? 0 : Long.parseLong(length.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static void reject(HttpExchange exchange) throws IOException {
+        // The body may be left unread, so the connection cannot carry another request
+        exchange.getResponseHeaders().set("Connection", "close");
+        exchange.sendResponseHeaders(401, -1);
+        exchange.close();
+    }
+
+    /**
+     * Passes the body through to the handler while feeding it to the
+     * verifier, and checks the signature at the end of the body
+     */
+    private static final class VerifyingInputStream extends FilterInputStream {
+        private final StreamingVerifier verifier;
+        private boolean ended;
+        private boolean valid;
+
+        VerifyingInputStream(InputStream in, StreamingVerifier verifier) {
+            super(in);
+            this.verifier = verifier;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (ended) return end();
+
+            int n = in.read(b, off, len);
+            if (n > 0) verifier.update(b, off, n);
+            if (n == -1) {
+                ended = true;
+                valid = verifier.finish();
+                return end();
+            }
+
+            return n;
+        }
+
+        private int end() throws IOException {
+            if (!valid) throw new IOException("Request body does not match its signature");
+            return -1;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            if (n <= 0) return 0;
+
+            // Skipped bytes still have to be verified
+            byte[] buffer = new byte[(int) Math.min(n, StreamingSigner.BUFFER_BYTES)];
+            long skipped = 0;
+            while (skipped < n) {
+                int r = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+                if (r == -1) break;
+                skipped += r;
+            }
+
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public synchronized void mark(int readlimit) {
+        }
+
+        @Override
+        public synchronized void reset() throws IOException {
+            throw new IOException("mark/reset not supported");
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package dk.hyperdivision.multisig_hmac;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * BoundedExecutor runs tasks on another executor with at most a fixed
+ * number of them running at once. Tasks beyond the limit wait in a FIFO
+ * queue, which can itself be bounded, in which case further tasks are
+ * rejected with a RejectedExecutionException. This keeps a burst of large
+ * messages from taking over every thread of the underlying executor.
+ *
+ * If the underlying executor refuses a task which has already been
+ * dequeued, the task runs on the thread which tried to start it.
+ *
+ * The queue depth, the number of running tasks and the totals of completed
+ * and rejected tasks can be read at any time, e.g. to export them as
+ * metrics.
+ *
+ * @author Amalie Due Jensen
+ */
+public class BoundedExecutor implements Executor {
+    private static final class DefaultHolder {
+        static final BoundedExecutor DEFAULT = new BoundedExecutor(platformDefault(Runtime.getRuntime().availableProcessors()), Runtime.getRuntime().availableProcessors());
+    }
+
+    private final Executor delegate;
+    private final int maxConcurrency;
+    private final int maxQueued;
+    private final Queue<Runnable> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger peakQueued = new AtomicInteger();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * Constructs a new executor with an unbounded queue
+     *
+     * @param delegate - executor the tasks are run on
+     * @param maxConcurrency - maximum number of tasks running at once
+     */
+    public BoundedExecutor(Executor delegate, int maxConcurrency) {
+        this(delegate, maxConcurrency, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Constructs a new executor with a bounded queue
+     *
+     * @param delegate - executor the tasks are run on
+     * @param maxConcurrency - maximum number of tasks running at once
+     * @param maxQueued - maximum number of tasks waiting to run
+     */
+    public BoundedExecutor(Executor delegate, int maxConcurrency, int maxQueued) {
+        if (delegate == null) throw new IllegalArgumentException("Executor must not be null");
+        if (maxConcurrency <= 0) throw new IllegalArgumentException("Concurrency must be at least 1");
+        if (maxQueued < 0) throw new IllegalArgumentException("Queue size must be at least 0");
+
+        this.delegate = delegate;
+        this.maxConcurrency = maxConcurrency;
+        this.maxQueued = maxQueued;
+    }
+
+    /**
+     * Returns the executor shared by all instances which have not been
+     * given an executor of their own. It runs at most one task per
+     * available processor, on a fixed pool of as many daemon threads.
+     *
+     * The threads live as long as the JVM, so the per-thread Macs and
+     * scratch buffers of the MacPool are created once per thread and then
+     * reused by every task. A new thread per task, e.g. a virtual thread,
+     * would start each operation with cold caches and allocate them all
+     * again; callers who prefer virtual threads anyway can wrap them in a
+     * BoundedExecutor of their own.
+     *
+     * @return the default executor
+     */
+    public static BoundedExecutor getDefault() {
+        return DefaultHolder.DEFAULT;
+    }
+
+    /**
+     * Creates the fixed pool of daemon threads behind the default executor.
+     * The BoundedExecutor never hands it more tasks than it has threads,
+     * so its own queue stays empty.
+     *
+     * @param nThreads - number of threads
+     * @return the pool
+     */
+    static Executor platformDefault(int nThreads) {
+        AtomicInteger next = new AtomicInteger();
+        return Executors.newFixedThreadPool(nThreads, task -> {
+            Thread thread = new Thread(task, "multisig-hmac-async-" + next.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        if (task == null) throw new NullPointerException();
+
+        int depth = queued.incrementAndGet();
+        if (depth > maxQueued) {
+            queued.decrementAndGet();
+            rejected.increment();
+            throw new RejectedExecutionException("Queue is full");
+        }
+        peakQueued.accumulateAndGet(depth, Math::max);
+
+        queue.add(task);
+        drain();
+    }
+
+    /**
+     * Starts queued tasks while there are free slots
+     */
+    private void drain() {
+        while (true) {
+            int running = active.get();
+            if (running >= maxConcurrency) return;
+            if (!active.compareAndSet(running, running + 1)) continue;
+
+            Runnable next = queue.poll();
+            if (next == null) {
+                active.decrementAndGet();
+                // A task may have been queued after the poll but before the slot was freed
+                if (queue.isEmpty()) return;
+                continue;
+            }
+            queued.decrementAndGet();
+
+            Runnable slot = () -> {
+                try {
+                    next.run();
+                } finally {
+                    completed.increment();
+                    active.decrementAndGet();
+                    drain();
+                }
+            };
+            try {
+                delegate.execute(slot);
+            } catch (RejectedExecutionException e) {
+                // The task has already left the queue, so rather than losing it run it here
+                slot.run();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the executor the tasks are run on
+     *
+     * @return the underlying executor
+     */
+    public Executor getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * Returns the maximum number of tasks running at once
+     *
+     * @return the concurrency limit
+     */
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    /**
+     * Returns the maximum number of tasks waiting to run
+     *
+     * @return the queue limit, Integer.MAX_VALUE if the queue is unbounded
+     */
+    public int getMaxQueued() {
+        return maxQueued;
+    }
+
+    /**
+     * Returns the number of tasks waiting for a free slot
+     *
+     * @return the current queue depth
+     */
+    public int getQueueDepth() {
+        return queued.get();
+    }
+
+    /**
+     * Returns the highest queue depth seen so far
+     *
+     * @return the peak queue depth
+     */
+    public int getPeakQueueDepth() {
+        return peakQueued.get();
+    }
+
+    /**
+     * Returns the number of tasks currently running
+     *
+     * @return number of active tasks
+     */
+    public int getActiveCount() {
+        return active.get();
+    }
+
+    /**
+     * Returns how many tasks have finished, normally or not
+     *
+     * @return number of completed tasks
+     */
+    public long getCompletedCount() {
+        return completed.sum();
+    }
+
+    /**
+     * Returns how many tasks have been rejected because the queue was
+     * full
+     *
+     * @return number of rejected tasks
+     */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+}
@@ -0,0 +1,108 @@
+package dk.hyperdivision.multisig_hmac;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * BulkXor xors signatures together eight bytes at a time through a long
+ * view of the byte arrays. Every tag length (32, 48 and 64 bytes) is a
+ * whole number of longs, so there is no byte tail in practice.
+ *
+ * Large collections are combined with a two level tree reduction: the
+ * list is split into ranges which are folded on the executor of a
+ * ParallelPolicy, and the partial results are folded pairwise at the end.
+ * Xor is associative and commutative, so the result is exactly the same
+ * as combining one signature at a time.
+ *
+ * @author Amalie Due Jensen
+ */
+final class BulkXor {
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    /**
+     * Smallest number of signatures worth splitting across threads
+     */
+    static final int PARALLEL_MIN_SIGNATURES = 1 << 15;
+
+    private BulkXor() {
+    }
+
+    /**
+     * Xors b into acc in place
+     *
+     * @param acc - byte array which is updated
+     * @param b - byte array which is xor'ed into acc, at least as long as acc
+     */
+    static void xorInto(byte[] acc, byte[] b) {
+        int n = acc.length;
+        if (b.length < n) throw new ArrayIndexOutOfBoundsException(b.length);
+
+        int i = 0;
+        for (; i <= n - Long.BYTES; i += Long.BYTES) {
+            LONGS.set(acc, i, (long) LONGS.get(acc, i) ^ (long) LONGS.get(b, i));
+        }
+        for (; i < n; i++) {
+            acc[i] ^= b[i];
+        }
+    }
+
+    /**
+     * Xors a list of signatures into out, which is expected to be zeroed
+     *
+     * @param signatures - signatures which should be combined
+     * @param out - buffer receiving the combined tag
+     * @param policy - policy deciding whether and where to split the work
+     * @return combined bitfield
+     */
+    static int combine(List<Signature> signatures, byte[] out, ParallelPolicy policy) {
+        if (!(signatures instanceof RandomAccess)) signatures = new ArrayList<>(signatures);
+
+        int n = signatures.size();
+        int nTasks = policy.getParallelism() > 1 && n >= PARALLEL_MIN_SIGNATURES
+                ? Math.min(policy.getParallelism() * 4, n / (PARALLEL_MIN_SIGNATURES / 4))
+                : 1;
+        if (nTasks <= 1) return combine(signatures, 0, n, out);
+
+        List<Signature> list = signatures;
+        byte[][] partials = new byte[nTasks][];
+        int[] bitFields = new int[nTasks];
+        partials[0] = out;
+        try {
+            policy.forEach(nTasks, t -> {
+                if (t > 0) partials[t] = new byte[out.length];
+                bitFields[t] = combine(list, (int) ((long) n * t / nTasks), (int) ((long) n * (t + 1) / nTasks), partials[t]);
+            });
+        } catch (InvalidKeyException | NoSuchAlgorithmException | IOException e) {
+            throw new IllegalStateException(e);
+        }
+
+        // Fold the partial results pairwise, ending in partials[0] which is out
+        for (int step = 1; step < nTasks; step <<= 1) {
+            for (int t = 0; t + step < nTasks; t += step << 1) {
+                xorInto(partials[t], partials[t + step]);
+                bitFields[t] ^= bitFields[t + step];
+            }
+        }
+
+        return bitFields[0];
+    }
+
+    private static int combine(List<Signature> signatures, int from, int to, byte[] out) {
+        int bitField = 0;
+        for (int i = from; i < to; i++) {
+            Signature obj = signatures.get(i);
+            if (obj.signature.length != out.length) throw new IllegalArgumentException("Signature must be BYTES long");
+            bitField ^= obj.index;
+            xorInto(out, obj.signature);
+        }
+
+        return bitField;
+    }
+}
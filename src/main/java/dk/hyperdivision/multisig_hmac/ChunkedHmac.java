@@ -0,0 +1,153 @@
+package dk.hyperdivision.multisig_hmac;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * ChunkedHmac computes the chunked tag of a message, which lets a large
+ * message be tagged by many threads at once.
+ *
+ * The message is split into chunks of chunkBytes (the last one may be
+ * shorter, and an empty message is a single empty chunk). Each chunk is
+ * tagged on its own, and the chunk tags are folded into the final tag:
+ * t[i] = HMAC(ChunkedKey, "chunked" || 0x00 || U64LE(i) || chunk[i])
+ * tag = HMAC(ChunkedKey, "chunked" || 0x01 || U32LE(chunkBytes) || U64LE(count) || U64LE(length) || t[0] || ... || t[count - 1])
+ *
+ * The chunked mode has a key of its own, so no tag made by plain sign,
+ * whatever its message, is also a chunk tag or a final tag, and neither
+ * mode can be used to forge the other:
+ * ChunkedKey = HMAC(Key = "multisig-hmac chunked", Key)
+ * The key is the message of this HMAC, not its key, so the chunked key
+ * is not the plain tag of any message either.
+ *
+ * @author Amalie Due Jensen
+ */
+final class ChunkedHmac {
+    private static final byte[] CHUNKED = "chunked".getBytes();
+    private static final byte[] CHUNKED_KEY = "multisig-hmac chunked".getBytes();
+
+    private ChunkedHmac() {
+    }
+
+    /**
+     * A message which chunks can be read from concurrently
+     */
+    interface Source {
+        long size() throws IOException;
+
+        ByteBuffer chunk(long offset, int len) throws IOException;
+    }
+
+    static Source of(byte[] message) {
+        return new Source() {
+            public long size() {
+                return message.length;
+            }
+
+            public ByteBuffer chunk(long offset, int len) {
+                return ByteBuffer.wrap(message, (int) offset, len);
+            }
+        };
+    }
+
+    /**
+     * Reads chunks by memory mapping them from the channel. The whole
+     * file is used regardless of the channel's position.
+     */
+    static Source of(FileChannel message) {
+        return new Source() {
+            public long size() throws IOException {
+                return message.size();
+            }
+
+            public ByteBuffer chunk(long offset, int len) throws IOException {
+                if (len == 0) return ByteBuffer.allocate(0);
+                return message.map(FileChannel.MapMode.READ_ONLY, offset, len);
+            }
+        };
+    }
+
+    /**
+     * Derives the key of the chunked mode from a key
+     *
+     * @param m - instance whose algorithm and Mac pool are used
+     * @param key - key which is an instance of Key
+     * @return the chunked key in bytes of length BYTES
+     */
+    static byte[] chunkedKey(MultisigHMAC m, Key key) throws InvalidKeyException, NoSuchAlgorithmException {
+        Mac mac = m.pool.acquire(m.ALGORITHM);
+        try {
+            mac.init(new SecretKeySpec(CHUNKED_KEY, m.PRIMITIVE));
+            return mac.doFinal(key.key);
+        } finally {
+            m.pool.release(m.ALGORITHM, mac);
+        }
+    }
+
+    /**
+     * Computes the chunked tag of a message for several keys. Chunks are
+     * read once and tagged with every key while they are hot.
+     *
+     * @param m - instance whose algorithm is used
+     * @param keys - keys to tag with
+     * @param message - the message
+     * @param chunkBytes - size of every chunk but the last
+     * @param policy - where to run the chunk tasks
+     * @return one tag per key
+     */
+    static byte[][] tags(MultisigHMAC m, Key[] keys, Source message, int chunkBytes, ParallelPolicy policy) throws InvalidKeyException, NoSuchAlgorithmException, IOException {
+        if (chunkBytes <= 0) throw new IllegalArgumentException("Chunk size must be at least 1");
+
+        long length = message.size();
+        long count = Math.max(1, (length + chunkBytes - 1) / chunkBytes);
+        if (count > (Integer.MAX_VALUE - 8) / m.BYTES) throw new IllegalArgumentException("Chunk size is too small for the message");
+        int nChunks = (int) count;
+
+        PreparedKey[] prepared = new PreparedKey[keys.length];
+        for (int k = 0; k < keys.length; k++) {
+            prepared[k] = m.prepare(new Key(keys[k].index, chunkedKey(m, keys[k])));
+        }
+
+        byte[][] chunkTags = new byte[keys.length][nChunks * m.BYTES];
+        int nTasks = Math.min(nChunks, policy.getParallelism() * 4);
+        policy.forEach(nTasks, t -> {
+            int from = (int) ((long) nChunks * t / nTasks);
+            int to = (int) ((long) nChunks * (t + 1) / nTasks);
+            ByteBuffer header = ByteBuffer.allocate(CHUNKED.length + 9).order(ByteOrder.LITTLE_ENDIAN);
+            for (int c = from; c < to; c++) {
+                long offset = (long) c * chunkBytes;
+                ByteBuffer chunk = message.chunk(offset, (int) Math.min(chunkBytes, length - offset));
+                header.clear();
+                header.put(CHUNKED).put((byte) 0x00).putLong(c);
+
+                for (int k = 0; k < prepared.length; k++) {
+                    MessageDigest inner = prepared[k].startInner();
+                    inner.update(header.array());
+                    inner.update(chunk.duplicate());
+                    byte[] h = inner.digest();
+                    System.arraycopy(prepared[k].startOuter().digest(h), 0, chunkTags[k], c * m.BYTES, m.BYTES);
+                }
+            }
+        });
+
+        ByteBuffer trailer = ByteBuffer.allocate(CHUNKED.length + 21).order(ByteOrder.LITTLE_ENDIAN);
+        trailer.put(CHUNKED).put((byte) 0x01).putInt(chunkBytes).putLong(count).putLong(length);
+
+        byte[][] tags = new byte[keys.length][];
+        for (int k = 0; k < prepared.length; k++) {
+            MessageDigest inner = prepared[k].startInner();
+            inner.update(trailer.array());
+            inner.update(chunkTags[k]);
+            tags[k] = prepared[k].startOuter().digest(inner.digest());
+        }
+
+        return tags;
+    }
+}
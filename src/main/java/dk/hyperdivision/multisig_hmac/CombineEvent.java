@@ -0,0 +1,30 @@
+package dk.hyperdivision.multisig_hmac;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Flight Recorder event of MultisigHMAC.combine. Only combines slower
+ * than the threshold, 1 ms unless the recording sets another one, are
+ * recorded.
+ *
+ * @author Amalie Due Jensen
+ */
+@Name("dk.hyperdivision.multisig_hmac.Combine")
+@Label("Multisig HMAC Combine")
+@Category("Multisig HMAC")
+@Description("Combination of signatures into one")
+@Threshold("1 ms")
+@StackTrace(false)
+final class CombineEvent extends Event {
+    @Label("Algorithm")
+    String algorithm;
+
+    @Label("Signatures")
+    int signatures;
+}
@@ -0,0 +1,30 @@
+package dk.hyperdivision.multisig_hmac;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Flight Recorder event of DerivedMultisigHMAC.generate and of the sub
+ * key derivations of its verifications. Only derivations slower than the
+ * threshold, 1 ms unless the recording sets another one, are recorded.
+ *
+ * @author Amalie Due Jensen
+ */
+@Name("dk.hyperdivision.multisig_hmac.Derive")
+@Label("Multisig HMAC Derive")
+@Category("Multisig HMAC")
+@Description("Derivation of a sub key from a master key")
+@Threshold("1 ms")
+@StackTrace(false)
+final class DeriveEvent extends Event {
+    @Label("Algorithm")
+    String algorithm;
+
+    @Label("Key Index")
+    int keyIndex;
+}
@@ -0,0 +1,302 @@
+package dk.hyperdivision.multisig_hmac;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * DerivedKeyCache is an opt-in, size bounded cache of sub keys derived
+ * by DerivedMultisigHMAC. It is safe to share between threads and between
+ * instances of DerivedMultisigHMAC.
+ *
+ * Entries are keyed by a fingerprint of the master key together with the
+ * algorithm and the index, so the raw master key is never retained. The
+ * fingerprint is a SHA-256 hash of the master key prefixed with a random
+ * secret chosen per cache. Eviction is least recently used within each of
+ * a number of independently locked segments, and entries can optionally
+ * expire a fixed time after they were derived. Evicted, expired and
+ * cleared sub keys are overwritten with zeros.
+ *
+ * @author Amalie Due Jensen
+ */
+public class DerivedKeyCache {
+    private final Segment[] segments;
+    private final long expireAfterNanos;
+    private final byte[] secret = new byte[32];
+    private final ThreadLocal<MessageDigest> digest;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Constructs a new cache holding at most maximumSize sub keys which
+     * never expire
+     *
+     * @param maximumSize - maximum number of cached sub keys
+     */
+    public DerivedKeyCache(int maximumSize) {
+        this(maximumSize, null);
+    }
+
+    /**
+     * Constructs a new cache holding at most maximumSize sub keys, each
+     * of which expires a fixed time after it was derived
+     *
+     * @param maximumSize - maximum number of cached sub keys
+     * @param expireAfterWrite - lifetime of an entry, or null if entries never expire
+     */
+    public DerivedKeyCache(int maximumSize, Duration expireAfterWrite) {
+        if (maximumSize <= 0) throw new IllegalArgumentException("Maximum size must be at least 1");
+        if (expireAfterWrite != null && (expireAfterWrite.isNegative() || expireAfterWrite.isZero())) throw new IllegalArgumentException("Expiry must be positive");
+
+        int nSegments = Integer.highestOneBit(Math.min(maximumSize, Runtime.getRuntime().availableProcessors() * 2));
+        // The first maximumSize % nSegments segments take one more entry, so the capacities add up to maximumSize
+        segments = new Segment[nSegments];
+        for (int i = 0; i < nSegments; i++) {
+            segments[i] = new Segment(maximumSize / nSegments + (i < maximumSize % nSegments ? 1 : 0));
+        }
+
+        expireAfterNanos = expireAfterWrite == null ? Long.MAX_VALUE : expireAfterWrite.toNanos();
+        new SecureRandom().nextBytes(secret);
+        digest = ThreadLocal.withInitial(() -> {
+            try {
+                return MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-256 is not available", e);
+            }
+        });
+    }
+
+    /**
+     * Computes the fingerprint which identifies a master key in the cache
+     *
+     * @param masterKey - master key
+     * @return the fingerprint
+     */
+    long[] fingerprint(byte[] masterKey) {
+        MessageDigest md = digest.get();
+        md.update(secret);
+        byte[] h = md.digest(masterKey);
+
+        long[] fp = new long[2];
+        for (int i = 0; i < 8; i++) {
+            fp[0] = (fp[0] << 8) | (h[i] & 0xFF);
+            fp[1] = (fp[1] << 8) | (h[i + 8] & 0xFF);
+        }
+
+        return fp;
+    }
+
+    /**
+     * Looks up a cached sub key
+     *
+     * @param fingerprint - fingerprint of the master key
+     * @param alg - algorithm the sub key was derived with
+     * @param index - index of the sub key
+     * @return a copy of the sub key, or null if it is not cached
+     */
+    byte[] get(long[] fingerprint, MultisigHMAC.Algorithm alg, int index) {
+        CacheKey cacheKey = new CacheKey(fingerprint, alg, index);
+        Segment segment = segmentFor(cacheKey);
+        synchronized (segment) {
+            Entry entry = segment.entries.get(cacheKey);
+            if (entry != null && System.nanoTime() - entry.expiresAt >= 0) {
+                segment.entries.remove(cacheKey);
+                evict(entry);
+                entry = null;
+            }
+            if (entry == null) {
+                misses.increment();
+                return null;
+            }
+
+            hits.increment();
+            return entry.key.clone();
+        }
+    }
+
+    /**
+     * Stores a sub key. The cache keeps its own copy of the bytes.
+     *
+     * @param fingerprint - fingerprint of the master key
+     * @param alg - algorithm the sub key was derived with
+     * @param index - index of the sub key
+     * @param key - the sub key
+     */
+    void put(long[] fingerprint, MultisigHMAC.Algorithm alg, int index, byte[] key) {
+        CacheKey cacheKey = new CacheKey(fingerprint, alg, index);
+        Entry entry = new Entry(key.clone(), expiresAt());
+        Segment segment = segmentFor(cacheKey);
+        synchronized (segment) {
+            Entry previous = segment.put(cacheKey, entry);
+            if (previous != null) Arrays.fill(previous.key, (byte) 0);
+        }
+    }
+
+    /**
+     * Returns the cached bytes themselves rather than a copy, so tests
+     * can observe zeroization
+     */
+    byte[] entryBytes(long[] fingerprint, MultisigHMAC.Algorithm alg, int index) {
+        CacheKey cacheKey = new CacheKey(fingerprint, alg, index);
+        Segment segment = segmentFor(cacheKey);
+        synchronized (segment) {
+            Entry entry = segment.entries.get(cacheKey);
+            return entry == null ? null : entry.key;
+        }
+    }
+
+    /**
+     * Returns the number of sub keys the segments can hold together
+     */
+    int capacity() {
+        int capacity = 0;
+        for (Segment segment : segments) {
+            capacity += segment.capacity;
+        }
+
+        return capacity;
+    }
+
+    /**
+     * Removes and zeroizes every cached sub key
+     */
+    public void clear() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                for (Entry entry : segment.entries.values()) {
+                    Arrays.fill(entry.key, (byte) 0);
+                }
+                segment.entries.clear();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of cached sub keys, including entries which
+     * have expired but not yet been removed
+     *
+     * @return number of entries
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.entries.size();
+            }
+        }
+
+        return size;
+    }
+
+    /**
+     * Returns how many lookups found a live sub key
+     *
+     * @return number of cache hits
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns how many lookups had to derive the sub key
+     *
+     * @return number of cache misses
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Returns how many sub keys have been evicted because of the size
+     * bound or because they expired
+     *
+     * @return number of evictions
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    private long expiresAt() {
+        long now = System.nanoTime();
+        return expireAfterNanos == Long.MAX_VALUE ? now + (Long.MAX_VALUE >> 1) : now + expireAfterNanos;
+    }
+
+    private void evict(Entry entry) {
+        Arrays.fill(entry.key, (byte) 0);
+        evictions.increment();
+    }
+
+    private Segment segmentFor(CacheKey cacheKey) {
+        int h = cacheKey.hashCode();
+        h ^= h >>> 16;
+        return segments[h & (segments.length - 1)];
+    }
+
+    private final class Segment {
+        final LinkedHashMap<CacheKey, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+        final int capacity;
+
+        Segment(int capacity) {
+            this.capacity = capacity;
+        }
+
+        /**
+         * Stores an entry, evicting the least recently used one if the
+         * segment is over capacity
+         */
+        Entry put(CacheKey cacheKey, Entry entry) {
+            Entry previous = entries.put(cacheKey, entry);
+            if (entries.size() > capacity) {
+                Iterator<Map.Entry<CacheKey, Entry>> eldest = entries.entrySet().iterator();
+                evict(eldest.next().getValue());
+                eldest.remove();
+            }
+
+            return previous;
+        }
+    }
+
+    private static final class Entry {
+        final byte[] key;
+        final long expiresAt;
+
+        Entry(byte[] key, long expiresAt) {
+            this.key = key;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private static final class CacheKey {
+        final long fp0;
+        final long fp1;
+        final int alg;
+        final int index;
+
+        CacheKey(long[] fingerprint, MultisigHMAC.Algorithm alg, int index) {
+            this.fp0 = fingerprint[0];
+            this.fp1 = fingerprint[1];
+            this.alg = alg.ordinal();
+            this.index = index;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof CacheKey)) return false;
+            CacheKey other = (CacheKey) o;
+            return fp0 == other.fp0 && fp1 == other.fp1 && alg == other.alg && index == other.index;
+        }
+
+        @Override
+        public int hashCode() {
+            return (Long.hashCode(fp0 ^ fp1) * 31 + alg) * 31 + index;
+        }
+    }
+}
@@ -1,13 +1,20 @@
 package dk.hyperdivision.multisig_hmac;
 
-import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
 
 /**
  * Multisig scheme for HMAC authentication. Java implementation
@@ -16,6 +23,14 @@ import java.util.List;
  * @author Amalie Due Jensen
  */
 public class DerivedMultisigHMAC extends MultisigHMAC {
+    /**
+     * Fewest keys a task of deriveRange is given, below this a range is
+     * derived on the calling thread
+     */
+    static final int RANGE_KEYS_PER_TASK = 256;
+
+    private DerivedKeyCache keyCache;
+
     /**
      * Constructs and initializes a new instance of Multisig HMAC
      * and sets the algorithm to be used for subsequent methods. In
@@ -28,6 +43,25 @@ public class DerivedMultisigHMAC extends MultisigHMAC {
         super(alg);
     }
 
+    /**
+     * Returns the cache of derived sub keys
+     *
+     * @return the cache, or null if sub keys are derived on every use
+     */
+    public DerivedKeyCache getKeyCache() {
+        return keyCache;
+    }
+
+    /**
+     * Sets a cache of derived sub keys which generate and verify consult
+     * before deriving a sub key. Caching does not change the derived keys.
+     *
+     * @param keyCache - the cache, or null to derive sub keys on every use
+     */
+    public void setKeyCache(DerivedKeyCache keyCache) {
+        this.keyCache = keyCache;
+    }
+
     /**
      * Generates a new cryptographically random master key
      *
@@ -35,8 +69,7 @@ public class DerivedMultisigHMAC extends MultisigHMAC {
      */
     public byte[] generateMasterKey() {
         byte[] masterKey = new byte[KEYBYTES];
-        SecureRandom random = new SecureRandom();
-        random.nextBytes(masterKey);
+        entropy().nextBytes(masterKey);
 
         return masterKey;
     }
@@ -59,25 +92,199 @@ public class DerivedMultisigHMAC extends MultisigHMAC {
      * @throws NoSuchAlgorithmException - if the specified algorithm is not available
      */
     public Key generate(int index, byte[] masterKey) throws InvalidKeyException, NoSuchAlgorithmException {
-        byte[] dataBytes = "derived".getBytes();
-        byte[] indexArray = intToLittleEndian(index);
-        byte[] _scratch = ByteBuffer.allocate(dataBytes.length+indexArray.length).put(dataBytes).put(indexArray).array();
+        DerivedKeyCache cache = keyCache;
+        return generate(index, masterKey, cache, cache == null ? null : cache.fingerprint(masterKey));
+    }
+
+    /**
+     * Derives a new sub key from a master seed on the async executor, see
+     * generate(int, byte[])
+     *
+     * @param index - index of the key
+     * @param masterKey - master key in bytes of length KEYBYTES used to derive keys
+     * @return a future of the derived key
+     */
+    public CompletableFuture<Key> generateAsync(int index, byte[] masterKey) {
+        return async(() -> generate(index, masterKey));
+    }
+
+    /**
+     * Derives the sub keys of a range of indexes, see generate(int, byte[]).
+     * Large ranges are split across the executor of the parallel policy.
+     * The key cache is neither consulted nor filled.
+     *
+     * @param from - index of the first key
+     * @param to - index after the last key
+     * @param masterKey - master key in bytes of length KEYBYTES used to derive keys
+     * @return the keys with indexes from to to - 1, in order
+     * @throws NoSuchAlgorithmException - if the specified algorithm is not available
+     */
+    public List<Key> deriveRange(int from, int to, byte[] masterKey) throws NoSuchAlgorithmException {
+        int n = rangeLength(from, to);
+        byte[] material = deriveMaterial(from, n, masterKey);
+
+        int keyBytes = 2 * BYTES;
+        List<Key> keys = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            keys.add(new Key(from + i, Arrays.copyOfRange(material, i * keyBytes, (i + 1) * keyBytes)));
+        }
+        Arrays.fill(material, (byte) 0);
+
+        return keys;
+    }
+
+    /**
+     * Derives the sub keys of a range of indexes straight into a buffer,
+     * e.g. for export, see deriveRange(int, int, byte[]). The keys are
+     * written back to back from the buffer's position, which is advanced
+     * past them. A sub key is 2 * BYTES long, which for HmacSHA384 is
+     * less than KEYBYTES.
+     *
+     * @param from - index of the first key
+     * @param to - index after the last key
+     * @param masterKey - master key in bytes of length KEYBYTES used to derive keys
+     * @param out - buffer receiving (to - from) * 2 * BYTES bytes
+     * @throws NoSuchAlgorithmException - if the specified algorithm is not available
+     * @throws BufferOverflowException - if the buffer has too little room, in which case nothing is written
+     */
+    public void deriveRange(int from, int to, byte[] masterKey, ByteBuffer out) throws NoSuchAlgorithmException {
+        int n = rangeLength(from, to);
+        if (out.remaining() < n * 2 * BYTES) throw new BufferOverflowException();
+
+        byte[] material = deriveMaterial(from, n, masterKey);
+        out.put(material);
+        Arrays.fill(material, (byte) 0);
+    }
+
+    /**
+     * Derives n consecutive sub keys into one array. Every task owns a
+     * contiguous run of keys and its own scratch.
+     */
+    private byte[] deriveMaterial(int from, int n, byte[] masterKey) throws NoSuchAlgorithmException {
+        if (masterKey.length != KEYBYTES) throw new IllegalArgumentException("Master key must be KEYBYTES long");
+
+        int keyBytes = 2 * BYTES;
+        byte[] material = new byte[n * keyBytes];
+        int nTasks = Math.max(1, Math.min(parallelPolicy.getParallelism(), n / RANGE_KEYS_PER_TASK));
+        try {
+            parallelPolicy.forEach(nTasks, t -> {
+                HmacScratch scratch = pool.acquireScratch(ALGORITHM);
+                try {
+                    for (int i = (int) ((long) n * t / nTasks); i < (long) n * (t + 1) / nTasks; i++) {
+                        scratch.derive(from + i, masterKey, scratch.derived);
+                        System.arraycopy(scratch.derived, 0, material, i * keyBytes, keyBytes);
+                    }
+                    Arrays.fill(scratch.derived, (byte) 0);
+                } finally {
+                    pool.releaseScratch(scratch);
+                }
+            });
+        } catch (InvalidKeyException | IOException e) {
+            throw new IllegalStateException(e);
+        }
+
+        return material;
+    }
+
+    /**
+     * Derives a sub key, consulting the cache first if one is given, and
+     * reports the derivation
+     *
+     * @param index - index of the key
+     * @param masterKey - master key in bytes of length KEYBYTES used to derive keys
+     * @param cache - cache of derived keys, or null
+     * @param fingerprint - fingerprint of masterKey in cache
+     * @return the derived key in bytes of length KEYBYTES
+     * @throws InvalidKeyException - if the given key is inappropriate for initializing this HMAC
+     * @throws NoSuchAlgorithmException - if the specified algorithm is not available
+     */
+    private Key generate(int index, byte[] masterKey, DerivedKeyCache cache, long[] fingerprint) throws InvalidKeyException, NoSuchAlgorithmException {
+        if (!isMeasured()) return lookup(index, masterKey, cache, fingerprint);
+
+        return measure(DERIVE_EVENT,
+                (listener, event, start, key, ok) -> reportDerive(listener, (DeriveEvent) event, start, index, ok),
+                () -> lookup(index, masterKey, cache, fingerprint));
+    }
+
+    private Key lookup(int index, byte[] masterKey, DerivedKeyCache cache, long[] fingerprint) throws NoSuchAlgorithmException {
+        if (cache == null) return derive(index, masterKey);
+
+        byte[] cached = cache.get(fingerprint, ALGORITHM, index);
+        if (cached != null) return new Key(index, cached);
+
+        Key key = derive(index, masterKey);
+        cache.put(fingerprint, ALGORITHM, index, key.key);
+        return key;
+    }
 
-        byte[] ZERO = new byte[] {0x00};
-        byte[] ONE = new byte[] {0x01};
+    /**
+     * Runs the KDF described at generate
+     *
+     * @param index - index of the key
+     * @param masterKey - master key in bytes of length KEYBYTES used to derive keys
+     * @return the derived key in bytes of length KEYBYTES
+     * @throws NoSuchAlgorithmException - if the specified algorithm is not available
+     */
+    private Key derive(int index, byte[] masterKey) throws NoSuchAlgorithmException {
+        HmacScratch scratch = pool.acquireScratch(ALGORITHM);
+        try {
+            byte[] key = new byte[2 * BYTES];
+            scratch.derive(index, masterKey, key);
+            return new Key(index, key);
+        } finally {
+            pool.releaseScratch(scratch);
+        }
+    }
+
+    /**
+     * Derives a sub key into the derived buffer of a scratch and reports
+     * the derivation
+     *
+     * @param scratch - scratch of the calling thread
+     * @param index - index of the key
+     * @param masterKey - master key in bytes of length KEYBYTES used to derive keys
+     * @throws NoSuchAlgorithmException - if the specified algorithm is not available
+     */
+    private void deriveInto(HmacScratch scratch, int index, byte[] masterKey) throws NoSuchAlgorithmException {
+        if (!isMeasured()) {
+            scratch.derive(index, masterKey, scratch.derived);
+            return;
+        }
 
-        Mac HMAC0 = Mac.getInstance(PRIMITIVE);
-        SecretKeySpec hmacKey = new SecretKeySpec(masterKey, PRIMITIVE);
-        HMAC0.init(hmacKey);
-        HMAC0.update(_scratch);
-        byte[] h0 = HMAC0.doFinal(ZERO);
+        measure(DERIVE_EVENT,
+                (listener, event, start, none, ok) -> reportDerive(listener, (DeriveEvent) event, start, index, ok),
+                () -> {
+                    scratch.derive(index, masterKey, scratch.derived);
+                    return null;
+                });
+    }
 
-        Mac HMAC1 = Mac.getInstance(PRIMITIVE);
-        HMAC1.init(hmacKey);
-        HMAC1.update(h0);
-        byte[] h1 = HMAC1.doFinal(ONE);
+    /**
+     * Begins a DeriveEvent, see MultisigHMAC.SIGN_EVENT
+     */
+    private static final Supplier<Object> DERIVE_EVENT = () -> {
+        DeriveEvent event = new DeriveEvent();
+        event.begin();
+        return event;
+    };
 
-        return new Key(index, ByteBuffer.allocate(h0.length+h1.length).put(h0).put(h1).array());
+    /**
+     * Reports a derivation to a metrics listener and Flight Recorder
+     *
+     * @param listener - the metrics listener, or null
+     * @param event - the Flight Recorder event begun before the derivation, or null
+     * @param start - System.nanoTime() before the derivation
+     * @param index - index of the key
+     * @param ok - false if the derivation threw
+     */
+    private void reportDerive(MetricsListener listener, DeriveEvent event, long start, int index, boolean ok) {
+        MetricsListener.Outcome outcome = ok ? MetricsListener.Outcome.OK : MetricsListener.Outcome.ERROR;
+        if (listener != null) listener.onOperation(MetricsListener.Operation.DERIVE, ALGORITHM, System.nanoTime() - start, 0, 1, outcome);
+        if (event != null && event.shouldCommit()) {
+            event.algorithm = ALGORITHM.name();
+            event.keyIndex = index;
+            event.commit();
+        }
     }
 
     /**
@@ -107,9 +314,60 @@ public class DerivedMultisigHMAC extends MultisigHMAC {
      * @throws InvalidKeyException - if the given key is inappropriate for initializing this HMAC
      */
     public boolean verify(byte[] masterKey, Signature signatures, byte[] message, int threshold) throws NoSuchAlgorithmException, InvalidKeyException, IllegalArgumentException {
+        if (message == null) throw new IllegalArgumentException("message must be bytes");
+
+        return verify(masterKey, signatures, message, 0, message.length, threshold);
+    }
+
+    /**
+     * Verifies a signature of data against dynamically derived keys from a
+     * master key on the async executor, see verify(byte[], Signature,
+     * byte[], int). The message must not be modified until the future
+     * completes.
+     *
+     * @param masterKey - master key in bytes of length KEYBYTES which the keys are derived from
+     * @param signatures - combined signature
+     * @param message - message which has been signed
+     * @param threshold - minimum number of used keys
+     * @return a future of the verification, completed exceptionally with the exceptions of verify
+     */
+    public CompletableFuture<Boolean> verifyAsync(byte[] masterKey, Signature signatures, byte[] message, int threshold) {
+        return async(() -> verify(masterKey, signatures, message, threshold));
+    }
+
+    /**
+     * Verifies a signature of part of a buffer against dynamically derived
+     * keys from a master key
+     *
+     * Without a key cache and unless parallel verification kicks in, this
+     * does not allocate once the calling thread has verified with the
+     * algorithm before: every sub key is derived into a per-thread buffer
+     * of the Mac pool and used straight away. Each derivation is reported
+     * to the metrics listener as well as the verification.
+     *
+     * @param masterKey - master key in bytes of length KEYBYTES which the keys are derived from
+     * @param signatures - combined signature
+     * @param message - buffer holding the message which has been signed
+     * @param offset - offset of the message in the buffer
+     * @param length - length of the message
+     * @param threshold - minimum number of used keys
+     * @return verification of the signature (true/false)
+     * @throws NoSuchAlgorithmException - if the specified algorithm is not available
+     * @throws InvalidKeyException - if the given key is inappropriate for initializing this HMAC
+     */
+    public boolean verify(byte[] masterKey, Signature signatures, byte[] message, int offset, int length, int threshold) throws NoSuchAlgorithmException, InvalidKeyException, IllegalArgumentException {
+        if (!isMeasured()) return verifyDerived(masterKey, signatures, message, offset, length, threshold);
+
+        return measure(VERIFY_EVENT,
+                (listener, event, start, valid, ok) -> reportVerify(listener, (VerifyEvent) event, start, length, signatures, threshold, valid),
+                () -> verifyDerived(masterKey, signatures, message, offset, length, threshold));
+    }
+
+    private boolean verifyDerived(byte[] masterKey, Signature signatures, byte[] message, int offset, int length, int threshold) throws NoSuchAlgorithmException, InvalidKeyException, IllegalArgumentException {
         if (masterKey.length != KEYBYTES) throw new IllegalArgumentException("Master key must be KEYBYTES long");
         if (signatures.signature.length != BYTES) throw new IllegalArgumentException("Signature must be BYTES long");
         if (message == null) throw new IllegalArgumentException("message must be bytes");
+        if (offset < 0 || length < 0 || offset > message.length - length) throw new IllegalArgumentException("Offset and length must lie within message");
         if (threshold <= 0) throw new IllegalArgumentException("Threshold must be at least 1");
 
         int bitField = signatures.index;
@@ -119,16 +377,285 @@ public class DerivedMultisigHMAC extends MultisigHMAC {
             return false;
         }
 
-        List<Integer> usedKeys = keyIndexes(bitField);
-        byte[] sig = signatures.signature;
+        DerivedKeyCache cache = keyCache;
+        long[] fingerprint = cache == null ? null : cache.fingerprint(masterKey);
+
+        if (parallelVerify && parallelPolicy.parallelize(length, nKeys)) {
+            List<Integer> usedKeys = keyIndexes(bitField);
+            // derivation is part of each task, so it is spread across threads as well
+            return tagsMatch(signatures.signature, parallelTags(nKeys, i -> generate(usedKeys.get(i), masterKey, cache, fingerprint), message, offset, length));
+        }
+
+        HmacScratch scratch = pool.acquireScratch(ALGORITHM);
+        try {
+            byte[] sig = scratch.acc;
+            System.arraycopy(signatures.signature, 0, sig, 0, BYTES);
+            int signed = 0;
+            for (int bits = bitField; bits != 0; bits &= bits - 1) {
+                int index = Integer.numberOfTrailingZeros(bits);
+                if (cache == null) {
+                    deriveInto(scratch, index, masterKey);
+                    scratch.hmac(scratch.derived, scratch.derived.length, message, offset, length, scratch.tag);
+                    signed |= 1 << index;
+                } else {
+                    Key key = generate(index, masterKey, cache, fingerprint);
+                    tagInto(scratch, key, message, offset, length, scratch.tag);
+                    signed |= indexBit(key);
+                }
+                xorInto(sig, scratch.tag);
+            }
+
+            return signed == bitField && isZero(sig);
+        } finally {
+            Arrays.fill(scratch.derived, (byte) 0);
+            pool.releaseScratch(scratch);
+        }
+    }
+
+    /**
+     * Verifies a wide signature of data against dynamically derived keys
+     * from a master key. Only the keys in the signer set are derived.
+     *
+     * @param masterKey - master key in bytes of length KEYBYTES which the keys are derived from
+     * @param signatures - combined signature
+     * @param message - message which has been signed
+     * @param threshold - minimum number of used keys
+     * @return verification of the signature (true/false)
+     * @throws NoSuchAlgorithmException - if the specified algorithm is not available
+     * @throws InvalidKeyException - if the given key is inappropriate for initializing this HMAC
+     */
+    public boolean verifyWide(byte[] masterKey, WideSignature signatures, byte[] message, int threshold) throws NoSuchAlgorithmException, InvalidKeyException, IllegalArgumentException {
+        if (!isMeasured()) return verifyWideDerived(masterKey, signatures, message, threshold);
+
+        return measure(VERIFY_EVENT,
+                (listener, event, start, valid, ok) -> reportVerify(listener, (VerifyEvent) event, start, message == null ? 0 : message.length, signatures.signers.size(), threshold, valid),
+                () -> verifyWideDerived(masterKey, signatures, message, threshold));
+    }
+
+    private boolean verifyWideDerived(byte[] masterKey, WideSignature signatures, byte[] message, int threshold) throws NoSuchAlgorithmException, InvalidKeyException, IllegalArgumentException {
+        if (masterKey.length != KEYBYTES) throw new IllegalArgumentException("Master key must be KEYBYTES long");
+        if (signatures.signature.length != BYTES) throw new IllegalArgumentException("Signature must be BYTES long");
+        if (message == null) throw new IllegalArgumentException("message must be bytes");
+        if (threshold <= 0) throw new IllegalArgumentException("Threshold must be at least 1");
+
+        SignerSet signers = signatures.signers;
+        int nKeys = signers.size();
+
+        if(nKeys < threshold) {
+            return false;
+        }
+
+        DerivedKeyCache cache = keyCache;
+        long[] fingerprint = cache == null ? null : cache.fingerprint(masterKey);
+
+        if (parallelVerify && parallelPolicy.parallelize(message.length, nKeys)) {
+            int[] usedKeys = new int[nKeys];
+            int k = 0;
+            for (int i = signers.nextSetBit(0); i >= 0; i = signers.nextSetBit(i + 1)) {
+                usedKeys[k++] = i;
+            }
+            return tagsMatch(signatures.signature, parallelTags(nKeys, i -> generate(usedKeys[i], masterKey, cache, fingerprint), message, 0, message.length));
+        }
+
+        HmacScratch scratch = pool.acquireScratch(ALGORITHM);
+        try {
+            byte[] sig = scratch.acc;
+            System.arraycopy(signatures.signature, 0, sig, 0, BYTES);
+            boolean indexesMatch = true;
+            for (int index = signers.nextSetBit(0); index >= 0; index = signers.nextSetBit(index + 1)) {
+                if (cache == null) {
+                    deriveInto(scratch, index, masterKey);
+                    scratch.hmac(scratch.derived, scratch.derived.length, message, 0, message.length, scratch.tag);
+                } else {
+                    Key key = generate(index, masterKey, cache, fingerprint);
+                    tagInto(scratch, key, message, 0, message.length, scratch.tag);
+                    indexesMatch &= key.index == index;
+                }
+                xorInto(sig, scratch.tag);
+            }
+
+            return indexesMatch && isZero(sig);
+        } finally {
+            Arrays.fill(scratch.derived, (byte) 0);
+            pool.releaseScratch(scratch);
+        }
+    }
+
+    /**
+     * Verifies a signature of a message read from a stream against
+     * dynamically derived keys from a master key. The stream is read until
+     * its end but not closed.
+     *
+     * @param masterKey - master key in bytes of length KEYBYTES which the keys are derived from
+     * @param signatures - combined signature
+     * @param message - stream holding the message which has been signed
+     * @param threshold - minimum number of used keys
+     * @return verification of the signature (true/false)
+     * @throws NoSuchAlgorithmException - if the specified algorithm is not available
+     * @throws InvalidKeyException - if the given key is inappropriate for initializing this HMAC
+     * @throws IOException - if reading the stream fails
+     */
+    public boolean verify(byte[] masterKey, Signature signatures, InputStream message, int threshold) throws NoSuchAlgorithmException, InvalidKeyException, IllegalArgumentException, IOException {
+        if (message == null) throw new IllegalArgumentException("message must be bytes");
+
+        return verifier(masterKey, signatures, threshold).update(message).finish();
+    }
+
+    /**
+     * Verifies a signature of a message read from a channel against
+     * dynamically derived keys from a master key. The channel is read
+     * until its end but not closed.
+     *
+     * @param masterKey - master key in bytes of length KEYBYTES which the keys are derived from
+     * @param signatures - combined signature
+     * @param message - channel holding the message which has been signed
+     * @param threshold - minimum number of used keys
+     * @return verification of the signature (true/false)
+     * @throws NoSuchAlgorithmException - if the specified algorithm is not available
+     * @throws InvalidKeyException - if the given key is inappropriate for initializing this HMAC
+     * @throws IOException - if reading the channel fails
+     */
+    public boolean verify(byte[] masterKey, Signature signatures, ReadableByteChannel message, int threshold) throws NoSuchAlgorithmException, InvalidKeyException, IllegalArgumentException, IOException {
+        if (message == null) throw new IllegalArgumentException("message must be bytes");
+
+        return verifier(masterKey, signatures, threshold).update(message).finish();
+    }
+
+    /**
+     * Starts verifying a signature of a message against dynamically
+     * derived keys from a master key incrementally. The verification is
+     * reported to the metrics listener when the verifier finishes, timed
+     * from this call.
+     *
+     * @param masterKey - master key in bytes of length KEYBYTES which the keys are derived from
+     * @param signatures - combined signature
+     * @param threshold - minimum number of used keys
+     * @return a verifier which the message is fed to
+     * @throws NoSuchAlgorithmException - if the specified algorithm is not available
+     * @throws InvalidKeyException - if the given key is inappropriate for initializing this HMAC
+     */
+    public StreamingVerifier verifier(byte[] masterKey, Signature signatures, int threshold) throws NoSuchAlgorithmException, InvalidKeyException, IllegalArgumentException {
+        return verifier((s, t) -> usedKeys(masterKey, s, t), signatures, threshold);
+    }
+
+    /**
+     * Verifies a chunked signature of message against dynamically derived
+     * keys from a master key, see signChunked
+     *
+     * @param masterKey - master key in bytes of length KEYBYTES which the keys are derived from
+     * @param signatures - combined signature
+     * @param message - message which has been signed
+     * @param chunkBytes - size of each chunk in bytes used when signing
+     * @param threshold - minimum number of used keys
+     * @return verification of the signature (true/false)
+     * @throws NoSuchAlgorithmException - if the specified algorithm is not available
+     * @throws InvalidKeyException - if the given key is inappropriate for initializing this HMAC
+     */
+    public boolean verifyChunked(byte[] masterKey, Signature signatures, byte[] message, int chunkBytes, int threshold) throws NoSuchAlgorithmException, InvalidKeyException, IllegalArgumentException {
+        if (message == null) throw new IllegalArgumentException("message must be bytes");
+
+        try {
+            return verifyChunked((s, t) -> usedKeys(masterKey, s, t), signatures, ChunkedHmac.of(message), chunkBytes, threshold);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Verifies a chunked signature of the contents of a file against
+     * dynamically derived keys from a master key, see signChunked
+     *
+     * @param masterKey - master key in bytes of length KEYBYTES which the keys are derived from
+     * @param signatures - combined signature
+     * @param message - channel of the file which has been signed
+     * @param chunkBytes - size of each chunk in bytes used when signing
+     * @param threshold - minimum number of used keys
+     * @return verification of the signature (true/false)
+     * @throws NoSuchAlgorithmException - if the specified algorithm is not available
+     * @throws InvalidKeyException - if the given key is inappropriate for initializing this HMAC
+     * @throws IOException - if mapping the file fails
+     */
+    public boolean verifyChunked(byte[] masterKey, Signature signatures, FileChannel message, int chunkBytes, int threshold) throws NoSuchAlgorithmException, InvalidKeyException, IllegalArgumentException, IOException {
+        if (message == null) throw new IllegalArgumentException("message must be bytes");
 
-        for (Integer usedKey : usedKeys) {
-            Key key = generate(usedKey, masterKey);
-            Signature keySig = sign(key, message);
-            sig = xorBytes(sig, keySig.signature);
-            bitField ^= keySig.index;
+        return verifyChunked((s, t) -> usedKeys(masterKey, s, t), signatures, ChunkedHmac.of(message), chunkBytes, threshold);
+    }
+
+    /**
+     * Verifies many signatures against keys derived from the same master
+     * key in one call. Every sub key used by the batch is derived and
+     * prepared once. See MultisigHMAC.verifyBatch for how the batch is
+     * split across threads and how malformed entries are reported.
+     *
+     * @param masterKey - master key in bytes of length KEYBYTES which the keys are derived from
+     * @param signatures - combined signatures
+     * @param messages - messages which have been signed, in the same order as signatures
+     * @param threshold - minimum number of keys each signature must be made with
+     * @return a bit set where bit i is set if signature i is valid for message i
+     * @throws NoSuchAlgorithmException - if the specified algorithm is not available
+     * @throws InvalidKeyException - if the given key is inappropriate for initializing this HMAC
+     */
+    public BitSet verifyBatch(byte[] masterKey, List<Signature> signatures, List<byte[]> messages, int threshold) throws NoSuchAlgorithmException, InvalidKeyException, IllegalArgumentException {
+        return verifyBatch(masterKey, signatures.toArray(new Signature[0]), messages.toArray(new byte[0][]), threshold);
+    }
+
+    /**
+     * Verifies many signatures against keys derived from the same master
+     * key in one call, see verifyBatch(byte[], List, List, int)
+     *
+     * @param masterKey - master key in bytes of length KEYBYTES which the keys are derived from
+     * @param signatures - combined signatures
+     * @param messages - messages which have been signed, in the same order as signatures
+     * @param threshold - minimum number of keys each signature must be made with
+     * @return a bit set where bit i is set if signature i is valid for message i
+     * @throws NoSuchAlgorithmException - if the specified algorithm is not available
+     * @throws InvalidKeyException - if the given key is inappropriate for initializing this HMAC
+     */
+    public BitSet verifyBatch(byte[] masterKey, Signature[] signatures, byte[][] messages, int threshold) throws NoSuchAlgorithmException, InvalidKeyException, IllegalArgumentException {
+        if (masterKey.length != KEYBYTES) throw new IllegalArgumentException("Master key must be KEYBYTES long");
+        if (signatures.length != messages.length) throw new IllegalArgumentException("There must be a message for every signature");
+        if (threshold <= 0) throw new IllegalArgumentException("Threshold must be at least 1");
+
+        DerivedKeyCache cache = keyCache;
+        long[] fingerprint = cache == null ? null : cache.fingerprint(masterKey);
+        PreparedKey[] prepared = new PreparedKey[32];
+        for (int bits = batchBitField(signatures); bits != 0; bits &= bits - 1) {
+            int i = Integer.numberOfTrailingZeros(bits);
+            prepared[i] = prepare(generate(i, masterKey, cache, fingerprint));
+        }
+
+        return verifyBatch(prepared, signatures, messages, threshold);
+    }
+
+    /**
+     * Checks the arguments of a verification against a master key and
+     * derives the keys used in the combined signature
+     *
+     * @param masterKey - master key in bytes of length KEYBYTES which the keys are derived from
+     * @param signatures - combined signature
+     * @param threshold - minimum number of used keys
+     * @return the used keys in index order, or null if there are fewer than threshold
+     * @throws NoSuchAlgorithmException - if the specified algorithm is not available
+     * @throws InvalidKeyException - if the given key is inappropriate for initializing this HMAC
+     */
+    Key[] usedKeys(byte[] masterKey, Signature signatures, int threshold) throws NoSuchAlgorithmException, InvalidKeyException, IllegalArgumentException {
+        if (masterKey.length != KEYBYTES) throw new IllegalArgumentException("Master key must be KEYBYTES long");
+        if (signatures.signature.length != BYTES) throw new IllegalArgumentException("Signature must be BYTES long");
+        if (threshold <= 0) throw new IllegalArgumentException("Threshold must be at least 1");
+
+        int bitField = signatures.index;
+        if (popCount(bitField) < threshold) {
+            return null;
+        }
+
+        List<Integer> usedKeys = keyIndexes(bitField);
+        DerivedKeyCache cache = keyCache;
+        long[] fingerprint = cache == null ? null : cache.fingerprint(masterKey);
+        Key[] used = new Key[usedKeys.size()];
+        for (int i = 0; i < used.length; i++) {
+            used[i] = generate(usedKeys.get(i), masterKey, cache, fingerprint);
         }
 
-        return (bitField == 0 && Arrays.equals(sig, new byte[BYTES]));
+        return used;
     }
 }
\ No newline at end of file
@@ -0,0 +1,100 @@
+package dk.hyperdivision.multisig_hmac;
+
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+
+/**
+ * FlightRecording tracks whether any Flight Recorder recording is
+ * running. The operations only create their events while one is, so
+ * without a recording they cost a read of a static field and allocate
+ * nothing, which a disabled event alone does not guarantee.
+ *
+ * The jdk.jfr module is optional: on a runtime without it, e.g. one built
+ * with jlink, the listener cannot be registered, recording counts as
+ * inactive for good and no event class is ever loaded. Only Recorder
+ * refers to the JFR types, so this class itself always loads.
+ *
+ * A runtime may also have the module but refuse access to the recorder,
+ * e.g. when Flight Recorder is disabled or a security manager lacks
+ * FlightRecorderPermission. Registering or querying then throws an
+ * IllegalStateException or SecurityException, and events are disabled
+ * the same way.
+ *
+ * @author Amalie Due Jensen
+ */
+final class FlightRecording {
+    private static volatile boolean active;
+    private static volatile boolean disabled;
+
+    static {
+        start(() -> Recorder.listen());
+    }
+
+    private FlightRecording() {
+    }
+
+    /**
+     * Returns whether a recording is running
+     *
+     * @return true if events may be recorded
+     */
+    static boolean isActive() {
+        return active;
+    }
+
+    /**
+     * Registers for changes of the recording state. If the registration
+     * fails, events stay disabled until start is called again.
+     *
+     * @param registration - registers the listener and reads the current state
+     */
+    static void start(Runnable registration) {
+        disabled = false;
+        try {
+            registration.run();
+        } catch (LinkageError | SecurityException | IllegalStateException e) {
+            disable();
+        }
+    }
+
+    /**
+     * Disables events until start is called again, e.g. because the
+     * recorder refused access
+     */
+    private static void disable() {
+        disabled = true;
+        active = false;
+    }
+
+    /**
+     * Holds everything which needs the jdk.jfr module, so a missing
+     * module surfaces as a LinkageError when this class is first used
+     */
+    private static final class Recorder {
+        static void listen() {
+            FlightRecorder.addListener(new FlightRecorderListener() {
+                @Override
+                public void recordingStateChanged(Recording recording) {
+                    try {
+                        update();
+                    } catch (SecurityException | IllegalStateException e) {
+                        disable();
+                    }
+                }
+            });
+            update();
+        }
+
+        static void update() {
+            boolean running = false;
+            if (FlightRecorder.isInitialized()) {
+                for (Recording recording : FlightRecorder.getFlightRecorder().getRecordings()) {
+                    running |= recording.getState() == RecordingState.RUNNING;
+                }
+            }
+            active = running && !disabled;
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package dk.hyperdivision.multisig_hmac;
+
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.DigestException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.Provider;
+import java.util.Arrays;
+
+/**
+ * HmacScratch is a per-thread working set for computing HMAC tags and
+ * derived keys without allocating: a MessageDigest of the algorithm's
+ * hash function plus buffers for the key pads, a tag and an accumulator.
+ * Instances are handed out by MacPool.acquireScratch and must only be
+ * used by one thread at a time.
+ *
+ * A scratch for a configured provider which has the HMAC computes
+ * through a Mac of that provider instead, so the provider's own HMAC is
+ * used and keys are never handled by another provider. Only the digest
+ * based scratch is allocation free. The key pads are wiped after every
+ * call.
+ *
+ * @author Amalie Due Jensen
+ */
+final class HmacScratch {
+    private static final byte[] DERIVED = "derived".getBytes();
+
+    final MultisigHMAC.Algorithm algorithm;
+    final int blockBytes;
+    final int digestBytes;
+    private final MessageDigest md;
+    private final Mac mac;
+    private final byte[] ipad;
+    private final byte[] opad;
+    private final byte[] kdfInput = new byte[DERIVED.length + 5];
+
+    /**
+     * Tag of the most recent hmac call when the caller has nowhere else to
+     * put it
+     */
+    final byte[] tag;
+
+    /**
+     * Accumulator for xor'ing tags together
+     */
+    final byte[] acc;
+
+    /**
+     * Output of derive when the caller has nowhere else to put it
+     */
+    final byte[] derived;
+
+    HmacScratch(MultisigHMAC.Algorithm algorithm, MessageDigest md) {
+        this(algorithm, md, null, md.getDigestLength());
+    }
+
+    HmacScratch(MultisigHMAC.Algorithm algorithm, Mac mac) {
+        this(algorithm, null, mac, mac.getMacLength());
+    }
+
+    private HmacScratch(MultisigHMAC.Algorithm algorithm, MessageDigest md, Mac mac, int digestBytes) {
+        this.algorithm = algorithm;
+        this.md = md;
+        this.mac = mac;
+        this.blockBytes = algorithm == MultisigHMAC.Algorithm.HmacSHA256 ? 64 : 128;
+        this.digestBytes = digestBytes;
+        this.ipad = new byte[blockBytes];
+        this.opad = new byte[blockBytes];
+        this.tag = new byte[digestBytes];
+        this.acc = new byte[digestBytes];
+        this.derived = new byte[2 * digestBytes];
+        System.arraycopy(DERIVED, 0, kdfInput, 0, DERIVED.length);
+    }
+
+    /**
+     * Returns the provider doing the work
+     *
+     * @return the provider of the Mac or of the hash function
+     */
+    Provider getProvider() {
+        return mac != null ? mac.getProvider() : md.getProvider();
+    }
+
+    static String digestAlgorithm(MultisigHMAC.Algorithm algorithm) {
+        switch (algorithm) {
+            case HmacSHA512:
+                return "SHA-512";
+            case HmacSHA384:
+                return "SHA-384";
+            default:
+                return "SHA-256";
+        }
+    }
+
+    /**
+     * Computes HMAC(key, message[offset...offset + length]) into out
+     *
+     * @param key - buffer holding the key
+     * @param keyLength - length of the key, starting at index 0 of key
+     * @param message - buffer holding the message
+     * @param offset - offset of the message in its buffer
+     * @param length - length of the message
+     * @param out - buffer receiving the digestBytes long tag at index 0
+     */
+    void hmac(byte[] key, int keyLength, byte[] message, int offset, int length, byte[] out) {
+        if (mac != null) {
+            initMac(key, keyLength);
+            mac.update(message, offset, length);
+            macFinal(out);
+            return;
+        }
+
+        try {
+            buildPads(key, keyLength, out);
+            hmacWithPads(ipad, opad, message, offset, length, out);
+        } finally {
+            wipePads();
+        }
+    }
+
+    /**
+     * Builds ipad and opad from a key. A key longer than a block is hashed
+     * first, and the hash is kept in out until the pads are built.
+     */
+    private void buildPads(byte[] key, int keyLength, byte[] out) {
+        if (keyLength > blockBytes) {
+            md.reset();
+            md.update(key, 0, keyLength);
+            digest(out);
+            key = out;
+            keyLength = digestBytes;
+        }
+        for (int i = 0; i < blockBytes; i++) {
+            byte b = i < keyLength ? key[i] : 0;
+            ipad[i] = (byte) (b ^ 0x36);
+            opad[i] = (byte) (b ^ 0x5c);
+        }
+    }
+
+    private void wipePads() {
+        Arrays.fill(ipad, (byte) 0);
+        Arrays.fill(opad, (byte) 0);
+    }
+
+    /**
+     * Computes HMAC(key, message[offset...offset + length]) into out with a
+     * key held in a buffer, e.g. off heap. The key is read from its
+     * position to its limit without moving them, and the pads derived from
+     * it are wiped afterwards, so no copy of the key stays behind.
+     *
+     * @param key - buffer holding the key
+     * @param message - buffer holding the message
+     * @param offset - offset of the message in its buffer
+     * @param length - length of the message
+     * @param out - buffer receiving the digestBytes long tag at index 0
+     */
+    void hmac(ByteBuffer key, byte[] message, int offset, int length, byte[] out) {
+        int start = key.position();
+        int keyLength = key.remaining();
+        if (mac != null) {
+            // The provider's Mac needs the key in an array, which is wiped right after
+            byte[] copy = new byte[keyLength];
+            try {
+                key.duplicate().get(copy);
+                hmac(copy, keyLength, message, offset, length, out);
+            } finally {
+                Arrays.fill(copy, (byte) 0);
+            }
+            return;
+        }
+
+        try {
+            if (keyLength > blockBytes) {
+                md.reset();
+                md.update(key.duplicate());
+                digest(out);
+                for (int i = 0; i < blockBytes; i++) {
+                    byte b = i < digestBytes ? out[i] : 0;
+                    ipad[i] = (byte) (b ^ 0x36);
+                    opad[i] = (byte) (b ^ 0x5c);
+                }
+            } else {
+                for (int i = 0; i < blockBytes; i++) {
+                    byte b = i < keyLength ? key.get(start + i) : 0;
+                    ipad[i] = (byte) (b ^ 0x36);
+                    opad[i] = (byte) (b ^ 0x5c);
+                }
+            }
+
+            hmacWithPads(ipad, opad, message, offset, length, out);
+        } finally {
+            wipePads();
+        }
+    }
+
+    /**
+     * Computes an HMAC from key pads which have already been built
+     *
+     * @param ipad - key xor'ed with 0x36, one block long
+     * @param opad - key xor'ed with 0x5c, one block long
+     * @param message - buffer holding the message
+     * @param offset - offset of the message in its buffer
+     * @param length - length of the message
+     * @param out - buffer receiving the digestBytes long tag at index 0
+     */
+    void hmacWithPads(byte[] ipad, byte[] opad, byte[] message, int offset, int length, byte[] out) {
+        md.reset();
+        md.update(ipad, 0, blockBytes);
+        md.update(message, offset, length);
+        digest(out);
+        md.update(opad, 0, blockBytes);
+        md.update(out, 0, digestBytes);
+        digest(out);
+    }
+
+    /**
+     * Runs the KDF of DerivedMultisigHMAC.generate, writing the 2 *
+     * digestBytes long sub key into out
+     *
+     * @param index - index of the key
+     * @param masterKey - master key
+     * @param out - buffer receiving the sub key at index 0
+     */
+    void derive(int index, byte[] masterKey, byte[] out) {
+        int n = DERIVED.length;
+        kdfInput[n] = (byte) (index & 0xFF);
+        kdfInput[n + 1] = (byte) ((index >> 8) & 0xFF);
+        kdfInput[n + 2] = (byte) ((index >> 16) & 0xFF);
+        kdfInput[n + 3] = (byte) ((index >> 24) & 0xFF);
+        kdfInput[n + 4] = 0x00;
+        if (mac != null) {
+            initMac(masterKey, masterKey.length);
+            mac.update(kdfInput);
+            macFinal(tag);
+            System.arraycopy(tag, 0, out, 0, digestBytes);
+            mac.update(out, 0, digestBytes);
+            mac.update((byte) 0x01);
+            macFinal(tag);
+            System.arraycopy(tag, 0, out, digestBytes, digestBytes);
+            Arrays.fill(tag, (byte) 0);
+            return;
+        }
+
+        try {
+            buildPads(masterKey, masterKey.length, tag);
+            hmacWithPads(ipad, opad, kdfInput, 0, kdfInput.length, tag);
+            System.arraycopy(tag, 0, out, 0, digestBytes);
+
+            // h1 = HMAC(masterKey, h0 || 0x01), reusing the pads built above
+            md.reset();
+            md.update(ipad, 0, blockBytes);
+            md.update(out, 0, digestBytes);
+            md.update((byte) 0x01);
+            digest(tag);
+            md.update(opad, 0, blockBytes);
+            md.update(tag, 0, digestBytes);
+            digest(tag);
+            System.arraycopy(tag, 0, out, digestBytes, digestBytes);
+        } finally {
+            wipePads();
+            Arrays.fill(tag, (byte) 0);
+        }
+    }
+
+    private void initMac(byte[] key, int keyLength) {
+        try {
+            mac.init(new SecretKeySpec(key, 0, keyLength, algorithm.name()));
+        } catch (GeneralSecurityException e) {
+            // Every key of this library is a valid HMAC key
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void macFinal(byte[] out) {
+        try {
+            mac.doFinal(out, 0);
+        } catch (ShortBufferException e) {
+            // out is always at least digestBytes long
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void digest(byte[] out) {
+        try {
+            md.digest(out, 0, digestBytes);
+        } catch (DigestException e) {
+            // out is always at least digestBytes long
+            throw new IllegalStateException(e);
+        }
+    }
+}
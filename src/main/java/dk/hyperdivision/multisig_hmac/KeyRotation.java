@@ -0,0 +1,298 @@
+package dk.hyperdivision.multisig_hmac;
+
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * KeyRotation keeps the keys of up to three generations ready for
+ * verification: the current one, the previous one during the overlap
+ * after a rotation, and the next one while it is staged. Every
+ * generation is identified by a number which travels with the
+ * signature, e.g. as a key id next to it, so a message is verified
+ * exactly once against the generation it names.
+ *
+ * Keys are prepared when a generation is staged, and in master key mode
+ * all 32 sub keys are derived up front, so neither happens on the first
+ * verification after promote. stageAsync does the same work on the async
+ * executor of the MultisigHMAC instance.
+ *
+ * Staging, promoting and retiring swap an immutable state, so they never
+ * block verifications, which see either the old or the new generations.
+ * Staging checks that the number is not in use in the same swap that
+ * installs the generation, so two racing stages cannot both succeed with
+ * the number of a generation which is promoted in between.
+ *
+ * The copy of a master key a generation keeps is overwritten with zeros
+ * as soon as the generation is dropped: when it is retired, when a
+ * promote pushes it out, or when another stage replaces it. Its sub keys
+ * have all been prepared by then, so verifications which picked up the
+ * generation before it was dropped still finish.
+ *
+ * @author Amalie Due Jensen
+ */
+public class KeyRotation {
+    private final MultisigHMAC multisig;
+    private final AtomicReference<State> state = new AtomicReference<>(new State(null, null, null));
+
+    private static final class Generation {
+        final int id;
+        final List<Key> keys;
+
+        Generation(int id, List<Key> keys) {
+            this.id = id;
+            this.keys = keys;
+        }
+
+        /**
+         * Zeroes the master key of a generation which has been dropped
+         */
+        void retire() {
+            if (keys instanceof PreparedDerivedKeys) ((PreparedDerivedKeys) keys).destroy();
+        }
+    }
+
+    private static final class State {
+        final Generation current;
+        final Generation previous;
+        final Generation next;
+
+        State(Generation current, Generation previous, Generation next) {
+            this.current = current;
+            this.previous = previous;
+            this.next = next;
+        }
+
+        Generation find(int id) {
+            if (current != null && current.id == id) return current;
+            if (previous != null && previous.id == id) return previous;
+            return null;
+        }
+    }
+
+    private static void retire(Generation generation) {
+        if (generation != null) generation.retire();
+    }
+
+    /**
+     * Constructs a rotation without any generations, stage and promote
+     * the first one before verifying
+     *
+     * @param multisig - instance whose algorithm, key cache and async executor are used
+     */
+    public KeyRotation(MultisigHMAC multisig) {
+        this.multisig = multisig;
+    }
+
+    /**
+     * Prepares a generation of stored keys and stages it as the next one,
+     * replacing any generation staged before
+     *
+     * @param generation - number identifying the generation
+     * @param keys - a list of all keys of the generation
+     * @throws NoSuchAlgorithmException - if the specified algorithm is not available
+     * @throws IllegalArgumentException - if the number is that of the current or previous generation
+     */
+    public void stage(int generation, List<Key> keys) throws NoSuchAlgorithmException {
+        checkNew(generation);
+        List<Key> prepared = new ArrayList<>(keys.size());
+        for (Key key : keys) {
+            prepared.add(multisig.prepare(key));
+        }
+
+        setNext(new Generation(generation, Collections.unmodifiableList(prepared)));
+    }
+
+    /**
+     * Derives and prepares the sub keys of a master key and stages them as
+     * the next generation, replacing any generation staged before
+     *
+     * @param generation - number identifying the generation
+     * @param masterKey - master key in bytes of length KEYBYTES which the keys are derived from
+     * @throws IllegalArgumentException - if the instance is not a DerivedMultisigHMAC or the number is that of the current or previous generation
+     */
+    public void stage(int generation, byte[] masterKey) {
+        if (!(multisig instanceof DerivedMultisigHMAC)) throw new IllegalArgumentException("Master keys need a DerivedMultisigHMAC");
+        if (masterKey.length != multisig.getKEYBYTES()) throw new IllegalArgumentException("Master key must be KEYBYTES long");
+        checkNew(generation);
+
+        PreparedDerivedKeys keys = new PreparedDerivedKeys((DerivedMultisigHMAC) multisig, masterKey.clone());
+        try {
+            keys.warm();
+        } catch (RuntimeException e) {
+            keys.destroy();
+            throw e;
+        }
+        setNext(new Generation(generation, keys));
+    }
+
+    /**
+     * Stages a generation of stored keys on the async executor, see
+     * stage(int, List)
+     *
+     * @param generation - number identifying the generation
+     * @param keys - a list of all keys of the generation
+     * @return a future completed once the generation is staged
+     */
+    public CompletableFuture<Void> stageAsync(int generation, List<Key> keys) {
+        return multisig.async(() -> {
+            stage(generation, keys);
+            return null;
+        });
+    }
+
+    /**
+     * Stages the sub keys of a master key on the async executor, see
+     * stage(int, byte[])
+     *
+     * @param generation - number identifying the generation
+     * @param masterKey - master key in bytes of length KEYBYTES which the keys are derived from
+     * @return a future completed once the generation is staged
+     */
+    public CompletableFuture<Void> stageAsync(int generation, byte[] masterKey) {
+        byte[] copy = masterKey.clone();
+        return multisig.async(() -> {
+            try {
+                stage(generation, copy);
+            } finally {
+                Arrays.fill(copy, (byte) 0);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Makes the staged generation the current one. The current generation
+     * becomes the previous one and the previous one is dropped.
+     *
+     * @throws IllegalStateException - if no generation is staged
+     */
+    public void promote() {
+        while (true) {
+            State s = state.get();
+            if (s.next == null) throw new IllegalStateException("No generation is staged");
+            if (state.compareAndSet(s, new State(s.next, s.current, null))) {
+                retire(s.previous);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Drops the previous generation once the overlap after a rotation is
+     * over, so its signatures are no longer accepted, and zeroes its
+     * master key
+     */
+    public void retirePrevious() {
+        while (true) {
+            State s = state.get();
+            if (state.compareAndSet(s, new State(s.current, null, s.next))) {
+                retire(s.previous);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of the current generation
+     *
+     * @return number identifying the generation
+     * @throws IllegalStateException - if no generation has been promoted yet
+     */
+    public int getCurrentGeneration() {
+        Generation current = state.get().current;
+        if (current == null) throw new IllegalStateException("No generation has been promoted");
+
+        return current.id;
+    }
+
+    /**
+     * Returns whether signatures of a generation are accepted, i.e. whether
+     * it is the current or the previous one
+     *
+     * @param generation - number identifying the generation
+     * @return true if the generation is accepted
+     */
+    public boolean accepts(int generation) {
+        return state.get().find(generation) != null;
+    }
+
+    /**
+     * Verifies a signature made with the keys of a generation
+     *
+     * @param generation - number of the generation the signature names
+     * @param signatures - combined signature
+     * @param message - message which has been signed
+     * @param threshold - minimum number of keys that the signature should be made with
+     * @return verification of the signature (true/false)
+     * @throws InvalidKeyException - if the given key is inappropriate for initializing this HMAC
+     * @throws NoSuchAlgorithmException - if the specified algorithm is not available
+     * @throws IllegalArgumentException - if the generation is neither the current nor the previous one
+     */
+    public boolean verify(int generation, Signature signatures, byte[] message, int threshold) throws InvalidKeyException, NoSuchAlgorithmException {
+        Generation g = state.get().find(generation);
+        if (g == null) throw new IllegalArgumentException("Key generation " + generation + " is not accepted");
+
+        return multisig.verify(g.keys, signatures, message, threshold);
+    }
+
+    /**
+     * Verifies a signature made with the keys of the current generation
+     *
+     * @param signatures - combined signature
+     * @param message - message which has been signed
+     * @param threshold - minimum number of keys that the signature should be made with
+     * @return verification of the signature (true/false)
+     * @throws InvalidKeyException - if the given key is inappropriate for initializing this HMAC
+     * @throws NoSuchAlgorithmException - if the specified algorithm is not available
+     * @throws IllegalStateException - if no generation has been promoted yet
+     */
+    public boolean verify(Signature signatures, byte[] message, int threshold) throws InvalidKeyException, NoSuchAlgorithmException {
+        Generation current = state.get().current;
+        if (current == null) throw new IllegalStateException("No generation has been promoted");
+
+        return multisig.verify(current.keys, signatures, message, threshold);
+    }
+
+    /**
+     * Returns the keys of a generation, including a staged one, so tests
+     * can observe zeroization
+     */
+    List<Key> keysOf(int generation) {
+        State s = state.get();
+        Generation g = s.next != null && s.next.id == generation ? s.next : s.find(generation);
+        return g == null ? null : g.keys;
+    }
+
+    /**
+     * Fails early, before any key is prepared, if a number is in use.
+     * setNext checks again as part of the swap.
+     */
+    private void checkNew(int generation) {
+        if (state.get().find(generation) != null) throw new IllegalArgumentException("Key generation " + generation + " is already in use");
+    }
+
+    /**
+     * Installs a staged generation unless its number has been taken in the
+     * meantime, retiring the generation it replaces or, if the number is
+     * taken, itself
+     */
+    private void setNext(Generation next) {
+        while (true) {
+            State s = state.get();
+            if (s.find(next.id) != null) {
+                next.retire();
+                throw new IllegalArgumentException("Key generation " + next.id + " is already in use");
+            }
+            if (state.compareAndSet(s, new State(s.current, s.previous, next))) {
+                retire(s.next);
+                return;
+            }
+        }
+    }
+}
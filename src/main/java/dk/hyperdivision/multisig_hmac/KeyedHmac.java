@@ -0,0 +1,89 @@
+package dk.hyperdivision.multisig_hmac;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * KeyedHmac is a single HMAC computation in progress for one key. It
+ * uses the cached midstates of a PreparedKey when the key has been
+ * prepared for the algorithm, and otherwise a Mac borrowed from the
+ * instance's MacPool, which is handed back by doFinal.
+ *
+ * @author Amalie Due Jensen
+ */
+final class KeyedHmac {
+    private final MacPool pool;
+    private final MultisigHMAC.Algorithm alg;
+    private Mac mac;
+    private MessageDigest inner;
+    private MessageDigest outer;
+
+    private KeyedHmac(MacPool pool, MultisigHMAC.Algorithm alg) {
+        this.pool = pool;
+        this.alg = alg;
+    }
+
+    /**
+     * Starts a new HMAC computation
+     *
+     * @param m - instance whose algorithm and Mac pool are used
+     * @param key - key of the HMAC
+     * @return the computation
+     * @throws NoSuchAlgorithmException - if the specified algorithm is not available
+     * @throws InvalidKeyException - if the given key is inappropriate for initializing this HMAC
+     */
+    static KeyedHmac start(MultisigHMAC m, Key key) throws NoSuchAlgorithmException, InvalidKeyException {
+        KeyedHmac hmac = new KeyedHmac(m.pool, m.ALGORITHM);
+        if (key instanceof PreparedKey && ((PreparedKey) key).algorithm == m.ALGORITHM) {
+            PreparedKey prepared = (PreparedKey) key;
+            hmac.inner = prepared.startInner();
+            hmac.outer = prepared.startOuter();
+            return hmac;
+        }
+
+        // The spec is built per call rather than kept on the Key, as it
+        // holds a copy of the key bytes which cannot be zeroed
+        Mac mac = m.pool.acquire(m.ALGORITHM);
+        try {
+            mac.init(new SecretKeySpec(key.key, m.PRIMITIVE));
+        } catch (InvalidKeyException e) {
+            m.pool.release(m.ALGORITHM, mac);
+            throw e;
+        }
+        hmac.mac = mac;
+        return hmac;
+    }
+
+    void update(byte[] input, int offset, int len) {
+        if (mac != null) mac.update(input, offset, len);
+        else inner.update(input, offset, len);
+    }
+
+    /**
+     * Absorbs the remaining bytes of input, leaving its position at the
+     * limit. Direct buffers are read in place.
+     */
+    void update(ByteBuffer input) {
+        if (mac != null) mac.update(input);
+        else inner.update(input);
+    }
+
+    /**
+     * Completes the computation and returns the tag. The computation
+     * cannot be used afterwards.
+     *
+     * @return the tag
+     */
+    byte[] doFinal() {
+        if (mac == null) return outer.digest(inner.digest());
+
+        byte[] tag = mac.doFinal();
+        pool.release(alg, mac);
+        mac = null;
+        return tag;
+    }
+}
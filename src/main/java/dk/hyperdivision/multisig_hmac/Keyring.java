@@ -0,0 +1,52 @@
+package dk.hyperdivision.multisig_hmac;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Keyring is a set of stored component keys addressed by index, used by
+ * MultisigHMAC.sign and verify in place of a list of Key instances. The
+ * keys stay wherever the keyring keeps them, e.g. off heap, and are only
+ * read through buffer views while computing tags.
+ *
+ * @author Amalie Due Jensen
+ */
+public interface Keyring {
+    /**
+     * Returns the number of slots, i.e. one more than the highest index a
+     * key can have
+     *
+     * @return number of slots
+     */
+    int size();
+
+    /**
+     * Returns whether the keyring holds a key with an index
+     *
+     * @param index - index of the key
+     * @return true if there is a key with the index
+     */
+    boolean contains(int index);
+
+    /**
+     * Returns a read-only view of the key with an index, from its position
+     * to its limit. The view must not be kept after the tag is computed.
+     *
+     * @param index - index of the key
+     * @return view of the key bytes
+     * @throws IllegalArgumentException - if there is no key with the index
+     * @throws IllegalStateException - if the keyring has been closed
+     */
+    ByteBuffer key(int index);
+
+    /**
+     * Returns a keyring whose keys stay fixed while one signature is made
+     * or checked. Keyrings which can change under their users, e.g. when
+     * reloaded from a file, return their current state, all others return
+     * themselves.
+     *
+     * @return the keys as they are right now
+     */
+    default Keyring snapshot() {
+        return this;
+    }
+}
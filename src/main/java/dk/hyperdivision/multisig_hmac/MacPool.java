@@ -0,0 +1,171 @@
+package dk.hyperdivision.multisig_hmac;
+
+import javax.crypto.Mac;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * MacPool keeps one idle Mac instance per algorithm for every thread, so
+ * the provider lookup in Mac.getInstance only happens the first time a
+ * thread signs, derives or verifies with a given algorithm.
+ *
+ * A Mac is taken out of the pool with acquire and handed back with
+ * release. While it is borrowed the thread's slot is empty, so nested
+ * use (e.g. deriving a key in the middle of a verification) simply
+ * creates an extra instance instead of sharing one.
+ *
+ * The allocation free paths of verify and generate compute HMAC straight
+ * from the hash function instead of through a Mac. The pool keeps their
+ * per-thread digests and buffers the same way, and counts them in the
+ * same hit and miss totals. That is a trade-off: the default pool takes
+ * the most preferred MessageDigest, so an HMAC implementation of its own
+ * in a provider, e.g. a FIPS or hardware backed one, is bypassed on
+ * those paths. A pool given a provider which has the HMAC computes
+ * through that provider's Mac instead, which allocates on every key
+ * setup.
+ *
+ * @author Amalie Due Jensen
+ */
+public class MacPool {
+    private static final MacPool DEFAULT = new MacPool();
+
+    private final Provider provider;
+    private final ThreadLocal<Mac[]> idle;
+    private final ThreadLocal<HmacScratch[]> idleScratch;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Constructs a new pool which uses the most preferred JCA provider
+     * for each algorithm
+     */
+    public MacPool() {
+        this(null);
+    }
+
+    /**
+     * Constructs a new pool which creates its Mac instances from a
+     * specific JCA provider
+     *
+     * @param provider - provider to use, or null for the most preferred provider
+     */
+    public MacPool(Provider provider) {
+        this.provider = provider;
+        this.idle = ThreadLocal.withInitial(() -> new Mac[MultisigHMAC.Algorithm.values().length]);
+        this.idleScratch = ThreadLocal.withInitial(() -> new HmacScratch[MultisigHMAC.Algorithm.values().length]);
+    }
+
+    /**
+     * Returns the pool shared by all instances which have not been
+     * given a pool of their own
+     *
+     * @return the default pool
+     */
+    public static MacPool getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Returns the provider used for new Mac instances
+     *
+     * @return the provider, or null if the most preferred provider is used
+     */
+    public Provider getProvider() {
+        return provider;
+    }
+
+    /**
+     * Takes the calling thread's idle Mac for the algorithm, or creates a
+     * new one if there is none. The Mac must be initialized with a key
+     * before use.
+     *
+     * @param alg - algorithm of the Mac
+     * @return a Mac instance owned by the caller until it is released
+     * @throws NoSuchAlgorithmException - if the specified algorithm is not available
+     */
+    public Mac acquire(MultisigHMAC.Algorithm alg) throws NoSuchAlgorithmException {
+        Mac[] slots = idle.get();
+        Mac mac = slots[alg.ordinal()];
+        if (mac != null) {
+            slots[alg.ordinal()] = null;
+            hits.increment();
+            return mac;
+        }
+
+        misses.increment();
+        return provider == null ? Mac.getInstance(alg.name()) : Mac.getInstance(alg.name(), provider);
+    }
+
+    /**
+     * Hands a Mac back to the calling thread's pool. If the thread
+     * already has an idle Mac for the algorithm, the instance is dropped.
+     *
+     * @param alg - algorithm of the Mac
+     * @param mac - Mac previously returned by acquire
+     */
+    public void release(MultisigHMAC.Algorithm alg, Mac mac) {
+        Mac[] slots = idle.get();
+        if (slots[alg.ordinal()] == null) slots[alg.ordinal()] = mac;
+    }
+
+    /**
+     * Takes the calling thread's idle scratch for the algorithm, or
+     * creates a new one if there is none. Without a provider of its own
+     * the pool computes from the most preferred hash function. A provider
+     * which has the HMAC gets a scratch computing through its Mac, so the
+     * provider's own HMAC is used and the keys never leave it; otherwise
+     * the hash function of the provider is used.
+     *
+     * @param alg - algorithm of the scratch
+     * @return a scratch owned by the caller until it is released
+     * @throws NoSuchAlgorithmException - if the underlying hash function is not available
+     */
+    HmacScratch acquireScratch(MultisigHMAC.Algorithm alg) throws NoSuchAlgorithmException {
+        HmacScratch[] slots = idleScratch.get();
+        HmacScratch scratch = slots[alg.ordinal()];
+        if (scratch != null) {
+            slots[alg.ordinal()] = null;
+            hits.increment();
+            return scratch;
+        }
+
+        misses.increment();
+        String digestAlgorithm = HmacScratch.digestAlgorithm(alg);
+        if (provider == null) return new HmacScratch(alg, MessageDigest.getInstance(digestAlgorithm));
+        if (provider.getService("Mac", alg.name()) != null) return new HmacScratch(alg, Mac.getInstance(alg.name(), provider));
+
+        return new HmacScratch(alg, MessageDigest.getInstance(digestAlgorithm, provider));
+    }
+
+    /**
+     * Hands a scratch back to the calling thread's pool
+     *
+     * @param scratch - scratch previously returned by acquireScratch
+     */
+    void releaseScratch(HmacScratch scratch) {
+        HmacScratch[] slots = idleScratch.get();
+        if (slots[scratch.algorithm.ordinal()] == null) slots[scratch.algorithm.ordinal()] = scratch;
+    }
+
+    /**
+     * Returns how many times acquire or acquireScratch has reused an
+     * idle instance
+     *
+     * @return number of pool hits
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns how many times acquire or acquireScratch had to create a
+     * new instance
+     *
+     * @return number of pool misses
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+}
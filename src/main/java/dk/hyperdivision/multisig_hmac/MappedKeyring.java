@@ -0,0 +1,370 @@
+package dk.hyperdivision.multisig_hmac;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.CRC32C;
+
+/**
+ * MappedKeyring is a keyring backed by a memory-mapped file. Opening it
+ * only reads and checks the header, the records of the keys are paged in
+ * and checked the first time a key is used, so the time to open does not
+ * depend on the number of keys.
+ *
+ * The file is little endian and laid out as a 32 byte header followed by
+ * one record per slot:
+ *
+ * header: magic "MSKR" || u16 version || u16 header length || u32 key length
+ *         || u32 slots || u64 serial || u32 reserved || u32 CRC-32C of the preceding 28 bytes
+ * record: u8 present || 3 reserved bytes || u32 CRC-32C of (u32 index || key) || key
+ *
+ * Files are replaced as a whole, by writing a new file next to the old one
+ * and renaming it over it as write does, never modified in place. reload
+ * then maps the new file and swaps it in atomically. Verifications which
+ * already took a snapshot finish against the old file, which stays mapped
+ * until they are done with it.
+ *
+ * @author Amalie Due Jensen
+ */
+public class MappedKeyring implements Keyring, AutoCloseable {
+    /**
+     * Version of the file format written by write
+     */
+    public static final int VERSION = 1;
+
+    static final int MAGIC = 'M' | 'S' << 8 | 'K' << 16 | 'R' << 24;
+    static final int HEADER_BYTES = 32;
+    static final int RECORD_HEADER_BYTES = 8;
+
+    private final Path path;
+    private final AtomicReference<Snapshot> current = new AtomicReference<>();
+    private volatile IOException lastReloadError;
+    private volatile boolean closed;
+
+    private MappedKeyring(Path path, Snapshot snapshot) {
+        this.path = path;
+        this.current.set(snapshot);
+    }
+
+    /**
+     * Maps a keyring file
+     *
+     * @param path - path of the file
+     * @return the keyring
+     * @throws IOException - if the file cannot be read or has a damaged or unsupported header
+     */
+    public static MappedKeyring open(Path path) throws IOException {
+        return new MappedKeyring(path, Snapshot.map(path));
+    }
+
+    /**
+     * Writes a list of keys to a keyring file, each in the slot of its
+     * index. The keys must all have the same length. The file is written
+     * next to the target and renamed over it, so readers see either the
+     * old or the new file in full.
+     *
+     * @param path - path of the file
+     * @param keys - keys which should be stored
+     * @param serial - number identifying this version of the file, e.g. a timestamp
+     * @throws IOException - if the file cannot be written
+     */
+    public static void write(Path path, List<Key> keys, long serial) throws IOException {
+        int slots = 0;
+        int keyBytes = 0;
+        for (Key key : keys) {
+            if (key.index < 0) throw new IllegalArgumentException("Key index must be at least 0");
+            if (keyBytes != 0 && key.key.length != keyBytes) throw new IllegalArgumentException("Keys must all have the same length");
+            slots = Math.max(slots, key.index + 1);
+            keyBytes = key.key.length;
+        }
+        keyBytes = Math.max(keyBytes, 1);
+        int recordBytes = RECORD_HEADER_BYTES + keyBytes;
+        if (HEADER_BYTES + (long) slots * recordBytes > Integer.MAX_VALUE) throw new IllegalArgumentException("Keyring must fit in 2 GB");
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putShort((short) VERSION).putShort((short) HEADER_BYTES);
+        header.putInt(keyBytes).putInt(slots).putLong(serial).putInt(0);
+        CRC32C crc = new CRC32C();
+        crc.update(header.array(), 0, HEADER_BYTES - 4);
+        header.putInt((int) crc.getValue()).flip();
+
+        Key[] bySlot = new Key[slots];
+        for (Key key : keys) {
+            bySlot[key.index] = key;
+        }
+
+        Path dir = path.toAbsolutePath().getParent();
+        Path tmp = Files.createTempFile(dir, path.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                writeFully(channel, header);
+
+                byte[] empty = new byte[recordBytes];
+                ByteBuffer records = ByteBuffer.allocate(Math.max(recordBytes, 1 << 16) / recordBytes * recordBytes).order(ByteOrder.LITTLE_ENDIAN);
+                for (int i = 0; i < slots; i++) {
+                    if (records.remaining() < recordBytes) {
+                        records.flip();
+                        writeFully(channel, records);
+                        records.clear();
+                    }
+                    Key key = bySlot[i];
+                    if (key == null) {
+                        // The buffer is reused, so empty slots are zeroed explicitly
+                        records.put(empty);
+                        continue;
+                    }
+                    records.put((byte) 1).put((byte) 0).putShort((short) 0);
+                    records.putInt(recordCrc(i, ByteBuffer.wrap(key.key)));
+                    records.put(key.key);
+                }
+                records.flip();
+                writeFully(channel, records);
+                channel.force(true);
+            }
+            Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    static int recordCrc(int index, ByteBuffer key) {
+        CRC32C crc = new CRC32C();
+        crc.update(index);
+        crc.update(index >>> 8);
+        crc.update(index >>> 16);
+        crc.update(index >>> 24);
+        crc.update(key);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Returns the path of the file
+     *
+     * @return path of the file
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Returns the serial of the currently mapped file
+     *
+     * @return the serial given to write
+     */
+    public long getSerial() {
+        return state().serial;
+    }
+
+    /**
+     * Returns the length of every key in the currently mapped file
+     *
+     * @return key length in bytes
+     */
+    public int getKeyBytes() {
+        return state().keyBytes;
+    }
+
+    /**
+     * Returns the exception of the most recent failed reload by watch
+     *
+     * @return the exception, or null if the most recent reload succeeded
+     */
+    public IOException getLastReloadError() {
+        return lastReloadError;
+    }
+
+    @Override
+    public int size() {
+        return state().slots;
+    }
+
+    @Override
+    public boolean contains(int index) {
+        return state().contains(index);
+    }
+
+    /**
+     * Returns a read-only view of the key with an index in the currently
+     * mapped file, see Keyring.key
+     *
+     * @param index - index of the key
+     * @return view of the key bytes
+     * @throws IllegalArgumentException - if there is no key with the index
+     * @throws IllegalStateException - if the keyring has been closed or the record of the key is damaged
+     */
+    @Override
+    public ByteBuffer key(int index) {
+        return state().key(index);
+    }
+
+    @Override
+    public Keyring snapshot() {
+        return state();
+    }
+
+    /**
+     * Maps the file again if it has been replaced since it was last mapped.
+     * If the new file is damaged the current one stays in use.
+     *
+     * @return true if a new file was mapped
+     * @throws IOException - if the file cannot be read or has a damaged or unsupported header
+     */
+    public boolean reload() throws IOException {
+        Snapshot old = state();
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        if (old.isSameFile(attributes)) return false;
+
+        Snapshot next = Snapshot.map(path);
+        if (closed) return false;
+        current.set(next);
+        return true;
+    }
+
+    /**
+     * Checks the file for replacement at a fixed rate. A failed reload
+     * keeps the current file and is available from getLastReloadError.
+     *
+     * @param scheduler - scheduler running the checks
+     * @param period - time between checks
+     * @param unit - unit of period
+     * @return the scheduled checks, cancel it to stop watching
+     */
+    public ScheduledFuture<?> watch(ScheduledExecutorService scheduler, long period, TimeUnit unit) {
+        return scheduler.scheduleWithFixedDelay(() -> {
+            if (closed) return;
+            try {
+                reload();
+                lastReloadError = null;
+            } catch (IOException e) {
+                lastReloadError = e;
+            }
+        }, period, period, unit);
+    }
+
+    /**
+     * Stops using the file. The mapping is released once the last snapshot
+     * taken from it is no longer reachable.
+     */
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    private Snapshot state() {
+        if (closed) throw new IllegalStateException("Keyring has been closed");
+
+        return current.get();
+    }
+
+    /**
+     * One mapped version of the file. Records are checked against their
+     * CRC the first time they are read, the outcome is remembered in a
+     * bitmap so later reads cost nothing extra.
+     */
+    private static final class Snapshot implements Keyring {
+        private final ByteBuffer records;
+        private final int keyBytes;
+        private final int recordBytes;
+        private final int slots;
+        private final long serial;
+        private final Object fileKey;
+        private final long size;
+        private final long lastModified;
+        private final AtomicLongArray checked;
+
+        private Snapshot(ByteBuffer records, int keyBytes, int slots, long serial, BasicFileAttributes attributes) {
+            this.records = records;
+            this.keyBytes = keyBytes;
+            this.recordBytes = RECORD_HEADER_BYTES + keyBytes;
+            this.slots = slots;
+            this.serial = serial;
+            this.fileKey = attributes.fileKey();
+            this.size = attributes.size();
+            this.lastModified = attributes.lastModifiedTime().toMillis();
+            this.checked = new AtomicLongArray((slots + 63) >>> 6);
+        }
+
+        static Snapshot map(Path path) throws IOException {
+            // Attributes are read before opening, so a rename racing the open at worst causes one extra reload
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                long fileSize = channel.size();
+                if (fileSize < HEADER_BYTES) throw new IOException("Keyring file is truncated");
+                if (fileSize > Integer.MAX_VALUE) throw new IOException("Keyring file is larger than 2 GB");
+
+                ByteBuffer file = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize).order(ByteOrder.LITTLE_ENDIAN);
+                if (file.getInt(0) != MAGIC) throw new IOException("Not a keyring file");
+                CRC32C crc = new CRC32C();
+                crc.update(file.slice(0, HEADER_BYTES - 4));
+                if ((int) crc.getValue() != file.getInt(HEADER_BYTES - 4)) throw new IOException("Keyring header is damaged");
+
+                int version = file.getShort(4) & 0xFFFF;
+                int headerBytes = file.getShort(6) & 0xFFFF;
+                int keyBytes = file.getInt(8);
+                int slots = file.getInt(12);
+                long serial = file.getLong(16);
+                if (version != VERSION) throw new IOException("Unsupported keyring version " + version);
+                if (headerBytes != HEADER_BYTES || keyBytes <= 0 || slots < 0) throw new IOException("Keyring header is damaged");
+                if (HEADER_BYTES + (long) slots * (RECORD_HEADER_BYTES + keyBytes) != fileSize) throw new IOException("Keyring file is truncated");
+
+                ByteBuffer records = file.slice(HEADER_BYTES, (int) fileSize - HEADER_BYTES).asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+                return new Snapshot(records, keyBytes, slots, serial, attributes);
+            }
+        }
+
+        boolean isSameFile(BasicFileAttributes attributes) {
+            return Objects.equals(fileKey, attributes.fileKey())
+                    && size == attributes.size()
+                    && lastModified == attributes.lastModifiedTime().toMillis();
+        }
+
+        @Override
+        public int size() {
+            return slots;
+        }
+
+        @Override
+        public boolean contains(int index) {
+            return index >= 0 && index < slots && records.get(index * recordBytes) == 1;
+        }
+
+        @Override
+        public ByteBuffer key(int index) {
+            if (!contains(index)) throw new IllegalArgumentException("No key with index " + index + " in keyring");
+
+            int offset = index * recordBytes;
+            ByteBuffer key = records.slice(offset + RECORD_HEADER_BYTES, keyBytes);
+            long bit = 1L << index;
+            long word = checked.get(index >>> 6);
+            if ((word & bit) == 0) {
+                if (recordCrc(index, key.duplicate()) != records.getInt(offset + 4)) {
+                    throw new IllegalStateException("Record of key " + index + " is damaged");
+                }
+                while ((word & bit) == 0 && !checked.compareAndSet(index >>> 6, word, word | bit)) {
+                    word = checked.get(index >>> 6);
+                }
+            }
+
+            return key;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package dk.hyperdivision.multisig_hmac;
+
+/**
+ * MetricsListener receives one call per sign, combine, verify and key
+ * derivation of a MultisigHMAC instance it is installed on, whichever
+ * method ran it: streaming signers and verifiers report when they
+ * finish, a batch reports every entry, and a verification against a
+ * master key reports each sub key it derives. It is called on the thread
+ * which ran the operation, right after it, so it must be fast and must
+ * not throw. MetricsRecorder is a ready made implementation keeping
+ * histograms.
+ *
+ * Without a listener the operations only check a field for null.
+ *
+ * @author Amalie Due Jensen
+ */
+@FunctionalInterface
+public interface MetricsListener {
+    /**
+     * Operations which are reported
+     */
+    enum Operation {
+        SIGN, COMBINE, VERIFY, DERIVE
+    }
+
+    /**
+     * How an operation ended. Only verifications are rejected, the other
+     * operations end with OK or ERROR.
+     */
+    enum Outcome {
+        /** The operation completed, and the signature was valid if it was a verification */
+        OK,
+        /** The signature was made with fewer keys than the threshold */
+        BELOW_THRESHOLD,
+        /** The signature was made with enough keys, but the tags do not match */
+        TAG_MISMATCH,
+        /** The operation threw, e.g. because of a malformed signature */
+        ERROR
+    }
+
+    /**
+     * Called after an operation
+     *
+     * @param operation - the operation
+     * @param algorithm - algorithm of the instance
+     * @param nanos - time the operation took in nanoseconds
+     * @param messageBytes - length of the message, 0 for combine and derive
+     * @param signers - number of signers, i.e. keys in the signature for verify, signatures for combine, signing keys for sign and 1 for derive
+     * @param outcome - how the operation ended
+     */
+    void onOperation(Operation operation, MultisigHMAC.Algorithm algorithm, long nanos, long messageBytes, int signers, Outcome outcome);
+}
@@ -0,0 +1,239 @@
+package dk.hyperdivision.multisig_hmac;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * MetricsRecorder is a MetricsListener which keeps counts in memory:
+ *
+ * - a latency histogram per operation and algorithm
+ * - a message size histogram per operation
+ * - a signer count histogram per operation
+ * - a count per operation and outcome
+ *
+ * Histograms have power of two buckets, bucket i counts values v with
+ * 2^(i-1) {@literal <=} v {@literal <} 2^i, and bucket 0 counts zeros. Counts are kept in
+ * LongAdders, so recording from many threads does not contend. Reading
+ * while operations are recorded gives counts which may be a few
+ * operations apart from each other.
+ *
+ * Once attached to an instance the recorder also reports the hit rate of
+ * its Mac pool and, in master key mode, of its key cache.
+ *
+ * @author Amalie Due Jensen
+ */
+public class MetricsRecorder implements MetricsListener {
+    /**
+     * Number of buckets of every histogram
+     */
+    public static final int BUCKETS = 48;
+
+    /**
+     * Signer histograms count 0 to MAX_SIGNERS - 1 signers exactly and
+     * everything above in the last bucket
+     */
+    public static final int MAX_SIGNERS = 65;
+
+    private static final int OPERATIONS = Operation.values().length;
+    private static final int ALGORITHMS = MultisigHMAC.Algorithm.values().length;
+    private static final int OUTCOMES = Outcome.values().length;
+
+    private final LongAdder[] latency = adders(OPERATIONS * ALGORITHMS * BUCKETS);
+    private final LongAdder[] totalNanos = adders(OPERATIONS * ALGORITHMS);
+    private final LongAdder[] messageSize = adders(OPERATIONS * BUCKETS);
+    private final LongAdder[] signers = adders(OPERATIONS * MAX_SIGNERS);
+    private final LongAdder[] outcomes = adders(OPERATIONS * OUTCOMES);
+    private volatile MultisigHMAC attached;
+
+    private static LongAdder[] adders(int n) {
+        LongAdder[] adders = new LongAdder[n];
+        for (int i = 0; i < n; i++) {
+            adders[i] = new LongAdder();
+        }
+
+        return adders;
+    }
+
+    /**
+     * Installs the recorder as the metrics listener of an instance and
+     * remembers the instance for its pool and cache hit rates
+     *
+     * @param multisig - instance which should be recorded
+     */
+    public void attachTo(MultisigHMAC multisig) {
+        multisig.setMetricsListener(this);
+        attached = multisig;
+    }
+
+    @Override
+    public void onOperation(Operation operation, MultisigHMAC.Algorithm algorithm, long nanos, long messageBytes, int signers, Outcome outcome) {
+        int op = operation.ordinal();
+        int series = op * ALGORITHMS + algorithm.ordinal();
+        latency[series * BUCKETS + bucket(nanos)].increment();
+        totalNanos[series].add(nanos);
+        messageSize[op * BUCKETS + bucket(messageBytes)].increment();
+        this.signers[op * MAX_SIGNERS + Math.min(Math.max(signers, 0), MAX_SIGNERS - 1)].increment();
+        outcomes[op * OUTCOMES + outcome.ordinal()].increment();
+    }
+
+    /**
+     * Returns the bucket of a value in the histograms
+     *
+     * @param value - value which should be counted
+     * @return index of its bucket
+     */
+    static int bucket(long value) {
+        return value <= 0 ? 0 : Math.min(64 - Long.numberOfLeadingZeros(value), BUCKETS - 1);
+    }
+
+    /**
+     * Returns the latency histogram of an operation and algorithm
+     *
+     * @param operation - the operation
+     * @param algorithm - the algorithm
+     * @return counts of BUCKETS power of two buckets of nanoseconds
+     */
+    public long[] getLatencyHistogram(Operation operation, MultisigHMAC.Algorithm algorithm) {
+        return sums(latency, (operation.ordinal() * ALGORITHMS + algorithm.ordinal()) * BUCKETS, BUCKETS);
+    }
+
+    /**
+     * Returns the number of operations recorded for an operation and
+     * algorithm
+     *
+     * @param operation - the operation
+     * @param algorithm - the algorithm
+     * @return number of operations
+     */
+    public long getCount(Operation operation, MultisigHMAC.Algorithm algorithm) {
+        long count = 0;
+        for (long n : getLatencyHistogram(operation, algorithm)) {
+            count += n;
+        }
+
+        return count;
+    }
+
+    /**
+     * Returns the mean latency of an operation and algorithm
+     *
+     * @param operation - the operation
+     * @param algorithm - the algorithm
+     * @return mean in nanoseconds, or 0 if nothing was recorded
+     */
+    public double getMeanNanos(Operation operation, MultisigHMAC.Algorithm algorithm) {
+        long count = getCount(operation, algorithm);
+        return count == 0 ? 0 : (double) totalNanos[operation.ordinal() * ALGORITHMS + algorithm.ordinal()].sum() / count;
+    }
+
+    /**
+     * Returns an upper bound of a latency percentile of an operation and
+     * algorithm, i.e. the upper edge of the bucket it falls in
+     *
+     * @param operation - the operation
+     * @param algorithm - the algorithm
+     * @param percentile - percentile between 0 and 100
+     * @return latency in nanoseconds, or 0 if nothing was recorded
+     */
+    public long getLatencyPercentile(Operation operation, MultisigHMAC.Algorithm algorithm, double percentile) {
+        if (percentile < 0 || percentile > 100) throw new IllegalArgumentException("Percentile must be between 0 and 100");
+
+        long[] histogram = getLatencyHistogram(operation, algorithm);
+        long count = 0;
+        for (long n : histogram) {
+            count += n;
+        }
+        if (count == 0) return 0;
+
+        long rank = (long) Math.ceil(percentile / 100 * count);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += histogram[i];
+            if (seen >= rank && seen > 0) return i == 0 ? 0 : (1L << i) - 1;
+        }
+
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Returns the message size histogram of an operation
+     *
+     * @param operation - the operation
+     * @return counts of BUCKETS power of two buckets of bytes
+     */
+    public long[] getMessageSizeHistogram(Operation operation) {
+        return sums(messageSize, operation.ordinal() * BUCKETS, BUCKETS);
+    }
+
+    /**
+     * Returns the signer count histogram of an operation
+     *
+     * @param operation - the operation
+     * @return counts of MAX_SIGNERS buckets, bucket i counts operations with i signers
+     */
+    public long[] getSignerHistogram(Operation operation) {
+        return sums(signers, operation.ordinal() * MAX_SIGNERS, MAX_SIGNERS);
+    }
+
+    /**
+     * Returns the number of operations which ended with an outcome
+     *
+     * @param operation - the operation
+     * @param outcome - the outcome
+     * @return number of operations
+     */
+    public long getOutcomeCount(Operation operation, Outcome outcome) {
+        return outcomes[operation.ordinal() * OUTCOMES + outcome.ordinal()].sum();
+    }
+
+    /**
+     * Returns the share of Mac and scratch acquisitions the pool of the
+     * attached instance served without creating one
+     *
+     * @return hit rate between 0 and 1, or NaN if nothing is attached or acquired yet
+     */
+    public double getMacPoolHitRate() {
+        MultisigHMAC multisig = attached;
+        if (multisig == null) return Double.NaN;
+
+        MacPool pool = multisig.getMacPool();
+        return hitRate(pool.getHits(), pool.getMisses());
+    }
+
+    /**
+     * Returns the share of sub key lookups the key cache of the attached
+     * instance served without deriving
+     *
+     * @return hit rate between 0 and 1, or NaN if there is no cache or no lookups yet
+     */
+    public double getKeyCacheHitRate() {
+        MultisigHMAC multisig = attached;
+        if (!(multisig instanceof DerivedMultisigHMAC)) return Double.NaN;
+
+        DerivedKeyCache cache = ((DerivedMultisigHMAC) multisig).getKeyCache();
+        return cache == null ? Double.NaN : hitRate(cache.getHits(), cache.getMisses());
+    }
+
+    /**
+     * Resets every count to zero
+     */
+    public void reset() {
+        for (LongAdder[] adders : new LongAdder[][] {latency, totalNanos, messageSize, signers, outcomes}) {
+            for (LongAdder adder : adders) {
+                adder.reset();
+            }
+        }
+    }
+
+    private static double hitRate(long hits, long misses) {
+        return hits + misses == 0 ? Double.NaN : (double) hits / (hits + misses);
+    }
+
+    private static long[] sums(LongAdder[] adders, int from, int n) {
+        long[] sums = new long[n];
+        for (int i = 0; i < n; i++) {
+            sums[i] = adders[from + i].sum();
+        }
+
+        return sums;
+    }
+}
@@ -1,13 +1,26 @@
 package dk.hyperdivision.multisig_hmac;
 
-import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.security.InvalidKeyException;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
 import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
 
 /**
  * Multisig scheme for HMAC authentication. Java implementation
@@ -17,13 +30,34 @@ import java.util.List;
  * is extended by the class DerivedMultisigHMAC in which a single
  * master key is stored and used to derive keys ad hoc.
  *
+ * Signing goes through a pooled Mac. To stay allocation free, verify and
+ * the key derivation compute HMAC from the hash function of the default
+ * Mac pool instead, so a provider's own HMAC is only used there if the
+ * pool is given that provider, see MacPool.
+ *
  * @author Amalie Due Jensen
  * @version 2.0.0
  */
 public class MultisigHMAC {
+    protected Algorithm ALGORITHM;
     protected String PRIMITIVE;
     protected int KEYBYTES;
     protected int BYTES;
+    protected MacPool pool = MacPool.getDefault();
+    protected ParallelPolicy parallelPolicy = ParallelPolicy.commonPool();
+    protected boolean parallelVerify;
+    protected Executor asyncExecutor;
+    protected volatile MetricsListener metricsListener;
+
+    /**
+     * Bytes of key material generated or derived per step of the range
+     * operations
+     */
+    static final int RANGE_CHUNK_BYTES = 64 * 1024;
+
+    public Algorithm getALGORITHM() {
+        return ALGORITHM;
+    }
 
     public String getPRIMITIVE() {
         return PRIMITIVE;
@@ -37,6 +71,26 @@ public class MultisigHMAC {
         return BYTES;
     }
 
+    /**
+     * Returns the pool which Mac instances are taken from
+     *
+     * @return the Mac pool
+     */
+    public MacPool getMacPool() {
+        return pool;
+    }
+
+    /**
+     * Sets the pool which Mac instances are taken from, e.g. to select
+     * a specific JCA provider
+     *
+     * @param pool - the Mac pool
+     */
+    public void setMacPool(MacPool pool) {
+        if (pool == null) throw new IllegalArgumentException("Mac pool must not be null");
+        this.pool = pool;
+    }
+
     /**
      * The implementation supports SHA256, SHA512, and SHA384 for HMAC
      */
@@ -46,6 +100,92 @@ public class MultisigHMAC {
         HmacSHA384
     }
 
+    /**
+     * Returns the policy used by the parallel operations
+     *
+     * @return the parallel policy
+     */
+    public ParallelPolicy getParallelPolicy() {
+        return parallelPolicy;
+    }
+
+    /**
+     * Sets the policy used by the parallel operations, e.g. to run them
+     * in a dedicated pool
+     *
+     * @param parallelPolicy - the parallel policy
+     */
+    public void setParallelPolicy(ParallelPolicy parallelPolicy) {
+        if (parallelPolicy == null) throw new IllegalArgumentException("Parallel policy must not be null");
+        this.parallelPolicy = parallelPolicy;
+    }
+
+    /**
+     * Returns whether verify computes the tags of the used keys in
+     * parallel
+     *
+     * @return true if parallel verification is enabled
+     */
+    public boolean isParallelVerify() {
+        return parallelVerify;
+    }
+
+    /**
+     * Enables or disables parallel verification. When enabled, verify
+     * computes the tag of every used key as a separate task on the
+     * executor of the parallel policy, as long as the message and the
+     * number of used keys reach the policy's cutoffs. Smaller
+     * verifications stay on the calling thread.
+     *
+     * @param parallelVerify - true to enable parallel verification
+     */
+    public void setParallelVerify(boolean parallelVerify) {
+        this.parallelVerify = parallelVerify;
+    }
+
+    /**
+     * Returns the executor which the asynchronous operations run on
+     *
+     * @return the async executor, BoundedExecutor.getDefault() unless another one has been set
+     */
+    public Executor getAsyncExecutor() {
+        Executor executor = asyncExecutor;
+        return executor == null ? BoundedExecutor.getDefault() : executor;
+    }
+
+    /**
+     * Sets the executor which the asynchronous operations run on. Wrap it
+     * in a BoundedExecutor to limit how many operations run at once.
+     *
+     * @param asyncExecutor - the async executor
+     */
+    public void setAsyncExecutor(Executor asyncExecutor) {
+        if (asyncExecutor == null) throw new IllegalArgumentException("Async executor must not be null");
+        this.asyncExecutor = asyncExecutor;
+    }
+
+    /**
+     * Returns the listener which sign, combine, verify and key derivation
+     * report to
+     *
+     * @return the metrics listener, or null if none is installed
+     */
+    public MetricsListener getMetricsListener() {
+        return metricsListener;
+    }
+
+    /**
+     * Installs a listener which sign, combine, verify and key derivation
+     * report to, see MetricsListener. The listener can be swapped while
+     * other threads use the instance; an operation reports to the
+     * listener installed when it started.
+     *
+     * @param metricsListener - the metrics listener, or null to stop reporting
+     */
+    public void setMetricsListener(MetricsListener metricsListener) {
+        this.metricsListener = metricsListener;
+    }
+
     /**
      * Constructs and initializes a new instance of MultisigHMAC
      * and sets the algorithm to be used for subsequent methods
@@ -53,6 +193,7 @@ public class MultisigHMAC {
      * @param alg - algorithm used for HMAC
      */
     public MultisigHMAC(Algorithm alg) {
+        ALGORITHM = alg;
         switch (alg) {
             case HmacSHA256:
                 PRIMITIVE = "HmacSHA256";
@@ -80,12 +221,115 @@ public class MultisigHMAC {
      */
     public Key generate(int index) {
         byte[] keyBytes = new byte[KEYBYTES];
-        SecureRandom random = new SecureRandom();
-        random.nextBytes(keyBytes);
+        entropy().nextBytes(keyBytes);
 
         return new Key(index, keyBytes);
     }
 
+    /**
+     * Generates cryptographically random keys for a range of indexes. The
+     * key material of the whole range is drawn from the entropy source in
+     * one call.
+     *
+     * @param from - index of the first key
+     * @param to - index after the last key
+     * @return the keys with indexes from to to - 1, in order
+     */
+    public List<Key> generateRange(int from, int to) {
+        int n = rangeLength(from, to);
+        byte[] material = new byte[n * KEYBYTES];
+        entropy().nextBytes(material);
+
+        List<Key> keys = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            keys.add(new Key(from + i, Arrays.copyOfRange(material, i * KEYBYTES, (i + 1) * KEYBYTES)));
+        }
+        Arrays.fill(material, (byte) 0);
+
+        return keys;
+    }
+
+    /**
+     * Generates cryptographically random keys for a range of indexes
+     * straight into a buffer, e.g. for export or an OffHeapKeyring. The
+     * keys are written back to back from the buffer's position, which is
+     * advanced past them.
+     *
+     * @param from - index of the first key
+     * @param to - index after the last key
+     * @param out - buffer receiving (to - from) * KEYBYTES bytes
+     * @throws BufferOverflowException - if the buffer has too little room, in which case nothing is written
+     */
+    public void generateRange(int from, int to, ByteBuffer out) {
+        int n = rangeLength(from, to);
+        if (out.remaining() < n * KEYBYTES) throw new BufferOverflowException();
+
+        byte[] chunk = new byte[Math.min(n, Math.max(1, RANGE_CHUNK_BYTES / KEYBYTES)) * KEYBYTES];
+        for (int remaining = n * KEYBYTES; remaining > 0; remaining -= chunk.length) {
+            int len = Math.min(remaining, chunk.length);
+            entropy().nextBytes(chunk);
+            out.put(chunk, 0, len);
+        }
+        Arrays.fill(chunk, (byte) 0);
+    }
+
+    /**
+     * Returns the number of keys in [from, to), checking that it is a
+     * valid range whose key material fits in an array
+     *
+     * @param from - index of the first key
+     * @param to - index after the last key
+     * @return to - from
+     */
+    int rangeLength(int from, int to) {
+        if (from < 0 || to < from) throw new IllegalArgumentException("Range must satisfy 0 <= from <= to");
+        if ((long) (to - from) * KEYBYTES > Integer.MAX_VALUE - 8) throw new IllegalArgumentException("Range is too large");
+
+        return to - from;
+    }
+
+    /**
+     * Returns the entropy source shared by all key generation. It is
+     * seeded once, rather than once per key.
+     *
+     * @return the entropy source
+     */
+    static SecureRandom entropy() {
+        return Entropy.RANDOM;
+    }
+
+    private static final class Entropy {
+        static final SecureRandom RANDOM = new SecureRandom();
+    }
+
+    /**
+     * Generates a new cryptographically random key on the async executor,
+     * see generate(int)
+     *
+     * @param index - index of the key
+     * @return a future of the key
+     */
+    public CompletableFuture<Key> generateAsync(int index) {
+        return async(() -> generate(index));
+    }
+
+    /**
+     * Prepares a key for repeated signing and verification. The returned
+     * key caches the HMAC key pad midstates, which saves two hash blocks
+     * per tag. It can be used anywhere a Key is accepted. The hash
+     * function comes from the provider of the instance's Mac pool.
+     *
+     * @param key - key which should be prepared
+     * @return the prepared key
+     * @throws NoSuchAlgorithmException - if the specified algorithm or its hash function is not available from the pool's provider
+     */
+    public PreparedKey prepare(Key key) throws NoSuchAlgorithmException {
+        Provider provider = pool.getProvider();
+        if (key instanceof PreparedKey && ((PreparedKey) key).algorithm == ALGORITHM && ((PreparedKey) key).provider == provider) return (PreparedKey) key;
+
+        return new PreparedKey(ALGORITHM, key.index, key.key, provider);
+    }
+
     /**
      * Independently signs message with a key
      *
@@ -94,137 +338,1357 @@ public class MultisigHMAC {
      * @return sign of data which is an instance of Signature
      * @throws NoSuchAlgorithmException - if the specified algorithm is not available
      * @throws InvalidKeyException - if the given key is inappropriate for initializing this HMAC
+     * @throws IllegalArgumentException - if the index of the key is not between 0 and 31, see signWide
      */
     public Signature sign(Key key, byte[] message) throws NoSuchAlgorithmException, InvalidKeyException {
-        Mac HMAC = Mac.getInstance(PRIMITIVE);
-        SecretKeySpec hmacKey = new SecretKeySpec(key.key, PRIMITIVE);
-        HMAC.init(hmacKey);
+        if (!isMeasured()) return signTag(key, message);
+
+        return measure(SIGN_EVENT,
+                (listener, event, start, signature, ok) -> reportSign(listener, (SignEvent) event, start, message == null ? 0 : message.length, 1, key.index, ok),
+                () -> signTag(key, message));
+    }
+
+    private Signature signTag(Key key, byte[] message) throws NoSuchAlgorithmException, InvalidKeyException {
+        KeyedHmac hmac = KeyedHmac.start(this, key);
+        hmac.update(message, 0, message.length);
 
-        return new Signature(1 << key.index, HMAC.doFinal(message));
+        return new Signature(bitOf(key), hmac.doFinal());
     }
 
     /**
-     * Constructs and initializes a combined signature
+     * Independently signs message with a key on the async executor, see
+     * sign(Key, byte[]). The message must not be modified until the
+     * future completes.
      *
-     * Only include each signature once, otherwise it will cancel out.
-     * Signatures can be combined in any order.
+     * @param key - key which is an instance of Key used for signing
+     * @param message - message which should be signed
+     * @return a future of the signature, completed exceptionally with the exceptions of sign
+     */
+    public CompletableFuture<Signature> signAsync(Key key, byte[] message) {
+        return async(() -> sign(key, message));
+    }
+
+    /**
+     * Independently signs message with a key whose index may be 32 or
+     * above. The tag is the same as the one made by sign, only the
+     * bitfield is wider.
      *
-     * @param signatures - list of signatures which should be combined
-     * @return combined signature as an instance of Signature
+     * @param key - key which is an instance of Key used for signing
+     * @param message - message which should be signed
+     * @return sign of data which is an instance of WideSignature
+     * @throws NoSuchAlgorithmException - if the specified algorithm is not available
+     * @throws InvalidKeyException - if the given key is inappropriate for initializing this HMAC
      */
-    public Signature combine(List<Signature> signatures) {
-        int indexCurrent = 0;
-        byte[] signatureCurrent = new byte[BYTES];
+    public WideSignature signWide(Key key, byte[] message) throws NoSuchAlgorithmException, InvalidKeyException {
+        if (!isMeasured()) return signWideTag(key, message);
 
-        for (Signature obj: signatures) {
-            indexCurrent ^= obj.index;
-            signatureCurrent = xorBytes(signatureCurrent, obj.signature);
-        }
+        return measure(SIGN_EVENT,
+                (listener, event, start, signature, ok) -> reportSign(listener, (SignEvent) event, start, message == null ? 0 : message.length, 1, key.index, ok),
+                () -> signWideTag(key, message));
+    }
 
-        return new Signature(indexCurrent, signatureCurrent);
+    private WideSignature signWideTag(Key key, byte[] message) throws NoSuchAlgorithmException, InvalidKeyException {
+        if (key.index < 0) throw new IllegalArgumentException("Key index must be at least 0");
+
+        KeyedHmac hmac = KeyedHmac.start(this, key);
+        hmac.update(message, 0, message.length);
+
+        return new WideSignature(SignerSet.of(key.index), hmac.doFinal());
     }
 
     /**
-     * Xor two byte arrays
+     * Independently signs message with a key held in a keyring. The key is
+     * read in place, no copy of it is made on the heap.
      *
-     * @param a - first byte array
-     * @param b - second byte array
-     * @return xor'ed byte array
+     * @param keyring - keyring holding the key
+     * @param index - index of the key, between 0 and 31
+     * @param message - message which should be signed
+     * @return sign of data which is an instance of Signature
+     * @throws NoSuchAlgorithmException - if the specified algorithm is not available
+     * @throws IllegalArgumentException - if the keyring has no key with the index or the index is not between 0 and 31
+     * @throws IllegalStateException - if the keyring has been closed
      */
-    protected byte[] xorBytes(byte[] a, byte[] b) {
-        byte[] c = new byte[BYTES];
-        for (int i = 0; i < Math.max(a.length,b.length); i++) {
-            c[i] = (byte) (a[i] ^ b[i]);
+    public Signature sign(Keyring keyring, int index, byte[] message) throws NoSuchAlgorithmException {
+        if (!isMeasured()) return signTag(keyring, index, message);
+
+        return measure(SIGN_EVENT,
+                (listener, event, start, signature, ok) -> reportSign(listener, (SignEvent) event, start, message == null ? 0 : message.length, 1, index, ok),
+                () -> signTag(keyring, index, message));
+    }
+
+    private Signature signTag(Keyring keyring, int index, byte[] message) throws NoSuchAlgorithmException {
+        if (index < 0 || index > 31) throw new IllegalArgumentException("Key index must be between 0 and 31, use signWide for larger indexes");
+        if (message == null) throw new IllegalArgumentException("message must be bytes");
+
+        byte[] tag = new byte[BYTES];
+        HmacScratch scratch = pool.acquireScratch(ALGORITHM);
+        try {
+            scratch.hmac(keyring.snapshot().key(index), message, 0, message.length, tag);
+        } finally {
+            pool.releaseScratch(scratch);
         }
 
-        return c;
+        return new Signature(1 << index, tag);
     }
 
     /**
-     * Verifies a signature of message against a list of keys
+     * Independently signs a message read from a stream with a key. The
+     * stream is read until its end but not closed.
      *
-     * @param keys - a list of all keys
-     * @param signatures - combined signature
-     * @param message - message which has been signed
-     * @param threshold - minimum number of keys that the list "keys" should contain
-     * @return verification of the signature (true/false)
+     * @param key - key which is an instance of Key used for signing
+     * @param message - stream holding the message which should be signed
+     * @return sign of data which is an instance of Signature
+     * @throws NoSuchAlgorithmException - if the specified algorithm is not available
      * @throws InvalidKeyException - if the given key is inappropriate for initializing this HMAC
+     * @throws IOException - if reading the stream fails
+     */
+    public Signature sign(Key key, InputStream message) throws NoSuchAlgorithmException, InvalidKeyException, IOException {
+        return signer(key).update(message).finish();
+    }
+
+    /**
+     * Independently signs a message read from a channel with a key. The
+     * channel is read until its end but not closed.
+     *
+     * @param key - key which is an instance of Key used for signing
+     * @param message - channel holding the message which should be signed
+     * @return sign of data which is an instance of Signature
      * @throws NoSuchAlgorithmException - if the specified algorithm is not available
+     * @throws InvalidKeyException - if the given key is inappropriate for initializing this HMAC
+     * @throws IOException - if reading the channel fails
      */
-    public boolean verify(List<Key> keys, Signature signatures, byte[] message, int threshold) throws InvalidKeyException, NoSuchAlgorithmException, IllegalArgumentException {
-        if (signatures.signature.length != BYTES) throw new IllegalArgumentException("Signature must be BYTES long");
-        if (message == null) throw new IllegalArgumentException("message must be bytes");
-        if (threshold <= 0) throw new IllegalArgumentException("Threshold must be at least 1");
+    public Signature sign(Key key, ReadableByteChannel message) throws NoSuchAlgorithmException, InvalidKeyException, IOException {
+        return signer(key).update(message).finish();
+    }
 
-        int bitField = signatures.index;
-        int nKeys = popCount(bitField);
-        int highestKey = 32 - leadingZeros(bitField);
-        if (keys.size() < nKeys || keys.size() < highestKey) throw new IllegalArgumentException("Not enough keys given based on index of the combined-Signature");
+    /**
+     * Starts signing a message with a key incrementally. The signature is
+     * reported to the metrics listener when the signer finishes, timed
+     * from this call.
+     *
+     * @param key - key which is an instance of Key used for signing
+     * @return a signer which the message is fed to
+     * @throws NoSuchAlgorithmException - if the specified algorithm is not available
+     * @throws InvalidKeyException - if the given key is inappropriate for initializing this HMAC
+     */
+    public StreamingSigner signer(Key key) throws NoSuchAlgorithmException, InvalidKeyException {
+        MetricsListener listener = metricsListener;
+        SignEvent event = FlightRecording.isActive() ? new SignEvent() : null;
+        long start = listener == null && event == null ? 0 : System.nanoTime();
+        if (event != null) event.begin();
+        StreamingSigner signer = null;
+        try {
+            signer = new StreamingSigner(this, listener, event, start, bitOf(key), KeyedHmac.start(this, key));
+            return signer;
+        } finally {
+            if (signer == null) reportSign(listener, event, start, 0, 1, key.index, false);
+        }
+    }
 
-        if (nKeys < threshold) {
-            return false;
+    /**
+     * Starts signing a message with several keys incrementally. The
+     * result is the combined signature of the keys, as if each had signed
+     * the message and the signatures had been combined, but the message is
+     * only read once. The signature is reported to the metrics listener
+     * when the signer finishes, timed from this call.
+     *
+     * @param keys - keys used for signing, with distinct indexes
+     * @return a signer which the message is fed to
+     * @throws NoSuchAlgorithmException - if the specified algorithm is not available
+     * @throws InvalidKeyException - if a given key is inappropriate for initializing this HMAC
+     * @throws IllegalArgumentException - if there are no keys, or two keys have the same index, which would cancel out
+     */
+    public StreamingSigner signer(List<Key> keys) throws NoSuchAlgorithmException, InvalidKeyException {
+        MetricsListener listener = metricsListener;
+        SignEvent event = FlightRecording.isActive() ? new SignEvent() : null;
+        long start = listener == null && event == null ? 0 : System.nanoTime();
+        if (event != null) event.begin();
+        StreamingSigner signer = null;
+        try {
+            signer = startSigner(listener, event, start, keys);
+            return signer;
+        } finally {
+            if (signer == null) reportSign(listener, event, start, 0, keys.size(), keys.size() == 1 ? keys.get(0).index : -1, false);
         }
+    }
 
-        List<Integer> usedKeys = keyIndexes(bitField);
-        byte[] sig = signatures.signature;
+    private StreamingSigner startSigner(MetricsListener listener, SignEvent event, long start, List<Key> keys) throws NoSuchAlgorithmException, InvalidKeyException {
+        if (keys.isEmpty()) throw new IllegalArgumentException("At least one key must be given");
+
+        int bitField = 0;
+        for (Key key : keys) {
+            int bit = bitOf(key);
+            if ((bitField & bit) != 0) throw new IllegalArgumentException("Keys must have distinct indexes");
+            bitField |= bit;
+        }
 
-        for (Object usedKey : usedKeys) {
-            Key key = keys.get((Integer) usedKey);
-            Signature KeySig = sign(key, message);
-            sig = xorBytes(sig, KeySig.signature);
-            bitField ^= KeySig.index;
+        KeyedHmac[] hmacs = new KeyedHmac[keys.size()];
+        for (int i = 0; i < hmacs.length; i++) {
+            hmacs[i] = KeyedHmac.start(this, keys.get(i));
         }
 
-        return (bitField == 0 && Arrays.equals(sig,new byte[BYTES]));
+        return new StreamingSigner(this, listener, event, start, bitField, hmacs);
     }
 
     /**
-     * Computes the indexes of the keys (indexes of 1-bits)
+     * Signs message with several keys and combines the signatures in a
+     * single pass over the message, see signer(List). The result equals
+     * combining sign(key, message) for every key.
      *
-     * @param bitField - indexes of keys represented as one integer
-     * @return indexes of keys in a list
+     * @param keys - keys used for signing, with distinct indexes
+     * @param message - message which should be signed
+     * @return combined signature as an instance of Signature
+     * @throws NoSuchAlgorithmException - if the specified algorithm is not available
+     * @throws InvalidKeyException - if a given key is inappropriate for initializing this HMAC
      */
-    protected static List<Integer> keyIndexes(int bitField) {
-        List<Integer> keys = new ArrayList<>();
-        int i = 0;
-        while (bitField > 0) {
-            if ((bitField & 0x1) == 1) keys.add(i);
-            bitField >>= 1;
-            i++;
-        }
+    public Signature signAndCombine(List<Key> keys, byte[] message) throws NoSuchAlgorithmException, InvalidKeyException {
+        if (message == null) throw new IllegalArgumentException("message must be bytes");
 
-        return keys;
+        return signer(keys).update(message).finish();
     }
 
     /**
-     * Computes the number of keys (the number of 1-bits)
+     * Signs a message read from a stream with several keys and combines
+     * the signatures, see signAndCombine(List, byte[]). The stream is read
+     * until its end but not closed.
      *
-     * @param bitField - indexes of keys represented as one integer
-     * @return number of keys
+     * @param keys - keys used for signing, with distinct indexes
+     * @param message - stream holding the message which should be signed
+     * @return combined signature as an instance of Signature
+     * @throws NoSuchAlgorithmException - if the specified algorithm is not available
+     * @throws InvalidKeyException - if a given key is inappropriate for initializing this HMAC
+     * @throws IOException - if reading the stream fails
      */
-    protected static int popCount(int bitField) {
-        return Integer.bitCount(bitField);
+    public Signature signAndCombine(List<Key> keys, InputStream message) throws NoSuchAlgorithmException, InvalidKeyException, IOException {
+        return signer(keys).update(message).finish();
     }
 
     /**
-     * Computes the number of leading zeros
+     * Signs a message read from a channel with several keys and combines
+     * the signatures, see signAndCombine(List, byte[]). The channel is read
+     * until its end but not closed.
      *
-     * @param bitField - indexes of keys represented as one integer
-     * @return number of leading zeros
+     * @param keys - keys used for signing, with distinct indexes
+     * @param message - channel holding the message which should be signed
+     * @return combined signature as an instance of Signature
+     * @throws NoSuchAlgorithmException - if the specified algorithm is not available
+     * @throws InvalidKeyException - if a given key is inappropriate for initializing this HMAC
+     * @throws IOException - if reading the channel fails
      */
-    protected static int leadingZeros(int bitField) {
-        int n = 32;
-        int c = 16;
-        int y;
-        while(c != 0) {
-            y = bitField >> c;
-            if(y != 0) {
-                n = n - c;
-                bitField = y;
-            }
-            c = c >> 1;
+    public Signature signAndCombine(List<Key> keys, ReadableByteChannel message) throws NoSuchAlgorithmException, InvalidKeyException, IOException {
+        return signer(keys).update(message).finish();
+    }
+
+    /**
+     * Independently signs message with a key in chunked mode. The message
+     * is split into chunks of chunkBytes which are tagged in parallel, and
+     * the chunk tags are folded into a single tag bound to the chunk size,
+     * the chunk count and the message length. The result can be combined
+     * like any other signature, but must be verified with verifyChunked
+     * using the same chunk size.
+     *
+     * @param key - key which is an instance of Key used for signing
+     * @param message - message which should be signed
+     * @param chunkBytes - size of each chunk in bytes
+     * @return sign of data which is an instance of Signature
+     * @throws NoSuchAlgorithmException - if the specified algorithm is not available
+     * @throws InvalidKeyException - if the given key is inappropriate for initializing this HMAC
+     */
+    public Signature signChunked(Key key, byte[] message, int chunkBytes) throws NoSuchAlgorithmException, InvalidKeyException {
+        if (message == null) throw new IllegalArgumentException("message must be bytes");
+
+        try {
+            return signChunked(key, ChunkedHmac.of(message), chunkBytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
+    }
+
+    /**
+     * Independently signs the contents of a file with a key in chunked
+     * mode, see signChunked(Key, byte[], int). The chunks are memory
+     * mapped from the file, and the whole file is signed regardless of
+     * the channel's position.
+     *
+     * @param key - key which is an instance of Key used for signing
+     * @param message - channel of the file which should be signed
+     * @param chunkBytes - size of each chunk in bytes
+     * @return sign of data which is an instance of Signature
+     * @throws NoSuchAlgorithmException - if the specified algorithm is not available
+     * @throws InvalidKeyException - if the given key is inappropriate for initializing this HMAC
+     * @throws IOException - if mapping the file fails
+     */
+    public Signature signChunked(Key key, FileChannel message, int chunkBytes) throws NoSuchAlgorithmException, InvalidKeyException, IOException {
+        if (message == null) throw new IllegalArgumentException("message must be bytes");
+
+        return signChunked(key, ChunkedHmac.of(message), chunkBytes);
+    }
+
+    private Signature signChunked(Key key, ChunkedHmac.Source message, int chunkBytes) throws NoSuchAlgorithmException, InvalidKeyException, IOException {
+        Operation<Signature, InvalidKeyException, IOException> sign = () -> new Signature(bitOf(key), ChunkedHmac.tags(this, new Key[] {key}, message, chunkBytes, parallelPolicy)[0]);
+        if (!isMeasured()) return sign.run();
+
+        long length = message.size();
+        return measure(SIGN_EVENT, (listener, event, start, signature, ok) -> reportSign(listener, (SignEvent) event, start, length, 1, key.index, ok), sign);
+    }
+
+    /**
+     * Constructs and initializes a combined signature
+     *
+     * Only include each signature once, otherwise it will cancel out.
+     * Signatures can be combined in any order. Large collections are
+     * combined in parallel, see combine(List, byte[]).
+     *
+     * @param signatures - list of signatures which should be combined
+     * @return combined signature as an instance of Signature
+     */
+    public Signature combine(List<Signature> signatures) {
+        byte[] signatureCurrent = new byte[BYTES];
+        int indexCurrent = combine(signatures, signatureCurrent);
+
+        return new Signature(indexCurrent, signatureCurrent);
+    }
 
-        return n - bitField;
+    /**
+     * Combines signatures into a caller supplied buffer. Lists which are
+     * random access and below the parallel cutoff are combined without
+     * allocating.
+     *
+     * Only include each signature once, otherwise it will cancel out.
+     * Signatures can be combined in any order.
+     *
+     * The tags are xor'ed eight bytes at a time. Collections of at least
+     * 32768 signatures are split across the executor of the parallel
+     * policy and the partial results are reduced afterwards, unless the
+     * policy's parallelism is 1.
+     *
+     * @param signatures - list of signatures which should be combined
+     * @param out - buffer of length BYTES receiving the combined signature
+     * @return bitfield of the combined signature
+     */
+    public int combine(List<Signature> signatures, byte[] out) {
+        if (out.length != BYTES) throw new IllegalArgumentException("Output must be BYTES long");
+
+        MetricsListener listener = metricsListener;
+        CombineEvent event = FlightRecording.isActive() ? new CombineEvent() : null;
+        if (listener == null && event == null) return combineInto(signatures, out);
+
+        long start = System.nanoTime();
+        if (event != null) event.begin();
+        int bitField = combineInto(signatures, out);
+        if (listener != null) listener.onOperation(MetricsListener.Operation.COMBINE, ALGORITHM, System.nanoTime() - start, 0, signatures.size(), MetricsListener.Outcome.OK);
+        if (event != null && event.shouldCommit()) {
+            event.algorithm = ALGORITHM.name();
+            event.signatures = signatures.size();
+            event.commit();
+        }
+        return bitField;
+    }
+
+    private int combineInto(List<Signature> signatures, byte[] out) {
+        Arrays.fill(out, (byte) 0);
+
+        return BulkXor.combine(signatures, out, parallelPolicy);
+    }
+
+    /**
+     * Constructs and initializes a combined wide signature, see combine
+     *
+     * @param signatures - list of signatures which should be combined
+     * @return combined signature as an instance of WideSignature
+     */
+    public WideSignature combineWide(List<WideSignature> signatures) {
+        SignerSet signers = SignerSet.empty();
+        byte[] signatureCurrent = new byte[BYTES];
+        for (int i = 0; i < signatures.size(); i++) {
+            WideSignature obj = signatures.get(i);
+            if (obj.signature.length != BYTES) throw new IllegalArgumentException("Signature must be BYTES long");
+            signers = signers.xor(obj.signers);
+            xorInto(signatureCurrent, obj.signature);
+        }
+
+        return new WideSignature(signers, signatureCurrent);
+    }
+
+    /**
+     * Xor two byte arrays
+     *
+     * @param a - first byte array
+     * @param b - second byte array
+     * @return xor'ed byte array
+     */
+    protected byte[] xorBytes(byte[] a, byte[] b) {
+        byte[] c = new byte[BYTES];
+        for (int i = 0; i < Math.max(a.length,b.length); i++) {
+            c[i] = (byte) (a[i] ^ b[i]);
+        }
+
+        return c;
+    }
+
+    /**
+     * Xor a byte array into another in place
+     *
+     * @param acc - byte array which is updated
+     * @param b - byte array which is xor'ed into acc, at least as long as acc
+     */
+    protected static void xorInto(byte[] acc, byte[] b) {
+        BulkXor.xorInto(acc, b);
+    }
+
+    /**
+     * Verifies a signature of message against a list of keys
+     *
+     * @param keys - a list of all keys
+     * @param signatures - combined signature
+     * @param message - message which has been signed
+     * @param threshold - minimum number of keys that the list "keys" should contain
+     * @return verification of the signature (true/false)
+     * @throws InvalidKeyException - if the given key is inappropriate for initializing this HMAC
+     * @throws NoSuchAlgorithmException - if the specified algorithm is not available
+     */
+    public boolean verify(List<Key> keys, Signature signatures, byte[] message, int threshold) throws InvalidKeyException, NoSuchAlgorithmException, IllegalArgumentException {
+        if (message == null) throw new IllegalArgumentException("message must be bytes");
+
+        return verify(keys, signatures, message, 0, message.length, threshold);
+    }
+
+    /**
+     * Verifies a signature of message against a list of keys on the async
+     * executor, see verify(List, Signature, byte[], int). The message must
+     * not be modified until the future completes.
+     *
+     * @param keys - a list of all keys
+     * @param signatures - combined signature
+     * @param message - message which has been signed
+     * @param threshold - minimum number of keys that the list "keys" should contain
+     * @return a future of the verification, completed exceptionally with the exceptions of verify
+     */
+    public CompletableFuture<Boolean> verifyAsync(List<Key> keys, Signature signatures, byte[] message, int threshold) {
+        return async(() -> verify(keys, signatures, message, threshold));
+    }
+
+    /**
+     * Verifies a signature of part of a buffer against a list of keys
+     *
+     * Unless parallel verification kicks in, this does not allocate once
+     * the calling thread has verified with the algorithm before: the tags
+     * are computed into per-thread buffers of the Mac pool and xor'ed into
+     * a single accumulator. Prepared keys are the exception, their digest
+     * midstates are cloned for every tag in exchange for hashing two blocks
+     * less.
+     *
+     * @param keys - a list of all keys
+     * @param signatures - combined signature
+     * @param message - buffer holding the message which has been signed
+     * @param offset - offset of the message in the buffer
+     * @param length - length of the message
+     * @param threshold - minimum number of keys that the list "keys" should contain
+     * @return verification of the signature (true/false)
+     * @throws InvalidKeyException - if the given key is inappropriate for initializing this HMAC
+     * @throws NoSuchAlgorithmException - if the specified algorithm is not available
+     */
+    public boolean verify(List<Key> keys, Signature signatures, byte[] message, int offset, int length, int threshold) throws InvalidKeyException, NoSuchAlgorithmException, IllegalArgumentException {
+        if (!isMeasured()) return verifyTags(keys, signatures, message, offset, length, threshold);
+
+        return measure(VERIFY_EVENT,
+                (listener, event, start, valid, ok) -> reportVerify(listener, (VerifyEvent) event, start, length, signatures, threshold, valid),
+                () -> verifyTags(keys, signatures, message, offset, length, threshold));
+    }
+
+    private boolean verifyTags(List<Key> keys, Signature signatures, byte[] message, int offset, int length, int threshold) throws InvalidKeyException, NoSuchAlgorithmException, IllegalArgumentException {
+        if (signatures.signature.length != BYTES) throw new IllegalArgumentException("Signature must be BYTES long");
+        if (message == null) throw new IllegalArgumentException("message must be bytes");
+        if (offset < 0 || length < 0 || offset > message.length - length) throw new IllegalArgumentException("Offset and length must lie within message");
+        if (threshold <= 0) throw new IllegalArgumentException("Threshold must be at least 1");
+
+        int bitField = signatures.index;
+        int nKeys = popCount(bitField);
+        int highestKey = 32 - leadingZeros(bitField);
+        if (keys.size() < nKeys || keys.size() < highestKey) throw new IllegalArgumentException("Not enough keys given based on index of the combined-Signature");
+
+        if (nKeys < threshold) {
+            return false;
+        }
+
+        if (parallelVerify && parallelPolicy.parallelize(length, nKeys)) {
+            int[] usedKeys = new int[nKeys];
+            int signed = 0;
+            int k = 0;
+            for (int bits = bitField; bits != 0; bits &= bits - 1) {
+                usedKeys[k] = Integer.numberOfTrailingZeros(bits);
+                signed |= indexBit(keys.get(usedKeys[k++]));
+            }
+            if (signed != bitField) return false;
+
+            return tagsMatch(signatures.signature, parallelTags(nKeys, i -> keys.get(usedKeys[i]), message, offset, length));
+        }
+
+        HmacScratch scratch = pool.acquireScratch(ALGORITHM);
+        try {
+            byte[] sig = scratch.acc;
+            System.arraycopy(signatures.signature, 0, sig, 0, BYTES);
+            // Every key must sit at its own index, as in the signature's bitfield
+            int signed = 0;
+            for (int bits = bitField; bits != 0; bits &= bits - 1) {
+                Key key = keys.get(Integer.numberOfTrailingZeros(bits));
+                tagInto(scratch, key, message, offset, length, scratch.tag);
+                xorInto(sig, scratch.tag);
+                signed |= indexBit(key);
+            }
+
+            return signed == bitField && isZero(sig);
+        } finally {
+            pool.releaseScratch(scratch);
+        }
+    }
+
+    /**
+     * Verifies a wide signature of message against a list of keys, where
+     * keys.get(i) is the key with index i. Only the keys in the signer set
+     * are used, so the cost depends on the number of signers and not on
+     * the highest index.
+     *
+     * @param keys - a list of all keys
+     * @param signatures - combined signature
+     * @param message - message which has been signed
+     * @param threshold - minimum number of keys that the list "keys" should contain
+     * @return verification of the signature (true/false)
+     * @throws InvalidKeyException - if the given key is inappropriate for initializing this HMAC
+     * @throws NoSuchAlgorithmException - if the specified algorithm is not available
+     */
+    public boolean verifyWide(List<Key> keys, WideSignature signatures, byte[] message, int threshold) throws InvalidKeyException, NoSuchAlgorithmException, IllegalArgumentException {
+        if (!isMeasured()) return verifyWideTags(keys, signatures, message, threshold);
+
+        return measure(VERIFY_EVENT,
+                (listener, event, start, valid, ok) -> reportVerify(listener, (VerifyEvent) event, start, message == null ? 0 : message.length, signatures.signers.size(), threshold, valid),
+                () -> verifyWideTags(keys, signatures, message, threshold));
+    }
+
+    private boolean verifyWideTags(List<Key> keys, WideSignature signatures, byte[] message, int threshold) throws InvalidKeyException, NoSuchAlgorithmException, IllegalArgumentException {
+        if (signatures.signature.length != BYTES) throw new IllegalArgumentException("Signature must be BYTES long");
+        if (message == null) throw new IllegalArgumentException("message must be bytes");
+        if (threshold <= 0) throw new IllegalArgumentException("Threshold must be at least 1");
+
+        SignerSet signers = signatures.signers;
+        int nKeys = signers.size();
+        if (keys.size() < signers.length()) throw new IllegalArgumentException("Not enough keys given based on index of the combined-Signature");
+
+        if (nKeys < threshold) {
+            return false;
+        }
+
+        if (parallelVerify && parallelPolicy.parallelize(message.length, nKeys)) {
+            int[] usedKeys = new int[nKeys];
+            int k = 0;
+            for (int i = signers.nextSetBit(0); i >= 0; i = signers.nextSetBit(i + 1)) {
+                if (keys.get(i).index != i) return false;
+                usedKeys[k++] = i;
+            }
+            return tagsMatch(signatures.signature, parallelTags(nKeys, i -> keys.get(usedKeys[i]), message, 0, message.length));
+        }
+
+        HmacScratch scratch = pool.acquireScratch(ALGORITHM);
+        try {
+            byte[] sig = scratch.acc;
+            System.arraycopy(signatures.signature, 0, sig, 0, BYTES);
+            boolean indexesMatch = true;
+            for (int i = signers.nextSetBit(0); i >= 0; i = signers.nextSetBit(i + 1)) {
+                Key key = keys.get(i);
+                tagInto(scratch, key, message, 0, message.length, scratch.tag);
+                xorInto(sig, scratch.tag);
+                indexesMatch &= key.index == i;
+            }
+
+            return indexesMatch && isZero(sig);
+        } finally {
+            pool.releaseScratch(scratch);
+        }
+    }
+
+    /**
+     * Verifies a signature of message against the keys of a keyring. The
+     * keys are read in place, no copies of them are made on the heap.
+     *
+     * @param keyring - keyring holding the keys
+     * @param signatures - combined signature
+     * @param message - message which has been signed
+     * @param threshold - minimum number of keys that the signature should be made with
+     * @return verification of the signature (true/false)
+     * @throws NoSuchAlgorithmException - if the specified algorithm is not available
+     * @throws IllegalArgumentException - if the keyring lacks a key the signature is made with
+     * @throws IllegalStateException - if the keyring has been closed
+     */
+    public boolean verify(Keyring keyring, Signature signatures, byte[] message, int threshold) throws NoSuchAlgorithmException, IllegalArgumentException {
+        if (!isMeasured()) return verifyTags(keyring, signatures, message, threshold);
+
+        return measure(VERIFY_EVENT,
+                (listener, event, start, valid, ok) -> reportVerify(listener, (VerifyEvent) event, start, message == null ? 0 : message.length, signatures, threshold, valid),
+                () -> verifyTags(keyring, signatures, message, threshold));
+    }
+
+    private boolean verifyTags(Keyring keyring, Signature signatures, byte[] message, int threshold) throws NoSuchAlgorithmException, IllegalArgumentException {
+        if (signatures.signature.length != BYTES) throw new IllegalArgumentException("Signature must be BYTES long");
+        if (message == null) throw new IllegalArgumentException("message must be bytes");
+        if (threshold <= 0) throw new IllegalArgumentException("Threshold must be at least 1");
+
+        Keyring keys = keyring.snapshot();
+        int bitField = signatures.index;
+        if (keys.size() < 32 - leadingZeros(bitField)) throw new IllegalArgumentException("Not enough keys given based on index of the combined-Signature");
+
+        if (popCount(bitField) < threshold) {
+            return false;
+        }
+
+        HmacScratch scratch = pool.acquireScratch(ALGORITHM);
+        try {
+            byte[] sig = scratch.acc;
+            System.arraycopy(signatures.signature, 0, sig, 0, BYTES);
+            for (int bits = bitField; bits != 0; bits &= bits - 1) {
+                scratch.hmac(keys.key(Integer.numberOfTrailingZeros(bits)), message, 0, message.length, scratch.tag);
+                xorInto(sig, scratch.tag);
+            }
+
+            return isZero(sig);
+        } finally {
+            pool.releaseScratch(scratch);
+        }
+    }
+
+    /**
+     * Verifies a wide signature of message against the keys of a keyring,
+     * see verify(Keyring, Signature, byte[], int)
+     *
+     * @param keyring - keyring holding the keys
+     * @param signatures - combined signature
+     * @param message - message which has been signed
+     * @param threshold - minimum number of keys that the signature should be made with
+     * @return verification of the signature (true/false)
+     * @throws NoSuchAlgorithmException - if the specified algorithm is not available
+     * @throws IllegalArgumentException - if the keyring lacks a key the signature is made with
+     * @throws IllegalStateException - if the keyring has been closed
+     */
+    public boolean verifyWide(Keyring keyring, WideSignature signatures, byte[] message, int threshold) throws NoSuchAlgorithmException, IllegalArgumentException {
+        if (!isMeasured()) return verifyWideTags(keyring, signatures, message, threshold);
+
+        return measure(VERIFY_EVENT,
+                (listener, event, start, valid, ok) -> reportVerify(listener, (VerifyEvent) event, start, message == null ? 0 : message.length, signatures.signers.size(), threshold, valid),
+                () -> verifyWideTags(keyring, signatures, message, threshold));
+    }
+
+    private boolean verifyWideTags(Keyring keyring, WideSignature signatures, byte[] message, int threshold) throws NoSuchAlgorithmException, IllegalArgumentException {
+        if (signatures.signature.length != BYTES) throw new IllegalArgumentException("Signature must be BYTES long");
+        if (message == null) throw new IllegalArgumentException("message must be bytes");
+        if (threshold <= 0) throw new IllegalArgumentException("Threshold must be at least 1");
+
+        Keyring keys = keyring.snapshot();
+        SignerSet signers = signatures.signers;
+        if (keys.size() < signers.length()) throw new IllegalArgumentException("Not enough keys given based on index of the combined-Signature");
+
+        if (signers.size() < threshold) {
+            return false;
+        }
+
+        HmacScratch scratch = pool.acquireScratch(ALGORITHM);
+        try {
+            byte[] sig = scratch.acc;
+            System.arraycopy(signatures.signature, 0, sig, 0, BYTES);
+            for (int i = signers.nextSetBit(0); i >= 0; i = signers.nextSetBit(i + 1)) {
+                scratch.hmac(keys.key(i), message, 0, message.length, scratch.tag);
+                xorInto(sig, scratch.tag);
+            }
+
+            return isZero(sig);
+        } finally {
+            pool.releaseScratch(scratch);
+        }
+    }
+
+    /**
+     * Verifies a signature of a message read from a stream against a list
+     * of keys. The stream is read until its end but not closed.
+     *
+     * @param keys - a list of all keys
+     * @param signatures - combined signature
+     * @param message - stream holding the message which has been signed
+     * @param threshold - minimum number of keys that the list "keys" should contain
+     * @return verification of the signature (true/false)
+     * @throws InvalidKeyException - if the given key is inappropriate for initializing this HMAC
+     * @throws NoSuchAlgorithmException - if the specified algorithm is not available
+     * @throws IOException - if reading the stream fails
+     */
+    public boolean verify(List<Key> keys, Signature signatures, InputStream message, int threshold) throws InvalidKeyException, NoSuchAlgorithmException, IllegalArgumentException, IOException {
+        if (message == null) throw new IllegalArgumentException("message must be bytes");
+
+        return verifier(keys, signatures, threshold).update(message).finish();
+    }
+
+    /**
+     * Verifies a signature of a message read from a channel against a list
+     * of keys. The channel is read until its end but not closed.
+     *
+     * @param keys - a list of all keys
+     * @param signatures - combined signature
+     * @param message - channel holding the message which has been signed
+     * @param threshold - minimum number of keys that the list "keys" should contain
+     * @return verification of the signature (true/false)
+     * @throws InvalidKeyException - if the given key is inappropriate for initializing this HMAC
+     * @throws NoSuchAlgorithmException - if the specified algorithm is not available
+     * @throws IOException - if reading the channel fails
+     */
+    public boolean verify(List<Key> keys, Signature signatures, ReadableByteChannel message, int threshold) throws InvalidKeyException, NoSuchAlgorithmException, IllegalArgumentException, IOException {
+        if (message == null) throw new IllegalArgumentException("message must be bytes");
+
+        return verifier(keys, signatures, threshold).update(message).finish();
+    }
+
+    /**
+     * Starts verifying a signature of a message against a list of keys
+     * incrementally. The verification is reported to the metrics listener
+     * when the verifier finishes, timed from this call.
+     *
+     * @param keys - a list of all keys
+     * @param signatures - combined signature
+     * @param threshold - minimum number of keys that the list "keys" should contain
+     * @return a verifier which the message is fed to
+     * @throws InvalidKeyException - if the given key is inappropriate for initializing this HMAC
+     * @throws NoSuchAlgorithmException - if the specified algorithm is not available
+     */
+    public StreamingVerifier verifier(List<Key> keys, Signature signatures, int threshold) throws InvalidKeyException, NoSuchAlgorithmException, IllegalArgumentException {
+        return verifier((s, t) -> usedKeys(keys, s, t), signatures, threshold);
+    }
+
+    /**
+     * Starts verifying a signature incrementally against the keys looked
+     * up by usedKeys, reporting an ERROR if the lookup throws
+     *
+     * @param usedKeys - looks up the used keys
+     * @param signatures - combined signature
+     * @param threshold - minimum number of used keys
+     * @return a verifier which the message is fed to
+     * @throws InvalidKeyException - if the given key is inappropriate for initializing this HMAC
+     * @throws NoSuchAlgorithmException - if the specified algorithm is not available
+     */
+    StreamingVerifier verifier(UsedKeys usedKeys, Signature signatures, int threshold) throws InvalidKeyException, NoSuchAlgorithmException, IllegalArgumentException {
+        MetricsListener listener = metricsListener;
+        VerifyEvent event = FlightRecording.isActive() ? new VerifyEvent() : null;
+        long start = listener == null && event == null ? 0 : System.nanoTime();
+        if (event != null) event.begin();
+        StreamingVerifier verifier = null;
+        try {
+            Key[] used = usedKeys.get(signatures, threshold);
+            KeyedHmac[] hmacs = null;
+            if (used != null) {
+                hmacs = new KeyedHmac[used.length];
+                for (int i = 0; i < hmacs.length; i++) {
+                    hmacs[i] = KeyedHmac.start(this, used[i]);
+                }
+            }
+
+            verifier = new StreamingVerifier(this, listener, event, start, signatures, threshold, hmacs);
+            return verifier;
+        } finally {
+            if (verifier == null) reportVerify(listener, event, start, 0, signatures, threshold, null);
+        }
+    }
+
+    /**
+     * Verifies a chunked signature of message against a list of keys, see
+     * signChunked
+     *
+     * @param keys - a list of all keys
+     * @param signatures - combined signature
+     * @param message - message which has been signed
+     * @param chunkBytes - size of each chunk in bytes used when signing
+     * @param threshold - minimum number of keys that the list "keys" should contain
+     * @return verification of the signature (true/false)
+     * @throws InvalidKeyException - if the given key is inappropriate for initializing this HMAC
+     * @throws NoSuchAlgorithmException - if the specified algorithm is not available
+     */
+    public boolean verifyChunked(List<Key> keys, Signature signatures, byte[] message, int chunkBytes, int threshold) throws InvalidKeyException, NoSuchAlgorithmException, IllegalArgumentException {
+        if (message == null) throw new IllegalArgumentException("message must be bytes");
+
+        try {
+            return verifyChunked((s, t) -> usedKeys(keys, s, t), signatures, ChunkedHmac.of(message), chunkBytes, threshold);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Verifies a chunked signature of the contents of a file against a
+     * list of keys, see signChunked
+     *
+     * @param keys - a list of all keys
+     * @param signatures - combined signature
+     * @param message - channel of the file which has been signed
+     * @param chunkBytes - size of each chunk in bytes used when signing
+     * @param threshold - minimum number of keys that the list "keys" should contain
+     * @return verification of the signature (true/false)
+     * @throws InvalidKeyException - if the given key is inappropriate for initializing this HMAC
+     * @throws NoSuchAlgorithmException - if the specified algorithm is not available
+     * @throws IOException - if mapping the file fails
+     */
+    public boolean verifyChunked(List<Key> keys, Signature signatures, FileChannel message, int chunkBytes, int threshold) throws InvalidKeyException, NoSuchAlgorithmException, IllegalArgumentException, IOException {
+        if (message == null) throw new IllegalArgumentException("message must be bytes");
+
+        return verifyChunked((s, t) -> usedKeys(keys, s, t), signatures, ChunkedHmac.of(message), chunkBytes, threshold);
+    }
+
+    /**
+     * Verifies a chunked signature against the keys looked up by usedKeys
+     * and reports it
+     *
+     * @param usedKeys - looks up the used keys
+     * @param signatures - combined signature
+     * @param message - the message
+     * @param chunkBytes - size of each chunk in bytes used when signing
+     * @param threshold - minimum number of used keys
+     * @return verification of the signature (true/false)
+     * @throws InvalidKeyException - if the given key is inappropriate for initializing this HMAC
+     * @throws NoSuchAlgorithmException - if the specified algorithm is not available
+     * @throws IOException - if reading the message fails
+     */
+    boolean verifyChunked(UsedKeys usedKeys, Signature signatures, ChunkedHmac.Source message, int chunkBytes, int threshold) throws InvalidKeyException, NoSuchAlgorithmException, IllegalArgumentException, IOException {
+        Operation<Boolean, InvalidKeyException, IOException> verify = () -> verifyChunkedTags(usedKeys, signatures, message, chunkBytes, threshold);
+        if (!isMeasured()) return verify.run();
+
+        long length = message.size();
+        return measure(VERIFY_EVENT, (listener, event, start, valid, ok) -> reportVerify(listener, (VerifyEvent) event, start, length, signatures, threshold, valid), verify);
+    }
+
+    private boolean verifyChunkedTags(UsedKeys usedKeys, Signature signatures, ChunkedHmac.Source message, int chunkBytes, int threshold) throws InvalidKeyException, NoSuchAlgorithmException, IllegalArgumentException, IOException {
+        Key[] used = usedKeys.get(signatures, threshold);
+        if (used == null) return false;
+
+        return tagsMatch(signatures.signature, ChunkedHmac.tags(this, used, message, chunkBytes, parallelPolicy));
+    }
+
+    /**
+     * Verifies many signatures against the same list of keys in one call.
+     * Every key used by the batch is prepared once, so the HMAC key setup
+     * is paid per batch rather than per message. If parallel verification
+     * is enabled and the messages together reach the minimum message size
+     * of the parallel policy, the batch is split across its executor.
+     *
+     * Entries which verify would reject with an IllegalArgumentException
+     * (a missing message, a signature of the wrong length or an index
+     * beyond the list of keys) are reported as failed instead, so one
+     * malformed entry does not fail the whole batch. Every entry is
+     * reported to the metrics listener as a verification of its own,
+     * malformed ones with the outcome ERROR.
+     *
+     * @param keys - a list of all keys
+     * @param signatures - combined signatures
+     * @param messages - messages which have been signed, in the same order as signatures
+     * @param threshold - minimum number of keys each signature must be made with
+     * @return a bit set where bit i is set if signature i is valid for message i
+     * @throws InvalidKeyException - if the given key is inappropriate for initializing this HMAC
+     * @throws NoSuchAlgorithmException - if the specified algorithm is not available
+     */
+    public BitSet verifyBatch(List<Key> keys, List<Signature> signatures, List<byte[]> messages, int threshold) throws InvalidKeyException, NoSuchAlgorithmException, IllegalArgumentException {
+        return verifyBatch(keys, signatures.toArray(new Signature[0]), messages.toArray(new byte[0][]), threshold);
+    }
+
+    /**
+     * Verifies many signatures against the same list of keys in one call,
+     * see verifyBatch(List, List, List, int)
+     *
+     * @param keys - a list of all keys
+     * @param signatures - combined signatures
+     * @param messages - messages which have been signed, in the same order as signatures
+     * @param threshold - minimum number of keys each signature must be made with
+     * @return a bit set where bit i is set if signature i is valid for message i
+     * @throws InvalidKeyException - if the given key is inappropriate for initializing this HMAC
+     * @throws NoSuchAlgorithmException - if the specified algorithm is not available
+     */
+    public BitSet verifyBatch(List<Key> keys, Signature[] signatures, byte[][] messages, int threshold) throws InvalidKeyException, NoSuchAlgorithmException, IllegalArgumentException {
+        if (signatures.length != messages.length) throw new IllegalArgumentException("There must be a message for every signature");
+        if (threshold <= 0) throw new IllegalArgumentException("Threshold must be at least 1");
+
+        int nKeys = Math.min(keys.size(), 32);
+        int usedBits = batchBitField(signatures) & (nKeys == 32 ? -1 : (1 << nKeys) - 1);
+        PreparedKey[] prepared = new PreparedKey[nKeys];
+        for (int bits = usedBits; bits != 0; bits &= bits - 1) {
+            int i = Integer.numberOfTrailingZeros(bits);
+            // A key at the wrong position is left out, so entries using it fail
+            if (keys.get(i).index == i) prepared[i] = prepare(keys.get(i));
+        }
+
+        return verifyBatch(prepared, signatures, messages, threshold);
+    }
+
+    /**
+     * Computes the union of the bitfields of a batch
+     *
+     * @param signatures - combined signatures
+     * @return every index used by at least one signature
+     */
+    static int batchBitField(Signature[] signatures) {
+        int bitField = 0;
+        for (Signature signature : signatures) {
+            if (signature != null) bitField |= signature.index;
+        }
+
+        return bitField;
+    }
+
+    /**
+     * Verifies a batch against keys which have already been prepared
+     *
+     * @param prepared - prepared keys by index, null where a key is not available
+     * @param signatures - combined signatures
+     * @param messages - messages which have been signed
+     * @param threshold - minimum number of keys each signature must be made with
+     * @return a bit set where bit i is set if signature i is valid for message i
+     * @throws NoSuchAlgorithmException - if the specified algorithm is not available
+     */
+    BitSet verifyBatch(PreparedKey[] prepared, Signature[] signatures, byte[][] messages, int threshold) throws NoSuchAlgorithmException {
+        int n = signatures.length;
+        long[] words = new long[(n + 63) / 64];
+
+        long totalBytes = 0;
+        for (byte[] message : messages) {
+            if (message != null) totalBytes += message.length;
+        }
+        ParallelPolicy policy = parallelPolicy;
+        int nTasks = parallelVerify && n > 1 && totalBytes >= policy.getMinMessageBytes() ? Math.min(policy.getParallelism(), words.length) : 1;
+
+        // Tasks own whole words of the result, so they never write to the same long
+        try {
+            policy.forEach(nTasks, t -> {
+                int fromWord = words.length * t / nTasks;
+                int toWord = words.length * (t + 1) / nTasks;
+                for (int i = fromWord * 64; i < Math.min(n, toWord * 64); i++) {
+                    if (verifyEntry(prepared, signatures[i], messages[i], threshold)) words[i >>> 6] |= 1L << i;
+                }
+            });
+        } catch (InvalidKeyException | IOException e) {
+            throw new IllegalStateException(e);
+        }
+
+        return BitSet.valueOf(words);
+    }
+
+    /**
+     * Verifies one entry of a batch and reports it
+     */
+    private boolean verifyEntry(PreparedKey[] prepared, Signature signatures, byte[] message, int threshold) throws NoSuchAlgorithmException {
+        boolean wellFormed = signatures != null && message != null && signatures.signature != null && signatures.signature.length == BYTES;
+        if (!isMeasured()) return wellFormed && verifyPrepared(prepared, signatures, message, threshold);
+
+        // A malformed entry yields null, which is reported as an error
+        Boolean valid = measure(VERIFY_EVENT,
+                (listener, event, start, result, ok) -> reportVerify(listener, (VerifyEvent) event, start, message == null ? 0 : message.length, signatures, threshold, result),
+                () -> wellFormed ? verifyPrepared(prepared, signatures, message, threshold) : null);
+        return valid != null && valid;
+    }
+
+    /**
+     * Verifies one well formed entry of a batch
+     */
+    private boolean verifyPrepared(PreparedKey[] prepared, Signature signatures, byte[] message, int threshold) throws NoSuchAlgorithmException {
+        int bitField = signatures.index;
+        int nKeys = popCount(bitField);
+        if (nKeys < threshold) return false;
+
+        byte[][] tags = new byte[nKeys][];
+        int k = 0;
+        for (int bits = bitField; bits != 0; bits &= bits - 1) {
+            int i = Integer.numberOfTrailingZeros(bits);
+            if (i >= prepared.length || prepared[i] == null) return false;
+
+            MessageDigest inner = prepared[i].startInner();
+            inner.update(message);
+            tags[k++] = prepared[i].startOuter().digest(inner.digest());
+        }
+
+        return tagsMatch(signatures.signature, tags);
+    }
+
+    /**
+     * Checks the arguments of a verification against a list of keys and
+     * looks up the keys used in the combined signature
+     *
+     * @param keys - a list of all keys
+     * @param signatures - combined signature
+     * @param threshold - minimum number of keys that the list "keys" should contain
+     * @return the used keys in index order, or null if there are fewer than threshold or a key is not at its own index
+     */
+    Key[] usedKeys(List<Key> keys, Signature signatures, int threshold) throws IllegalArgumentException {
+        if (signatures.signature.length != BYTES) throw new IllegalArgumentException("Signature must be BYTES long");
+        if (threshold <= 0) throw new IllegalArgumentException("Threshold must be at least 1");
+
+        int bitField = signatures.index;
+        int nKeys = popCount(bitField);
+        int highestKey = 32 - leadingZeros(bitField);
+        if (keys.size() < nKeys || keys.size() < highestKey) throw new IllegalArgumentException("Not enough keys given based on index of the combined-Signature");
+
+        if (nKeys < threshold) {
+            return null;
+        }
+
+        List<Integer> usedKeys = keyIndexes(bitField);
+        Key[] used = new Key[usedKeys.size()];
+        int signed = 0;
+        for (int i = 0; i < used.length; i++) {
+            used[i] = keys.get(usedKeys.get(i));
+            signed |= indexBit(used[i]);
+        }
+
+        return signed == bitField ? used : null;
+    }
+
+    /**
+     * Looks up or derives the keys used in a combined signature, see
+     * usedKeys
+     */
+    interface UsedKeys {
+        Key[] get(Signature signatures, int threshold) throws InvalidKeyException, NoSuchAlgorithmException;
+    }
+
+    /**
+     * Looks up or derives the i-th used key of a verification
+     */
+    interface UsedKey {
+        Key get(int i) throws InvalidKeyException, NoSuchAlgorithmException;
+    }
+
+    /**
+     * Computes the tags of message for n used keys in parallel, one task
+     * per key on the executor of the parallel policy
+     *
+     * @param n - number of used keys
+     * @param keys - supplies the i-th used key
+     * @param message - buffer holding the message which has been signed
+     * @param offset - offset of the message in the buffer
+     * @param length - length of the message
+     * @return one tag per used key
+     * @throws InvalidKeyException - if the given key is inappropriate for initializing this HMAC
+     * @throws NoSuchAlgorithmException - if the specified algorithm is not available
+     */
+    byte[][] parallelTags(int n, UsedKey keys, byte[] message, int offset, int length) throws InvalidKeyException, NoSuchAlgorithmException {
+        byte[][] tags = new byte[n][BYTES];
+        try {
+            parallelPolicy.forEach(n, i -> {
+                HmacScratch scratch = pool.acquireScratch(ALGORITHM);
+                try {
+                    tagInto(scratch, keys.get(i), message, offset, length, tags[i]);
+                } finally {
+                    pool.releaseScratch(scratch);
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return tags;
+    }
+
+    /**
+     * Runs an operation on the async executor. The future is completed
+     * with whatever the operation returns or throws, and completed
+     * exceptionally with a RejectedExecutionException if the executor
+     * refuses the operation. Cancelling the future before the operation
+     * starts skips it.
+     *
+     * @param operation - operation which should be run
+     * @param <T> - type of the result
+     * @return a future of the result of the operation
+     */
+    protected <T> CompletableFuture<T> async(Callable<T> operation) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            getAsyncExecutor().execute(() -> {
+                if (future.isDone()) return;
+                try {
+                    future.complete(operation.call());
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+
+        return future;
+    }
+
+    /**
+     * Computes the tag of a message with a key into a buffer. Prepared keys
+     * start from their digest midstates, any other key is run through the
+     * scratch without allocating.
+     *
+     * @param scratch - scratch of the calling thread
+     * @param key - key which is an instance of Key used for signing
+     * @param message - buffer holding the message
+     * @param offset - offset of the message in the buffer
+     * @param length - length of the message
+     * @param out - buffer receiving the BYTES long tag
+     * @throws NoSuchAlgorithmException - if the specified algorithm is not available
+     */
+    void tagInto(HmacScratch scratch, Key key, byte[] message, int offset, int length, byte[] out) throws NoSuchAlgorithmException {
+        if (key instanceof PreparedKey && ((PreparedKey) key).algorithm == ALGORITHM) {
+            PreparedKey prepared = (PreparedKey) key;
+            MessageDigest inner = prepared.startInner();
+            inner.update(message, offset, length);
+            System.arraycopy(prepared.startOuter().digest(inner.digest()), 0, out, 0, BYTES);
+            return;
+        }
+
+        scratch.hmac(key.key, key.key.length, message, offset, length, out);
+    }
+
+    /**
+     * Begins a SignEvent. The events are created in lambdas returning
+     * Object, so no event class is loaded unless a recording runs.
+     */
+    static final Supplier<Object> SIGN_EVENT = () -> {
+        SignEvent event = new SignEvent();
+        event.begin();
+        return event;
+    };
+
+    /**
+     * Begins a VerifyEvent, see SIGN_EVENT
+     */
+    static final Supplier<Object> VERIFY_EVENT = () -> {
+        VerifyEvent event = new VerifyEvent();
+        event.begin();
+        return event;
+    };
+
+    /**
+     * Operation run by measure. Besides NoSuchAlgorithmException it may
+     * throw two further checked exceptions, which are inferred one by one
+     * where a single exception type would widen to their superclass.
+     */
+    interface Operation<T, E1 extends Exception, E2 extends Exception> {
+        T run() throws NoSuchAlgorithmException, E1, E2;
+    }
+
+    /**
+     * Reports an operation run by measure
+     */
+    interface Report<T> {
+        /**
+         * @param listener - the metrics listener, or null
+         * @param event - the Flight Recorder event begun before the operation, or null
+         * @param start - System.nanoTime() before the operation
+         * @param result - result of the operation, or null if it threw
+         * @param ok - false if the operation threw
+         */
+        void report(MetricsListener listener, Object event, long start, T result, boolean ok);
+    }
+
+    /**
+     * Returns whether an operation needs to be measured, that is whether a
+     * metrics listener is set or a recording runs. Callers run the
+     * operation directly otherwise, so without either nothing is
+     * allocated for the lambdas passed to measure.
+     *
+     * @return true if operations should go through measure
+     */
+    boolean isMeasured() {
+        return metricsListener != null || FlightRecording.isActive();
+    }
+
+    /**
+     * Runs an operation and reports its duration and outcome to the
+     * metrics listener and Flight Recorder, whether it returns or throws.
+     * Every sign, verify and derive entry point goes through here.
+     *
+     * @param newEvent - begins the Flight Recorder event, called only while a recording runs
+     * @param report - reports the operation
+     * @param operation - the operation
+     * @return result of the operation
+     * @throws NoSuchAlgorithmException - if the operation throws it
+     * @throws E1 - if the operation throws it
+     * @throws E2 - if the operation throws it
+     */
+    <T, E1 extends Exception, E2 extends Exception> T measure(Supplier<Object> newEvent, Report<T> report, Operation<T, E1, E2> operation) throws NoSuchAlgorithmException, E1, E2 {
+        MetricsListener listener = metricsListener;
+        Object event = FlightRecording.isActive() ? newEvent.get() : null;
+        long start = System.nanoTime();
+        T result = null;
+        boolean ok = false;
+        try {
+            result = operation.run();
+            ok = true;
+            return result;
+        } finally {
+            report.report(listener, event, start, result, ok);
+        }
+    }
+
+    /**
+     * Reports a verification to a metrics listener and Flight Recorder,
+     * telling a signature below the threshold from one whose tags do not
+     * match
+     *
+     * @param listener - the metrics listener, or null
+     * @param event - the Flight Recorder event begun before the verification, or null
+     * @param start - System.nanoTime() before the verification
+     * @param length - length of the message
+     * @param signatures - combined signature
+     * @param threshold - minimum number of keys
+     * @param valid - result of the verification, or null if it threw
+     */
+    void reportVerify(MetricsListener listener, VerifyEvent event, long start, long length, Signature signatures, int threshold, Boolean valid) {
+        reportVerify(listener, event, start, length, signatures == null ? 0 : popCount(signatures.index), threshold, valid);
+    }
+
+    /**
+     * Reports a verification, see reportVerify(MetricsListener,
+     * VerifyEvent, long, long, Signature, int, Boolean)
+     *
+     * @param listener - the metrics listener, or null
+     * @param event - the Flight Recorder event begun before the verification, or null
+     * @param start - System.nanoTime() before the verification
+     * @param length - length of the message
+     * @param signers - number of keys in the combined signature
+     * @param threshold - minimum number of keys
+     * @param valid - result of the verification, or null if it threw
+     */
+    void reportVerify(MetricsListener listener, VerifyEvent event, long start, long length, int signers, int threshold, Boolean valid) {
+        if (listener == null && event == null) return;
+
+        long nanos = System.nanoTime() - start;
+        MetricsListener.Outcome outcome;
+        if (valid == null) outcome = MetricsListener.Outcome.ERROR;
+        else if (valid) outcome = MetricsListener.Outcome.OK;
+        else if (signers < threshold) outcome = MetricsListener.Outcome.BELOW_THRESHOLD;
+        else outcome = MetricsListener.Outcome.TAG_MISMATCH;
+
+        if (listener != null) listener.onOperation(MetricsListener.Operation.VERIFY, ALGORITHM, nanos, length, signers, outcome);
+        if (event != null && event.shouldCommit()) {
+            event.algorithm = ALGORITHM.name();
+            event.messageLength = length;
+            event.signers = signers;
+            event.threshold = threshold;
+            event.outcome = outcome.name();
+            event.commit();
+        }
+    }
+
+    /**
+     * Reports a signature to a metrics listener and Flight Recorder
+     *
+     * @param listener - the metrics listener, or null
+     * @param event - the Flight Recorder event begun before signing, or null
+     * @param start - System.nanoTime() before signing
+     * @param length - length of the message
+     * @param signers - number of keys signing
+     * @param keyIndex - index of the key, or -1 if several keys sign
+     * @param ok - false if signing threw
+     */
+    void reportSign(MetricsListener listener, SignEvent event, long start, long length, int signers, int keyIndex, boolean ok) {
+        if (listener == null && event == null) return;
+
+        MetricsListener.Outcome outcome = ok ? MetricsListener.Outcome.OK : MetricsListener.Outcome.ERROR;
+        if (listener != null) listener.onOperation(MetricsListener.Operation.SIGN, ALGORITHM, System.nanoTime() - start, length, signers, outcome);
+        if (event != null && event.shouldCommit()) {
+            event.algorithm = ALGORITHM.name();
+            event.messageLength = length;
+            event.keyIndex = keyIndex;
+            event.signers = signers;
+            event.outcome = outcome.name();
+            event.commit();
+        }
+    }
+
+    /**
+     * Checks whether a byte array is all zeros. The check takes the same
+     * time wherever the first non-zero byte is.
+     *
+     * @param a - byte array which is checked
+     * @return true if every byte is zero
+     */
+    static boolean isZero(byte[] a) {
+        int diff = 0;
+        for (byte b : a) {
+            diff |= b;
+        }
+
+        return diff == 0;
+    }
+
+    /**
+     * Checks whether the tags of the used keys xor to the combined
+     * signature. The comparison takes the same time wherever the first
+     * difference is.
+     *
+     * @param signature - tag of the combined signature
+     * @param tags - tags of the used keys
+     * @return true if the tags match the signature
+     */
+    static boolean tagsMatch(byte[] signature, byte[][] tags) {
+        int diff = 0;
+        for (int i = 0; i < signature.length; i++) {
+            int b = signature[i];
+            for (byte[] tag : tags) {
+                b ^= tag[i];
+            }
+            diff |= b;
+        }
+
+        return diff == 0;
+    }
+
+    /**
+     * Computes the indexes of the keys (indexes of 1-bits)
+     *
+     * @param bitField - indexes of keys represented as one integer
+     * @return indexes of keys in a list
+     */
+    protected static List<Integer> keyIndexes(int bitField) {
+        List<Integer> keys = new ArrayList<>();
+        for (int bits = bitField; bits != 0; bits &= bits - 1) {
+            keys.add(Integer.numberOfTrailingZeros(bits));
+        }
+
+        return keys;
+    }
+
+    /**
+     * Computes the bitfield of a single key
+     *
+     * @param key - key with an index between 0 and 31
+     * @return bitfield with only the index of the key set
+     */
+    protected static int bitOf(Key key) {
+        if (key.index < 0 || key.index >= 32) throw new IllegalArgumentException("Key index must be between 0 and 31, use signWide for larger indexes");
+
+        return 1 << key.index;
+    }
+
+    /**
+     * Computes the bitfield of a key used in a verification
+     *
+     * @param key - key which should have an index between 0 and 31
+     * @return bitfield with only the index of the key set, or 0 if the index is out of range
+     */
+    static int indexBit(Key key) {
+        return key.index >= 0 && key.index < 32 ? 1 << key.index : 0;
+    }
+
+    /**
+     * Computes the number of keys (the number of 1-bits)
+     *
+     * @param bitField - indexes of keys represented as one integer
+     * @return number of keys
+     */
+    protected static int popCount(int bitField) {
+        return Integer.bitCount(bitField);
+    }
+
+    /**
+     * Computes the number of leading zeros
+     *
+     * @param bitField - indexes of keys represented as one integer
+     * @return number of leading zeros
+     */
+    protected static int leadingZeros(int bitField) {
+        return Integer.numberOfLeadingZeros(bitField);
     }
 }
\ No newline at end of file
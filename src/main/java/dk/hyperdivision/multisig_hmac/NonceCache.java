@@ -0,0 +1,279 @@
+package dk.hyperdivision.multisig_hmac;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Arrays;
+
+/**
+ * NonceCache remembers the nonces of recently accepted messages so a
+ * replayed message can be told apart from a fresh one. It is safe to
+ * share between threads.
+ *
+ * Messages carry the time they were signed, and only messages within
+ * maxSkew of the clock are accepted. Every nonce is filed under a time
+ * bucket of its timestamp, and a bucket is emptied in one go when it
+ * falls out of the window, so nothing is evicted one entry at a time.
+ * A replay carries the same signed timestamp, so it is looked up in
+ * exactly one bucket.
+ *
+ * Nonces are stored as 64 bit fingerprints keyed with a random secret
+ * chosen per cache, in fixed size open addressing tables. The cache is
+ * split into a number of independently locked segments by fingerprint,
+ * each holding one table per bucket. All tables are allocated up front,
+ * so the memory use is fixed, see getMemoryBytes. The capacity is spread
+ * evenly over the buckets, and a nonce which arrives when its table is
+ * full is refused rather than forgotten.
+ *
+ * Nonces are never removed one by one, so a caller checks a nonce with
+ * check before doing any expensive work and only adds it with add once
+ * the message carrying it has turned out to be authentic.
+ *
+ * @author Amalie Due Jensen
+ */
+public class NonceCache {
+    /**
+     * Number of buckets a window of 2 * maxSkew is split into
+     */
+    static final int WINDOW_BUCKETS = 8;
+
+    /**
+     * Ring size: the live buckets plus the partial buckets at both ends,
+     * so two live buckets never share a slot
+     */
+    static final int RING = WINDOW_BUCKETS + 2;
+
+    private static final long EMPTY = 0;
+
+    private final Segment[] segments;
+    private final int segmentShift;
+    private final long maxSkewMillis;
+    private final long bucketMillis;
+    private final int tableSize;
+    private final int tableLimit;
+    private final Clock clock;
+    private final long seed0;
+    private final long seed1;
+
+    /**
+     * Result of checking or adding a nonce
+     */
+    enum Status {
+        FRESH, ADDED, STALE, REPLAYED, FULL
+    }
+
+    /**
+     * Constructs a cache for the system clock
+     *
+     * @param maxSkew - how far a timestamp may lie from the clock, in either direction
+     * @param capacity - number of nonces the cache must be able to hold across the window
+     */
+    public NonceCache(Duration maxSkew, int capacity) {
+        this(maxSkew, capacity, Clock.systemUTC());
+    }
+
+    /**
+     * Constructs a cache
+     *
+     * @param maxSkew - how far a timestamp may lie from the clock, in either direction
+     * @param capacity - number of nonces the cache must be able to hold across the window
+     * @param clock - clock which timestamps are compared to
+     */
+    public NonceCache(Duration maxSkew, int capacity, Clock clock) {
+        if (maxSkew.isNegative() || maxSkew.isZero()) throw new IllegalArgumentException("Maximum skew must be positive");
+        if (capacity <= 0) throw new IllegalArgumentException("Capacity must be at least 1");
+
+        this.maxSkewMillis = maxSkew.toMillis();
+        this.bucketMillis = Math.max(1, (2 * maxSkewMillis + WINDOW_BUCKETS - 1) / WINDOW_BUCKETS);
+        this.clock = clock;
+
+        int nSegments = Integer.highestOneBit(Math.min(256, Math.max(1, Runtime.getRuntime().availableProcessors() * 4)));
+        // Tables are kept at most half full, so probes stay short
+        int perTable = (int) Math.max(1, ((long) capacity + (long) nSegments * WINDOW_BUCKETS - 1) / ((long) nSegments * WINDOW_BUCKETS));
+        this.tableSize = Integer.highestOneBit(perTable * 2 - 1) * 2;
+        this.tableLimit = Math.max(1, tableSize / 2);
+        this.segmentShift = 64 - Integer.numberOfTrailingZeros(nSegments);
+        this.segments = new Segment[nSegments];
+        for (int i = 0; i < nSegments; i++) {
+            segments[i] = new Segment(tableSize);
+        }
+
+        this.seed0 = MultisigHMAC.entropy().nextLong();
+        this.seed1 = MultisigHMAC.entropy().nextLong();
+    }
+
+    /**
+     * Returns how far a timestamp may lie from the clock
+     *
+     * @return the maximum skew in milliseconds
+     */
+    public long getMaxSkewMillis() {
+        return maxSkewMillis;
+    }
+
+    /**
+     * Returns the memory taken by the tables, which does not change
+     *
+     * @return the size of the tables in bytes
+     */
+    public long getMemoryBytes() {
+        return (long) segments.length * RING * tableSize * Long.BYTES;
+    }
+
+    /**
+     * Returns the number of nonces held, including those of buckets which
+     * have fallen out of the window but have not been reused yet
+     *
+     * @return number of nonces
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                for (int count : segment.counts) {
+                    size += count;
+                }
+            }
+        }
+
+        return size;
+    }
+
+    /**
+     * Checks a timestamp against the window and looks the nonce up,
+     * without adding it
+     *
+     * @param timestamp - signed timestamp in milliseconds since the epoch
+     * @param nonce - buffer holding the nonce
+     * @param offset - offset of the nonce in the buffer
+     * @param length - length of the nonce
+     * @return FRESH, STALE if the timestamp is outside the window, REPLAYED if the nonce is present, or FULL if its table is full
+     */
+    Status check(long timestamp, byte[] nonce, int offset, int length) {
+        long now = clock.millis();
+        if (timestamp < now - maxSkewMillis || timestamp > now + maxSkewMillis) return Status.STALE;
+
+        long epoch = Math.floorDiv(timestamp, bucketMillis);
+        long fp = fingerprint(timestamp, nonce, offset, length);
+        Segment segment = segments[(int) (fp >>> segmentShift) & (segments.length - 1)];
+        synchronized (segment) {
+            return segment.check(epoch, fp);
+        }
+    }
+
+    /**
+     * Checks a timestamp against the window and adds the nonce if it is
+     * not present yet
+     *
+     * @param timestamp - signed timestamp in milliseconds since the epoch
+     * @param nonce - buffer holding the nonce
+     * @param offset - offset of the nonce in the buffer
+     * @param length - length of the nonce
+     * @return ADDED, STALE if the timestamp is outside the window, REPLAYED if the nonce is present, or FULL if its table is full
+     */
+    Status add(long timestamp, byte[] nonce, int offset, int length) {
+        long now = clock.millis();
+        if (timestamp < now - maxSkewMillis || timestamp > now + maxSkewMillis) return Status.STALE;
+
+        long epoch = Math.floorDiv(timestamp, bucketMillis);
+        long fp = fingerprint(timestamp, nonce, offset, length);
+        Segment segment = segments[(int) (fp >>> segmentShift) & (segments.length - 1)];
+        synchronized (segment) {
+            return segment.add(epoch, fp);
+        }
+    }
+
+    /**
+     * Computes the keyed fingerprint of a timestamp and nonce. 0 marks
+     * an empty slot, so it is never returned.
+     */
+    long fingerprint(long timestamp, byte[] nonce, int offset, int length) {
+        long h = mix(seed0 ^ timestamp);
+        int i = 0;
+        for (; i + Long.BYTES <= length; i += Long.BYTES) {
+            long w = 0;
+            for (int j = 0; j < Long.BYTES; j++) {
+                w = (w << 8) | (nonce[offset + i + j] & 0xFF);
+            }
+            h = mix(h ^ w ^ seed1);
+        }
+        long tail = length;
+        for (; i < length; i++) {
+            tail = (tail << 8) | (nonce[offset + i] & 0xFF);
+        }
+        h = mix(h ^ tail ^ seed1);
+
+        return h == EMPTY ? 1 : h;
+    }
+
+    /**
+     * Finalizer of MurmurHash3, spreading every input bit over the output
+     */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private final class Segment {
+        final long[][] tables = new long[RING][];
+        final long[] epochs = new long[RING];
+        final int[] counts = new int[RING];
+
+        Segment(int tableSize) {
+            for (int i = 0; i < RING; i++) {
+                tables[i] = new long[tableSize];
+                epochs[i] = Long.MIN_VALUE;
+            }
+        }
+
+        Status check(long epoch, long fp) {
+            int slot = (int) Math.floorMod(epoch, (long) RING);
+            // A slot still holding an older bucket is as good as empty
+            if (epochs[slot] < epoch) return Status.FRESH;
+            if (epochs[slot] > epoch) return Status.STALE;
+
+            if (find(tables[slot], fp) >= 0) return Status.REPLAYED;
+            return counts[slot] >= tableLimit ? Status.FULL : Status.FRESH;
+        }
+
+        Status add(long epoch, long fp) {
+            int slot = (int) Math.floorMod(epoch, (long) RING);
+            if (epochs[slot] > epoch) return Status.STALE;
+
+            long[] table = tables[slot];
+            if (epochs[slot] < epoch) {
+                // Every nonce in the slot belongs to a bucket which has left the window
+                Arrays.fill(table, EMPTY);
+                counts[slot] = 0;
+                epochs[slot] = epoch;
+            }
+
+            int i = find(table, fp);
+            if (i >= 0) return Status.REPLAYED;
+            if (counts[slot] >= tableLimit) return Status.FULL;
+
+            // Tables are at most half full, so the probe ended on an empty slot
+            table[~i] = fp;
+            counts[slot]++;
+            return Status.ADDED;
+        }
+
+        /**
+         * Returns the position of fp, or the complement of the empty slot
+         * where its probe ends
+         */
+        int find(long[] table, long fp) {
+            int mask = table.length - 1;
+            int i = (int) fp & mask;
+            while (true) {
+                long v = table[i];
+                if (v == fp) return i;
+                if (v == EMPTY) return ~i;
+                i = (i + 1) & mask;
+            }
+        }
+    }
+}
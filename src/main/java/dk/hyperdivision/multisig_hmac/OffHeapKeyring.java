@@ -0,0 +1,176 @@
+package dk.hyperdivision.multisig_hmac;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * OffHeapKeyring holds component keys in a single direct buffer, one
+ * fixed size slot per index. The heap only holds the buffer object and a
+ * bitmap of the occupied slots, however many keys there are, so the keys
+ * add nothing for the garbage collector to trace or copy and no stray
+ * copies of them are left behind by compaction.
+ *
+ * Removing a key and closing the keyring overwrite the slots with zeros.
+ * The memory of a direct buffer is only returned once the buffer is
+ * collected, so close() is what guarantees the keys are gone.
+ *
+ * Reads may happen from any number of threads. put and remove must not
+ * run concurrently with each other or with reads of the same index.
+ *
+ * @author Amalie Due Jensen
+ */
+public class OffHeapKeyring implements Keyring, AutoCloseable {
+    private final ByteBuffer slab;
+    private final ByteBuffer readOnly;
+    private final int capacity;
+    private final int keyBytes;
+    private final long[] present;
+    private volatile boolean closed;
+
+    /**
+     * Constructs an empty keyring
+     *
+     * @param capacity - number of slots, i.e. one more than the highest index
+     * @param keyBytes - length of every key, e.g. KEYBYTES
+     */
+    public OffHeapKeyring(int capacity, int keyBytes) {
+        if (capacity < 0) throw new IllegalArgumentException("Capacity must be at least 0");
+        if (keyBytes <= 0) throw new IllegalArgumentException("Key length must be at least 1");
+        if ((long) capacity * keyBytes > Integer.MAX_VALUE) throw new IllegalArgumentException("Keyring must fit in 2 GB");
+
+        this.slab = ByteBuffer.allocateDirect(capacity * keyBytes);
+        this.readOnly = slab.asReadOnlyBuffer();
+        this.capacity = capacity;
+        this.keyBytes = keyBytes;
+        this.present = new long[(capacity + 63) >>> 6];
+    }
+
+    /**
+     * Constructs a keyring holding copies of a list of keys, each in the
+     * slot of its index. The keys must all have the same length. The
+     * arrays of the keys are left as they are, callers which want them
+     * gone should overwrite them afterwards.
+     *
+     * @param keys - keys which should be stored
+     * @return the keyring
+     */
+    public static OffHeapKeyring of(List<Key> keys) {
+        int capacity = 0;
+        int keyBytes = 0;
+        for (Key key : keys) {
+            capacity = Math.max(capacity, key.index + 1);
+            keyBytes = key.key.length;
+        }
+
+        OffHeapKeyring keyring = new OffHeapKeyring(capacity, Math.max(keyBytes, 1));
+        for (Key key : keys) {
+            keyring.put(key);
+        }
+
+        return keyring;
+    }
+
+    /**
+     * Returns the length of every key
+     *
+     * @return key length in bytes
+     */
+    public int getKeyBytes() {
+        return keyBytes;
+    }
+
+    @Override
+    public int size() {
+        return capacity;
+    }
+
+    @Override
+    public boolean contains(int index) {
+        return index >= 0 && index < capacity && (present[index >>> 6] & (1L << index)) != 0;
+    }
+
+    /**
+     * Copies a key into the slot of an index, replacing any key there
+     *
+     * @param index - index of the key
+     * @param key - key bytes of length getKeyBytes
+     */
+    public void put(int index, byte[] key) {
+        ensureOpen();
+        if (index < 0 || index >= capacity) throw new IllegalArgumentException("Key index must be between 0 and size - 1");
+        if (key.length != keyBytes) throw new IllegalArgumentException("Key must be " + keyBytes + " bytes long");
+
+        slab.duplicate().position(index * keyBytes).put(key);
+        present[index >>> 6] |= 1L << index;
+    }
+
+    /**
+     * Copies a key into the slot of its index, replacing any key there
+     *
+     * @param key - key which is an instance of Key
+     */
+    public void put(Key key) {
+        put(key.index, key.key);
+    }
+
+    /**
+     * Removes the key with an index and zeroes its slot
+     *
+     * @param index - index of the key
+     */
+    public void remove(int index) {
+        ensureOpen();
+        if (!contains(index)) return;
+
+        present[index >>> 6] &= ~(1L << index);
+        zero(index * keyBytes, keyBytes);
+    }
+
+    @Override
+    public ByteBuffer key(int index) {
+        ensureOpen();
+        if (!contains(index)) throw new IllegalArgumentException("No key with index " + index + " in keyring");
+
+        return readOnly.slice(index * keyBytes, keyBytes);
+    }
+
+    /**
+     * Returns whether the keyring has been closed
+     *
+     * @return true once close has been called
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Zeroes every slot and drops all keys. Further use of the keyring
+     * throws IllegalStateException, while a verification already running
+     * reads zeros and fails.
+     */
+    @Override
+    public void close() {
+        if (closed) return;
+
+        closed = true;
+        zero(0, slab.capacity());
+        for (int i = 0; i < present.length; i++) {
+            present[i] = 0;
+        }
+    }
+
+    private void zero(int from, int length) {
+        int i = from;
+        int end = from + length;
+        for (; i + Long.BYTES <= end; i += Long.BYTES) {
+            slab.putLong(i, 0L);
+        }
+        for (; i < end; i++) {
+            slab.put(i, (byte) 0);
+        }
+    }
+
+    private void ensureOpen() {
+        if (closed) throw new IllegalStateException("Keyring has been closed");
+    }
+}
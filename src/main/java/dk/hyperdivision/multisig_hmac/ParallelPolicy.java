@@ -0,0 +1,142 @@
+package dk.hyperdivision.multisig_hmac;
+
+import java.io.IOException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * ParallelPolicy describes where and how widely MultisigHMAC spreads
+ * work across threads for its parallel operations, and the cutoffs below
+ * which parallel verification falls back to the sequential path because
+ * the hand-off costs more than it saves.
+ *
+ * @author Amalie Due Jensen
+ */
+public class ParallelPolicy {
+    public static final int DEFAULT_MIN_MESSAGE_BYTES = 64 * 1024;
+    public static final int DEFAULT_MIN_KEYS = 2;
+
+    private final Executor executor;
+    private final int parallelism;
+    private final long minMessageBytes;
+    private final int minKeys;
+
+    /**
+     * Constructs and initializes a new instance of ParallelPolicy with
+     * the default cutoffs
+     *
+     * @param executor - executor which runs the parallel tasks
+     * @param parallelism - maximum number of threads expected to work on one operation
+     */
+    public ParallelPolicy(Executor executor, int parallelism) {
+        this(executor, parallelism, DEFAULT_MIN_MESSAGE_BYTES, DEFAULT_MIN_KEYS);
+    }
+
+    /**
+     * Constructs and initializes a new instance of ParallelPolicy
+     *
+     * @param executor - executor which runs the parallel tasks
+     * @param parallelism - maximum number of threads expected to work on one operation
+     * @param minMessageBytes - smallest message which is verified in parallel
+     * @param minKeys - smallest number of used keys which is verified in parallel
+     */
+    public ParallelPolicy(Executor executor, int parallelism, long minMessageBytes, int minKeys) {
+        if (executor == null) throw new IllegalArgumentException("Executor must not be null");
+        if (parallelism <= 0) throw new IllegalArgumentException("Parallelism must be at least 1");
+        if (minMessageBytes < 0) throw new IllegalArgumentException("Minimum message size must not be negative");
+        if (minKeys < 1) throw new IllegalArgumentException("Minimum number of keys must be at least 1");
+        this.executor = executor;
+        this.parallelism = parallelism;
+        this.minMessageBytes = minMessageBytes;
+        this.minKeys = minKeys;
+    }
+
+    /**
+     * Returns a policy which runs tasks in the common ForkJoinPool
+     *
+     * @return the policy
+     */
+    public static ParallelPolicy commonPool() {
+        return new ParallelPolicy(ForkJoinPool.commonPool(), Math.max(1, ForkJoinPool.getCommonPoolParallelism()));
+    }
+
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public long getMinMessageBytes() {
+        return minMessageBytes;
+    }
+
+    public int getMinKeys() {
+        return minKeys;
+    }
+
+    /**
+     * Decides whether a verification is large enough to be worth
+     * spreading across threads
+     *
+     * @param messageBytes - length of the message
+     * @param nKeys - number of used keys
+     * @return true if the verification should run in parallel
+     */
+    public boolean parallelize(long messageBytes, int nKeys) {
+        return parallelism > 1 && nKeys >= minKeys && messageBytes >= minMessageBytes;
+    }
+
+    /**
+     * A unit of work run by forEach
+     */
+    interface Task {
+        void run(int i) throws InvalidKeyException, NoSuchAlgorithmException, IOException;
+    }
+
+    /**
+     * Runs task for every i in [0, n) and waits for all of them. The
+     * calling thread runs task 0 itself while the rest are submitted to
+     * the executor. The first failure is rethrown.
+     *
+     * @param n - number of tasks
+     * @param task - the work
+     */
+    void forEach(int n, Task task) throws InvalidKeyException, NoSuchAlgorithmException, IOException {
+        if (n <= 0) return;
+        if (n == 1) {
+            task.run(0);
+            return;
+        }
+
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[n - 1];
+        for (int i = 1; i < n; i++) {
+            int t = i;
+            futures[i - 1] = CompletableFuture.runAsync(() -> {
+                try {
+                    task.run(t);
+                } catch (InvalidKeyException | NoSuchAlgorithmException | IOException e) {
+                    throw new CompletionException(e);
+                }
+            }, executor);
+        }
+
+        task.run(0);
+        try {
+            CompletableFuture.allOf(futures).join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof InvalidKeyException) throw (InvalidKeyException) cause;
+            if (cause instanceof NoSuchAlgorithmException) throw (NoSuchAlgorithmException) cause;
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package dk.hyperdivision.multisig_hmac;
+
+import java.security.GeneralSecurityException;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * PreparedDerivedKeys is the list of sub keys of a master key, indexed like
+ * a list of stored keys. Each sub key is derived and prepared the first
+ * time it is used, or up front by warm. Signature bitfields have 32 bits,
+ * so there are 32 of them.
+ *
+ * destroy overwrites the master key with zeros. Sub keys prepared before
+ * stay usable, any other one can no longer be derived. Derivations hold
+ * a read lock and destroy the write lock, so no sub key is ever derived
+ * from a partly zeroed master key.
+ *
+ * @author Amalie Due Jensen
+ */
+final class PreparedDerivedKeys extends AbstractList<Key> {
+    private final DerivedMultisigHMAC multisig;
+    final byte[] masterKey;
+    private final AtomicReferenceArray<PreparedKey> prepared = new AtomicReferenceArray<>(32);
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private boolean destroyed;
+
+    /**
+     * @param multisig - instance whose algorithm and key cache are used
+     * @param masterKey - master key, which is not copied
+     */
+    PreparedDerivedKeys(DerivedMultisigHMAC multisig, byte[] masterKey) {
+        this.multisig = multisig;
+        this.masterKey = masterKey;
+    }
+
+    @Override
+    public Key get(int index) {
+        PreparedKey key = prepared.get(index);
+        if (key == null) {
+            lock.readLock().lock();
+            try {
+                if (destroyed) throw new IllegalStateException("Master key has been destroyed");
+                key = multisig.prepare(multisig.generate(index, masterKey));
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            } finally {
+                lock.readLock().unlock();
+            }
+            // Racing threads derive the same key, so whichever is stored first is as good as any
+            if (!prepared.compareAndSet(index, null, key)) key = prepared.get(index);
+        }
+
+        return key;
+    }
+
+    @Override
+    public int size() {
+        return prepared.length();
+    }
+
+    /**
+     * Derives and prepares every sub key which has not been used yet
+     */
+    void warm() {
+        for (int i = 0; i < size(); i++) {
+            get(i);
+        }
+    }
+
+    /**
+     * Overwrites the master key with zeros once running derivations have
+     * finished
+     */
+    void destroy() {
+        lock.writeLock().lock();
+        try {
+            destroyed = true;
+            Arrays.fill(masterKey, (byte) 0);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+}
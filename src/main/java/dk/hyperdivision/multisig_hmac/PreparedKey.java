@@ -0,0 +1,154 @@
+package dk.hyperdivision.multisig_hmac;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+
+/**
+ * PreparedKey is a Key which has already absorbed the HMAC inner and
+ * outer key pads for one algorithm.
+ *
+ * HMAC(K, m) = H((K ^ opad) || H((K ^ ipad) || m)), and each pad fills a
+ * whole hash block. A PreparedKey hashes both pads once and keeps the two
+ * digest midstates, so every tag only has to clone them and hash the
+ * message and the inner hash. For short messages this is roughly half the
+ * work of a Mac, which starts from the key every time. The tags are
+ * identical to the ones computed by Mac.
+ *
+ * The digests come from the provider the key was prepared with, see
+ * MultisigHMAC.prepare, which must therefore have the hash function and
+ * not just the HMAC.
+ *
+ * A PreparedKey is immutable and can be shared between threads.
+ *
+ * @author Amalie Due Jensen
+ */
+public class PreparedKey extends Key {
+    final MultisigHMAC.Algorithm algorithm;
+    final String digestAlgorithm;
+    final int blockBytes;
+    final byte[] ipad;
+    final byte[] opad;
+    final Provider provider;
+    private final MessageDigest inner;
+    private final MessageDigest outer;
+
+    /**
+     * Constructs and initializes a new instance of PreparedKey
+     *
+     * @param alg - algorithm used for HMAC
+     * @param index - the index in the instance
+     * @param key - the key in the instance
+     * @throws NoSuchAlgorithmException - if the underlying hash function is not available
+     */
+    public PreparedKey(MultisigHMAC.Algorithm alg, int index, byte[] key) throws NoSuchAlgorithmException {
+        this(alg, index, key, null);
+    }
+
+    /**
+     * Constructs and initializes a new instance of PreparedKey whose
+     * digests come from a specific JCA provider
+     *
+     * @param alg - algorithm used for HMAC
+     * @param index - the index in the instance
+     * @param key - the key in the instance
+     * @param provider - provider of the hash function, or null for the most preferred provider
+     * @throws NoSuchAlgorithmException - if the underlying hash function is not available from the provider
+     */
+    PreparedKey(MultisigHMAC.Algorithm alg, int index, byte[] key, Provider provider) throws NoSuchAlgorithmException {
+        super(index, key);
+        this.algorithm = alg;
+        this.provider = provider;
+        switch (alg) {
+            case HmacSHA256:
+                digestAlgorithm = "SHA-256";
+                blockBytes = 64;
+                break;
+            case HmacSHA512:
+                digestAlgorithm = "SHA-512";
+                blockBytes = 128;
+                break;
+            case HmacSHA384:
+                digestAlgorithm = "SHA-384";
+                blockBytes = 128;
+                break;
+            default:
+                throw new NoSuchAlgorithmException(alg.name());
+        }
+
+        // Keys longer than a block are hashed first, shorter keys are zero padded
+        byte[] k = key.length > blockBytes ? newDigest().digest(key) : key;
+        ipad = new byte[blockBytes];
+        opad = new byte[blockBytes];
+        for (int i = 0; i < blockBytes; i++) {
+            byte b = i < k.length ? k[i] : 0;
+            ipad[i] = (byte) (b ^ 0x36);
+            opad[i] = (byte) (b ^ 0x5c);
+        }
+
+        MessageDigest in = newDigest();
+        MessageDigest out = newDigest();
+        in.update(ipad);
+        out.update(opad);
+        if (cloneOf(in) == null || cloneOf(out) == null) {
+            in = null;
+            out = null;
+        }
+        inner = in;
+        outer = out;
+    }
+
+    /**
+     * Returns the algorithm the key has been prepared for
+     *
+     * @return algorithm used for HMAC
+     */
+    public MultisigHMAC.Algorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * Returns a digest which has absorbed the inner key pad and is ready
+     * for the message
+     *
+     * @return the inner digest, owned by the caller
+     * @throws NoSuchAlgorithmException - if the underlying hash function is not available
+     */
+    MessageDigest startInner() throws NoSuchAlgorithmException {
+        return start(inner, ipad);
+    }
+
+    /**
+     * Returns a digest which has absorbed the outer key pad and is ready
+     * for the inner hash
+     *
+     * @return the outer digest, owned by the caller
+     * @throws NoSuchAlgorithmException - if the underlying hash function is not available
+     */
+    MessageDigest startOuter() throws NoSuchAlgorithmException {
+        return start(outer, opad);
+    }
+
+    private MessageDigest start(MessageDigest midstate, byte[] pad) throws NoSuchAlgorithmException {
+        MessageDigest md = midstate == null ? null : cloneOf(midstate);
+        if (md == null) {
+            // The provider does not support cloning, so absorb the pad again
+            md = newDigest();
+            md.update(pad);
+        }
+
+        return md;
+    }
+
+    private MessageDigest newDigest() throws NoSuchAlgorithmException {
+        return provider == null ? MessageDigest.getInstance(digestAlgorithm) : MessageDigest.getInstance(digestAlgorithm, provider);
+    }
+
+    private static MessageDigest cloneOf(MessageDigest md) {
+        try {
+            return (MessageDigest) md.clone();
+        } catch (CloneNotSupportedException e) {
+            return null;
+        }
+    }
+}
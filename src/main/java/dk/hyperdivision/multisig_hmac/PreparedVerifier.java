@@ -0,0 +1,164 @@
+package dk.hyperdivision.multisig_hmac;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+/**
+ * PreparedVerifier verifies combined signatures against a key set and
+ * threshold which are fixed when it is built. Everything verify(List,
+ * Signature, byte[], int) works out per call is done once up front: the
+ * keys are looked up by index and prepared, i.e. their HMAC pads are
+ * hashed into digest midstates, and the indexes which have a key are
+ * kept as a bitfield.
+ *
+ * A verification then checks the bitfield of the signature against that
+ * bitfield and the threshold, clones the two midstates of every signer
+ * and hashes only the message and the inner hash. The tags are xor'ed
+ * into a per-thread buffer of the instance's Mac pool, so only the clones
+ * allocate.
+ *
+ * The keys and threshold cannot change, but the verifier is not
+ * immutable: every call reads the Mac pool and metrics listener of its
+ * MultisigHMAC, so setMacPool and setMetricsListener also apply to
+ * verifiers built before. It is never parallel, whatever
+ * setParallelVerify says. A PreparedVerifier can be shared between
+ * threads as long as the Mac pool is set before it is.
+ *
+ * @author Amalie Due Jensen
+ */
+public final class PreparedVerifier {
+    private final MultisigHMAC multisig;
+    private final PreparedKey[] keys = new PreparedKey[32];
+    private final int keyBits;
+    private final int threshold;
+
+    private PreparedVerifier(MultisigHMAC multisig, List<Key> keys, int threshold) throws NoSuchAlgorithmException {
+        if (threshold <= 0) throw new IllegalArgumentException("Threshold must be at least 1");
+
+        int bits = 0;
+        for (Key key : keys) {
+            if (key == null) continue;
+            if (key.index < 0 || key.index >= 32) throw new IllegalArgumentException("Key index must be between 0 and 31");
+            if (this.keys[key.index] != null) throw new IllegalArgumentException("Key index " + key.index + " is given twice");
+
+            this.keys[key.index] = multisig.prepare(key);
+            bits |= 1 << key.index;
+        }
+
+        this.multisig = multisig;
+        this.keyBits = bits;
+        this.threshold = threshold;
+    }
+
+    /**
+     * Constructs a verifier for a set of stored keys. Keys are placed by
+     * their index, so the list does not have to hold every index.
+     *
+     * @param multisig - instance whose algorithm and Mac pool are used
+     * @param keys - keys with indexes between 0 and 31, each index at most once
+     * @param threshold - minimum number of keys each signature must be made with
+     * @return the verifier
+     * @throws NoSuchAlgorithmException - if the specified algorithm is not available
+     */
+    public static PreparedVerifier of(MultisigHMAC multisig, List<Key> keys, int threshold) throws NoSuchAlgorithmException {
+        return new PreparedVerifier(multisig, keys, threshold);
+    }
+
+    /**
+     * Constructs a verifier for the sub keys of a master key with indexes
+     * from to to - 1. The sub keys are derived once, here.
+     *
+     * @param multisig - instance whose algorithm and Mac pool are used
+     * @param masterKey - master key in bytes of length KEYBYTES which the keys are derived from
+     * @param from - index of the first key
+     * @param to - index after the last key, at most 32
+     * @param threshold - minimum number of keys each signature must be made with
+     * @return the verifier
+     * @throws NoSuchAlgorithmException - if the specified algorithm is not available
+     */
+    public static PreparedVerifier of(DerivedMultisigHMAC multisig, byte[] masterKey, int from, int to, int threshold) throws NoSuchAlgorithmException {
+        if (to > 32) throw new IllegalArgumentException("Range must end at 32 or below");
+
+        return new PreparedVerifier(multisig, multisig.deriveRange(from, to, masterKey), threshold);
+    }
+
+    /**
+     * Returns the minimum number of keys each signature must be made with
+     *
+     * @return the threshold
+     */
+    public int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Verifies a signature of message
+     *
+     * @param signatures - combined signature
+     * @param message - message which has been signed
+     * @return verification of the signature (true/false)
+     * @throws NoSuchAlgorithmException - if the specified algorithm is not available
+     * @throws IllegalArgumentException - if the signature is malformed or made with a key the verifier does not have
+     */
+    public boolean verify(Signature signatures, byte[] message) throws NoSuchAlgorithmException {
+        if (message == null) throw new IllegalArgumentException("message must be bytes");
+
+        return verify(signatures, message, 0, message.length);
+    }
+
+    /**
+     * Verifies a signature of part of a buffer
+     *
+     * @param signatures - combined signature
+     * @param message - buffer holding the message which has been signed
+     * @param offset - offset of the message in the buffer
+     * @param length - length of the message
+     * @return verification of the signature (true/false)
+     * @throws NoSuchAlgorithmException - if the specified algorithm is not available
+     * @throws IllegalArgumentException - if the signature is malformed or made with a key the verifier does not have
+     */
+    public boolean verify(Signature signatures, byte[] message, int offset, int length) throws NoSuchAlgorithmException {
+        if (!multisig.isMeasured()) return verifyTags(signatures, message, offset, length);
+
+        return multisig.measure(MultisigHMAC.VERIFY_EVENT,
+                (listener, event, start, valid, ok) -> multisig.reportVerify(listener, (VerifyEvent) event, start, length, signatures, threshold, valid),
+                () -> verifyTags(signatures, message, offset, length));
+    }
+
+    private boolean verifyTags(Signature signatures, byte[] message, int offset, int length) throws NoSuchAlgorithmException {
+        if (signatures.signature.length != multisig.BYTES) throw new IllegalArgumentException("Signature must be BYTES long");
+        if (message == null) throw new IllegalArgumentException("message must be bytes");
+        if (offset < 0 || length < 0 || offset > message.length - length) throw new IllegalArgumentException("Offset and length must lie within message");
+
+        int bitField = signatures.index;
+        if ((bitField & ~keyBits) != 0) throw new IllegalArgumentException("Signature is made with keys the verifier was not given");
+        if (Integer.bitCount(bitField) < threshold) return false;
+
+        HmacScratch scratch = multisig.pool.acquireScratch(multisig.ALGORITHM);
+        try {
+            byte[] sig = scratch.acc;
+            byte[] tag = scratch.tag;
+            int n = multisig.BYTES;
+            System.arraycopy(signatures.signature, 0, sig, 0, n);
+            for (int bits = bitField; bits != 0; bits &= bits - 1) {
+                PreparedKey key = keys[Integer.numberOfTrailingZeros(bits)];
+                MessageDigest inner = key.startInner();
+                inner.update(message, offset, length);
+                MessageDigest outer = key.startOuter();
+                inner.digest(tag, 0, n);
+                outer.update(tag, 0, n);
+                outer.digest(tag, 0, n);
+                BulkXor.xorInto(sig, tag);
+            }
+
+            return MultisigHMAC.isZero(sig);
+        } catch (DigestException e) {
+            // the scratch tag is always BYTES long
+            throw new IllegalStateException(e);
+        } finally {
+            multisig.pool.releaseScratch(scratch);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package dk.hyperdivision.multisig_hmac;
+
+import java.nio.ByteBuffer;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * ReplayGuard verifies combined signatures of messages which can only be
+ * accepted once. A message is bound to the time it was signed and a
+ * random nonce by prefixing it with HEADER_BYTES bytes, see bind, and the
+ * bound message is what is signed and sent.
+ *
+ * Verifying a bound message first checks the timestamp against the
+ * window of the NonceCache and looks the nonce up in it, so stale
+ * messages and replays are turned away without computing an HMAC. Only a
+ * message which passes both is verified, and its nonce is added once the
+ * signature holds, checking again for a copy accepted in the meantime.
+ * Forged messages never reach the cache, so they can neither fill it nor
+ * block the nonce of a genuine one.
+ *
+ * A ReplayGuard is thread safe. Guards sharing a cache also share their
+ * nonces.
+ *
+ * @author Amalie Due Jensen
+ */
+public final class ReplayGuard {
+    /**
+     * Length of the nonce in bytes
+     */
+    public static final int NONCE_BYTES = 16;
+
+    /**
+     * Length of the prefix bind puts in front of a message: a big endian
+     * timestamp in milliseconds since the epoch followed by the nonce
+     */
+    public static final int HEADER_BYTES = Long.BYTES + NONCE_BYTES;
+
+    private final PreparedVerifier verifier;
+    private final NonceCache cache;
+
+    /**
+     * Result of verifying a bound message
+     */
+    public enum Outcome {
+        /** The signature is valid and the nonce has not been seen before */
+        ACCEPTED,
+        /** The message is shorter than HEADER_BYTES */
+        MALFORMED,
+        /** The signature is made with fewer keys than the threshold */
+        BELOW_THRESHOLD,
+        /** The timestamp lies outside the window of the cache */
+        STALE,
+        /** The nonce has been accepted before */
+        REPLAYED,
+        /** The cache cannot hold more nonces of this time */
+        FULL,
+        /** The signature does not match the message */
+        INVALID
+    }
+
+    /**
+     * Constructs a guard
+     *
+     * @param verifier - verifier of the signatures
+     * @param cache - cache of the accepted nonces
+     */
+    public ReplayGuard(PreparedVerifier verifier, NonceCache cache) {
+        this.verifier = verifier;
+        this.cache = cache;
+    }
+
+    /**
+     * Binds a message to the current time and a fresh random nonce
+     *
+     * @param message - message to be signed
+     * @return the bound message, which is what must be signed and sent
+     */
+    public static byte[] bind(byte[] message) {
+        byte[] nonce = new byte[NONCE_BYTES];
+        MultisigHMAC.entropy().nextBytes(nonce);
+
+        return bind(System.currentTimeMillis(), nonce, message);
+    }
+
+    /**
+     * Binds a message to a timestamp and nonce
+     *
+     * @param timestamp - time of signing in milliseconds since the epoch
+     * @param nonce - nonce in bytes of length NONCE_BYTES, never used twice
+     * @param message - message to be signed
+     * @return the bound message, which is what must be signed and sent
+     */
+    public static byte[] bind(long timestamp, byte[] nonce, byte[] message) {
+        if (nonce.length != NONCE_BYTES) throw new IllegalArgumentException("Nonce must be NONCE_BYTES long");
+        if (message == null) throw new IllegalArgumentException("message must be bytes");
+
+        return ByteBuffer.allocate(HEADER_BYTES + message.length)
+                .putLong(timestamp)
+                .put(nonce)
+                .put(message)
+                .array();
+    }
+
+    /**
+     * Returns the timestamp of a bound message
+     *
+     * @param bound - bound message of at least HEADER_BYTES bytes
+     * @return the timestamp in milliseconds since the epoch
+     */
+    public static long timestampOf(byte[] bound) {
+        if (bound.length < HEADER_BYTES) throw new IllegalArgumentException("Bound message must be at least HEADER_BYTES long");
+
+        return ByteBuffer.wrap(bound).getLong(0);
+    }
+
+    /**
+     * Verifies a signature of a bound message and records its nonce
+     *
+     * @param signatures - combined signature of the bound message
+     * @param bound - the bound message
+     * @return ACCEPTED if the message is authentic and seen for the first time, otherwise why it is not
+     * @throws NoSuchAlgorithmException - if the specified algorithm is not available
+     * @throws IllegalArgumentException - if the signature is malformed or made with a key the verifier does not have
+     */
+    public Outcome verify(Signature signatures, byte[] bound) throws NoSuchAlgorithmException {
+        if (bound == null) throw new IllegalArgumentException("message must be bytes");
+        if (bound.length < HEADER_BYTES) return Outcome.MALFORMED;
+        if (Integer.bitCount(signatures.index) < verifier.getThreshold()) return Outcome.BELOW_THRESHOLD;
+
+        long timestamp = ByteBuffer.wrap(bound).getLong(0);
+        NonceCache.Status status = cache.check(timestamp, bound, Long.BYTES, NONCE_BYTES);
+        if (status != NonceCache.Status.FRESH) return outcome(status);
+
+        if (!verifier.verify(signatures, bound)) return Outcome.INVALID;
+
+        return outcome(cache.add(timestamp, bound, Long.BYTES, NONCE_BYTES));
+    }
+
+    private static Outcome outcome(NonceCache.Status status) {
+        switch (status) {
+            case STALE:
+                return Outcome.STALE;
+            case REPLAYED:
+                return Outcome.REPLAYED;
+            case FULL:
+                return Outcome.FULL;
+            default:
+                return Outcome.ACCEPTED;
+        }
+    }
+
+    /**
+     * Returns the cache of the accepted nonces
+     *
+     * @return the cache
+     */
+    public NonceCache getCache() {
+        return cache;
+    }
+}
@@ -0,0 +1,42 @@
+package dk.hyperdivision.multisig_hmac;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Flight Recorder event of MultisigHMAC.sign and the other signing
+ * methods, including streaming signers. Only signs slower than the
+ * threshold, 1 ms unless the recording sets another one, are recorded.
+ *
+ * @author Amalie Due Jensen
+ */
+@Name("dk.hyperdivision.multisig_hmac.Sign")
+@Label("Multisig HMAC Sign")
+@Category("Multisig HMAC")
+@Description("Signature of a message with one or more keys")
+@Threshold("1 ms")
+@StackTrace(false)
+final class SignEvent extends Event {
+    @Label("Algorithm")
+    String algorithm;
+
+    @Label("Message Length")
+    @DataAmount
+    long messageLength;
+
+    @Label("Key Index")
+    @Description("Index of the key, or -1 if several keys sign")
+    int keyIndex;
+
+    @Label("Signers")
+    int signers;
+
+    @Label("Outcome")
+    String outcome;
+}
@@ -0,0 +1,177 @@
+package dk.hyperdivision.multisig_hmac;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * SignatureAccumulator combines signatures handed in by many threads
+ * without a lock, and completes a future with the combined signature once
+ * it holds signatures of threshold keys.
+ *
+ * An add first claims the key indexes of its signature in an atomic
+ * bitfield, which rejects a signature whose keys are already present,
+ * since a repeated signature would cancel out. It then xors the tag into
+ * one of several stripes of cells, picked by thread, so concurrent adds
+ * mostly write to different cache lines. The stripes are only xor'ed
+ * together once, when the accumulator completes.
+ *
+ * The accumulator completes with the signatures which reached the
+ * threshold, so it stops accepting signatures from that point on. A
+ * signature carrying several keys, e.g. an already combined one, is
+ * accepted as long as the threshold has not been reached before it.
+ * Signatures are not verified, like with combine.
+ *
+ * @author Amalie Due Jensen
+ */
+public final class SignatureAccumulator {
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    private static final VarHandle CELLS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    /**
+     * Longs between the starts of two stripes, so stripes do not share a
+     * cache line
+     */
+    private static final int STRIPE_LONGS = 16;
+
+    private final int bytes;
+    private final int threshold;
+    private final int stripeMask;
+    private final long[] cells;
+
+    /**
+     * Low 32 bits are the claimed key indexes, high 32 bits the number of
+     * accepted signatures
+     */
+    private final AtomicLong claims = new AtomicLong();
+
+    /**
+     * Number of accepted signatures whose tag has been xor'ed into the cells
+     */
+    private final AtomicInteger folded = new AtomicInteger();
+
+    private final CompletableFuture<Signature> result = new CompletableFuture<>();
+
+    /**
+     * Constructs an empty accumulator with one stripe per available
+     * processor, rounded up to a power of two
+     *
+     * @param multisig - instance whose signature length is used
+     * @param threshold - number of keys at which the accumulator completes
+     */
+    public SignatureAccumulator(MultisigHMAC multisig, int threshold) {
+        this(multisig, threshold, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructs an empty accumulator
+     *
+     * @param multisig - instance whose signature length is used
+     * @param threshold - number of keys at which the accumulator completes, between 1 and 32
+     * @param stripes - number of stripes, rounded up to a power of two
+     */
+    public SignatureAccumulator(MultisigHMAC multisig, int threshold, int stripes) {
+        if (threshold <= 0 || threshold > 32) throw new IllegalArgumentException("Threshold must be between 1 and 32");
+        if (stripes <= 0) throw new IllegalArgumentException("Stripes must be at least 1");
+
+        this.bytes = multisig.getBYTES();
+        this.threshold = threshold;
+        int n = Integer.highestOneBit(Math.min(stripes, 1 << 16) * 2 - 1);
+        this.stripeMask = n - 1;
+        this.cells = new long[n * STRIPE_LONGS];
+    }
+
+    /**
+     * Adds a signature
+     *
+     * @param signature - signature of one or more keys
+     * @return true if the signature was accepted, false if one of its keys is already present or the accumulator is complete
+     * @throws IllegalArgumentException - if the signature does not have the signature length of the instance or has no keys
+     */
+    public boolean add(Signature signature) {
+        if (signature.signature.length != bytes) throw new IllegalArgumentException("Signature must be BYTES long");
+        int bits = signature.index;
+        if (bits == 0) throw new IllegalArgumentException("Signature must have at least one key");
+
+        long current;
+        long next;
+        do {
+            current = claims.get();
+            int claimed = (int) current;
+            if ((claimed & bits) != 0 || Integer.bitCount(claimed) >= threshold) return false;
+            next = (((current >>> 32) + 1) << 32) | ((claimed | bits) & 0xFFFFFFFFL);
+        } while (!claims.compareAndSet(current, next));
+
+        int base = (stripe() & stripeMask) * STRIPE_LONGS;
+        byte[] tag = signature.signature;
+        for (int i = 0; i < bytes; i += Long.BYTES) {
+            CELLS.getAndBitwiseXor(cells, base + i / Long.BYTES, (long) LONGS.get(tag, i));
+        }
+
+        // Once the threshold is claimed no more signatures are accepted, so
+        // exactly one add sees its own fold as the last one
+        int done = folded.incrementAndGet();
+        long now = claims.get();
+        if (Integer.bitCount((int) now) >= threshold && done == (int) (now >>> 32)) complete((int) now);
+
+        return true;
+    }
+
+    private void complete(int bitField) {
+        byte[] tag = new byte[bytes];
+        for (int i = 0; i < bytes; i += Long.BYTES) {
+            long word = 0;
+            for (int base = 0; base < cells.length; base += STRIPE_LONGS) {
+                word ^= (long) CELLS.getVolatile(cells, base + i / Long.BYTES);
+            }
+            LONGS.set(tag, i, word);
+        }
+
+        result.complete(new Signature(bitField, tag));
+    }
+
+    private static int stripe() {
+        long id = Thread.currentThread().getId();
+        return (int) ((id * 0x9E3779B97F4A7C15L) >>> 40);
+    }
+
+    /**
+     * Returns a future of the combined signature, completed once
+     * signatures of threshold keys have been added
+     *
+     * @return the future, which is the same on every call
+     */
+    public CompletableFuture<Signature> getSignature() {
+        return result;
+    }
+
+    /**
+     * Returns the key indexes which have been accepted so far
+     *
+     * @return bitfield of the accepted keys
+     */
+    public int getBitField() {
+        return (int) claims.get();
+    }
+
+    /**
+     * Returns the number of keys at which the accumulator completes
+     *
+     * @return the threshold
+     */
+    public int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Returns whether the combined signature is available
+     *
+     * @return true once signatures of threshold keys have been added
+     */
+    public boolean isComplete() {
+        return result.isDone();
+    }
+}
@@ -0,0 +1,353 @@
+package dk.hyperdivision.multisig_hmac;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * SignatureCodec converts signatures to and from a compact binary format:
+ *
+ * varint(bitfield) || algorithm || tag
+ *
+ * The bitfield is written as an unsigned LEB128 varint, 7 bits per byte
+ * starting with the lowest, with the high bit set on every byte but the
+ * last. A signature made by keys 0 to 6 therefore needs a single byte.
+ * Only the shortest encoding of a bitfield is accepted. The algorithm is
+ * a single byte, 1 for HmacSHA256, 2 for HmacSHA512 and 3 for HmacSHA384,
+ * and the tag is the raw BYTES long tag of that algorithm.
+ *
+ * A WideSignature is written the same way with a longer varint, so a wide
+ * signature whose indexes are all below 32 has the same encoding as the
+ * equivalent Signature.
+ *
+ * Decoding reads straight from the buffer into the tag of the returned
+ * signature and only moves the buffer's position once the whole signature
+ * has been read, so a failed decode leaves the buffer untouched.
+ *
+ * @author Amalie Due Jensen
+ */
+public class SignatureCodec {
+    /**
+     * Signer sets with indexes of this or above are not decoded
+     */
+    public static final int MAX_SIGNERS = 1 << 16;
+
+    private static final int MAX_VARINT_BYTES = (MAX_SIGNERS + 6) / 7;
+
+    // Algorithm bytes of the encoding, fixed independently of the order of MultisigHMAC.Algorithm
+    private static final byte TAG_SHA256 = 1;
+    private static final byte TAG_SHA512 = 2;
+    private static final byte TAG_SHA384 = 3;
+
+    private final MultisigHMAC.Algorithm algorithm;
+    private final int bytes;
+
+    /**
+     * Constructs a codec for signatures of an algorithm
+     *
+     * @param alg - algorithm used for HMAC
+     */
+    public SignatureCodec(MultisigHMAC.Algorithm alg) {
+        this.algorithm = alg;
+        this.bytes = new MultisigHMAC(alg).getBYTES();
+    }
+
+    /**
+     * Returns the algorithm of the codec
+     *
+     * @return algorithm used for HMAC
+     */
+    public MultisigHMAC.Algorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * Returns the byte identifying an algorithm in the encoding
+     *
+     * @param alg - algorithm used for HMAC
+     * @return the algorithm byte
+     */
+    static byte algorithmTag(MultisigHMAC.Algorithm alg) {
+        switch (alg) {
+            case HmacSHA256:
+                return TAG_SHA256;
+            case HmacSHA512:
+                return TAG_SHA512;
+            case HmacSHA384:
+                return TAG_SHA384;
+            default:
+                throw new IllegalArgumentException("No algorithm byte for " + alg);
+        }
+    }
+
+    /**
+     * Returns the algorithm identified by a byte of the encoding
+     *
+     * @param tag - the algorithm byte
+     * @return algorithm used for HMAC
+     * @throws IllegalArgumentException - if the byte does not identify an algorithm
+     */
+    static MultisigHMAC.Algorithm algorithmOf(byte tag) {
+        switch (tag) {
+            case TAG_SHA256:
+                return MultisigHMAC.Algorithm.HmacSHA256;
+            case TAG_SHA512:
+                return MultisigHMAC.Algorithm.HmacSHA512;
+            case TAG_SHA384:
+                return MultisigHMAC.Algorithm.HmacSHA384;
+            default:
+                throw new IllegalArgumentException("Unknown algorithm byte " + (tag & 0xFF));
+        }
+    }
+
+    /**
+     * Returns the number of bytes encode writes for a signature
+     *
+     * @param signature - signature which should be encoded
+     * @return length of the encoding
+     */
+    public int encodedLength(Signature signature) {
+        return varintLength(32 - Integer.numberOfLeadingZeros(signature.index)) + 1 + bytes;
+    }
+
+    /**
+     * Returns the number of bytes encode writes for a wide signature
+     *
+     * @param signature - signature which should be encoded
+     * @return length of the encoding
+     */
+    public int encodedLength(WideSignature signature) {
+        return varintLength(signature.signers.length()) + 1 + bytes;
+    }
+
+    /**
+     * Writes a signature at the position of a buffer, which is advanced
+     * past it
+     *
+     * @param signature - signature which should be encoded
+     * @param out - buffer receiving the encoding
+     * @throws BufferOverflowException - if the buffer has fewer than encodedLength bytes remaining, in which case nothing is written
+     */
+    public void encode(Signature signature, ByteBuffer out) {
+        checkTag(signature.signature);
+        if (out.remaining() < encodedLength(signature)) throw new BufferOverflowException();
+
+        long v = signature.index & 0xFFFFFFFFL;
+        while ((v & ~0x7FL) != 0) {
+            out.put((byte) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.put((byte) v);
+        out.put(algorithmTag(algorithm));
+        out.put(signature.signature);
+    }
+
+    /**
+     * Writes a wide signature at the position of a buffer, which is
+     * advanced past it
+     *
+     * @param signature - signature which should be encoded
+     * @param out - buffer receiving the encoding
+     * @throws BufferOverflowException - if the buffer has fewer than encodedLength bytes remaining, in which case nothing is written
+     */
+    public void encode(WideSignature signature, ByteBuffer out) {
+        checkTag(signature.signature);
+        if (out.remaining() < encodedLength(signature)) throw new BufferOverflowException();
+
+        long[] words = signature.signers.toWords();
+        int groups = varintLength(signature.signers.length());
+        for (int g = 0; g < groups; g++) {
+            int bit = 7 * g;
+            int u = bit >>> 6;
+            long group = u < words.length ? words[u] >>> (bit & 63) : 0;
+            // A group can straddle two words
+            if ((bit & 63) > 57 && u + 1 < words.length) group |= words[u + 1] << (64 - (bit & 63));
+            out.put((byte) ((group & 0x7F) | (g < groups - 1 ? 0x80 : 0)));
+        }
+        out.put(algorithmTag(algorithm));
+        out.put(signature.signature);
+    }
+
+    /**
+     * Encodes a signature into a new array
+     *
+     * @param signature - signature which should be encoded
+     * @return the encoding
+     */
+    public byte[] encode(Signature signature) {
+        byte[] out = new byte[encodedLength(signature)];
+        encode(signature, ByteBuffer.wrap(out));
+        return out;
+    }
+
+    /**
+     * Encodes a wide signature into a new array
+     *
+     * @param signature - signature which should be encoded
+     * @return the encoding
+     */
+    public byte[] encode(WideSignature signature) {
+        byte[] out = new byte[encodedLength(signature)];
+        encode(signature, ByteBuffer.wrap(out));
+        return out;
+    }
+
+    /**
+     * Reads a signature from the position of a buffer and advances the
+     * buffer past it
+     *
+     * @param in - buffer holding the encoding
+     * @return the signature
+     * @throws IllegalArgumentException - if the encoding is truncated, malformed, for another algorithm or has indexes of 32 or more
+     */
+    public Signature decode(ByteBuffer in) {
+        int p = in.position();
+        int limit = in.limit();
+        long v = 0;
+        int shift = 0;
+        int b;
+        do {
+            if (p >= limit) throw new IllegalArgumentException("Truncated signature");
+            if (shift > 28) throw new IllegalArgumentException("Signature has indexes of 32 or more, decode it with decodeWide");
+            b = in.get(p++);
+            v |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        if ((v >>> 32) != 0) throw new IllegalArgumentException("Signature has indexes of 32 or more, decode it with decodeWide");
+        if (b == 0 && shift > 7) throw new IllegalArgumentException("Bitfield is not minimally encoded");
+
+        byte[] tag = readTag(in, p);
+        return new Signature((int) v, tag);
+    }
+
+    /**
+     * Reads a wide signature from the position of a buffer and advances
+     * the buffer past it
+     *
+     * @param in - buffer holding the encoding
+     * @return the signature
+     * @throws IllegalArgumentException - if the encoding is truncated, malformed or for another algorithm
+     */
+    public WideSignature decodeWide(ByteBuffer in) {
+        int p = in.position();
+        int limit = in.limit();
+        long[] words = new long[1];
+        int bit = 0;
+        int b;
+        do {
+            if (p >= limit) throw new IllegalArgumentException("Truncated signature");
+            if (bit >= 7 * MAX_VARINT_BYTES) throw new IllegalArgumentException("Signature has more than MAX_SIGNERS indexes");
+            b = in.get(p++);
+            long group = b & 0x7F;
+            int u = bit >>> 6;
+            if (u + 1 >= words.length) words = Arrays.copyOf(words, words.length * 2 + 1);
+            words[u] |= group << (bit & 63);
+            if ((bit & 63) > 57) words[u + 1] |= group >>> (64 - (bit & 63));
+            bit += 7;
+        } while ((b & 0x80) != 0);
+        if (b == 0 && bit > 7) throw new IllegalArgumentException("Bitfield is not minimally encoded");
+
+        SignerSet signers = SignerSet.fromWords(words);
+        if (signers.length() > MAX_SIGNERS) throw new IllegalArgumentException("Signature has more than MAX_SIGNERS indexes");
+
+        byte[] tag = readTag(in, p);
+        return new WideSignature(signers, tag);
+    }
+
+    /**
+     * Decodes a signature which fills a whole array
+     *
+     * @param encoded - the encoding
+     * @return the signature
+     * @throws IllegalArgumentException - if the encoding is malformed or followed by trailing bytes
+     */
+    public Signature decode(byte[] encoded) {
+        ByteBuffer in = ByteBuffer.wrap(encoded);
+        Signature signature = decode(in);
+        if (in.hasRemaining()) throw new IllegalArgumentException("Trailing bytes after signature");
+        return signature;
+    }
+
+    /**
+     * Decodes a wide signature which fills a whole array
+     *
+     * @param encoded - the encoding
+     * @return the signature
+     * @throws IllegalArgumentException - if the encoding is malformed or followed by trailing bytes
+     */
+    public WideSignature decodeWide(byte[] encoded) {
+        ByteBuffer in = ByteBuffer.wrap(encoded);
+        WideSignature signature = decodeWide(in);
+        if (in.hasRemaining()) throw new IllegalArgumentException("Trailing bytes after signature");
+        return signature;
+    }
+
+    /**
+     * Encodes a signature as unpadded base64url, e.g. for an HTTP header
+     *
+     * @param signature - signature which should be encoded
+     * @return the encoding as text
+     */
+    public String toBase64Url(Signature signature) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(encode(signature));
+    }
+
+    /**
+     * Decodes a signature from unpadded or padded base64url
+     *
+     * @param text - the encoding as text
+     * @return the signature
+     * @throws IllegalArgumentException - if the text is not base64url or the encoding is malformed
+     */
+    public Signature fromBase64Url(String text) {
+        return decode(Base64.getUrlDecoder().decode(text));
+    }
+
+    /**
+     * Encodes a wide signature as unpadded base64url
+     *
+     * @param signature - signature which should be encoded
+     * @return the encoding as text
+     */
+    public String toBase64Url(WideSignature signature) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(encode(signature));
+    }
+
+    /**
+     * Decodes a wide signature from unpadded or padded base64url
+     *
+     * @param text - the encoding as text
+     * @return the signature
+     * @throws IllegalArgumentException - if the text is not base64url or the encoding is malformed
+     */
+    public WideSignature wideFromBase64Url(String text) {
+        return decodeWide(Base64.getUrlDecoder().decode(text));
+    }
+
+    private void checkTag(byte[] tag) {
+        if (tag.length != bytes) throw new IllegalArgumentException("Signature must be BYTES long");
+    }
+
+    /**
+     * Reads the algorithm byte and tag following a varint which ends at p,
+     * then moves the buffer past them
+     */
+    private byte[] readTag(ByteBuffer in, int p) {
+        if (in.limit() - p < 1 + bytes) throw new IllegalArgumentException("Truncated signature");
+        if (algorithmOf(in.get(p)) != algorithm) throw new IllegalArgumentException("Signature is not " + algorithm);
+
+        byte[] tag = new byte[bytes];
+        in.position(p + 1);
+        in.get(tag);
+        return tag;
+    }
+
+    /**
+     * Returns the number of varint bytes for a bitfield of the given
+     * length in bits
+     */
+    private static int varintLength(int bits) {
+        return Math.max(1, (bits + 6) / 7);
+    }
+}
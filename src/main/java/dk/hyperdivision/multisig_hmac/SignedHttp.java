@@ -0,0 +1,345 @@
+package dk.hyperdivision.multisig_hmac;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+
+/**
+ * SignedHttp carries combined signatures over HTTP with the JDK's HTTP
+ * client and server. The signature travels base64url encoded, see
+ * SignatureCodec, in the HEADER header.
+ *
+ * Requests are signed with signed, and verified on the server by an
+ * AuthenticationFilter. A request signature covers the method, the raw
+ * path and query, and the body, see canonicalRequest, so it cannot be
+ * sent to another endpoint. Other headers are not covered.
+ *
+ * Responses are signed with sendSigned and verified on the client by a
+ * body handler from verifying, which authenticates the body as it streams
+ * in. A response signature covers the body only.
+ *
+ * Neither carries a timestamp or nonce, so a captured request or response
+ * can be sent again verbatim. Where that matters, bind the body with
+ * ReplayGuard.bind before signing it and check it with a ReplayGuard.
+ *
+ * @author Amalie Due Jensen
+ */
+public final class SignedHttp {
+    /**
+     * Name of the header holding the combined signature
+     */
+    public static final String HEADER = "Multisig-Signature";
+
+    private SignedHttp() {
+    }
+
+    /**
+     * Starts verifying a body against a signature, throwing
+     * IllegalArgumentException if the signature uses keys which are not
+     * available
+     */
+    interface Verifiers {
+        StreamingVerifier start(Signature signature) throws GeneralSecurityException;
+
+        /**
+         * Overwrites the copy of a master key with zeros, after which start
+         * throws IllegalStateException for sub keys which have not been
+         * derived yet
+         */
+        default void destroy() {
+        }
+    }
+
+    /**
+     * Returns the verifiers of a list of keys, prepared once
+     */
+    static Verifiers verifiers(MultisigHMAC multisig, List<Key> keys, int threshold) throws NoSuchAlgorithmException {
+        if (threshold <= 0) throw new IllegalArgumentException("Threshold must be at least 1");
+
+        List<Key> prepared = new ArrayList<>(keys.size());
+        for (Key key : keys) {
+            prepared.add(multisig.prepare(key));
+        }
+
+        return signature -> multisig.verifier(prepared, signature, threshold);
+    }
+
+    /**
+     * Returns the verifiers of the sub keys of a master key
+     */
+    static Verifiers verifiers(DerivedMultisigHMAC multisig, byte[] masterKey, int threshold) {
+        if (threshold <= 0) throw new IllegalArgumentException("Threshold must be at least 1");
+        if (masterKey.length != multisig.getKEYBYTES()) throw new IllegalArgumentException("Master key must be KEYBYTES long");
+
+        PreparedDerivedKeys keys = new PreparedDerivedKeys(multisig, masterKey.clone());
+        return new Verifiers() {
+            @Override
+            public StreamingVerifier start(Signature signature) throws GeneralSecurityException {
+                return multisig.verifier(keys, signature, threshold);
+            }
+
+            @Override
+            public void destroy() {
+                keys.destroy();
+            }
+        };
+    }
+
+    /**
+     * Returns the bytes a request signature covers ahead of the body: the
+     * method, a space, the raw path ("/" if empty) with the raw query if
+     * any, and a line feed, in UTF-8, e.g. "POST /orders?id=1\n"
+     *
+     * @param method - request method, e.g. POST
+     * @param uri - request URI
+     * @return the prefix of the signed request
+     */
+    public static byte[] canonicalRequest(String method, URI uri) {
+        String path = uri.getRawPath();
+        StringBuilder target = new StringBuilder(path == null || path.isEmpty() ? "/" : path);
+        if (uri.getRawQuery() != null) target.append('?').append(uri.getRawQuery());
+
+        return (method + " " + target + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Signs a request with several keys and returns a builder of it with
+     * the body and the signature header set
+     *
+     * @param uri - request URI
+     * @param method - request method, e.g. POST
+     * @param multisig - instance used for signing
+     * @param keys - keys used for signing, with distinct indexes
+     * @param body - the request body
+     * @return the builder
+     * @throws NoSuchAlgorithmException - if the specified algorithm is not available
+     * @throws InvalidKeyException - if a given key is inappropriate for initializing this HMAC
+     */
+    public static HttpRequest.Builder signed(URI uri, String method, MultisigHMAC multisig, List<Key> keys, byte[] body) throws NoSuchAlgorithmException, InvalidKeyException {
+        if (body == null) throw new IllegalArgumentException("body must be bytes");
+
+        Signature signature = multisig.signer(keys).update(canonicalRequest(method, uri)).update(body).finish();
+
+        return HttpRequest.newBuilder(uri)
+                .header(HEADER, new SignatureCodec(multisig.getALGORITHM()).toBase64Url(signature))
+                .method(method, HttpRequest.BodyPublishers.ofByteArray(body));
+    }
+
+    /**
+     * Signs a request whose body is a file with several keys and returns
+     * a builder of it with the body and the signature header set. The file
+     * is read once to sign it and streamed again when the request is sent,
+     * so it must not change in between.
+     *
+     * @param uri - request URI
+     * @param method - request method, e.g. POST
+     * @param multisig - instance used for signing
+     * @param keys - keys used for signing, with distinct indexes
+     * @param body - file holding the request body
+     * @return the builder
+     * @throws NoSuchAlgorithmException - if the specified algorithm is not available
+     * @throws InvalidKeyException - if a given key is inappropriate for initializing this HMAC
+     * @throws IOException - if reading the file fails
+     */
+    public static HttpRequest.Builder signed(URI uri, String method, MultisigHMAC multisig, List<Key> keys, Path body) throws NoSuchAlgorithmException, InvalidKeyException, IOException {
+        Signature signature;
+        try (FileChannel channel = FileChannel.open(body, StandardOpenOption.READ)) {
+            signature = multisig.signer(keys).update(canonicalRequest(method, uri)).update(channel).finish();
+        }
+
+        return HttpRequest.newBuilder(uri).header(HEADER, new SignatureCodec(multisig.getALGORITHM()).toBase64Url(signature))
+                .method(method, HttpRequest.BodyPublishers.ofFile(body));
+    }
+
+    /**
+     * Sends a response whose body is signed with several keys
+     *
+     * @param exchange - the exchange
+     * @param status - response status
+     * @param multisig - instance used for signing
+     * @param keys - keys used for signing, with distinct indexes
+     * @param body - the response body
+     * @throws NoSuchAlgorithmException - if the specified algorithm is not available
+     * @throws InvalidKeyException - if a given key is inappropriate for initializing this HMAC
+     * @throws IOException - if sending the response fails
+     */
+    public static void sendSigned(HttpExchange exchange, int status, MultisigHMAC multisig, List<Key> keys, byte[] body) throws NoSuchAlgorithmException, InvalidKeyException, IOException {
+        Signature signature = multisig.signAndCombine(keys, body);
+        exchange.getResponseHeaders().set(HEADER, new SignatureCodec(multisig.getALGORITHM()).toBase64Url(signature));
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Wraps a body handler so the response body is verified against the
+     * signature header as it is received. A response without a valid
+     * signature header, or one made with fewer than threshold keys, fails
+     * before the wrapped subscriber sees any of the body. A body which
+     * does not match its signature fails once it has been received, so the
+     * wrapped subscriber must not act on the body before it completes.
+     * Either way the body future completes exceptionally with an
+     * IOException.
+     *
+     * @param multisig - instance whose algorithm is used
+     * @param keys - a list of all keys
+     * @param threshold - minimum number of keys each response must be signed with
+     * @param handler - body handler receiving the verified body
+     * @param <T> - type of the body
+     * @return the verifying body handler
+     * @throws NoSuchAlgorithmException - if the specified algorithm is not available
+     */
+    public static <T> VerifyingHandler<T> verifying(MultisigHMAC multisig, List<Key> keys, int threshold, HttpResponse.BodyHandler<T> handler) throws NoSuchAlgorithmException {
+        return verifying(multisig, verifiers(multisig, keys, threshold), threshold, handler);
+    }
+
+    /**
+     * Wraps a body handler so the response body is verified against keys
+     * derived from a master key, see verifying(MultisigHMAC, List, int,
+     * BodyHandler). The handler keeps a copy of the master key until it
+     * is closed.
+     *
+     * @param multisig - instance whose algorithm and key cache are used
+     * @param masterKey - master key in bytes of length KEYBYTES which the keys are derived from
+     * @param threshold - minimum number of keys each response must be signed with
+     * @param handler - body handler receiving the verified body
+     * @param <T> - type of the body
+     * @return the verifying body handler
+     */
+    public static <T> VerifyingHandler<T> verifying(DerivedMultisigHMAC multisig, byte[] masterKey, int threshold, HttpResponse.BodyHandler<T> handler) {
+        return verifying(multisig, verifiers(multisig, masterKey, threshold), threshold, handler);
+    }
+
+    private static <T> VerifyingHandler<T> verifying(MultisigHMAC multisig, Verifiers verifiers, int threshold, HttpResponse.BodyHandler<T> handler) {
+        return new VerifyingHandler<>(new SignatureCodec(multisig.getALGORITHM()), verifiers, threshold, handler);
+    }
+
+    /**
+     * VerifyingHandler is the body handler returned by verifying. Closing
+     * it overwrites its copy of a master key with zeros, after which
+     * responses signed with sub keys it has not used yet fail. Closing a
+     * handler of a list of keys does nothing.
+     *
+     * @param <T> - type of the body
+     */
+    public static final class VerifyingHandler<T> implements HttpResponse.BodyHandler<T>, AutoCloseable {
+        private final SignatureCodec codec;
+        private final Verifiers verifiers;
+        private final int threshold;
+        private final HttpResponse.BodyHandler<T> handler;
+
+        private VerifyingHandler(SignatureCodec codec, Verifiers verifiers, int threshold, HttpResponse.BodyHandler<T> handler) {
+            this.codec = codec;
+            this.verifiers = verifiers;
+            this.threshold = threshold;
+            this.handler = handler;
+        }
+
+        @Override
+        public HttpResponse.BodySubscriber<T> apply(HttpResponse.ResponseInfo info) {
+            HttpResponse.BodySubscriber<T> downstream = handler.apply(info);
+            StreamingVerifier verifier = null;
+            String error = null;
+            try {
+                Signature signature = info.headers().firstValue(HEADER).map(codec::fromBase64Url).orElse(null);
+                if (signature == null) error = "Response has no " + HEADER + " header";
+                else if (Integer.bitCount(signature.index) < threshold) error = "Response is signed with fewer keys than the threshold";
+                else verifier = verifiers.start(signature);
+            } catch (IllegalArgumentException | IllegalStateException | GeneralSecurityException e) {
+                error = "Response signature is invalid: " + e.getMessage();
+            }
+
+            return new VerifyingSubscriber<>(downstream, verifier, error);
+        }
+
+        /**
+         * Overwrites the handler's copy of a master key with zeros
+         */
+        @Override
+        public void close() {
+            verifiers.destroy();
+        }
+    }
+
+    /**
+     * Feeds every received buffer to a verifier before passing it on, and
+     * fails the downstream subscriber instead of completing it if the
+     * verification fails
+     */
+    private static final class VerifyingSubscriber<T> implements HttpResponse.BodySubscriber<T> {
+        private final HttpResponse.BodySubscriber<T> downstream;
+        private final StreamingVerifier verifier;
+        private final String error;
+
+        VerifyingSubscriber(HttpResponse.BodySubscriber<T> downstream, StreamingVerifier verifier, String error) {
+            this.downstream = downstream;
+            this.verifier = verifier;
+            this.error = error;
+        }
+
+        @Override
+        public CompletionStage<T> getBody() {
+            return downstream.getBody();
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            if (error == null) {
+                downstream.onSubscribe(subscription);
+                return;
+            }
+
+            subscription.cancel();
+            downstream.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            downstream.onError(new IOException(error));
+        }
+
+        @Override
+        public void onNext(List<ByteBuffer> item) {
+            if (error != null) return;
+
+            for (ByteBuffer buffer : item) {
+                verifier.update(buffer.duplicate());
+            }
+            downstream.onNext(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            if (error == null) downstream.onError(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            if (error != null) return;
+
+            if (verifier.finish()) downstream.onComplete();
+            else downstream.onError(new IOException("Response body does not match its signature"));
+        }
+    }
+}
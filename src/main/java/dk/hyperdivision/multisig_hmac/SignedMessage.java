@@ -0,0 +1,41 @@
+package dk.hyperdivision.multisig_hmac;
+
+/**
+ * SignedMessage represents an instance of a message + combined signature
+ * pair, e.g. an item of a stream which should be verified
+ *
+ * @author Amalie Due Jensen
+ */
+public class SignedMessage {
+    byte[] message;
+    Signature signature;
+
+    /**
+     * Constructs and initializes a new instance of SignedMessage
+     *
+     * @param message - the message in the instance
+     * @param signature - the combined signature of the message
+     */
+    public SignedMessage(byte[] message, Signature signature) {
+        this.message = message;
+        this.signature = signature;
+    }
+
+    /**
+     * Returns the message
+     *
+     * @return the message in bytes
+     */
+    public byte[] getMessage() {
+        return message;
+    }
+
+    /**
+     * Returns the combined signature of the message
+     *
+     * @return the signature
+     */
+    public Signature getSignature() {
+        return signature;
+    }
+}
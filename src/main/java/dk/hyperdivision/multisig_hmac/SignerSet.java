@@ -0,0 +1,258 @@
+package dk.hyperdivision.multisig_hmac;
+
+import java.util.Arrays;
+
+/**
+ * SignerSet is an immutable set of key indexes, used as the bitfield of a
+ * WideSignature. Sets where every index is below 64 are held in a single
+ * long, larger sets in an array of words with bit i of the set at bit
+ * (i % 64) of word (i / 64).
+ *
+ * Iterating with nextSetBit only visits the indexes in the set, so the cost
+ * of a verification depends on the number of signers rather than on the
+ * highest index.
+ *
+ * @author Amalie Due Jensen
+ */
+public final class SignerSet {
+    private static final SignerSet EMPTY = new SignerSet(0L, null);
+
+    private final long bits;
+    private final long[] words;
+
+    /**
+     * @param bits - the set when words is null
+     * @param words - the set, or null for the single word fast path. The last word is non-zero.
+     */
+    private SignerSet(long bits, long[] words) {
+        this.bits = bits;
+        this.words = words;
+    }
+
+    /**
+     * Returns the empty set
+     *
+     * @return a set without indexes
+     */
+    public static SignerSet empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Constructs a set of the given indexes
+     *
+     * @param indexes - key indexes, each at least 0
+     * @return the set
+     */
+    public static SignerSet of(int... indexes) {
+        if (indexes.length == 0) return EMPTY;
+
+        int highest = -1;
+        for (int index : indexes) {
+            if (index < 0) throw new IllegalArgumentException("Index must be at least 0");
+            highest = Math.max(highest, index);
+        }
+
+        long[] w = new long[(highest >>> 6) + 1];
+        for (int index : indexes) {
+            w[index >>> 6] |= 1L << index;
+        }
+
+        return fromWords(w);
+    }
+
+    /**
+     * Constructs the set of indexes below 64 whose bits are set
+     *
+     * @param bits - bit i is set if index i is in the set
+     * @return the set
+     */
+    public static SignerSet fromLong(long bits) {
+        return bits == 0 ? EMPTY : new SignerSet(bits, null);
+    }
+
+    /**
+     * Constructs the set of a 32 bit bitfield, as used by Signature
+     *
+     * @param bitField - indexes of keys represented as one integer
+     * @return the set
+     */
+    public static SignerSet fromInt(int bitField) {
+        return fromLong(bitField & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Constructs a set from words of 64 indexes each
+     *
+     * @param words - bit (i % 64) of word (i / 64) is set if index i is in the set
+     * @return the set
+     */
+    public static SignerSet fromWords(long[] words) {
+        int n = words.length;
+        while (n > 0 && words[n - 1] == 0) n--;
+        if (n <= 1) return fromLong(n == 0 ? 0 : words[0]);
+
+        return new SignerSet(0L, Arrays.copyOf(words, n));
+    }
+
+    /**
+     * Returns the words of the set, see fromWords
+     *
+     * @return a copy of the words, without trailing zero words
+     */
+    public long[] toWords() {
+        if (words != null) return words.clone();
+
+        return bits == 0 ? new long[0] : new long[] {bits};
+    }
+
+    /**
+     * Checks whether the set fits the 32 bit bitfield of Signature
+     *
+     * @return true if every index is below 32
+     */
+    public boolean fitsInt() {
+        return words == null && (bits >>> 32) == 0;
+    }
+
+    /**
+     * Returns the set as the 32 bit bitfield of Signature
+     *
+     * @return indexes of keys represented as one integer
+     */
+    public int toInt() {
+        if (!fitsInt()) throw new IllegalStateException("Set has indexes of 32 or more");
+
+        return (int) bits;
+    }
+
+    /**
+     * Checks whether an index is in the set
+     *
+     * @param index - key index
+     * @return true if the index is in the set
+     */
+    public boolean contains(int index) {
+        if (index < 0) return false;
+        if (words == null) return index < 64 && (bits & (1L << index)) != 0;
+
+        return (index >>> 6) < words.length && (words[index >>> 6] & (1L << index)) != 0;
+    }
+
+    /**
+     * Returns the number of indexes in the set
+     *
+     * @return number of signers
+     */
+    public int size() {
+        if (words == null) return Long.bitCount(bits);
+
+        int n = 0;
+        for (long word : words) {
+            n += Long.bitCount(word);
+        }
+
+        return n;
+    }
+
+    /**
+     * Checks whether the set is empty
+     *
+     * @return true if there are no indexes in the set
+     */
+    public boolean isEmpty() {
+        return words == null && bits == 0;
+    }
+
+    /**
+     * Returns one more than the highest index in the set, i.e. the number
+     * of keys needed to verify a signature made by the set
+     *
+     * @return highest index + 1, or 0 if the set is empty
+     */
+    public int length() {
+        if (words == null) return 64 - Long.numberOfLeadingZeros(bits);
+
+        return 64 * words.length - Long.numberOfLeadingZeros(words[words.length - 1]);
+    }
+
+    /**
+     * Finds the lowest index in the set which is at least from. The set
+     * can be walked without allocating with
+     * for (int i = set.nextSetBit(0); i &gt;= 0; i = set.nextSetBit(i + 1))
+     *
+     * @param from - index to start from
+     * @return the next index, or -1 if there is none
+     */
+    public int nextSetBit(int from) {
+        if (from < 0) from = 0;
+        if (words == null) {
+            if (from >= 64) return -1;
+            long w = bits & (-1L << from);
+            return w == 0 ? -1 : Long.numberOfTrailingZeros(w);
+        }
+
+        int u = from >>> 6;
+        if (u >= words.length) return -1;
+        long w = words[u] & (-1L << from);
+        while (w == 0) {
+            if (++u == words.length) return -1;
+            w = words[u];
+        }
+
+        return 64 * u + Long.numberOfTrailingZeros(w);
+    }
+
+    /**
+     * Returns the set with one more index
+     *
+     * @param index - key index
+     * @return the set including index
+     */
+    public SignerSet with(int index) {
+        return xor(contains(index) ? EMPTY : of(index));
+    }
+
+    /**
+     * Computes the symmetric difference of two sets, which is how the
+     * bitfields of signatures are combined
+     *
+     * @param other - the other set
+     * @return indexes in exactly one of the sets
+     */
+    public SignerSet xor(SignerSet other) {
+        if (words == null && other.words == null) return fromLong(bits ^ other.bits);
+
+        long[] a = toWords();
+        long[] b = other.toWords();
+        long[] w = Arrays.copyOf(a, Math.max(a.length, b.length));
+        for (int i = 0; i < b.length; i++) {
+            w[i] ^= b[i];
+        }
+
+        return fromWords(w);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof SignerSet)) return false;
+        SignerSet other = (SignerSet) o;
+        return bits == other.bits && Arrays.equals(words, other.words);
+    }
+
+    @Override
+    public int hashCode() {
+        return words == null ? Long.hashCode(bits) : Arrays.hashCode(words);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("{");
+        for (int i = nextSetBit(0); i >= 0; i = nextSetBit(i + 1)) {
+            if (sb.length() > 1) sb.append(", ");
+            sb.append(i);
+        }
+
+        return sb.append('}').toString();
+    }
+}
@@ -0,0 +1,203 @@
+package dk.hyperdivision.multisig_hmac;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * StreamingSigner signs a message with one or more keys incrementally, so
+ * the message never has to be held in memory as a whole. Instances are
+ * created by MultisigHMAC.signer and are not thread safe.
+ *
+ * With several keys the result is the combined signature of all of them.
+ * The message is fed to the HMACs of the keys in pieces of FUSED_BYTES,
+ * each piece to every HMAC in turn, so a piece is read from memory once
+ * and is still in cache for the other keys.
+ *
+ * The signature is reported to the metrics listener of the instance when
+ * the signer finishes, or with the outcome ERROR if reading a stream or
+ * channel fails.
+ *
+ * @author Amalie Due Jensen
+ */
+public class StreamingSigner {
+    static final int BUFFER_BYTES = 16 * 1024;
+
+    /**
+     * Size of the pieces fed to every HMAC in turn when signing with
+     * several keys, small enough to stay in the L1 cache
+     */
+    static final int FUSED_BYTES = 16 * 1024;
+
+    private final MultisigHMAC multisig;
+    private final int index;
+    private KeyedHmac[] hmacs;
+    private MetricsListener listener;
+    private SignEvent event;
+    private final long start;
+    private long length;
+
+    /**
+     * @param multisig - instance the signature is reported to
+     * @param listener - the metrics listener, or null
+     * @param event - the Flight Recorder event begun when signing started, or null
+     * @param start - System.nanoTime() when signing started
+     * @param index - bitfield of the keys
+     * @param hmacs - one computation per key
+     */
+    StreamingSigner(MultisigHMAC multisig, MetricsListener listener, SignEvent event, long start, int index, KeyedHmac... hmacs) {
+        this.multisig = multisig;
+        this.listener = listener;
+        this.event = event;
+        this.start = start;
+        this.index = index;
+        this.hmacs = hmacs;
+    }
+
+    /**
+     * Absorbs part of the message
+     *
+     * @param input - buffer holding the bytes
+     * @param offset - offset of the first byte in input
+     * @param len - number of bytes
+     * @return this signer
+     */
+    public StreamingSigner update(byte[] input, int offset, int len) {
+        KeyedHmac[] h = state();
+        length += len;
+        if (h.length == 1) {
+            h[0].update(input, offset, len);
+            return this;
+        }
+
+        for (int end = offset + len; offset < end; offset += FUSED_BYTES) {
+            int n = Math.min(FUSED_BYTES, end - offset);
+            for (KeyedHmac hmac : h) {
+                hmac.update(input, offset, n);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Absorbs part of the message
+     *
+     * @param input - the bytes
+     * @return this signer
+     */
+    public StreamingSigner update(byte[] input) {
+        return update(input, 0, input.length);
+    }
+
+    /**
+     * Absorbs the remaining bytes of a buffer, leaving its position at the
+     * limit. Direct buffers are read in place without copying them into a
+     * heap array first.
+     *
+     * @param input - buffer holding the bytes
+     * @return this signer
+     */
+    public StreamingSigner update(ByteBuffer input) {
+        KeyedHmac[] h = state();
+        length += input.remaining();
+        if (h.length == 1) {
+            h[0].update(input);
+            return this;
+        }
+
+        ByteBuffer piece = input.duplicate();
+        for (int position = input.position(), limit = input.limit(); position < limit; position += FUSED_BYTES) {
+            for (KeyedHmac hmac : h) {
+                piece.limit(Math.min(limit, position + FUSED_BYTES)).position(position);
+                hmac.update(piece);
+            }
+        }
+        input.position(input.limit());
+        return this;
+    }
+
+    /**
+     * Absorbs every byte of a stream until its end. The stream is not
+     * closed.
+     *
+     * @param input - stream holding the bytes
+     * @return this signer
+     * @throws IOException - if reading the stream fails
+     */
+    public StreamingSigner update(InputStream input) throws IOException {
+        byte[] buffer = new byte[BUFFER_BYTES];
+        int n;
+        try {
+            while ((n = input.read(buffer)) != -1) {
+                update(buffer, 0, n);
+            }
+        } catch (IOException e) {
+            report(false);
+            throw e;
+        }
+
+        return this;
+    }
+
+    /**
+     * Absorbs every byte of a channel until its end. The channel is not
+     * closed.
+     *
+     * @param input - channel holding the bytes
+     * @return this signer
+     * @throws IOException - if reading the channel fails
+     */
+    public StreamingSigner update(ReadableByteChannel input) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES);
+        try {
+            while (input.read(buffer) != -1) {
+                buffer.flip();
+                update(buffer);
+                buffer.clear();
+            }
+        } catch (IOException e) {
+            report(false);
+            throw e;
+        }
+
+        return this;
+    }
+
+    /**
+     * Completes the signature. The signer cannot be used afterwards.
+     *
+     * @return sign of the absorbed message which is an instance of Signature, combined if there are several keys
+     */
+    public Signature finish() {
+        KeyedHmac[] h = state();
+        hmacs = null;
+        boolean ok = false;
+        try {
+            byte[] tag = h[0].doFinal();
+            for (int i = 1; i < h.length; i++) {
+                BulkXor.xorInto(tag, h[i].doFinal());
+            }
+
+            ok = true;
+            return new Signature(index, tag);
+        } finally {
+            report(ok);
+        }
+    }
+
+    /**
+     * Reports the signature once, the first time this is called
+     */
+    private void report(boolean ok) {
+        int signers = Integer.bitCount(index);
+        multisig.reportSign(listener, event, start, length, signers, signers == 1 ? Integer.numberOfTrailingZeros(index) : -1, ok);
+        listener = null;
+        event = null;
+    }
+
+    private KeyedHmac[] state() {
+        if (hmacs == null) throw new IllegalStateException("Signer has already been finished");
+        return hmacs;
+    }
+}
@@ -0,0 +1,191 @@
+package dk.hyperdivision.multisig_hmac;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * StreamingVerifier verifies a combined signature of a message
+ * incrementally. Every part of the message is fed to the HMAC of each
+ * key used in the signature, so the message never has to be held in
+ * memory as a whole. Instances are created by MultisigHMAC.verifier and
+ * DerivedMultisigHMAC.verifier and are not thread safe.
+ *
+ * The verification is reported to the metrics listener of the instance
+ * when the verifier finishes, or with the outcome ERROR if reading a
+ * stream or channel fails.
+ *
+ * @author Amalie Due Jensen
+ */
+public class StreamingVerifier {
+    private final MultisigHMAC multisig;
+    private final Signature signatures;
+    private final int threshold;
+    private KeyedHmac[] hmacs;
+    private boolean finished;
+    private MetricsListener listener;
+    private VerifyEvent event;
+    private final long start;
+    private long length;
+
+    /**
+     * @param multisig - instance the verification is reported to
+     * @param listener - the metrics listener, or null
+     * @param event - the Flight Recorder event begun when the verification started, or null
+     * @param start - System.nanoTime() when the verification started
+     * @param signatures - combined signature
+     * @param threshold - minimum number of used keys
+     * @param hmacs - one computation per used key, or null if the signature is below the threshold
+     */
+    StreamingVerifier(MultisigHMAC multisig, MetricsListener listener, VerifyEvent event, long start, Signature signatures, int threshold, KeyedHmac[] hmacs) {
+        this.multisig = multisig;
+        this.listener = listener;
+        this.event = event;
+        this.start = start;
+        this.signatures = signatures;
+        this.threshold = threshold;
+        this.hmacs = hmacs;
+    }
+
+    /**
+     * Absorbs part of the message
+     *
+     * @param input - buffer holding the bytes
+     * @param offset - offset of the first byte in input
+     * @param len - number of bytes
+     * @return this verifier
+     */
+    public StreamingVerifier update(byte[] input, int offset, int len) {
+        checkState();
+        length += len;
+        if (hmacs != null) {
+            for (KeyedHmac hmac : hmacs) {
+                hmac.update(input, offset, len);
+            }
+        }
+
+        return this;
+    }
+
+    /**
+     * Absorbs part of the message
+     *
+     * @param input - the bytes
+     * @return this verifier
+     */
+    public StreamingVerifier update(byte[] input) {
+        return update(input, 0, input.length);
+    }
+
+    /**
+     * Absorbs the remaining bytes of a buffer, leaving its position at the
+     * limit. Direct buffers are read in place without copying them into a
+     * heap array first.
+     *
+     * @param input - buffer holding the bytes
+     * @return this verifier
+     */
+    public StreamingVerifier update(ByteBuffer input) {
+        checkState();
+        length += input.remaining();
+        if (hmacs != null) {
+            int position = input.position();
+            for (KeyedHmac hmac : hmacs) {
+                input.position(position);
+                hmac.update(input);
+            }
+        }
+        input.position(input.limit());
+
+        return this;
+    }
+
+    /**
+     * Absorbs every byte of a stream until its end. The stream is not
+     * closed.
+     *
+     * @param input - stream holding the bytes
+     * @return this verifier
+     * @throws IOException - if reading the stream fails
+     */
+    public StreamingVerifier update(InputStream input) throws IOException {
+        byte[] buffer = new byte[StreamingSigner.BUFFER_BYTES];
+        int n;
+        try {
+            while ((n = input.read(buffer)) != -1) {
+                update(buffer, 0, n);
+            }
+        } catch (IOException e) {
+            report(null);
+            throw e;
+        }
+
+        return this;
+    }
+
+    /**
+     * Absorbs every byte of a channel until its end. The channel is not
+     * closed.
+     *
+     * @param input - channel holding the bytes
+     * @return this verifier
+     * @throws IOException - if reading the channel fails
+     */
+    public StreamingVerifier update(ReadableByteChannel input) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(StreamingSigner.BUFFER_BYTES);
+        try {
+            while (input.read(buffer) != -1) {
+                buffer.flip();
+                update(buffer);
+                buffer.clear();
+            }
+        } catch (IOException e) {
+            report(null);
+            throw e;
+        }
+
+        return this;
+    }
+
+    /**
+     * Completes the verification. The verifier cannot be used afterwards.
+     *
+     * @return verification of the signature (true/false)
+     */
+    public boolean finish() {
+        checkState();
+        finished = true;
+        Boolean valid = null;
+        try {
+            if (hmacs == null) {
+                valid = false;
+                return false;
+            }
+
+            byte[][] tags = new byte[hmacs.length][];
+            for (int i = 0; i < hmacs.length; i++) {
+                tags[i] = hmacs[i].doFinal();
+            }
+            hmacs = null;
+
+            valid = MultisigHMAC.tagsMatch(signatures.signature, tags);
+            return valid;
+        } finally {
+            report(valid);
+        }
+    }
+
+    /**
+     * Reports the verification once, the first time this is called
+     */
+    private void report(Boolean valid) {
+        multisig.reportVerify(listener, event, start, length, signatures, threshold, valid);
+        listener = null;
+        event = null;
+    }
+
+    private void checkState() {
+        if (finished) throw new IllegalStateException("Verifier has already been finished");
+    }
+}
@@ -0,0 +1,41 @@
+package dk.hyperdivision.multisig_hmac;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Flight Recorder event of MultisigHMAC.verify and
+ * DerivedMultisigHMAC.verify. Only verifications slower than the
+ * threshold, 1 ms unless the recording sets another one, are recorded.
+ *
+ * @author Amalie Due Jensen
+ */
+@Name("dk.hyperdivision.multisig_hmac.Verify")
+@Label("Multisig HMAC Verify")
+@Category("Multisig HMAC")
+@Description("Verification of a combined signature")
+@Threshold("1 ms")
+@StackTrace(false)
+final class VerifyEvent extends Event {
+    @Label("Algorithm")
+    String algorithm;
+
+    @Label("Message Length")
+    @DataAmount
+    long messageLength;
+
+    @Label("Signers")
+    int signers;
+
+    @Label("Threshold")
+    int threshold;
+
+    @Label("Outcome")
+    String outcome;
+}
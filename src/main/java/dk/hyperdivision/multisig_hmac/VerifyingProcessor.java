@@ -0,0 +1,317 @@
+package dk.hyperdivision.multisig_hmac;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * VerifyingProcessor is a pipeline stage which verifies a stream of signed
+ * messages. Every item is verified on the async executor of the
+ * MultisigHMAC instance, and the results are emitted in the order the
+ * items arrived.
+ *
+ * At most window items are requested from upstream before their results
+ * have been delivered downstream, which bounds both the number of
+ * verifications in flight and the number of results waiting for demand.
+ * The keys are prepared once for the lifetime of the processor, so the
+ * HMAC key setup is not repeated per item. In master key mode each sub key
+ * is derived and prepared the first time an item uses it, and the
+ * processor's copy of the master key is overwritten with zeros once the
+ * stream completes, fails or is cancelled.
+ *
+ * A verification which throws, e.g. because a signature has the wrong
+ * length, yields a rejected result carrying the exception rather than
+ * failing the stream. The processor accepts a single subscriber.
+ *
+ * @author Amalie Due Jensen
+ */
+public class VerifyingProcessor implements Flow.Processor<SignedMessage, VerifyingProcessor.Result> {
+    private final MultisigHMAC multisig;
+    final List<Key> keys;
+    private final int threshold;
+    private final int window;
+
+    private final ArrayDeque<Pending> pending = new ArrayDeque<>();
+    private final AtomicInteger wip = new AtomicInteger();
+    private Flow.Subscription upstream;
+    private Flow.Subscriber<? super Result> downstream;
+    private long demand;
+    private boolean upstreamDone;
+    private Throwable upstreamError;
+    private boolean cancelled;
+    private boolean terminated;
+
+    /**
+     * Result represents the outcome of verifying one item
+     */
+    public static class Result {
+        final SignedMessage item;
+        final boolean valid;
+        final Throwable error;
+
+        Result(SignedMessage item, boolean valid, Throwable error) {
+            this.item = item;
+            this.valid = valid;
+            this.error = error;
+        }
+
+        /**
+         * Returns the item which was verified
+         *
+         * @return the signed message
+         */
+        public SignedMessage getItem() {
+            return item;
+        }
+
+        /**
+         * Returns whether the signature is valid for the message
+         *
+         * @return verification of the signature (true/false)
+         */
+        public boolean isValid() {
+            return valid;
+        }
+
+        /**
+         * Returns the exception thrown while verifying the item
+         *
+         * @return the exception, or null if the verification completed
+         */
+        public Throwable getError() {
+            return error;
+        }
+    }
+
+    private static final class Pending {
+        final SignedMessage item;
+        final CompletableFuture<Boolean> future;
+
+        Pending(SignedMessage item, CompletableFuture<Boolean> future) {
+            this.item = item;
+            this.future = future;
+        }
+    }
+
+    private VerifyingProcessor(MultisigHMAC multisig, List<Key> keys, int threshold, int window) {
+        if (threshold <= 0) throw new IllegalArgumentException("Threshold must be at least 1");
+        if (window <= 0) throw new IllegalArgumentException("Window must be at least 1");
+
+        this.multisig = multisig;
+        this.keys = keys;
+        this.threshold = threshold;
+        this.window = window;
+    }
+
+    /**
+     * Constructs a processor which verifies against a list of keys
+     *
+     * @param multisig - instance whose algorithm and async executor are used
+     * @param keys - a list of all keys
+     * @param threshold - minimum number of keys each signature must be made with
+     * @param window - maximum number of items in flight
+     * @return the processor
+     * @throws NoSuchAlgorithmException - if the specified algorithm is not available
+     */
+    public static VerifyingProcessor of(MultisigHMAC multisig, List<Key> keys, int threshold, int window) throws NoSuchAlgorithmException {
+        List<Key> prepared = new ArrayList<>(keys.size());
+        for (Key key : keys) {
+            prepared.add(multisig.prepare(key));
+        }
+
+        return new VerifyingProcessor(multisig, prepared, threshold, window);
+    }
+
+    /**
+     * Constructs a processor which verifies against keys derived from a
+     * master key
+     *
+     * @param multisig - instance whose algorithm, key cache and async executor are used
+     * @param masterKey - master key in bytes of length KEYBYTES which the keys are derived from
+     * @param threshold - minimum number of keys each signature must be made with
+     * @param window - maximum number of items in flight
+     * @return the processor
+     */
+    public static VerifyingProcessor of(DerivedMultisigHMAC multisig, byte[] masterKey, int threshold, int window) {
+        if (masterKey.length != multisig.getKEYBYTES()) throw new IllegalArgumentException("Master key must be KEYBYTES long");
+
+        return new VerifyingProcessor(multisig, new PreparedDerivedKeys(multisig, masterKey.clone()), threshold, window);
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        synchronized (this) {
+            if (upstream != null) {
+                subscription.cancel();
+                return;
+            }
+            upstream = subscription;
+        }
+        subscription.request(window);
+    }
+
+    @Override
+    public void onNext(SignedMessage item) {
+        CompletableFuture<Boolean> future = item == null || item.signature == null
+                ? CompletableFuture.failedFuture(new IllegalArgumentException("Item must have a signature"))
+                : multisig.verifyAsync(keys, item.signature, item.message, threshold);
+        synchronized (this) {
+            pending.add(new Pending(item, future));
+        }
+        future.whenComplete((valid, e) -> drain());
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        synchronized (this) {
+            upstreamError = throwable;
+            upstreamDone = true;
+        }
+        drain();
+    }
+
+    @Override
+    public void onComplete() {
+        synchronized (this) {
+            upstreamDone = true;
+        }
+        drain();
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super Result> subscriber) {
+        synchronized (this) {
+            if (downstream != null) {
+                subscriber.onSubscribe(new Flow.Subscription() {
+                    @Override
+                    public void request(long n) {
+                    }
+
+                    @Override
+                    public void cancel() {
+                    }
+                });
+                subscriber.onError(new IllegalStateException("VerifyingProcessor accepts a single subscriber"));
+                return;
+            }
+            downstream = subscriber;
+        }
+
+        subscriber.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+                if (n <= 0) {
+                    synchronized (VerifyingProcessor.this) {
+                        upstreamError = new IllegalArgumentException("Demand must be positive");
+                        upstreamDone = true;
+                        pending.clear();
+                    }
+                    cancelUpstream();
+                } else {
+                    synchronized (VerifyingProcessor.this) {
+                        demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                    }
+                }
+                drain();
+            }
+
+            @Override
+            public void cancel() {
+                synchronized (VerifyingProcessor.this) {
+                    cancelled = true;
+                    pending.clear();
+                }
+                cancelUpstream();
+                destroyKeys();
+            }
+        });
+        drain();
+    }
+
+    /**
+     * Overwrites the copy of a master key with zeros once no more items
+     * will be verified
+     */
+    private void destroyKeys() {
+        if (keys instanceof PreparedDerivedKeys) ((PreparedDerivedKeys) keys).destroy();
+    }
+
+    private void cancelUpstream() {
+        Flow.Subscription subscription;
+        synchronized (this) {
+            subscription = upstream;
+        }
+        if (subscription != null) subscription.cancel();
+    }
+
+    /**
+     * Delivers completed results in order while there is demand. Only one
+     * thread delivers at a time, the others leave their work to it.
+     */
+    private void drain() {
+        if (wip.getAndIncrement() != 0) return;
+
+        int missed = 1;
+        while (true) {
+            int emitted = 0;
+            while (true) {
+                Flow.Subscriber<? super Result> subscriber;
+                Pending head;
+                boolean complete;
+                Throwable error;
+                synchronized (this) {
+                    subscriber = downstream;
+                    if (subscriber == null || cancelled || terminated) break;
+
+                    head = pending.peek();
+                    complete = head == null && upstreamDone;
+                    error = upstreamError;
+                    if (complete) {
+                        terminated = true;
+                    } else if (head == null || demand == 0 || !head.future.isDone()) {
+                        break;
+                    } else {
+                        pending.poll();
+                        if (demand != Long.MAX_VALUE) demand--;
+                    }
+                }
+
+                if (complete) {
+                    destroyKeys();
+                    if (error != null) subscriber.onError(error);
+                    else subscriber.onComplete();
+                    break;
+                }
+
+                subscriber.onNext(resultOf(head));
+                emitted++;
+            }
+
+            if (emitted > 0) {
+                Flow.Subscription subscription;
+                synchronized (this) {
+                    subscription = upstreamDone || cancelled ? null : upstream;
+                }
+                if (subscription != null) subscription.request(emitted);
+            }
+
+            missed = wip.addAndGet(-missed);
+            if (missed == 0) return;
+        }
+    }
+
+    private static Result resultOf(Pending pending) {
+        try {
+            return new Result(pending.item, pending.future.join(), null);
+        } catch (CompletionException e) {
+            return new Result(pending.item, false, e.getCause());
+        } catch (RuntimeException e) {
+            return new Result(pending.item, false, e);
+        }
+    }
+}
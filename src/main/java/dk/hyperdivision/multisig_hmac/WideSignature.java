@@ -0,0 +1,46 @@
+package dk.hyperdivision.multisig_hmac;
+
+/**
+ * WideSignature represents an instance of a signer set + signature pair.
+ * It is the counterpart of Signature for key indexes of 32 and above, and
+ * the tags are identical, only the bitfield is wider.
+ *
+ * @author Amalie Due Jensen
+ */
+public class WideSignature {
+    SignerSet signers;
+    byte[] signature;
+
+    /**
+     * Constructs and initializes a new instance of WideSignature
+     *
+     * @param signers - the indexes of the keys in the instance
+     * @param signature - the signature in the instance
+     */
+    public WideSignature(SignerSet signers, byte[] signature) {
+        this.signers = signers;
+        this.signature = signature;
+    }
+
+    /**
+     * Widens a Signature
+     *
+     * @param signature - signature with a 32 bit bitfield
+     * @return the same signature as a WideSignature
+     */
+    public static WideSignature of(Signature signature) {
+        return new WideSignature(SignerSet.fromInt(signature.index), signature.signature);
+    }
+
+    /**
+     * Narrows the signature to a Signature, which requires every index to
+     * be below 32
+     *
+     * @return the same signature as a Signature
+     */
+    public Signature toSignature() {
+        if (!signers.fitsInt()) throw new IllegalStateException("Signature has indexes of 32 or more");
+
+        return new Signature(signers.toInt(), signature);
+    }
+}
@@ -0,0 +1,103 @@
+package dk.hyperdivision.multisig_hmac;
+
+import org.junit.jupiter.api.Test;
+import java.lang.management.ManagementFactory;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestAllocation {
+    private static final int WARMUP = 20000;
+    private static final int CALLS = 1000;
+
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    @Test
+    public void testVerifyDoesNotAllocate() throws NoSuchAlgorithmException, InvalidKeyException {
+        MultisigHMAC m = new MultisigHMAC(MultisigHMAC.Algorithm.HmacSHA256);
+        List<Key> keys = new ArrayList<>();
+        List<Signature> signatures = new ArrayList<>();
+        byte[] message = "hello world".getBytes();
+        for (int i = 0; i < 3; i++) {
+            keys.add(m.generate(i));
+            signatures.add(m.sign(keys.get(i), message));
+        }
+        Signature out = m.combine(signatures);
+        byte[] combined = new byte[m.getBYTES()];
+
+        boolean ok = true;
+        for (int i = 0; i < WARMUP; i++) {
+            m.combine(signatures, combined);
+            ok &= m.verify(keys, out, message, 0, message.length, 2);
+        }
+
+        long before = allocatedBytes();
+        for (int i = 0; i < CALLS; i++) {
+            m.combine(signatures, combined);
+            ok &= m.verify(keys, out, message, 0, message.length, 2);
+        }
+        long allocated = allocatedBytes() - before;
+
+        assertTrue(ok);
+        assertEquals(0, allocated / CALLS, "bytes allocated per call");
+    }
+
+    @Test
+    public void testDerivedVerifyDoesNotAllocate() throws NoSuchAlgorithmException, InvalidKeyException {
+        DerivedMultisigHMAC m = new DerivedMultisigHMAC(MultisigHMAC.Algorithm.HmacSHA512);
+        byte[] masterKey = m.generateMasterKey();
+        byte[] message = "hello world".getBytes();
+        Signature out = m.combine(Arrays.asList(m.sign(m.generate(0, masterKey), message), m.sign(m.generate(4, masterKey), message)));
+
+        boolean ok = true;
+        for (int i = 0; i < WARMUP; i++) {
+            ok &= m.verify(masterKey, out, message, 0, message.length, 2);
+        }
+
+        long before = allocatedBytes();
+        for (int i = 0; i < CALLS; i++) {
+            ok &= m.verify(masterKey, out, message, 0, message.length, 2);
+        }
+        long allocated = allocatedBytes() - before;
+
+        assertTrue(ok);
+        assertEquals(0, allocated / CALLS, "bytes allocated per call");
+    }
+
+    @Test
+    public void testOffsetAndLength() throws NoSuchAlgorithmException, InvalidKeyException {
+        MultisigHMAC m = new MultisigHMAC(MultisigHMAC.Algorithm.HmacSHA384);
+        List<Key> keys = Arrays.asList(m.generate(0), m.generate(1));
+        byte[] message = "hello world".getBytes();
+        Signature out = m.combine(Arrays.asList(m.sign(keys.get(0), message), m.sign(keys.get(1), message)));
+
+        byte[] buffer = new byte[message.length + 7];
+        System.arraycopy(message, 0, buffer, 3, message.length);
+        assertTrue(m.verify(keys, out, buffer, 3, message.length, 2));
+        assertFalse(m.verify(keys, out, buffer, 2, message.length, 2));
+        assertThrows(IllegalArgumentException.class, () -> m.verify(keys, out, buffer, 8, message.length, 2));
+        assertThrows(IllegalArgumentException.class, () -> m.verify(keys, out, buffer, -1, message.length, 2));
+    }
+
+    @Test
+    public void testHighestIndex() throws NoSuchAlgorithmException, InvalidKeyException {
+        MultisigHMAC m = new MultisigHMAC(MultisigHMAC.Algorithm.HmacSHA256);
+        List<Key> keys = new ArrayList<>();
+        for (int i = 0; i < 32; i++) keys.add(m.generate(i));
+        byte[] message = "hello world".getBytes();
+        Signature out = m.combine(Arrays.asList(m.sign(keys.get(0), message), m.sign(keys.get(31), message)));
+
+        assertEquals(Arrays.asList(0, 31), MultisigHMAC.keyIndexes(out.index));
+        assertTrue(m.verify(keys, out, message, 2));
+        assertThrows(IllegalArgumentException.class, () -> m.verify(keys.subList(0, 31), out, message, 2));
+    }
+}
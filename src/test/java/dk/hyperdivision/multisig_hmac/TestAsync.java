@@ -0,0 +1,130 @@
+package dk.hyperdivision.multisig_hmac;
+
+import org.junit.jupiter.api.Test;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestAsync {
+    byte[] message = "hello world".getBytes();
+
+    @Test
+    public void testStoredKeys() throws NoSuchAlgorithmException, InvalidKeyException, ExecutionException, InterruptedException {
+        MultisigHMAC m = new MultisigHMAC(MultisigHMAC.Algorithm.HmacSHA256);
+        assertNotNull(m.getAsyncExecutor());
+
+        List<Key> keys = new ArrayList<>();
+        for (int i = 0; i < 3; i++) keys.add(m.generateAsync(i).get());
+        assertEquals(m.getKEYBYTES(), keys.get(2).key.length);
+
+        Signature s0 = m.signAsync(keys.get(0), message).get();
+        Signature s2 = m.signAsync(keys.get(2), message).get();
+        assertArrayEquals(m.sign(keys.get(0), message).signature, s0.signature);
+
+        Signature combined = m.combine(Arrays.asList(s0, s2));
+        assertTrue(m.verifyAsync(keys, combined, message, 2).get());
+        assertFalse(m.verifyAsync(keys, combined, message, 3).get());
+
+        // Exceptions of the synchronous methods complete the future exceptionally
+        ExecutionException e = assertThrows(ExecutionException.class, () -> m.verifyAsync(keys, combined, message, 0).get());
+        assertTrue(e.getCause() instanceof IllegalArgumentException);
+    }
+
+    @Test
+    public void testDerivedKeys() throws ExecutionException, InterruptedException {
+        DerivedMultisigHMAC m = new DerivedMultisigHMAC(MultisigHMAC.Algorithm.HmacSHA512);
+        byte[] masterKey = m.generateMasterKey();
+
+        Key k1 = m.generateAsync(1, masterKey).get();
+        Key k4 = m.generateAsync(4, masterKey).get();
+        Signature combined = m.combine(Arrays.asList(m.signAsync(k1, message).get(), m.signAsync(k4, message).get()));
+
+        assertTrue(m.verifyAsync(masterKey, combined, message, 2).get());
+        assertFalse(m.verifyAsync(masterKey, combined, "hello".getBytes(), 2).get());
+    }
+
+    @Test
+    public void testConcurrencyLimit() throws InterruptedException, ExecutionException {
+        ExecutorService pool = Executors.newCachedThreadPool();
+        try {
+            BoundedExecutor executor = new BoundedExecutor(pool, 2, 3);
+            MultisigHMAC m = new MultisigHMAC(MultisigHMAC.Algorithm.HmacSHA256);
+            m.setAsyncExecutor(executor);
+
+            CountDownLatch release = new CountDownLatch(1);
+            CountDownLatch started = new CountDownLatch(2);
+            List<CompletableFuture<Key>> blocked = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                int index = i;
+                blocked.add(m.async(() -> {
+                    started.countDown();
+                    release.await();
+                    return m.generate(index);
+                }));
+            }
+
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            assertEquals(2, executor.getActiveCount());
+            assertEquals(3, executor.getQueueDepth());
+
+            // The queue is full, so the next operation is rejected
+            ExecutionException e = assertThrows(ExecutionException.class, () -> m.generateAsync(5).get());
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+            assertEquals(1, executor.getRejectedCount());
+
+            release.countDown();
+            for (CompletableFuture<Key> future : blocked) {
+                assertNotNull(future.get());
+            }
+            // The count is updated just after the future completes
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (executor.getCompletedCount() < 5 && System.nanoTime() < deadline) Thread.sleep(1);
+            assertEquals(5, executor.getCompletedCount());
+            assertEquals(0, executor.getQueueDepth());
+            assertEquals(3, executor.getPeakQueueDepth());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testDefaultReusesThreads() throws InterruptedException, ExecutionException {
+        MultisigHMAC m = new MultisigHMAC(MultisigHMAC.Algorithm.HmacSHA256);
+        Set<Thread> threads = ConcurrentHashMap.newKeySet();
+        List<CompletableFuture<Key>> futures = new ArrayList<>();
+        for (int i = 0; i < 64; i++) {
+            int index = i % 32;
+            futures.add(m.async(() -> {
+                threads.add(Thread.currentThread());
+                return m.generate(index);
+            }));
+        }
+        for (CompletableFuture<Key> future : futures) {
+            assertNotNull(future.get());
+        }
+
+        // A fixed pool of daemon threads, so per-thread caches outlive a single operation
+        assertTrue(threads.size() <= BoundedExecutor.getDefault().getMaxConcurrency());
+        for (Thread thread : threads) {
+            assertTrue(thread.isDaemon());
+            assertTrue(thread.getName().startsWith("multisig-hmac-async-"));
+        }
+    }
+}
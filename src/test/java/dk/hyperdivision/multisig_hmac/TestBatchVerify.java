@@ -0,0 +1,95 @@
+package dk.hyperdivision.multisig_hmac;
+
+import org.junit.jupiter.api.Test;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class TestBatchVerify {
+
+    @Test
+    public void testStoredKeys() throws NoSuchAlgorithmException, InvalidKeyException {
+        MultisigHMAC m = new MultisigHMAC(MultisigHMAC.Algorithm.HmacSHA256);
+        List<Key> keys = new ArrayList<>();
+        for (int i = 0; i < 4; i++) keys.add(m.generate(i));
+
+        int n = 150;
+        Signature[] signatures = new Signature[n];
+        byte[][] messages = new byte[n][];
+        BitSet expected = new BitSet();
+        for (int i = 0; i < n; i++) {
+            messages[i] = ("message " + i).getBytes();
+            List<Signature> parts = new ArrayList<>();
+            parts.add(m.sign(keys.get(i % 4), messages[i]));
+            parts.add(m.sign(keys.get((i + 1) % 4), messages[i]));
+            signatures[i] = m.combine(parts);
+
+            switch (i % 5) {
+                case 0:
+                    // tampered message
+                    messages[i] = ("massage " + i).getBytes();
+                    break;
+                case 1:
+                    // below threshold
+                    signatures[i] = parts.get(0);
+                    break;
+                case 2:
+                    // index beyond the list of keys
+                    signatures[i] = new Signature(signatures[i].index | 1 << 6, signatures[i].signature);
+                    break;
+                default:
+                    expected.set(i);
+            }
+        }
+        messages[3] = null;
+        expected.clear(3);
+        signatures[4] = new Signature(signatures[4].index, new byte[5]);
+        expected.clear(4);
+
+        assertEquals(expected, m.verifyBatch(keys, signatures, messages, 2));
+        assertEquals(expected, m.verifyBatch(keys, Arrays.asList(signatures), Arrays.asList(messages), 2));
+
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            m.setParallelPolicy(new ParallelPolicy(executor, 3, 0, 2));
+            m.setParallelVerify(true);
+            assertEquals(expected, m.verifyBatch(keys, signatures, messages, 2));
+        } finally {
+            executor.shutdown();
+        }
+
+        assertThrows(IllegalArgumentException.class, () -> m.verifyBatch(keys, signatures, new byte[1][], 2));
+        assertThrows(IllegalArgumentException.class, () -> m.verifyBatch(keys, signatures, messages, 0));
+    }
+
+    @Test
+    public void testDerivedKeys() throws NoSuchAlgorithmException, InvalidKeyException {
+        DerivedMultisigHMAC m = new DerivedMultisigHMAC(MultisigHMAC.Algorithm.HmacSHA384);
+        byte[] masterKey = m.generateMasterKey();
+
+        List<Signature> signatures = new ArrayList<>();
+        List<byte[]> messages = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            byte[] message = ("message " + i).getBytes();
+            List<Signature> parts = new ArrayList<>();
+            parts.add(m.sign(m.generate(i, masterKey), message));
+            parts.add(m.sign(m.generate(31, masterKey), message));
+            signatures.add(m.combine(parts));
+            messages.add(message);
+        }
+        messages.set(7, "tampered".getBytes());
+
+        BitSet expected = new BitSet();
+        expected.set(0, 10);
+        expected.clear(7);
+        assertEquals(expected, m.verifyBatch(masterKey, signatures, messages, 2));
+        assertEquals(new BitSet(), m.verifyBatch(m.generateMasterKey(), signatures, messages, 2));
+    }
+}
@@ -0,0 +1,110 @@
+package dk.hyperdivision.multisig_hmac;
+
+import org.junit.jupiter.api.Test;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestBulkCombine {
+    Random random = new Random(7);
+
+    List<Signature> randomSignatures(int n, int bytes) {
+        List<Signature> signatures = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            byte[] tag = new byte[bytes];
+            random.nextBytes(tag);
+            signatures.add(new Signature(random.nextInt(), tag));
+        }
+
+        return signatures;
+    }
+
+    // The combine loop as it was before the bulk path
+    static Signature bytewise(MultisigHMAC m, List<Signature> signatures) {
+        int index = 0;
+        byte[] signature = new byte[m.getBYTES()];
+        for (Signature obj : signatures) {
+            index ^= obj.index;
+            signature = m.xorBytes(signature, obj.signature);
+        }
+
+        return new Signature(index, signature);
+    }
+
+    @Test
+    public void testMatchesBytewise() {
+        for (MultisigHMAC.Algorithm alg : MultisigHMAC.Algorithm.values()) {
+            MultisigHMAC m = new MultisigHMAC(alg);
+            for (int n : new int[] {0, 1, 2, 31, 1000}) {
+                List<Signature> signatures = randomSignatures(n, m.getBYTES());
+                Signature expected = bytewise(m, signatures);
+
+                Signature combined = m.combine(signatures);
+                assertEquals(expected.index, combined.index);
+                assertArrayEquals(expected.signature, combined.signature);
+
+                combined = m.combine(new LinkedList<>(signatures));
+                assertArrayEquals(expected.signature, combined.signature);
+            }
+        }
+    }
+
+    @Test
+    public void testOddLength() {
+        byte[] acc = new byte[13];
+        byte[] b = new byte[13];
+        random.nextBytes(acc);
+        random.nextBytes(b);
+        byte[] expected = new byte[13];
+        for (int i = 0; i < 13; i++) expected[i] = (byte) (acc[i] ^ b[i]);
+
+        BulkXor.xorInto(acc, b);
+        assertArrayEquals(expected, acc);
+    }
+
+    @Test
+    public void testParallelTreeReduction() {
+        MultisigHMAC m = new MultisigHMAC(MultisigHMAC.Algorithm.HmacSHA512);
+        List<Signature> signatures = randomSignatures(BulkXor.PARALLEL_MIN_SIGNATURES + 12345, m.getBYTES());
+        Signature expected = bytewise(m, signatures);
+
+        AtomicInteger submitted = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            m.setParallelPolicy(new ParallelPolicy(task -> {
+                submitted.incrementAndGet();
+                executor.execute(task);
+            }, 3));
+
+            Signature combined = m.combine(signatures);
+            assertEquals(expected.index, combined.index);
+            assertArrayEquals(expected.signature, combined.signature);
+            assertTrue(submitted.get() > 0);
+
+            // Below the cutoff everything stays on the calling thread
+            submitted.set(0);
+            m.combine(signatures.subList(0, 1000));
+            assertEquals(0, submitted.get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testWrongLength() {
+        MultisigHMAC m = new MultisigHMAC(MultisigHMAC.Algorithm.HmacSHA256);
+        List<Signature> signatures = randomSignatures(3, 32);
+        signatures.add(new Signature(1, new byte[16]));
+
+        assertThrows(IllegalArgumentException.class, () -> m.combine(signatures));
+        assertThrows(IllegalArgumentException.class, () -> m.combine(signatures, new byte[64]));
+    }
+}
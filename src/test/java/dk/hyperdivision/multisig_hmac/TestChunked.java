@@ -0,0 +1,145 @@
+package dk.hyperdivision.multisig_hmac;
+
+import org.junit.jupiter.api.Test;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestChunked {
+    MultisigHMAC m = new MultisigHMAC(MultisigHMAC.Algorithm.HmacSHA256);
+    int chunkBytes = 4096;
+    byte[] message = new byte[10 * 4096 + 100];
+
+    {
+        new Random(1).nextBytes(message);
+    }
+
+    @Test
+    public void testFile() throws NoSuchAlgorithmException, InvalidKeyException, IOException {
+        Key k0 = m.generate(0);
+        Signature expected = m.signChunked(k0, message, chunkBytes);
+
+        Path file = Files.createTempFile("multisig", ".bin");
+        try {
+            Files.write(file, message);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                assertArrayEquals(expected.signature, m.signChunked(k0, channel, chunkBytes).signature);
+
+                List<Key> keys = new ArrayList<>();
+                keys.add(k0);
+                assertTrue(m.verifyChunked(keys, expected, channel, chunkBytes, 1));
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testParallelism() throws NoSuchAlgorithmException, InvalidKeyException {
+        Key k0 = m.generate(0);
+        Signature expected = m.signChunked(k0, message, chunkBytes);
+
+        m.setParallelPolicy(new ParallelPolicy(Runnable::run, 1));
+        assertArrayEquals(expected.signature, m.signChunked(k0, message, chunkBytes).signature);
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            m.setParallelPolicy(new ParallelPolicy(executor, 3));
+            assertArrayEquals(expected.signature, m.signChunked(k0, message, chunkBytes).signature);
+        } finally {
+            executor.shutdown();
+        }
+        m.setParallelPolicy(ParallelPolicy.commonPool());
+
+        // differs from the plain signature and from other chunk sizes
+        assertFalse(Arrays.equals(expected.signature, m.sign(k0, message).signature));
+        assertFalse(Arrays.equals(expected.signature, m.signChunked(k0, message, chunkBytes * 2).signature));
+    }
+
+    @Test
+    public void testVerify() throws NoSuchAlgorithmException, InvalidKeyException {
+        List<Key> keys = new ArrayList<>();
+        for (int i = 0; i < 3; i++) keys.add(m.generate(i));
+
+        List<Signature> signatures = new ArrayList<>();
+        signatures.add(m.signChunked(keys.get(0), message, chunkBytes));
+        signatures.add(m.signChunked(keys.get(2), message, chunkBytes));
+        Signature combined = m.combine(signatures);
+
+        assertTrue(m.verifyChunked(keys, combined, message, chunkBytes, 2));
+        assertFalse(m.verifyChunked(keys, combined, message, chunkBytes, 3));
+        assertFalse(m.verifyChunked(keys, combined, message, chunkBytes + 1, 2));
+        assertFalse(m.verify(keys, combined, message, 2));
+
+        // swapped chunks
+        byte[] swapped = message.clone();
+        System.arraycopy(message, 0, swapped, chunkBytes, chunkBytes);
+        System.arraycopy(message, chunkBytes, swapped, 0, chunkBytes);
+        assertFalse(m.verifyChunked(keys, combined, swapped, chunkBytes, 2));
+
+        // truncated
+        assertFalse(m.verifyChunked(keys, combined, Arrays.copyOf(message, message.length - 100), chunkBytes, 2));
+
+        assertThrows(IllegalArgumentException.class, () -> m.verifyChunked(keys, combined, message, 0, 2));
+    }
+
+    @Test
+    public void testDerivedKeys() throws NoSuchAlgorithmException, InvalidKeyException {
+        DerivedMultisigHMAC m = new DerivedMultisigHMAC(MultisigHMAC.Algorithm.HmacSHA512);
+        byte[] masterKey = m.generateMasterKey();
+        byte[] empty = new byte[0];
+
+        List<Signature> signatures = new ArrayList<>();
+        signatures.add(m.signChunked(m.generate(1, masterKey), empty, chunkBytes));
+        signatures.add(m.signChunked(m.generate(3, masterKey), empty, chunkBytes));
+        Signature combined = m.combine(signatures);
+
+        assertTrue(m.verifyChunked(masterKey, combined, empty, chunkBytes, 2));
+        assertFalse(m.verifyChunked(m.generateMasterKey(), combined, empty, chunkBytes, 2));
+    }
+
+    private static byte[] hmac(byte[] key, byte[]... parts) throws NoSuchAlgorithmException, InvalidKeyException {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(key, "HmacSHA256"));
+        for (byte[] part : parts) {
+            mac.update(part);
+        }
+        return mac.doFinal();
+    }
+
+    @Test
+    public void testSeparateKey() throws NoSuchAlgorithmException, InvalidKeyException {
+        Key k0 = m.generate(0);
+        byte[] single = Arrays.copyOf(message, 100);
+        byte[] chunked = "chunked".getBytes();
+        byte[] trailer = ByteBuffer.allocate(21).order(ByteOrder.LITTLE_ENDIAN).put((byte) 0x01).putInt(chunkBytes).putLong(1).putLong(single.length).array();
+        Signature signature = m.signChunked(k0, single, chunkBytes);
+
+        // A single chunk, tagged with the chunked key rather than k0 itself
+        byte[] chunkedKey = hmac("multisig-hmac chunked".getBytes(), k0.key);
+        byte[] t0 = hmac(chunkedKey, chunked, new byte[] {0x00}, new byte[8], single);
+        assertArrayEquals(hmac(chunkedKey, chunked, trailer, t0), signature.signature);
+
+        // Plain sign of the bytes the final tag covers does not produce it
+        byte[] plainT0 = m.sign(k0, ByteBuffer.allocate(chunked.length + 9 + single.length).put(chunked).put((byte) 0x00).putLong(0).put(single).array()).signature;
+        byte[] folded = ByteBuffer.allocate(chunked.length + trailer.length + plainT0.length).put(chunked).put(trailer).put(plainT0).array();
+        assertFalse(Arrays.equals(signature.signature, m.sign(k0, folded).signature));
+    }
+}
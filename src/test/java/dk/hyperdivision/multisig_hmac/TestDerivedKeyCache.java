@@ -0,0 +1,114 @@
+package dk.hyperdivision.multisig_hmac;
+
+import org.junit.jupiter.api.Test;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestDerivedKeyCache {
+    DerivedMultisigHMAC m = new DerivedMultisigHMAC(MultisigHMAC.Algorithm.HmacSHA256);
+
+    @Test
+    public void testSameKeys() throws NoSuchAlgorithmException, InvalidKeyException {
+        byte[] masterKey = m.generateMasterKey();
+        Key uncached = m.generate(3, masterKey);
+
+        DerivedKeyCache cache = new DerivedKeyCache(16);
+        m.setKeyCache(cache);
+
+        assertArrayEquals(uncached.key, m.generate(3, masterKey).key);
+        assertEquals(1, cache.getMisses());
+        assertArrayEquals(uncached.key, m.generate(3, masterKey).key);
+        assertEquals(1, cache.getHits());
+
+        // different master key or algorithm must not hit
+        assertFalse(Arrays.equals(uncached.key, m.generate(3, m.generateMasterKey()).key));
+        DerivedMultisigHMAC m512 = new DerivedMultisigHMAC(MultisigHMAC.Algorithm.HmacSHA512);
+        m512.setKeyCache(cache);
+        assertEquals(m512.getKEYBYTES(), m512.generate(3, masterKey).key.length);
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    public void testVerify() throws NoSuchAlgorithmException, InvalidKeyException {
+        byte[] masterKey = m.generateMasterKey();
+        byte[] message = "hello world".getBytes();
+
+        List<Signature> signatures = new ArrayList<>();
+        signatures.add(m.sign(m.generate(0, masterKey), message));
+        signatures.add(m.sign(m.generate(2, masterKey), message));
+        Signature combined = m.combine(signatures);
+
+        DerivedKeyCache cache = new DerivedKeyCache(16);
+        m.setKeyCache(cache);
+
+        assertTrue(m.verify(masterKey, combined, message, 2));
+        assertTrue(m.verify(masterKey, combined, message, 2));
+        assertFalse(m.verify(masterKey, combined, "hello worl".getBytes(), 2));
+        assertFalse(m.verify(m.generateMasterKey(), combined, message, 2));
+        assertEquals(4, cache.getHits());
+    }
+
+    @Test
+    public void testEviction() throws NoSuchAlgorithmException, InvalidKeyException {
+        byte[] masterKey = m.generateMasterKey();
+        DerivedKeyCache cache = new DerivedKeyCache(1);
+        m.setKeyCache(cache);
+
+        m.generate(0, masterKey);
+        long[] fingerprint = cache.fingerprint(masterKey);
+        byte[] cached = cache.entryBytes(fingerprint, m.getALGORITHM(), 0);
+        assertNotNull(cached);
+
+        m.generate(1, masterKey);
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.getEvictions());
+        assertNull(cache.entryBytes(fingerprint, m.getALGORITHM(), 0));
+        assertArrayEquals(new byte[m.getKEYBYTES()], cached);
+
+        byte[] remaining = cache.entryBytes(fingerprint, m.getALGORITHM(), 1);
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertArrayEquals(new byte[m.getKEYBYTES()], remaining);
+    }
+
+    @Test
+    public void testCapacity() throws NoSuchAlgorithmException, InvalidKeyException {
+        int segments = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2);
+        for (int maximumSize : new int[] {1, 3, segments - 1, segments, segments + 1, 2 * segments + 3, 1000}) {
+            if (maximumSize <= 0) continue;
+            assertEquals(maximumSize, new DerivedKeyCache(maximumSize).capacity());
+        }
+
+        byte[] masterKey = m.generateMasterKey();
+        DerivedKeyCache cache = new DerivedKeyCache(segments + 1);
+        m.setKeyCache(cache);
+        for (int i = 0; i < 100; i++) {
+            m.generate(i, masterKey);
+            assertTrue(cache.size() <= segments + 1);
+        }
+    }
+
+    @Test
+    public void testExpiry() throws NoSuchAlgorithmException, InvalidKeyException, InterruptedException {
+        byte[] masterKey = m.generateMasterKey();
+        DerivedKeyCache cache = new DerivedKeyCache(16, Duration.ofMillis(1));
+        m.setKeyCache(cache);
+
+        Key k0 = m.generate(0, masterKey);
+        Thread.sleep(10);
+        assertArrayEquals(k0.key, m.generate(0, masterKey).key);
+        assertEquals(0, cache.getHits());
+        assertEquals(2, cache.getMisses());
+        assertEquals(1, cache.getEvictions());
+    }
+}
@@ -0,0 +1,195 @@
+package dk.hyperdivision.multisig_hmac;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestFlightRecorder {
+    private static final String PREFIX = "dk.hyperdivision.multisig_hmac.";
+
+    @Test
+    public void testEventsAreRecorded() throws IOException, NoSuchAlgorithmException, InvalidKeyException {
+        DerivedMultisigHMAC m = new DerivedMultisigHMAC(MultisigHMAC.Algorithm.HmacSHA384);
+        byte[] masterKey = m.generateMasterKey();
+        byte[] message = "hello world".getBytes();
+
+        List<RecordedEvent> events;
+        try (Recording recording = new Recording()) {
+            for (String name : new String[] {"Sign", "Combine", "Verify", "Derive"}) {
+                recording.enable(PREFIX + name).withThreshold(Duration.ZERO);
+            }
+            recording.start();
+
+            Key k1 = m.generate(1, masterKey);
+            Key k5 = m.generate(5, masterKey);
+            Signature combined = m.combine(Arrays.asList(m.sign(k1, message), m.sign(k5, message)));
+            m.verify(masterKey, combined, message, 2);
+            m.verify(Arrays.asList(k1, k1, k1, k1, k1, k5), combined, message, 3);
+
+            recording.stop();
+            events = read(recording);
+        }
+
+        // generate twice, and verify against the master key derives both sub keys again
+        assertEquals(4, count(events, "Derive"));
+        assertEquals(2, count(events, "Sign"));
+        assertEquals(1, count(events, "Combine"));
+        assertEquals(2, count(events, "Verify"));
+
+        for (RecordedEvent event : events) {
+            assertEquals("HmacSHA384", event.getString("algorithm"));
+            if (event.getEventType().getName().equals(PREFIX + "Verify")) {
+                assertEquals(message.length, event.getLong("messageLength"));
+                assertEquals(2, event.getInt("signers"));
+                int threshold = event.getInt("threshold");
+                assertEquals(threshold == 2 ? "OK" : "BELOW_THRESHOLD", event.getString("outcome"));
+            }
+            if (event.getEventType().getName().equals(PREFIX + "Combine")) {
+                assertEquals(2, event.getInt("signatures"));
+            }
+        }
+    }
+
+    @Test
+    public void testDefaultThreshold() throws IOException, NoSuchAlgorithmException, InvalidKeyException {
+        MultisigHMAC m = new MultisigHMAC(MultisigHMAC.Algorithm.HmacSHA256);
+        Signature signature = m.sign(m.generate(0), new byte[16]);
+
+        // Combining two signatures takes far less than the 1 ms default threshold
+        try (Recording recording = new Recording()) {
+            recording.enable(PREFIX + "Combine");
+            recording.start();
+            for (int i = 0; i < 100; i++) {
+                m.combine(Arrays.asList(signature, signature));
+            }
+            recording.stop();
+            assertEquals(0, count(read(recording), "Combine"));
+        }
+    }
+
+    @Test
+    public void testRecorderRefused() throws IOException, NoSuchAlgorithmException, InvalidKeyException {
+        MultisigHMAC m = new MultisigHMAC(MultisigHMAC.Algorithm.HmacSHA256);
+        Key k0 = m.generate(0);
+        byte[] message = "hello world".getBytes();
+        List<MetricsListener.Operation> operations = new ArrayList<>();
+        m.setMetricsListener((operation, algorithm, nanos, messageBytes, signers, outcome) -> operations.add(operation));
+
+        // A disabled recorder throws IllegalStateException, a denied permission SecurityException
+        for (RuntimeException refusal : new RuntimeException[] {new IllegalStateException("disabled"), new SecurityException("denied")}) {
+            FlightRecording.start(() -> {
+                throw refusal;
+            });
+            try (Recording recording = new Recording()) {
+                recording.enable(PREFIX + "Sign").withThreshold(Duration.ZERO);
+                recording.start();
+                assertFalse(FlightRecording.isActive());
+
+                Signature signature = m.sign(k0, message);
+                assertTrue(m.verify(Arrays.asList(k0), signature, message, 1));
+
+                recording.stop();
+                assertEquals(0, count(read(recording), "Sign"));
+            } finally {
+                // The listener registered when the class was initialized stays in place
+                FlightRecording.start(() -> { });
+            }
+        }
+
+        assertEquals(Arrays.asList(MetricsListener.Operation.SIGN, MetricsListener.Operation.VERIFY,
+                MetricsListener.Operation.SIGN, MetricsListener.Operation.VERIFY), operations);
+    }
+
+    /**
+     * Loads the library's own classes again, as a runtime without the
+     * jdk.jfr module would see them
+     */
+    private static final class WithoutJfr extends ClassLoader {
+        WithoutJfr() {
+            super(TestFlightRecorder.class.getClassLoader());
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (name.startsWith("jdk.jfr.")) throw new ClassNotFoundException(name);
+            if (!name.startsWith(PREFIX) || name.startsWith(PREFIX + "Test")) return super.loadClass(name, resolve);
+
+            synchronized (getClassLoadingLock(name)) {
+                Class<?> c = findLoadedClass(name);
+                if (c != null) return c;
+                try (InputStream in = getParent().getResourceAsStream(name.replace('.', '/') + ".class")) {
+                    if (in == null) throw new ClassNotFoundException(name);
+                    byte[] bytes = in.readAllBytes();
+                    return defineClass(name, bytes, 0, bytes.length);
+                } catch (IOException e) {
+                    throw new ClassNotFoundException(name, e);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testWithoutJfrModule() throws Exception {
+        ClassLoader loader = new WithoutJfr();
+        Class<?> multisigClass = loader.loadClass(PREFIX + "MultisigHMAC");
+        Class<?> algorithmClass = loader.loadClass(PREFIX + "MultisigHMAC$Algorithm");
+        Class<?> keyClass = loader.loadClass(PREFIX + "Key");
+        Class<?> signatureClass = loader.loadClass(PREFIX + "Signature");
+        assertThrows(ClassNotFoundException.class, () -> loader.loadClass("jdk.jfr.Event"));
+
+        Object algorithm = algorithmClass.getField("HmacSHA256").get(null);
+        Object m = multisigClass.getConstructor(algorithmClass).newInstance(algorithm);
+        Object k0 = multisigClass.getMethod("generate", int.class).invoke(m, 0);
+        byte[] message = "hello world".getBytes();
+        Object signature = multisigClass.getMethod("sign", keyClass, byte[].class).invoke(m, k0, message);
+        Object valid = multisigClass.getMethod("verify", List.class, signatureClass, byte[].class, int.class)
+                .invoke(m, Arrays.asList(k0), signature, message, 1);
+        assertEquals(true, valid);
+
+        // With a metrics listener the operations are measured, still without loading an event class
+        Class<?> listenerClass = loader.loadClass(PREFIX + "MetricsListener");
+        List<Object> operations = new ArrayList<>();
+        Object listener = Proxy.newProxyInstance(loader, new Class<?>[] {listenerClass}, (proxy, method, args) -> operations.add(args[0]));
+        multisigClass.getMethod("setMetricsListener", listenerClass).invoke(m, listener);
+        signature = multisigClass.getMethod("sign", keyClass, byte[].class).invoke(m, k0, message);
+        valid = multisigClass.getMethod("verify", List.class, signatureClass, byte[].class, int.class)
+                .invoke(m, Arrays.asList(k0), signature, message, 1);
+        assertEquals(true, valid);
+        assertEquals(2, operations.size());
+    }
+
+    private static List<RecordedEvent> read(Recording recording) throws IOException {
+        Path file = Files.createTempFile("multisig", ".jfr");
+        try {
+            recording.dump(file);
+            List<RecordedEvent> events = new ArrayList<>();
+            for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+                if (event.getEventType().getName().startsWith(PREFIX)) events.add(event);
+            }
+            assertTrue(events.stream().allMatch(e -> e.getEventType().getCategoryNames().contains("Multisig HMAC")));
+            return events;
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static long count(List<RecordedEvent> events, String name) {
+        return events.stream().filter(e -> e.getEventType().getName().equals(PREFIX + name)).count();
+    }
+}
@@ -0,0 +1,203 @@
+package dk.hyperdivision.multisig_hmac;
+
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestHttp {
+    MultisigHMAC m = new MultisigHMAC(MultisigHMAC.Algorithm.HmacSHA256);
+    List<Key> keys;
+    HttpServer server;
+    HttpClient client = HttpClient.newHttpClient();
+    AtomicInteger handled = new AtomicInteger();
+    URI uri;
+
+    @BeforeEach
+    public void setUp() throws IOException, NoSuchAlgorithmException {
+        keys = Arrays.asList(m.generate(0), m.generate(1), m.generate(2));
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+
+        // Echoes the body back signed by the server's keys, or answers 422 if the body turns out to be forged
+        HttpContext echo = server.createContext("/echo", exchange -> {
+            handled.incrementAndGet();
+            byte[] body;
+            try (InputStream in = exchange.getRequestBody()) {
+                body = in.readAllBytes();
+            } catch (IOException e) {
+                exchange.sendResponseHeaders(422, -1);
+                exchange.close();
+                return;
+            }
+            try {
+                SignedHttp.sendSigned(exchange, 200, m, keys.subList(1, 3), body);
+            } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+                throw new IOException(e);
+            }
+        });
+        echo.getFilters().add(AuthenticationFilter.of(m, keys, 2));
+        server.start();
+        uri = URI.create("http://localhost:" + server.getAddress().getPort() + "/echo");
+    }
+
+    @AfterEach
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    private HttpResponse<byte[]> send(HttpRequest.Builder request) throws IOException, InterruptedException {
+        return client.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    private String header(String method, URI target, List<Key> signers, byte[] body) throws NoSuchAlgorithmException, InvalidKeyException {
+        Signature signature = m.signer(signers).update(SignedHttp.canonicalRequest(method, target)).update(body).finish();
+        return new SignatureCodec(m.getALGORITHM()).toBase64Url(signature);
+    }
+
+    @Test
+    public void testBufferedBodies() throws Exception {
+        byte[] body = "hello world".getBytes();
+        HttpResponse<byte[]> response = send(SignedHttp.signed(uri, "POST", m, keys.subList(0, 2), body));
+        assertEquals(200, response.statusCode());
+        assertArrayEquals(body, response.body());
+
+        // Rejected before the handler runs: no signature, below threshold, forged body
+        assertEquals(401, send(HttpRequest.newBuilder(uri).POST(HttpRequest.BodyPublishers.ofByteArray(body))).statusCode());
+        assertEquals(401, send(HttpRequest.newBuilder(uri).header(SignedHttp.HEADER, "!!").POST(HttpRequest.BodyPublishers.ofByteArray(body))).statusCode());
+        assertEquals(401, send(SignedHttp.signed(uri, "POST", m, keys.subList(0, 1), body)).statusCode());
+        String header = header("POST", uri, keys.subList(0, 2), body);
+        assertEquals(401, send(HttpRequest.newBuilder(uri).header(SignedHttp.HEADER, header).POST(HttpRequest.BodyPublishers.ofByteArray("hello World".getBytes()))).statusCode());
+        assertEquals(1, handled.get());
+
+        // A request without a body is verified too
+        assertEquals(200, send(SignedHttp.signed(uri, "GET", m, keys, new byte[0])).statusCode());
+    }
+
+    @Test
+    public void testStreamedBodies() throws Exception {
+        byte[] body = new byte[1 << 20];
+        new Random(3).nextBytes(body);
+        String header = header("POST", uri, keys, body);
+
+        // Sent in chunks, so the length is not known up front
+        HttpRequest.Builder chunked = HttpRequest.newBuilder(uri).header(SignedHttp.HEADER, header)
+                .POST(HttpRequest.BodyPublishers.ofInputStream(() -> new ByteArrayInputStream(body)));
+        HttpResponse<byte[]> response = send(chunked);
+        assertEquals(200, response.statusCode());
+        assertArrayEquals(body, response.body());
+
+        byte[] forged = body.clone();
+        forged[body.length - 1] ^= 1;
+        HttpRequest.Builder forgedRequest = HttpRequest.newBuilder(uri).header(SignedHttp.HEADER, header)
+                .POST(HttpRequest.BodyPublishers.ofInputStream(() -> new ByteArrayInputStream(forged)));
+        assertEquals(422, send(forgedRequest).statusCode());
+
+        Path file = Files.createTempFile("multisig", ".bin");
+        try {
+            Files.write(file, body);
+            assertEquals(200, send(SignedHttp.signed(uri, "PUT", m, keys, file)).statusCode());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testMethodAndPathAreSigned() throws Exception {
+        byte[] body = "hello world".getBytes();
+        String header = header("POST", uri, keys, body);
+        assertEquals(200, send(HttpRequest.newBuilder(uri).header(SignedHttp.HEADER, header).POST(HttpRequest.BodyPublishers.ofByteArray(body))).statusCode());
+
+        // The same signature and body sent with another method, path or query is rejected
+        assertEquals(401, send(HttpRequest.newBuilder(uri).header(SignedHttp.HEADER, header).PUT(HttpRequest.BodyPublishers.ofByteArray(body))).statusCode());
+        assertEquals(401, send(HttpRequest.newBuilder(uri.resolve("/echo/other")).header(SignedHttp.HEADER, header).POST(HttpRequest.BodyPublishers.ofByteArray(body))).statusCode());
+        assertEquals(401, send(HttpRequest.newBuilder(URI.create(uri + "?id=1")).header(SignedHttp.HEADER, header).POST(HttpRequest.BodyPublishers.ofByteArray(body))).statusCode());
+        assertEquals(1, handled.get());
+
+        assertArrayEquals("POST /echo?id=1%20\n".getBytes(), SignedHttp.canonicalRequest("POST", URI.create("http://h/echo?id=1%20")));
+        assertArrayEquals("GET /\n".getBytes(), SignedHttp.canonicalRequest("GET", URI.create("http://h")));
+    }
+
+    @Test
+    public void testVerifiedResponses() throws Exception {
+        byte[] body = new byte[200000];
+        new Random(4).nextBytes(body);
+        HttpRequest request = SignedHttp.signed(uri, "POST", m, keys, body).build();
+
+        HttpResponse<byte[]> response = client.send(request, SignedHttp.verifying(m, keys, 2, HttpResponse.BodyHandlers.ofByteArray()));
+        assertArrayEquals(body, response.body());
+
+        // The server signs with keys 1 and 2, so a client expecting 3 keys or other keys rejects the response
+        assertThrows(IOException.class, () -> client.send(request, SignedHttp.verifying(m, keys, 3, HttpResponse.BodyHandlers.ofByteArray())));
+        List<Key> otherKeys = Arrays.asList(m.generate(0), m.generate(1), m.generate(2));
+        CompletionException e = assertThrows(CompletionException.class,
+                () -> client.sendAsync(request, SignedHttp.verifying(m, otherKeys, 2, HttpResponse.BodyHandlers.ofByteArray())).join());
+        assertTrue(e.getCause() instanceof IOException);
+    }
+
+    @Test
+    public void testMasterKey() throws Exception {
+        DerivedMultisigHMAC derived = new DerivedMultisigHMAC(MultisigHMAC.Algorithm.HmacSHA512);
+        byte[] masterKey = derived.generateMasterKey();
+        List<Key> subKeys = Arrays.asList(derived.generate(3, masterKey), derived.generate(17, masterKey));
+
+        HttpContext context = server.createContext("/derived", exchange -> {
+            byte[] body = exchange.getRequestBody().readAllBytes();
+            Signature signature = (Signature) exchange.getAttribute(AuthenticationFilter.SIGNATURE_ATTRIBUTE);
+            boolean expected = body.length == 5 && signature.index == ((1 << 3) | (1 << 17));
+            exchange.sendResponseHeaders(expected ? 200 : 500, -1);
+            exchange.close();
+        });
+        AuthenticationFilter filter = AuthenticationFilter.of(derived, masterKey, 2);
+        filter.setBufferBytes(0);
+        context.getFilters().add(filter);
+
+        URI derivedUri = uri.resolve("/derived");
+        assertEquals(200, send(SignedHttp.signed(derivedUri, "POST", derived, subKeys, "hello".getBytes())).statusCode());
+        assertEquals(401, send(SignedHttp.signed(derivedUri, "POST", derived, subKeys.subList(0, 1), "hello".getBytes())).statusCode());
+
+        // Once closed, keys which have been used still verify and any other is refused
+        filter.close();
+        List<Key> unused = Arrays.asList(derived.generate(4, masterKey), derived.generate(5, masterKey));
+        assertEquals(200, send(SignedHttp.signed(derivedUri, "POST", derived, subKeys, "hello".getBytes())).statusCode());
+        assertEquals(401, send(SignedHttp.signed(derivedUri, "POST", derived, unused, "hello".getBytes())).statusCode());
+    }
+
+    @Test
+    public void testVerifiersDestroy() throws Exception {
+        DerivedMultisigHMAC derived = new DerivedMultisigHMAC(MultisigHMAC.Algorithm.HmacSHA256);
+        byte[] masterKey = derived.generateMasterKey();
+        Signature signature = derived.sign(derived.generate(2, masterKey), "hello".getBytes());
+
+        SignedHttp.Verifiers verifiers = SignedHttp.verifiers(derived, masterKey, 1);
+        assertTrue(verifiers.start(signature).update("hello".getBytes()).finish());
+        verifiers.destroy();
+        assertTrue(verifiers.start(signature).update("hello".getBytes()).finish());
+        assertThrows(IllegalStateException.class, () -> verifiers.start(derived.sign(derived.generate(3, masterKey), "hello".getBytes())));
+
+        SignedHttp.VerifyingHandler<byte[]> handler = SignedHttp.verifying(m, keys, 2, HttpResponse.BodyHandlers.ofByteArray());
+        handler.close();
+    }
+}
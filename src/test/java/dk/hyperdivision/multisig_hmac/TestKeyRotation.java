@@ -0,0 +1,167 @@
+package dk.hyperdivision.multisig_hmac;
+
+import org.junit.jupiter.api.Test;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestKeyRotation {
+
+    @Test
+    public void testStoredKeys() throws NoSuchAlgorithmException, InvalidKeyException {
+        MultisigHMAC m = new MultisigHMAC(MultisigHMAC.Algorithm.HmacSHA256);
+        List<Key> first = Arrays.asList(m.generate(0), m.generate(1));
+        List<Key> second = Arrays.asList(m.generate(0), m.generate(1));
+        byte[] message = "hello world".getBytes();
+        Signature byFirst = m.combine(Arrays.asList(m.sign(first.get(0), message), m.sign(first.get(1), message)));
+        Signature bySecond = m.combine(Arrays.asList(m.sign(second.get(0), message), m.sign(second.get(1), message)));
+
+        KeyRotation rotation = new KeyRotation(m);
+        assertThrows(IllegalStateException.class, rotation::promote);
+        assertThrows(IllegalStateException.class, () -> rotation.verify(byFirst, message, 2));
+
+        rotation.stage(1, first);
+        rotation.promote();
+        assertEquals(1, rotation.getCurrentGeneration());
+        assertTrue(rotation.verify(byFirst, message, 2));
+
+        // A staged generation is not accepted before it is promoted
+        rotation.stageAsync(2, second).join();
+        assertFalse(rotation.accepts(2));
+        assertThrows(IllegalArgumentException.class, () -> rotation.verify(2, bySecond, message, 2));
+        assertThrows(IllegalArgumentException.class, () -> rotation.stage(1, second));
+
+        // During the overlap both generations verify, each with a single verify
+        rotation.promote();
+        assertEquals(2, rotation.getCurrentGeneration());
+        assertTrue(rotation.verify(1, byFirst, message, 2));
+        assertTrue(rotation.verify(2, bySecond, message, 2));
+        assertFalse(rotation.verify(2, byFirst, message, 2));
+        assertTrue(rotation.verify(bySecond, message, 2));
+
+        rotation.retirePrevious();
+        assertFalse(rotation.accepts(1));
+        assertThrows(IllegalArgumentException.class, () -> rotation.verify(1, byFirst, message, 2));
+    }
+
+    @Test
+    public void testMasterKeys() throws NoSuchAlgorithmException, InvalidKeyException {
+        DerivedMultisigHMAC m = new DerivedMultisigHMAC(MultisigHMAC.Algorithm.HmacSHA512);
+        byte[] oldMaster = m.generateMasterKey();
+        byte[] newMaster = m.generateMasterKey();
+        byte[] message = "hello world".getBytes();
+        Signature byOld = m.combine(Arrays.asList(m.sign(m.generate(0, oldMaster), message), m.sign(m.generate(31, oldMaster), message)));
+        Signature byNew = m.sign(m.generate(5, newMaster), message);
+
+        KeyRotation rotation = new KeyRotation(m);
+        rotation.stage(10, oldMaster);
+        rotation.promote();
+        rotation.stageAsync(11, newMaster).join();
+        rotation.promote();
+
+        assertTrue(rotation.verify(10, byOld, message, 2));
+        assertTrue(rotation.verify(11, byNew, message, 1));
+        assertFalse(rotation.verify(11, byOld, message, 2));
+
+        KeyRotation stored = new KeyRotation(new MultisigHMAC(MultisigHMAC.Algorithm.HmacSHA512));
+        assertThrows(IllegalArgumentException.class, () -> stored.stage(1, oldMaster));
+    }
+
+    @Test
+    public void testRetiredMasterKeysAreZeroed() throws NoSuchAlgorithmException, InvalidKeyException {
+        DerivedMultisigHMAC m = new DerivedMultisigHMAC(MultisigHMAC.Algorithm.HmacSHA256);
+        byte[] zeros = new byte[m.getKEYBYTES()];
+        byte[] message = "hello world".getBytes();
+        byte[] first = m.generateMasterKey();
+        Signature byFirst = m.sign(m.generate(3, first), message);
+
+        KeyRotation rotation = new KeyRotation(m);
+        rotation.stage(1, first);
+        PreparedDerivedKeys firstKeys = (PreparedDerivedKeys) rotation.keysOf(1);
+        assertFalse(Arrays.equals(zeros, firstKeys.masterKey));
+        rotation.promote();
+
+        // A staged generation which is replaced before it is promoted is zeroed
+        rotation.stage(2, m.generateMasterKey());
+        PreparedDerivedKeys replaced = (PreparedDerivedKeys) rotation.keysOf(2);
+        rotation.stage(2, m.generateMasterKey());
+        assertArrayEquals(zeros, replaced.masterKey);
+
+        // The previous generation keeps its key during the overlap, and loses it when retired
+        rotation.promote();
+        assertFalse(Arrays.equals(zeros, firstKeys.masterKey));
+        assertTrue(rotation.verify(1, byFirst, message, 1));
+        rotation.retirePrevious();
+        assertArrayEquals(zeros, firstKeys.masterKey);
+        assertArrayEquals(m.generate(3, first).key, ((PreparedKey) firstKeys.get(3)).key);
+
+        // Pushed out by a promote
+        rotation.stage(3, m.generateMasterKey());
+        rotation.promote();
+        PreparedDerivedKeys secondKeys = (PreparedDerivedKeys) rotation.keysOf(2);
+        rotation.stage(4, m.generateMasterKey());
+        rotation.promote();
+        assertArrayEquals(zeros, secondKeys.masterKey);
+
+        // A number in use is refused
+        assertThrows(IllegalArgumentException.class, () -> rotation.stage(4, m.generateMasterKey()));
+        assertEquals(4, rotation.getCurrentGeneration());
+    }
+
+    @Test
+    public void testDestroyDuringDerivation() throws Exception {
+        DerivedMultisigHMAC m = new DerivedMultisigHMAC(MultisigHMAC.Algorithm.HmacSHA512);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (int round = 0; round < 50; round++) {
+                byte[] masterKey = m.generateMasterKey();
+                PreparedDerivedKeys keys = new PreparedDerivedKeys(m, masterKey.clone());
+                CountDownLatch start = new CountDownLatch(1);
+                Future<?>[] tasks = new Future<?>[4];
+                for (int t = 0; t < tasks.length; t++) {
+                    int first = t;
+                    tasks[t] = executor.submit(() -> {
+                        start.await();
+                        for (int i = first; i < keys.size(); i += 4) {
+                            try {
+                                keys.get(i);
+                            } catch (IllegalStateException e) {
+                                // destroyed before this key was derived
+                            }
+                        }
+                        return null;
+                    });
+                }
+                start.countDown();
+                keys.destroy();
+                for (Future<?> task : tasks) {
+                    task.get();
+                }
+
+                // Every key which made it in was derived from the whole master key
+                for (int i = 0; i < keys.size(); i++) {
+                    Key key;
+                    try {
+                        key = keys.get(i);
+                    } catch (IllegalStateException e) {
+                        continue;
+                    }
+                    assertArrayEquals(m.generate(i, masterKey).key, ((PreparedKey) key).key);
+                }
+                assertArrayEquals(new byte[masterKey.length], keys.masterKey);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
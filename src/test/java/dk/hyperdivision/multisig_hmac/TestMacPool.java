@@ -0,0 +1,160 @@
+package dk.hyperdivision.multisig_hmac;
+
+import org.junit.jupiter.api.Test;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.security.Security;
+import java.util.Arrays;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestMacPool {
+
+    @Test
+    public void testReuse() throws NoSuchAlgorithmException, InvalidKeyException {
+        MacPool pool = new MacPool();
+        MultisigHMAC m = new MultisigHMAC(MultisigHMAC.Algorithm.HmacSHA256);
+        m.setMacPool(pool);
+        Key k0 = m.generate(0);
+        byte[] message = "hello world".getBytes();
+
+        m.sign(k0, message);
+        assertEquals(1, pool.getMisses());
+        assertEquals(0, pool.getHits());
+
+        for (int i = 0; i < 10; i++) m.sign(k0, message);
+        assertEquals(1, pool.getMisses());
+        assertEquals(10, pool.getHits());
+    }
+
+    @Test
+    public void testNestedAcquire() throws NoSuchAlgorithmException {
+        MacPool pool = new MacPool();
+
+        Mac outer = pool.acquire(MultisigHMAC.Algorithm.HmacSHA512);
+        Mac inner = pool.acquire(MultisigHMAC.Algorithm.HmacSHA512);
+        assertNotSame(outer, inner);
+        assertEquals(2, pool.getMisses());
+
+        pool.release(MultisigHMAC.Algorithm.HmacSHA512, inner);
+        pool.release(MultisigHMAC.Algorithm.HmacSHA512, outer);
+        assertSame(inner, pool.acquire(MultisigHMAC.Algorithm.HmacSHA512));
+        assertEquals(1, pool.getHits());
+    }
+
+    @Test
+    public void testProvider() throws NoSuchAlgorithmException, InvalidKeyException {
+        Provider sunJCE = Security.getProvider("SunJCE");
+        MacPool pool = new MacPool(sunJCE);
+        assertSame(sunJCE, pool.acquire(MultisigHMAC.Algorithm.HmacSHA384).getProvider());
+
+        MultisigHMAC m = new MultisigHMAC(MultisigHMAC.Algorithm.HmacSHA384);
+        Key k0 = m.generate(0);
+        byte[] message = "hello world".getBytes();
+        Signature expected = m.sign(k0, message);
+
+        m.setMacPool(pool);
+        assertArrayEquals(expected.signature, m.sign(k0, message).signature);
+
+        assertThrows(IllegalArgumentException.class, () -> m.setMacPool(null));
+    }
+
+    @Test
+    public void testProviderHmacUsed() throws NoSuchAlgorithmException, InvalidKeyException {
+        // A provider with both the HMACs and the hash functions, e.g. a FIPS provider, computes through its Mac
+        Provider both = new Provider("Both", "1.0", "HMACs and hash functions") {
+            {
+                for (Provider.Service s : Security.getProvider("SunJCE").getServices()) {
+                    if (s.getType().equals("Mac")) putService(new Provider.Service(this, s.getType(), s.getAlgorithm(), s.getClassName(), null, null));
+                }
+                for (Provider.Service s : Security.getProvider("SUN").getServices()) {
+                    if (s.getType().equals("MessageDigest")) putService(new Provider.Service(this, s.getType(), s.getAlgorithm(), s.getClassName(), null, null));
+                }
+            }
+        };
+
+        for (MultisigHMAC.Algorithm alg : MultisigHMAC.Algorithm.values()) {
+            MacPool pool = new MacPool(both);
+            HmacScratch scratch = pool.acquireScratch(alg);
+            assertSame(both, scratch.getProvider());
+            pool.releaseScratch(scratch);
+
+            DerivedMultisigHMAC m = new DerivedMultisigHMAC(alg);
+            byte[] masterKey = m.generateMasterKey();
+            Key k2 = m.generate(2, masterKey);
+            byte[] message = "hello world".getBytes();
+            Signature s2 = m.sign(k2, message);
+
+            m.setMacPool(pool);
+            assertArrayEquals(k2.key, m.generate(2, masterKey).key);
+            assertTrue(m.verify(masterKey, s2, message, 1));
+            assertTrue(m.verify(Arrays.asList(m.generate(0, masterKey), m.generate(1, masterKey), k2), s2, message, 1));
+        }
+
+        assertSame(Security.getProvider("SUN"), new MacPool(Security.getProvider("SUN")).acquireScratch(MultisigHMAC.Algorithm.HmacSHA256).getProvider());
+    }
+
+    @Test
+    public void testDerivedKeysUnchanged() throws NoSuchAlgorithmException, InvalidKeyException {
+        // Reference implementation of the KDF with fresh Mac instances
+        for (MultisigHMAC.Algorithm alg : MultisigHMAC.Algorithm.values()) {
+            DerivedMultisigHMAC m = new DerivedMultisigHMAC(alg);
+            byte[] masterKey = m.generateMasterKey();
+
+            Mac HMAC = Mac.getInstance(alg.name());
+            HMAC.init(new SecretKeySpec(masterKey, alg.name()));
+            HMAC.update("derived".getBytes());
+            HMAC.update(DerivedMultisigHMAC.intToLittleEndian(5));
+            byte[] h0 = HMAC.doFinal(new byte[] {0x00});
+            HMAC.update(h0);
+            byte[] h1 = HMAC.doFinal(new byte[] {0x01});
+            byte[] expected = ByteBuffer.allocate(h0.length + h1.length).put(h0).put(h1).array();
+
+            assertArrayEquals(expected, m.generate(5, masterKey).key);
+            assertArrayEquals(expected, m.generate(5, masterKey).key);
+        }
+    }
+
+    @Test
+    public void testProviderWithoutDigest() throws NoSuchAlgorithmException, InvalidKeyException {
+        // SunJCE has the HMACs but not the hash functions, so the scratch computes through its Mac
+        Provider sunJCE = Security.getProvider("SunJCE");
+        for (MultisigHMAC.Algorithm alg : MultisigHMAC.Algorithm.values()) {
+            DerivedMultisigHMAC m = new DerivedMultisigHMAC(alg);
+            byte[] masterKey = m.generateMasterKey();
+            Key k0 = m.generate(0, masterKey);
+            Key k3 = m.generate(3, masterKey);
+            byte[] message = "hello world".getBytes();
+            Signature combined = m.combine(Arrays.asList(m.sign(k0, message), m.sign(k3, message)));
+
+            m.setMacPool(new MacPool(sunJCE));
+            assertArrayEquals(k3.key, m.generate(3, masterKey).key);
+            assertTrue(m.verify(masterKey, combined, message, 2));
+            assertTrue(m.verify(Arrays.asList(k0, m.generate(1, masterKey), m.generate(2, masterKey), k3), combined, message, 2));
+            assertFalse(m.verify(masterKey, combined, "hello World".getBytes(), 2));
+        }
+    }
+
+    @Test
+    public void testScratchWiped() throws NoSuchAlgorithmException, InvalidKeyException {
+        DerivedMultisigHMAC m = new DerivedMultisigHMAC(MultisigHMAC.Algorithm.HmacSHA256);
+        MacPool pool = new MacPool();
+        m.setMacPool(pool);
+        byte[] masterKey = m.generateMasterKey();
+        byte[] message = "hello world".getBytes();
+        Signature s1 = m.sign(m.generate(1, masterKey), message);
+        assertTrue(m.verify(masterKey, s1, message, 1));
+
+        HmacScratch scratch = pool.acquireScratch(MultisigHMAC.Algorithm.HmacSHA256);
+        assertArrayEquals(new byte[scratch.derived.length], scratch.derived);
+    }
+}
@@ -0,0 +1,113 @@
+package dk.hyperdivision.multisig_hmac;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestMappedKeyring {
+
+    Path dir;
+
+    @BeforeEach
+    public void createDir() throws IOException {
+        dir = Files.createTempDirectory("multisig");
+    }
+
+    @AfterEach
+    public void deleteDir() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file : files) Files.delete(file);
+        }
+        Files.delete(dir);
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException, NoSuchAlgorithmException, InvalidKeyException {
+        MultisigHMAC m = new MultisigHMAC(MultisigHMAC.Algorithm.HmacSHA512);
+        List<Key> keys = new ArrayList<>();
+        for (int i = 0; i < 40; i += 3) keys.add(m.generate(i));
+        byte[] message = "hello world".getBytes();
+        Path path = dir.resolve("keys.bin");
+        MappedKeyring.write(path, keys, 7);
+
+        try (MappedKeyring keyring = MappedKeyring.open(path)) {
+            assertEquals(7, keyring.getSerial());
+            assertEquals(m.getKEYBYTES(), keyring.getKeyBytes());
+            assertEquals(40, keyring.size());
+            assertTrue(keyring.contains(39));
+            assertFalse(keyring.contains(1));
+
+            Signature combined = m.combine(Arrays.asList(m.sign(keys.get(0), message), m.sign(keys.get(10), message)));
+            assertTrue(m.verify(keyring, combined, message, 2));
+            assertFalse(m.verify(keyring, combined, "tampered".getBytes(), 2));
+            assertEquals(combined.index, m.sign(keyring, 0, message).index | m.sign(keyring, 30, message).index);
+        }
+    }
+
+    @Test
+    public void testDamage() throws IOException, NoSuchAlgorithmException {
+        MultisigHMAC m = new MultisigHMAC(MultisigHMAC.Algorithm.HmacSHA256);
+        Path path = dir.resolve("keys.bin");
+        MappedKeyring.write(path, Arrays.asList(m.generate(0), m.generate(1)), 1);
+        byte[] file = Files.readAllBytes(path);
+
+        // A damaged record is only noticed when its key is used
+        byte[] record = file.clone();
+        record[MappedKeyring.HEADER_BYTES + MappedKeyring.RECORD_HEADER_BYTES + 5] ^= 1;
+        Files.write(path, record);
+        try (MappedKeyring keyring = MappedKeyring.open(path)) {
+            assertThrows(IllegalStateException.class, () -> keyring.key(0));
+            assertEquals(m.getKEYBYTES(), keyring.key(1).remaining());
+        }
+
+        byte[] header = file.clone();
+        header[9] ^= 1;
+        Files.write(path, header);
+        assertThrows(IOException.class, () -> MappedKeyring.open(path));
+
+        Files.write(path, Arrays.copyOf(file, file.length - 1));
+        assertThrows(IOException.class, () -> MappedKeyring.open(path));
+    }
+
+    @Test
+    public void testReload() throws IOException, NoSuchAlgorithmException, InvalidKeyException {
+        MultisigHMAC m = new MultisigHMAC(MultisigHMAC.Algorithm.HmacSHA256);
+        Key old = m.generate(0);
+        Key next = m.generate(0);
+        byte[] message = "hello world".getBytes();
+        Path path = dir.resolve("keys.bin");
+        MappedKeyring.write(path, List.of(old), 1);
+
+        try (MappedKeyring keyring = MappedKeyring.open(path)) {
+            assertFalse(keyring.reload());
+            Keyring snapshot = keyring.snapshot();
+
+            MappedKeyring.write(path, List.of(next), 2);
+            assertTrue(keyring.reload());
+            assertEquals(2, keyring.getSerial());
+            assertTrue(m.verify(keyring, m.sign(next, message), message, 1));
+            assertFalse(m.verify(keyring, m.sign(old, message), message, 1));
+
+            // Snapshots taken before the reload keep reading the old file
+            assertTrue(m.verify(snapshot, m.sign(old, message), message, 1));
+
+            // A damaged replacement is rejected and the current file stays in use
+            Files.write(path, new byte[10]);
+            assertThrows(IOException.class, keyring::reload);
+            assertEquals(2, keyring.getSerial());
+        }
+    }
+}
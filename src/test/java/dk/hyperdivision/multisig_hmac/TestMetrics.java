@@ -0,0 +1,171 @@
+package dk.hyperdivision.multisig_hmac;
+
+import org.junit.jupiter.api.Test;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestMetrics {
+
+    @Test
+    public void testStoredKeys() throws NoSuchAlgorithmException, InvalidKeyException {
+        MultisigHMAC m = new MultisigHMAC(MultisigHMAC.Algorithm.HmacSHA256);
+        MetricsRecorder recorder = new MetricsRecorder();
+        recorder.attachTo(m);
+
+        List<Key> keys = Arrays.asList(m.generate(0), m.generate(1), m.generate(2));
+        byte[] message = new byte[1000];
+        Signature combined = m.combine(Arrays.asList(m.sign(keys.get(0), message), m.sign(keys.get(2), message)));
+
+        assertTrue(m.verify(keys, combined, message, 2));
+        m.verify(keys, combined, message, 3);
+        m.verify(keys, combined, new byte[10], 2);
+        assertThrows(IllegalArgumentException.class, () -> m.verify(keys, new Signature(1, new byte[3]), message, 1));
+
+        MultisigHMAC.Algorithm alg = MultisigHMAC.Algorithm.HmacSHA256;
+        assertEquals(2, recorder.getCount(MetricsListener.Operation.SIGN, alg));
+        assertEquals(1, recorder.getCount(MetricsListener.Operation.COMBINE, alg));
+        assertEquals(4, recorder.getCount(MetricsListener.Operation.VERIFY, alg));
+        assertEquals(0, recorder.getCount(MetricsListener.Operation.VERIFY, MultisigHMAC.Algorithm.HmacSHA512));
+
+        assertEquals(1, recorder.getOutcomeCount(MetricsListener.Operation.VERIFY, MetricsListener.Outcome.OK));
+        assertEquals(1, recorder.getOutcomeCount(MetricsListener.Operation.VERIFY, MetricsListener.Outcome.BELOW_THRESHOLD));
+        assertEquals(1, recorder.getOutcomeCount(MetricsListener.Operation.VERIFY, MetricsListener.Outcome.TAG_MISMATCH));
+        assertEquals(1, recorder.getOutcomeCount(MetricsListener.Operation.VERIFY, MetricsListener.Outcome.ERROR));
+
+        // 1000 bytes fall in the bucket of 512 to 1023, 10 bytes in 8 to 15
+        long[] sizes = recorder.getMessageSizeHistogram(MetricsListener.Operation.VERIFY);
+        assertEquals(3, sizes[10]);
+        assertEquals(1, sizes[4]);
+        assertEquals(3, recorder.getSignerHistogram(MetricsListener.Operation.VERIFY)[2]);
+        assertEquals(1, recorder.getSignerHistogram(MetricsListener.Operation.COMBINE)[2]);
+
+        assertTrue(recorder.getMeanNanos(MetricsListener.Operation.VERIFY, alg) > 0);
+        long p50 = recorder.getLatencyPercentile(MetricsListener.Operation.VERIFY, alg, 50);
+        assertTrue(p50 > 0 && p50 <= recorder.getLatencyPercentile(MetricsListener.Operation.VERIFY, alg, 100));
+        assertTrue(recorder.getMacPoolHitRate() > 0);
+
+        recorder.reset();
+        assertEquals(0, recorder.getCount(MetricsListener.Operation.SIGN, alg));
+    }
+
+    @Test
+    public void testDerivedKeys() throws NoSuchAlgorithmException, InvalidKeyException {
+        DerivedMultisigHMAC m = new DerivedMultisigHMAC(MultisigHMAC.Algorithm.HmacSHA512);
+        m.setKeyCache(new DerivedKeyCache(100));
+        List<MetricsListener.Operation> seen = new ArrayList<>();
+        m.setMetricsListener((operation, algorithm, nanos, messageBytes, signers, outcome) -> seen.add(operation));
+
+        byte[] masterKey = m.generateMasterKey();
+        byte[] message = "hello world".getBytes();
+        Signature signature = m.sign(m.generate(4, masterKey), message);
+        assertTrue(m.verify(masterKey, signature, message, 1));
+        assertEquals(Arrays.asList(MetricsListener.Operation.DERIVE, MetricsListener.Operation.SIGN, MetricsListener.Operation.DERIVE, MetricsListener.Operation.VERIFY), seen);
+
+        // Without a cache the sub keys are derived in place, and still reported
+        DerivedKeyCache cache = m.getKeyCache();
+        m.setKeyCache(null);
+        seen.clear();
+        assertTrue(m.verify(masterKey, signature, message, 1));
+        assertEquals(Arrays.asList(MetricsListener.Operation.DERIVE, MetricsListener.Operation.VERIFY), seen);
+        m.setKeyCache(cache);
+
+        MetricsRecorder recorder = new MetricsRecorder();
+        assertTrue(Double.isNaN(recorder.getKeyCacheHitRate()));
+        recorder.attachTo(m);
+        m.generate(4, masterKey);
+        assertEquals(1, recorder.getCount(MetricsListener.Operation.DERIVE, MultisigHMAC.Algorithm.HmacSHA512));
+        assertTrue(recorder.getKeyCacheHitRate() > 0);
+
+        m.setMetricsListener(null);
+        m.generate(4, masterKey);
+        assertEquals(1, recorder.getCount(MetricsListener.Operation.DERIVE, MultisigHMAC.Algorithm.HmacSHA512));
+    }
+
+    private static class Calls implements MetricsListener {
+        final List<String> calls = new ArrayList<>();
+
+        @Override
+        public synchronized void onOperation(Operation operation, MultisigHMAC.Algorithm algorithm, long nanos, long messageBytes, int signers, Outcome outcome) {
+            calls.add(operation + " " + messageBytes + " " + signers + " " + outcome);
+        }
+
+        synchronized List<String> take() {
+            List<String> taken = new ArrayList<>(calls);
+            calls.clear();
+            return taken;
+        }
+    }
+
+    @Test
+    public void testEveryEntryPoint() throws NoSuchAlgorithmException, InvalidKeyException, IOException {
+        MultisigHMAC m = new MultisigHMAC(MultisigHMAC.Algorithm.HmacSHA256);
+        Calls calls = new Calls();
+        m.setMetricsListener(calls);
+
+        List<Key> keys = Arrays.asList(m.generate(0), m.generate(1), m.generate(2));
+        byte[] message = new byte[100];
+        Signature combined = m.signAndCombine(keys.subList(0, 2), message);
+        assertEquals(List.of("SIGN 100 2 OK"), calls.take());
+
+        m.sign(keys.get(1), new ByteArrayInputStream(message));
+        WideSignature wide = m.signWide(keys.get(2), message);
+        StreamingSigner signer = m.signer(keys.get(0));
+        signer.update(message, 0, 40).update(message, 40, 60).finish();
+        Signature chunked = m.signChunked(keys.get(0), message, 32);
+        assertEquals(List.of("SIGN 100 1 OK", "SIGN 100 1 OK", "SIGN 100 1 OK", "SIGN 100 1 OK"), calls.take());
+
+        assertTrue(m.verifyWide(keys, wide, message, 1));
+        assertTrue(m.verify(keys, combined, new ByteArrayInputStream(message), 2));
+        assertTrue(m.verifyChunked(keys, chunked, message, 32, 1));
+        assertFalse(m.verifier(keys, combined, 3).update(message).finish());
+        assertEquals(List.of("VERIFY 100 1 OK", "VERIFY 100 2 OK", "VERIFY 100 1 OK", "VERIFY 100 2 BELOW_THRESHOLD"), calls.take());
+
+        try (OffHeapKeyring keyring = OffHeapKeyring.of(keys)) {
+            m.sign(keyring, 0, message);
+            assertTrue(m.verify(keyring, combined, message, 2));
+            assertFalse(m.verifyWide(keyring, wide, new byte[10], 1));
+        }
+        assertEquals(List.of("SIGN 100 1 OK", "VERIFY 100 2 OK", "VERIFY 10 1 TAG_MISMATCH"), calls.take());
+
+        BitSet valid = m.verifyBatch(keys, new Signature[] {combined, combined, null}, new byte[][] {message, new byte[3], message}, 2);
+        assertEquals(1, valid.cardinality());
+        assertEquals(List.of("VERIFY 100 2 OK", "VERIFY 3 2 TAG_MISMATCH", "VERIFY 100 0 ERROR"), calls.take());
+    }
+
+    @Test
+    public void testErrors() throws NoSuchAlgorithmException, InvalidKeyException {
+        MultisigHMAC m = new MultisigHMAC(MultisigHMAC.Algorithm.HmacSHA256);
+        Calls calls = new Calls();
+        m.setMetricsListener(calls);
+
+        Key wide = m.generate(40);
+        byte[] message = new byte[100];
+        assertThrows(IllegalArgumentException.class, () -> m.sign(wide, message));
+        assertThrows(IllegalArgumentException.class, () -> m.signer(Arrays.asList(m.generate(1), m.generate(1))));
+        assertThrows(IllegalArgumentException.class, () -> m.verifier(List.of(m.generate(0)), new Signature(3, new byte[32]), 1));
+        assertEquals(List.of("SIGN 100 1 ERROR", "SIGN 0 2 ERROR", "VERIFY 0 2 ERROR"), calls.take());
+
+        InputStream failing = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("read failed");
+            }
+        };
+        StreamingSigner signer = m.signer(m.generate(0));
+        assertThrows(IOException.class, () -> signer.update(failing));
+        assertEquals(List.of("SIGN 0 1 ERROR"), calls.take());
+        signer.finish();
+        assertEquals(List.of(), calls.take());
+    }
+}
@@ -0,0 +1,96 @@
+package dk.hyperdivision.multisig_hmac;
+
+import org.junit.jupiter.api.Test;
+import java.nio.ByteBuffer;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestOffHeapKeyring {
+
+    @Test
+    public void testMatchesStoredKeys() throws NoSuchAlgorithmException, InvalidKeyException {
+        for (MultisigHMAC.Algorithm alg : MultisigHMAC.Algorithm.values()) {
+            MultisigHMAC m = new MultisigHMAC(alg);
+            List<Key> keys = new ArrayList<>();
+            for (int i = 0; i < 32; i++) keys.add(m.generate(i));
+            byte[] message = "hello world".getBytes();
+
+            try (OffHeapKeyring keyring = OffHeapKeyring.of(keys)) {
+                assertEquals(32, keyring.size());
+                List<Signature> signatures = new ArrayList<>();
+                for (int i : new int[] {0, 5, 31}) {
+                    Signature signature = m.sign(keyring, i, message);
+                    Signature expected = m.sign(keys.get(i), message);
+                    assertEquals(expected.index, signature.index);
+                    assertArrayEquals(expected.signature, signature.signature);
+                    signatures.add(signature);
+                }
+
+                Signature combined = m.combine(signatures);
+                assertTrue(m.verify(keyring, combined, message, 3));
+                assertFalse(m.verify(keyring, combined, message, 4));
+                assertFalse(m.verify(keyring, combined, "tampered".getBytes(), 3));
+                assertTrue(m.verifyWide(keyring, WideSignature.of(combined), message, 3));
+            }
+        }
+    }
+
+    @Test
+    public void testLongKeys() throws NoSuchAlgorithmException, InvalidKeyException {
+        // Keys longer than a block are hashed first, as HMAC does
+        MultisigHMAC m = new MultisigHMAC(MultisigHMAC.Algorithm.HmacSHA256);
+        byte[] bytes = new byte[100];
+        Arrays.fill(bytes, (byte) 9);
+        Key key = new Key(3, bytes);
+        byte[] message = "hello world".getBytes();
+
+        try (OffHeapKeyring keyring = OffHeapKeyring.of(List.of(key))) {
+            assertArrayEquals(m.sign(key, message).signature, m.sign(keyring, 3, message).signature);
+        }
+    }
+
+    @Test
+    public void testRemoveAndClose() throws NoSuchAlgorithmException {
+        MultisigHMAC m = new MultisigHMAC(MultisigHMAC.Algorithm.HmacSHA256);
+        OffHeapKeyring keyring = new OffHeapKeyring(70, m.getKEYBYTES());
+        keyring.put(m.generate(2));
+        keyring.put(m.generate(65));
+        assertTrue(keyring.contains(65));
+        assertFalse(keyring.contains(3));
+        assertThrows(IllegalArgumentException.class, () -> keyring.put(70, new byte[64]));
+        assertThrows(IllegalArgumentException.class, () -> keyring.put(1, new byte[63]));
+
+        // A signature by a missing key is an error rather than a failed verification
+        Signature missing = new Signature(0b1100, new byte[32]);
+        assertThrows(IllegalArgumentException.class, () -> m.verify(keyring, missing, new byte[0], 1));
+
+        ByteBuffer view = keyring.key(2);
+        keyring.remove(2);
+        assertFalse(keyring.contains(2));
+        assertTrue(isZero(view));
+
+        ByteBuffer other = keyring.key(65);
+        keyring.close();
+        assertTrue(keyring.isClosed());
+        assertTrue(isZero(other));
+        assertFalse(keyring.contains(65));
+        assertThrows(IllegalStateException.class, () -> keyring.key(65));
+        assertThrows(IllegalStateException.class, () -> m.sign(keyring, 2, new byte[0]));
+    }
+
+    private static boolean isZero(ByteBuffer buffer) {
+        for (int i = buffer.position(); i < buffer.limit(); i++) {
+            if (buffer.get(i) != 0) return false;
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,95 @@
+package dk.hyperdivision.multisig_hmac;
+
+import org.junit.jupiter.api.Test;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestParallelVerify {
+    byte[] message = new byte[200000];
+    byte[] shortMessage = "hello world".getBytes();
+    AtomicInteger submitted = new AtomicInteger();
+
+    {
+        new Random(1).nextBytes(message);
+    }
+
+    ParallelPolicy countingPolicy(ExecutorService executor) {
+        return new ParallelPolicy(task -> {
+            submitted.incrementAndGet();
+            executor.execute(task);
+        }, 4, 1024, 2);
+    }
+
+    @Test
+    public void testStoredKeys() throws NoSuchAlgorithmException, InvalidKeyException {
+        MultisigHMAC m = new MultisigHMAC(MultisigHMAC.Algorithm.HmacSHA256);
+        List<Key> keys = new ArrayList<>();
+        for (int i = 0; i < 6; i++) keys.add(m.generate(i));
+
+        List<Signature> signatures = new ArrayList<>();
+        List<Signature> shortSignatures = new ArrayList<>();
+        for (int i = 1; i < 6; i++) {
+            signatures.add(m.sign(keys.get(i), message));
+            shortSignatures.add(m.sign(keys.get(i), shortMessage));
+        }
+        Signature combined = m.combine(signatures);
+        Signature shortCombined = m.combine(shortSignatures);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            m.setParallelPolicy(countingPolicy(executor));
+            m.setParallelVerify(true);
+
+            assertTrue(m.verify(keys, combined, message, 5));
+            assertEquals(4, submitted.get());
+            assertFalse(m.verify(keys, combined, shortMessage, 5));
+            message[100]++;
+            assertFalse(m.verify(keys, combined, message, 5));
+            assertEquals(8, submitted.get());
+
+            // below the message size cutoff
+            assertTrue(m.verify(keys, shortCombined, shortMessage, 5));
+            assertEquals(8, submitted.get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testDerivedKeys() throws NoSuchAlgorithmException, InvalidKeyException {
+        DerivedMultisigHMAC m = new DerivedMultisigHMAC(MultisigHMAC.Algorithm.HmacSHA512);
+        m.setKeyCache(new DerivedKeyCache(64));
+        byte[] masterKey = m.generateMasterKey();
+
+        List<Signature> signatures = new ArrayList<>();
+        signatures.add(m.sign(m.generate(0, masterKey), message));
+        signatures.add(m.sign(m.generate(7, masterKey), message));
+        signatures.add(m.sign(m.generate(9, masterKey), message));
+        Signature combined = m.combine(signatures);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            m.setParallelPolicy(countingPolicy(executor));
+            m.setParallelVerify(true);
+
+            assertTrue(m.verify(masterKey, combined, message, 3));
+            assertEquals(2, submitted.get());
+            assertFalse(m.verify(m.generateMasterKey(), combined, message, 3));
+
+            // a single used key is below the key count cutoff
+            assertTrue(m.verify(masterKey, signatures.get(1), message, 1));
+            assertEquals(4, submitted.get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package dk.hyperdivision.multisig_hmac;
+
+import org.junit.jupiter.api.Test;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestPreparedKey {
+
+    @Test
+    public void testPoolProvider() throws NoSuchAlgorithmException, InvalidKeyException {
+        MultisigHMAC m = new MultisigHMAC(MultisigHMAC.Algorithm.HmacSHA512);
+        Key k0 = m.generate(0);
+        byte[] message = "hello world".getBytes();
+        PreparedKey preferred = m.prepare(k0);
+
+        Provider sun = Security.getProvider("SUN");
+        m.setMacPool(new MacPool(sun));
+        PreparedKey prepared = m.prepare(preferred);
+        assertNotSame(preferred, prepared);
+        assertSame(prepared, m.prepare(prepared));
+        assertSame(sun, prepared.startInner().getProvider());
+        assertSame(sun, prepared.startOuter().getProvider());
+        MultisigHMAC other = new MultisigHMAC(MultisigHMAC.Algorithm.HmacSHA512);
+        assertArrayEquals(other.sign(k0, message).signature, other.sign(prepared, message).signature);
+
+        // A provider without the hash function cannot prepare keys, rather than handing them to another provider
+        m.setMacPool(new MacPool(Security.getProvider("SunJCE")));
+        assertThrows(NoSuchAlgorithmException.class, () -> m.prepare(k0));
+    }
+
+    @Test
+    public void testSameAsMac() throws NoSuchAlgorithmException, InvalidKeyException {
+        // Message lengths around the SHA-256 and SHA-512 block sizes and padding boundaries
+        int[] lengths = {0, 1, 11, 55, 56, 63, 64, 65, 111, 112, 127, 128, 129, 255, 256, 1100, 100000};
+        Random random = new Random(1);
+
+        for (MultisigHMAC.Algorithm alg : MultisigHMAC.Algorithm.values()) {
+            MultisigHMAC m = new MultisigHMAC(alg);
+            Key k0 = m.generate(0);
+            PreparedKey p0 = m.prepare(k0);
+
+            for (int length : lengths) {
+                byte[] message = new byte[length];
+                random.nextBytes(message);
+
+                Signature expected = m.sign(k0, message);
+                Signature actual = m.sign(p0, message);
+                assertEquals(expected.index, actual.index);
+                assertArrayEquals(expected.signature, actual.signature);
+            }
+        }
+    }
+
+    @Test
+    public void testRFC4231() throws NoSuchAlgorithmException, InvalidKeyException {
+        MultisigHMAC m = new MultisigHMAC(MultisigHMAC.Algorithm.HmacSHA256);
+
+        // Test case 1: key shorter than a block
+        byte[] key1 = new byte[20];
+        Arrays.fill(key1, (byte) 0x0b);
+        assertArrayEquals(hex("b0344c61d8db38535ca8afceaf0bf12b881dc200c9833da726e9376c2e32cff7"),
+                m.sign(m.prepare(new Key(0, key1)), "Hi There".getBytes()).signature);
+
+        // Test case 6: key longer than a block
+        byte[] key6 = new byte[131];
+        Arrays.fill(key6, (byte) 0xaa);
+        assertArrayEquals(hex("60e431591ee0b67f0d8a26aacbf5b77f8e0bc6213728c5140546040f0ee37f54"),
+                m.sign(m.prepare(new Key(0, key6)), "Test Using Larger Than Block-Size Key - Hash Key First".getBytes()).signature);
+    }
+
+    @Test
+    public void testStoredKeys() throws NoSuchAlgorithmException, InvalidKeyException {
+        for (MultisigHMAC.Algorithm alg : MultisigHMAC.Algorithm.values()) {
+            MultisigHMAC m = new MultisigHMAC(alg);
+            List<Key> keys = new ArrayList<>();
+            for (int i = 0; i < 3; i++) keys.add(m.prepare(m.generate(i)));
+
+            byte[] message = "hello world".getBytes();
+            List<Signature> signatures = new ArrayList<>();
+            signatures.add(m.sign(keys.get(0), message));
+            signatures.add(m.sign(keys.get(2), message));
+            Signature combined = m.combine(signatures);
+
+            assertTrue(m.verify(keys, combined, message, 2));
+            assertFalse(m.verify(keys, combined, "hello worl".getBytes(), 2));
+        }
+    }
+
+    @Test
+    public void testDerivedKeys() throws NoSuchAlgorithmException, InvalidKeyException {
+        DerivedMultisigHMAC m = new DerivedMultisigHMAC(MultisigHMAC.Algorithm.HmacSHA384);
+        byte[] masterKey = m.generateMasterKey();
+        byte[] message = "hello world".getBytes();
+
+        List<Signature> signatures = new ArrayList<>();
+        signatures.add(m.sign(m.prepare(m.generate(0, masterKey)), message));
+        signatures.add(m.sign(m.prepare(m.generate(1, masterKey)), message));
+
+        assertTrue(m.verify(masterKey, m.combine(signatures), message, 2));
+    }
+
+    @Test
+    public void testOtherAlgorithm() throws NoSuchAlgorithmException, InvalidKeyException {
+        // A key prepared for another algorithm falls back to the Mac path
+        MultisigHMAC m256 = new MultisigHMAC(MultisigHMAC.Algorithm.HmacSHA256);
+        MultisigHMAC m512 = new MultisigHMAC(MultisigHMAC.Algorithm.HmacSHA512);
+        Key k0 = m512.generate(0);
+        PreparedKey p0 = m256.prepare(k0);
+        byte[] message = "hello world".getBytes();
+
+        assertArrayEquals(m512.sign(k0, message).signature, m512.sign(p0, message).signature);
+        assertSame(p0, m256.prepare(p0));
+    }
+
+    private static byte[] hex(String s) {
+        byte[] b = new byte[s.length() / 2];
+        for (int i = 0; i < b.length; i++) {
+            b[i] = (byte) Integer.parseInt(s.substring(2 * i, 2 * i + 2), 16);
+        }
+
+        return b;
+    }
+}
@@ -0,0 +1,105 @@
+package dk.hyperdivision.multisig_hmac;
+
+import org.junit.jupiter.api.Test;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestPreparedVerifier {
+
+    @Test
+    public void testStoredKeys() throws NoSuchAlgorithmException, InvalidKeyException {
+        for (MultisigHMAC.Algorithm alg : MultisigHMAC.Algorithm.values()) {
+            MultisigHMAC m = new MultisigHMAC(alg);
+            List<Key> keys = Arrays.asList(m.generate(0), m.generate(1), m.generate(2));
+            byte[] message = "hello world".getBytes();
+            Signature combined = m.combine(Arrays.asList(m.sign(keys.get(0), message), m.sign(keys.get(2), message)));
+
+            PreparedVerifier verifier = PreparedVerifier.of(m, keys, 2);
+            assertEquals(2, verifier.getThreshold());
+            assertTrue(verifier.verify(combined, message));
+            assertEquals(m.verify(keys, combined, message, 2), verifier.verify(combined, message));
+            assertFalse(verifier.verify(combined, "hello World".getBytes()));
+            assertFalse(PreparedVerifier.of(m, keys, 3).verify(combined, message));
+
+            byte[] buffer = ("xx" + "hello world" + "yy").getBytes();
+            assertTrue(verifier.verify(combined, buffer, 2, message.length));
+        }
+    }
+
+    @Test
+    public void testKeysByIndex() throws NoSuchAlgorithmException, InvalidKeyException {
+        MultisigHMAC m = new MultisigHMAC(MultisigHMAC.Algorithm.HmacSHA256);
+        Key k7 = m.generate(7);
+        Key k30 = m.generate(30);
+        byte[] message = new byte[100];
+        Signature combined = m.combine(Arrays.asList(m.sign(k7, message), m.sign(k30, message)));
+
+        PreparedVerifier verifier = PreparedVerifier.of(m, Arrays.asList(k30, k7), 1);
+        assertTrue(verifier.verify(combined, message));
+        assertThrows(IllegalArgumentException.class, () -> verifier.verify(m.sign(m.generate(3), message), message));
+        assertThrows(IllegalArgumentException.class, () -> verifier.verify(new Signature(combined.index, new byte[3]), message));
+
+        assertThrows(IllegalArgumentException.class, () -> PreparedVerifier.of(m, Arrays.asList(k7, k7), 1));
+        assertThrows(IllegalArgumentException.class, () -> PreparedVerifier.of(m, Arrays.asList(m.generate(32)), 1));
+        assertThrows(IllegalArgumentException.class, () -> PreparedVerifier.of(m, Arrays.asList(k7), 0));
+    }
+
+    @Test
+    public void testMasterKey() throws NoSuchAlgorithmException, InvalidKeyException {
+        DerivedMultisigHMAC m = new DerivedMultisigHMAC(MultisigHMAC.Algorithm.HmacSHA512);
+        byte[] masterKey = m.generateMasterKey();
+        byte[] message = "hello world".getBytes();
+        Signature combined = m.combine(Arrays.asList(m.sign(m.generate(4, masterKey), message), m.sign(m.generate(9, masterKey), message)));
+
+        assertTrue(PreparedVerifier.of(m, masterKey, 0, 32, 2).verify(combined, message));
+        assertTrue(PreparedVerifier.of(m, masterKey, 4, 10, 2).verify(combined, message));
+        assertThrows(IllegalArgumentException.class, () -> PreparedVerifier.of(m, masterKey, 5, 10, 2).verify(combined, message));
+        assertThrows(IllegalArgumentException.class, () -> PreparedVerifier.of(m, masterKey, 0, 33, 2));
+        assertThrows(IllegalArgumentException.class, () -> PreparedVerifier.of(m, new byte[3], 0, 32, 2));
+    }
+
+    @Test
+    public void testMasterKeySHA384() throws NoSuchAlgorithmException, InvalidKeyException {
+        DerivedMultisigHMAC m = new DerivedMultisigHMAC(MultisigHMAC.Algorithm.HmacSHA384);
+        byte[] masterKey = m.generateMasterKey();
+        byte[] message = "hello world".getBytes();
+        Signature combined = m.combine(Arrays.asList(m.sign(m.generate(1, masterKey), message), m.sign(m.generate(30, masterKey), message)));
+
+        assertTrue(PreparedVerifier.of(m, masterKey, 0, 32, 2).verify(combined, message));
+    }
+
+    @Test
+    public void testConcurrentUse() throws Exception {
+        MultisigHMAC m = new MultisigHMAC(MultisigHMAC.Algorithm.HmacSHA384);
+        List<Key> keys = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            keys.add(m.generate(i));
+        }
+        byte[] message = new byte[4096];
+        Signature combined = m.combine(Arrays.asList(m.sign(keys.get(1), message), m.sign(keys.get(5), message), m.sign(keys.get(6), message)));
+        PreparedVerifier verifier = PreparedVerifier.of(m, keys, 3);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                results.add(executor.submit(() -> verifier.verify(combined, message)));
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package dk.hyperdivision.multisig_hmac;
+
+import org.junit.jupiter.api.Test;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestRangeGeneration {
+
+    @Test
+    public void testGenerateRange() {
+        MultisigHMAC m = new MultisigHMAC(MultisigHMAC.Algorithm.HmacSHA384);
+        List<Key> keys = m.generateRange(10, 20);
+        assertEquals(10, keys.size());
+
+        Set<String> distinct = new HashSet<>();
+        for (int i = 0; i < keys.size(); i++) {
+            assertEquals(10 + i, keys.get(i).index);
+            assertEquals(m.getKEYBYTES(), keys.get(i).key.length);
+            distinct.add(Arrays.toString(keys.get(i).key));
+        }
+        assertEquals(10, distinct.size());
+
+        assertTrue(m.generateRange(5, 5).isEmpty());
+        assertThrows(IllegalArgumentException.class, () -> m.generateRange(-1, 2));
+        assertThrows(IllegalArgumentException.class, () -> m.generateRange(3, 2));
+    }
+
+    @Test
+    public void testGenerateRangeIntoBuffer() {
+        MultisigHMAC m = new MultisigHMAC(MultisigHMAC.Algorithm.HmacSHA256);
+        int n = 3000;
+        ByteBuffer out = ByteBuffer.allocate(n * m.getKEYBYTES() + 7);
+        out.position(7);
+        m.generateRange(0, n, out);
+        assertEquals(0, out.remaining());
+
+        // Keys spanning several chunks are all drawn fresh
+        Set<String> distinct = new HashSet<>();
+        for (int i = 0; i < n; i++) {
+            byte[] key = new byte[m.getKEYBYTES()];
+            out.position(7 + i * key.length);
+            out.get(key);
+            distinct.add(Arrays.toString(key));
+        }
+        assertEquals(n, distinct.size());
+
+        ByteBuffer small = ByteBuffer.allocate(2 * m.getKEYBYTES() - 1);
+        assertThrows(BufferOverflowException.class, () -> m.generateRange(0, 2, small));
+        assertEquals(0, small.position());
+    }
+
+    @Test
+    public void testDeriveRange() throws NoSuchAlgorithmException, InvalidKeyException {
+        DerivedMultisigHMAC m = new DerivedMultisigHMAC(MultisigHMAC.Algorithm.HmacSHA512);
+        byte[] masterKey = m.generateMasterKey();
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (ParallelPolicy policy : new ParallelPolicy[] {new ParallelPolicy(executor, 1), new ParallelPolicy(executor, 4)}) {
+                m.setParallelPolicy(policy);
+                List<Key> keys = m.deriveRange(3, 3 + 2000, masterKey);
+                assertEquals(2000, keys.size());
+                for (int i = 0; i < keys.size(); i++) {
+                    assertEquals(3 + i, keys.get(i).index);
+                    assertArrayEquals(m.generate(3 + i, masterKey).key, keys.get(i).key);
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertThrows(IllegalArgumentException.class, () -> m.deriveRange(0, 2, new byte[5]));
+        assertThrows(IllegalArgumentException.class, () -> m.deriveRange(2, 0, masterKey));
+    }
+
+    @Test
+    public void testDeriveRangeSHA384() throws NoSuchAlgorithmException, InvalidKeyException {
+        // Sub keys are 2 * BYTES = 96 bytes long, less than KEYBYTES = 128
+        DerivedMultisigHMAC m = new DerivedMultisigHMAC(MultisigHMAC.Algorithm.HmacSHA384);
+        byte[] masterKey = m.generateMasterKey();
+
+        List<Key> keys = m.deriveRange(0, 40, masterKey);
+        assertEquals(40, keys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            assertEquals(i, keys.get(i).index);
+            assertArrayEquals(m.generate(i, masterKey).key, keys.get(i).key);
+        }
+
+        int keyBytes = 2 * m.getBYTES();
+        ByteBuffer out = ByteBuffer.allocate(40 * keyBytes);
+        m.deriveRange(0, 40, masterKey, out);
+        assertEquals(0, out.remaining());
+        out.flip();
+        for (int i = 0; i < 40; i++) {
+            byte[] key = new byte[keyBytes];
+            out.get(key);
+            assertArrayEquals(m.generate(i, masterKey).key, key);
+        }
+
+        ByteBuffer small = ByteBuffer.allocate(2 * keyBytes - 1);
+        assertThrows(BufferOverflowException.class, () -> m.deriveRange(0, 2, masterKey, small));
+        assertEquals(0, small.position());
+    }
+
+    @Test
+    public void testDeriveRangeIntoBuffer() throws NoSuchAlgorithmException, InvalidKeyException {
+        DerivedMultisigHMAC m = new DerivedMultisigHMAC(MultisigHMAC.Algorithm.HmacSHA256);
+        byte[] masterKey = m.generateMasterKey();
+
+        ByteBuffer out = ByteBuffer.allocateDirect(600 * m.getKEYBYTES());
+        m.deriveRange(100, 700, masterKey, out);
+        assertEquals(0, out.remaining());
+        out.flip();
+        for (int i = 100; i < 700; i++) {
+            byte[] key = new byte[m.getKEYBYTES()];
+            out.get(key);
+            assertArrayEquals(m.generate(i, masterKey).key, key);
+        }
+
+        ByteBuffer small = ByteBuffer.allocate(m.getKEYBYTES());
+        assertThrows(BufferOverflowException.class, () -> m.deriveRange(0, 2, masterKey, small));
+        assertEquals(0, small.position());
+    }
+}
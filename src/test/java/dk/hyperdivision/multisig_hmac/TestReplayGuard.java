@@ -0,0 +1,211 @@
+package dk.hyperdivision.multisig_hmac;
+
+import org.junit.jupiter.api.Test;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestReplayGuard {
+    private static final long NOW = 1_700_000_000_000L;
+
+    /**
+     * Clock which only moves when told to
+     */
+    private static final class ManualClock extends Clock {
+        volatile long millis = NOW;
+
+        @Override
+        public ZoneOffset getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(java.time.ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis);
+        }
+
+        @Override
+        public long millis() {
+            return millis;
+        }
+    }
+
+    private static byte[] nonce(int n) {
+        byte[] nonce = new byte[ReplayGuard.NONCE_BYTES];
+        nonce[0] = (byte) n;
+        nonce[1] = (byte) (n >>> 8);
+        nonce[2] = (byte) (n >>> 16);
+        return nonce;
+    }
+
+    @Test
+    public void testReplay() throws NoSuchAlgorithmException, InvalidKeyException {
+        MultisigHMAC m = new MultisigHMAC(MultisigHMAC.Algorithm.HmacSHA256);
+        List<Key> keys = Arrays.asList(m.generate(0), m.generate(1), m.generate(2));
+        ReplayGuard guard = new ReplayGuard(PreparedVerifier.of(m, keys, 2), new NonceCache(Duration.ofMinutes(5), 1000));
+
+        byte[] bound = ReplayGuard.bind("hello world".getBytes());
+        assertEquals(ReplayGuard.HEADER_BYTES + 11, bound.length);
+        Signature combined = m.signAndCombine(keys.subList(0, 2), bound);
+
+        assertEquals(ReplayGuard.Outcome.ACCEPTED, guard.verify(combined, bound));
+        assertEquals(ReplayGuard.Outcome.REPLAYED, guard.verify(combined, bound));
+        assertEquals(1, guard.getCache().size());
+
+        byte[] other = ReplayGuard.bind("hello world".getBytes());
+        assertEquals(ReplayGuard.Outcome.ACCEPTED, guard.verify(m.signAndCombine(keys, other), other));
+
+        assertEquals(ReplayGuard.Outcome.MALFORMED, guard.verify(combined, new byte[ReplayGuard.HEADER_BYTES - 1]));
+        assertEquals(ReplayGuard.Outcome.BELOW_THRESHOLD, guard.verify(m.sign(keys.get(0), bound), bound));
+        assertThrows(IllegalArgumentException.class, () -> ReplayGuard.bind(NOW, new byte[3], new byte[0]));
+    }
+
+    @Test
+    public void testForgedLeavesNoTrace() throws NoSuchAlgorithmException, InvalidKeyException {
+        MultisigHMAC m = new MultisigHMAC(MultisigHMAC.Algorithm.HmacSHA512);
+        List<Key> keys = Arrays.asList(m.generate(0), m.generate(1));
+        ReplayGuard guard = new ReplayGuard(PreparedVerifier.of(m, keys, 1), new NonceCache(Duration.ofMinutes(5), 1000));
+
+        byte[] bound = ReplayGuard.bind("hello world".getBytes());
+        Signature combined = m.signAndCombine(keys, bound);
+        Signature forged = new Signature(combined.index, new byte[m.getBYTES()]);
+
+        // A forged copy arriving first neither takes a slot nor blocks the genuine message
+        for (int i = 0; i < 100; i++) {
+            assertEquals(ReplayGuard.Outcome.INVALID, guard.verify(forged, bound));
+        }
+        assertEquals(0, guard.getCache().size());
+        assertEquals(ReplayGuard.Outcome.ACCEPTED, guard.verify(combined, bound));
+        assertEquals(ReplayGuard.Outcome.REPLAYED, guard.verify(forged, bound));
+
+        // Keys the verifier does not have throw, and leave no nonce behind either
+        byte[] next = ReplayGuard.bind("hello world".getBytes());
+        assertThrows(IllegalArgumentException.class, () -> guard.verify(m.sign(m.generate(5), next), next));
+        assertEquals(ReplayGuard.Outcome.ACCEPTED, guard.verify(m.signAndCombine(keys, next), next));
+    }
+
+    @Test
+    public void testStale() throws NoSuchAlgorithmException, InvalidKeyException {
+        MultisigHMAC m = new MultisigHMAC(MultisigHMAC.Algorithm.HmacSHA256);
+        List<Key> keys = Arrays.asList(m.generate(0));
+        ManualClock clock = new ManualClock();
+        ReplayGuard guard = new ReplayGuard(PreparedVerifier.of(m, keys, 1), new NonceCache(Duration.ofSeconds(60), 1000, clock));
+
+        byte[] old = ReplayGuard.bind(NOW - 60_001, nonce(1), new byte[10]);
+        byte[] early = ReplayGuard.bind(NOW + 60_001, nonce(2), new byte[10]);
+        byte[] edge = ReplayGuard.bind(NOW - 60_000, nonce(3), new byte[10]);
+        assertEquals(ReplayGuard.Outcome.STALE, guard.verify(m.signAndCombine(keys, old), old));
+        assertEquals(ReplayGuard.Outcome.STALE, guard.verify(m.signAndCombine(keys, early), early));
+        assertEquals(ReplayGuard.Outcome.ACCEPTED, guard.verify(m.signAndCombine(keys, edge), edge));
+        assertEquals(NOW - 60_000, ReplayGuard.timestampOf(edge));
+
+        // A replay is stale once it leaves the window
+        clock.millis = NOW + 1;
+        assertEquals(ReplayGuard.Outcome.STALE, guard.verify(m.signAndCombine(keys, edge), edge));
+    }
+
+    @Test
+    public void testCheckDoesNotAdd() {
+        ManualClock clock = new ManualClock();
+        NonceCache cache = new NonceCache(Duration.ofSeconds(10), 64, clock);
+
+        assertEquals(NonceCache.Status.FRESH, cache.check(NOW, nonce(1), 0, ReplayGuard.NONCE_BYTES));
+        assertEquals(NonceCache.Status.FRESH, cache.check(NOW, nonce(1), 0, ReplayGuard.NONCE_BYTES));
+        assertEquals(0, cache.size());
+        assertEquals(NonceCache.Status.STALE, cache.check(NOW + 10_001, nonce(1), 0, ReplayGuard.NONCE_BYTES));
+
+        assertEquals(NonceCache.Status.ADDED, cache.add(NOW, nonce(1), 0, ReplayGuard.NONCE_BYTES));
+        assertEquals(NonceCache.Status.REPLAYED, cache.check(NOW, nonce(1), 0, ReplayGuard.NONCE_BYTES));
+        assertEquals(NonceCache.Status.FRESH, cache.check(NOW + 1, nonce(1), 0, ReplayGuard.NONCE_BYTES));
+    }
+
+    @Test
+    public void testEviction() {
+        ManualClock clock = new ManualClock();
+        NonceCache cache = new NonceCache(Duration.ofSeconds(10), 4096, clock);
+        long memory = cache.getMemoryBytes();
+
+        // Fill the cache over several windows, old buckets are reused
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < 16; i++) {
+                assertEquals(NonceCache.Status.ADDED, cache.add(clock.millis, nonce(round * 16 + i), 0, ReplayGuard.NONCE_BYTES));
+            }
+            assertEquals(NonceCache.Status.REPLAYED, cache.add(clock.millis, nonce(round * 16), 0, ReplayGuard.NONCE_BYTES));
+            clock.millis += 5_000;
+        }
+
+        assertEquals(memory, cache.getMemoryBytes());
+        assertTrue(cache.size() <= NonceCache.RING * 16);
+    }
+
+    @Test
+    public void testFull() {
+        ManualClock clock = new ManualClock();
+        NonceCache cache = new NonceCache(Duration.ofSeconds(10), 1, clock);
+
+        int added = 0;
+        NonceCache.Status status = NonceCache.Status.ADDED;
+        for (int i = 0; status == NonceCache.Status.ADDED; i++) {
+            status = cache.add(NOW, nonce(i), 0, ReplayGuard.NONCE_BYTES);
+            if (status == NonceCache.Status.ADDED) added++;
+        }
+
+        assertEquals(NonceCache.Status.FULL, status);
+        assertTrue(added >= 1);
+        assertEquals(added, cache.size());
+        assertEquals(NonceCache.Status.REPLAYED, cache.add(NOW, nonce(0), 0, ReplayGuard.NONCE_BYTES));
+        assertEquals(NonceCache.Status.REPLAYED, cache.check(NOW, nonce(0), 0, ReplayGuard.NONCE_BYTES));
+
+        assertThrows(IllegalArgumentException.class, () -> new NonceCache(Duration.ZERO, 1));
+        assertThrows(IllegalArgumentException.class, () -> new NonceCache(Duration.ofSeconds(1), 0));
+    }
+
+    @Test
+    public void testConcurrent() throws Exception {
+        NonceCache cache = new NonceCache(Duration.ofMinutes(5), 100_000);
+        int threads = 8;
+        int perThread = 5_000;
+        long timestamp = System.currentTimeMillis();
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            // Every thread offers the same nonces, each must be added exactly once
+            List<Future<Integer>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(pool.submit(() -> {
+                    int added = 0;
+                    for (int i = 0; i < perThread; i++) {
+                        if (cache.add(timestamp, nonce(i), 0, ReplayGuard.NONCE_BYTES) == NonceCache.Status.ADDED) added++;
+                    }
+                    return added;
+                }));
+            }
+
+            int added = 0;
+            for (Future<Integer> future : futures) {
+                added += future.get();
+            }
+            assertEquals(perThread, added);
+            assertEquals(perThread, cache.size());
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
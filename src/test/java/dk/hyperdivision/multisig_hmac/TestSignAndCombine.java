@@ -0,0 +1,78 @@
+package dk.hyperdivision.multisig_hmac;
+
+import org.junit.jupiter.api.Test;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestSignAndCombine {
+    byte[] message = new byte[100000];
+
+    {
+        new Random(2).nextBytes(message);
+    }
+
+    @Test
+    public void testEqualsSignThenCombine() throws NoSuchAlgorithmException, InvalidKeyException, IOException {
+        for (MultisigHMAC.Algorithm alg : MultisigHMAC.Algorithm.values()) {
+            MultisigHMAC m = new MultisigHMAC(alg);
+            List<Key> keys = Arrays.asList(m.generate(0), m.prepare(m.generate(3)), m.generate(31));
+            List<Signature> signatures = new ArrayList<>();
+            for (Key key : keys) {
+                signatures.add(m.sign(key, message));
+            }
+            Signature expected = m.combine(signatures);
+
+            for (byte[] msg : new byte[][] {message, new byte[0]}) {
+                List<Signature> s = new ArrayList<>();
+                for (Key key : keys) {
+                    s.add(m.sign(key, msg));
+                }
+                Signature fused = m.signAndCombine(keys, msg);
+                assertEquals(m.combine(s).index, fused.index);
+                assertArrayEquals(m.combine(s).signature, fused.signature);
+            }
+
+            assertArrayEquals(expected.signature, m.signAndCombine(keys, new ByteArrayInputStream(message)).signature);
+            assertArrayEquals(expected.signature, m.signAndCombine(keys, Channels.newChannel(new ByteArrayInputStream(message))).signature);
+            assertTrue(PreparedVerifier.of(m, keys, 3).verify(m.signAndCombine(keys, message), message));
+
+            // uneven pieces from a heap array and a direct buffer
+            ByteBuffer direct = ByteBuffer.allocateDirect(message.length).put(message).flip();
+            StreamingSigner heapSigner = m.signer(keys);
+            StreamingSigner directSigner = m.signer(keys);
+            int offset = 0;
+            for (int len = 1; offset < message.length; len = len * 3 + 1) {
+                int n = Math.min(len, message.length - offset);
+                heapSigner.update(message, offset, n);
+                direct.limit(offset + n);
+                directSigner.update(direct);
+                assertEquals(offset + n, direct.position());
+                offset += n;
+            }
+            assertArrayEquals(expected.signature, heapSigner.finish().signature);
+            assertArrayEquals(expected.signature, directSigner.finish().signature);
+        }
+    }
+
+    @Test
+    public void testInvalidKeys() throws NoSuchAlgorithmException {
+        MultisigHMAC m = new MultisigHMAC(MultisigHMAC.Algorithm.HmacSHA256);
+        Key k1 = m.generate(1);
+        assertThrows(IllegalArgumentException.class, () -> m.signAndCombine(Arrays.asList(k1, m.generate(1)), message));
+        assertThrows(IllegalArgumentException.class, () -> m.signAndCombine(Collections.emptyList(), message));
+        assertThrows(IllegalArgumentException.class, () -> m.signAndCombine(Arrays.asList(k1, m.generate(32)), message));
+    }
+}
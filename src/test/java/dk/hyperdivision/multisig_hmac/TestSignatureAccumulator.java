@@ -0,0 +1,99 @@
+package dk.hyperdivision.multisig_hmac;
+
+import org.junit.jupiter.api.Test;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestSignatureAccumulator {
+
+    @Test
+    public void testCompletesAtThreshold() throws NoSuchAlgorithmException, InvalidKeyException {
+        MultisigHMAC m = new MultisigHMAC(MultisigHMAC.Algorithm.HmacSHA384);
+        List<Key> keys = Arrays.asList(m.generate(0), m.generate(1), m.generate(2), m.generate(3));
+        byte[] message = "hello world".getBytes();
+
+        SignatureAccumulator accumulator = new SignatureAccumulator(m, 3);
+        Signature s1 = m.sign(keys.get(1), message);
+        assertTrue(accumulator.add(s1));
+        assertFalse(accumulator.add(s1));
+        assertFalse(accumulator.isComplete());
+
+        // A signature of several keys is accepted unless one of them is present
+        assertFalse(accumulator.add(m.combine(Arrays.asList(s1, m.sign(keys.get(2), message)))));
+        assertTrue(accumulator.add(m.combine(Arrays.asList(m.sign(keys.get(0), message), m.sign(keys.get(3), message)))));
+        assertTrue(accumulator.isComplete());
+        assertEquals(0b1011, accumulator.getBitField());
+        assertFalse(accumulator.add(m.sign(keys.get(2), message)));
+
+        Signature combined = accumulator.getSignature().join();
+        assertEquals(0b1011, combined.index);
+        assertTrue(m.verify(keys, combined, message, 3));
+
+        assertThrows(IllegalArgumentException.class, () -> accumulator.add(new Signature(1, new byte[3])));
+        assertThrows(IllegalArgumentException.class, () -> accumulator.add(new Signature(0, new byte[m.getBYTES()])));
+        assertThrows(IllegalArgumentException.class, () -> new SignatureAccumulator(m, 33));
+    }
+
+    @Test
+    public void testConcurrentAdds() throws Exception {
+        MultisigHMAC m = new MultisigHMAC(MultisigHMAC.Algorithm.HmacSHA256);
+        List<Key> keys = new ArrayList<>();
+        List<Signature> signatures = new ArrayList<>();
+        byte[] message = new byte[64];
+        for (int i = 0; i < 32; i++) {
+            keys.add(m.generate(i));
+            signatures.add(m.sign(keys.get(i), message));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        try {
+            for (int threshold : new int[] {32, 20}) {
+                for (int round = 0; round < 20; round++) {
+                    SignatureAccumulator accumulator = new SignatureAccumulator(m, threshold, 8);
+                    CountDownLatch start = new CountDownLatch(1);
+                    List<Future<Boolean>> added = new ArrayList<>();
+                    // every signature is handed in twice
+                    for (int i = 0; i < 64; i++) {
+                        Signature signature = signatures.get(i % 32);
+                        added.add(executor.submit(() -> {
+                            start.await();
+                            return accumulator.add(signature);
+                        }));
+                    }
+                    start.countDown();
+
+                    int accepted = 0;
+                    for (Future<Boolean> f : added) {
+                        if (f.get()) accepted++;
+                    }
+                    assertEquals(threshold, accepted);
+
+                    Signature combined = accumulator.getSignature().get(10, TimeUnit.SECONDS);
+                    assertEquals(threshold, Integer.bitCount(combined.index));
+                    assertTrue(m.verify(keys, combined, message, threshold));
+
+                    List<Signature> used = new ArrayList<>();
+                    for (int i = 0; i < 32; i++) {
+                        if ((combined.index & (1 << i)) != 0) used.add(signatures.get(i));
+                    }
+                    assertArrayEquals(m.combine(used).signature, combined.signature);
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package dk.hyperdivision.multisig_hmac;
+
+import org.junit.jupiter.api.Test;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestSignatureCodec {
+
+    @Test
+    public void testRoundTrip() throws NoSuchAlgorithmException, InvalidKeyException {
+        for (MultisigHMAC.Algorithm alg : MultisigHMAC.Algorithm.values()) {
+            MultisigHMAC m = new MultisigHMAC(alg);
+            SignatureCodec codec = new SignatureCodec(alg);
+            List<Key> keys = new ArrayList<>();
+            for (int i = 0; i < 32; i++) keys.add(m.generate(i));
+            byte[] message = "hello world".getBytes();
+
+            for (int[] indexes : new int[][] {{0}, {6}, {7}, {0, 13, 31}}) {
+                List<Signature> signatures = new ArrayList<>();
+                for (int i : indexes) signatures.add(m.sign(keys.get(i), message));
+                Signature combined = m.combine(signatures);
+
+                byte[] encoded = codec.encode(combined);
+                assertEquals(codec.encodedLength(combined), encoded.length);
+                Signature decoded = codec.decode(encoded);
+                assertEquals(combined.index, decoded.index);
+                assertArrayEquals(combined.signature, decoded.signature);
+                assertTrue(m.verify(keys, decoded, message, indexes.length));
+
+                Signature fromText = codec.fromBase64Url(codec.toBase64Url(combined));
+                assertEquals(combined.index, fromText.index);
+                assertArrayEquals(combined.signature, fromText.signature);
+            }
+        }
+    }
+
+    @Test
+    public void testLayout() {
+        SignatureCodec codec = new SignatureCodec(MultisigHMAC.Algorithm.HmacSHA256);
+        byte[] tag = new byte[32];
+        Arrays.fill(tag, (byte) 0xAB);
+
+        // Keys 0 to 6 fit a single varint byte, key 7 needs a second one
+        byte[] encoded = codec.encode(new Signature(0b101, tag));
+        assertEquals(34, encoded.length);
+        assertEquals(0b101, encoded[0]);
+        assertEquals(1, encoded[1]);
+        assertEquals((byte) 0xAB, encoded[2]);
+
+        encoded = codec.encode(new Signature(1 << 7, tag));
+        assertEquals((byte) 0x80, encoded[0]);
+        assertEquals(0x01, encoded[1]);
+        assertEquals(38, codec.encode(new Signature(1 << 31, tag)).length);
+        assertEquals(1 << 31, codec.decode(codec.encode(new Signature(1 << 31, tag))).index);
+
+        // The algorithm bytes are part of the wire format and never change
+        assertEquals(1, new SignatureCodec(MultisigHMAC.Algorithm.HmacSHA256).encode(new Signature(1, new byte[32]))[1]);
+        assertEquals(2, new SignatureCodec(MultisigHMAC.Algorithm.HmacSHA512).encode(new Signature(1, new byte[64]))[1]);
+        assertEquals(3, new SignatureCodec(MultisigHMAC.Algorithm.HmacSHA384).encode(new Signature(1, new byte[48]))[1]);
+    }
+
+    @Test
+    public void testBufferSlices() {
+        SignatureCodec codec = new SignatureCodec(MultisigHMAC.Algorithm.HmacSHA384);
+        byte[] tag1 = new byte[48];
+        byte[] tag2 = new byte[48];
+        Arrays.fill(tag1, (byte) 1);
+        Arrays.fill(tag2, (byte) 2);
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(200);
+        buffer.put((byte) 0x7F);
+        codec.encode(new Signature(3, tag1), buffer);
+        codec.encode(new Signature(1 << 20, tag2), buffer);
+        buffer.flip();
+        buffer.get();
+
+        Signature first = codec.decode(buffer);
+        Signature second = codec.decode(buffer);
+        assertEquals(3, first.index);
+        assertArrayEquals(tag1, first.signature);
+        assertEquals(1 << 20, second.index);
+        assertArrayEquals(tag2, second.signature);
+        assertEquals(0, buffer.remaining());
+
+        ByteBuffer small = ByteBuffer.allocate(40);
+        assertThrows(BufferOverflowException.class, () -> codec.encode(new Signature(3, tag1), small));
+        assertEquals(0, small.position());
+    }
+
+    @Test
+    public void testRejectsMalformed() {
+        SignatureCodec codec = new SignatureCodec(MultisigHMAC.Algorithm.HmacSHA256);
+        byte[] valid = codec.encode(new Signature(5, new byte[32]));
+
+        // Truncated, trailing bytes, another algorithm
+        assertThrows(IllegalArgumentException.class, () -> codec.decode(Arrays.copyOf(valid, valid.length - 1)));
+        assertThrows(IllegalArgumentException.class, () -> codec.decode(Arrays.copyOf(valid, valid.length + 1)));
+        assertThrows(IllegalArgumentException.class, () -> new SignatureCodec(MultisigHMAC.Algorithm.HmacSHA512).decode(valid));
+        byte[] wrongAlgorithm = valid.clone();
+        wrongAlgorithm[1] = 2;
+        assertThrows(IllegalArgumentException.class, () -> codec.decode(wrongAlgorithm));
+        byte[] unknownAlgorithm = valid.clone();
+        unknownAlgorithm[1] = 0;
+        assertThrows(IllegalArgumentException.class, () -> codec.decode(unknownAlgorithm));
+
+        // Non-minimal varint and a bitfield wider than 32 bits
+        byte[] padded = new byte[valid.length + 1];
+        padded[0] = (byte) (0x80 | 5);
+        System.arraycopy(valid, 1, padded, 2, valid.length - 1);
+        assertThrows(IllegalArgumentException.class, () -> codec.decode(padded));
+        byte[] wide = codec.encode(new WideSignature(SignerSet.of(40), new byte[32]));
+        assertThrows(IllegalArgumentException.class, () -> codec.decode(wide));
+
+        // A failed decode leaves the buffer where it was
+        ByteBuffer buffer = ByteBuffer.wrap(Arrays.copyOf(valid, 20));
+        assertThrows(IllegalArgumentException.class, () -> codec.decode(buffer));
+        assertEquals(0, buffer.position());
+
+        assertThrows(IllegalArgumentException.class, () -> codec.encode(new Signature(1, new byte[31])));
+    }
+
+    @Test
+    public void testWideSignatures() {
+        SignatureCodec codec = new SignatureCodec(MultisigHMAC.Algorithm.HmacSHA512);
+        byte[] tag = new byte[64];
+        Arrays.fill(tag, (byte) 7);
+
+        for (SignerSet signers : new SignerSet[] {SignerSet.empty(), SignerSet.of(3), SignerSet.of(0, 57, 58, 63, 64, 127, 128, 500)}) {
+            WideSignature signature = new WideSignature(signers, tag);
+            byte[] encoded = codec.encode(signature);
+            assertEquals(codec.encodedLength(signature), encoded.length);
+
+            WideSignature decoded = codec.decodeWide(encoded);
+            assertEquals(signers, decoded.signers);
+            assertArrayEquals(tag, decoded.signature);
+            assertEquals(signers, codec.wideFromBase64Url(codec.toBase64Url(signature)).signers);
+        }
+
+        // Narrow and wide encodings agree while the indexes are below 32
+        Signature narrow = new Signature(0b1001, tag);
+        assertArrayEquals(codec.encode(narrow), codec.encode(WideSignature.of(narrow)));
+    }
+}
@@ -247,6 +247,26 @@ public class TestStoredKeys {
         assertFalse(m.verify(keys, combined, message, keys.size() + 1));
     }
 
+    @Test
+    public void testMismatchedIndex() throws InvalidKeyException, NoSuchAlgorithmException {
+        byte[] message = "hello world".getBytes();
+        Signature combined = m.combine(Arrays.asList(m.sign(k0, message), m.sign(k1, message)));
+
+        // The tags still xor to the signature, but the key at position 1 claims index 5
+        List<Key> keys = Arrays.asList(k0, new Key(5, k1.key), k2);
+        assertTrue(m.verify(Arrays.asList(k0, k1, k2), combined, message, 2));
+        assertFalse(m.verify(keys, combined, message, 2));
+        assertFalse(m.verifyWide(keys, WideSignature.of(combined), message, 2));
+        assertFalse(m.verifier(keys, combined, 2).update(message).finish());
+        assertFalse(m.verifyBatch(keys, new Signature[] {combined}, new byte[][] {message}, 2).get(0));
+
+        m.setParallelPolicy(new ParallelPolicy(ParallelPolicy.commonPool().getExecutor(), 2, 0, 1));
+        m.setParallelVerify(true);
+        assertTrue(m.verify(Arrays.asList(k0, k1, k2), combined, message, 2));
+        assertFalse(m.verify(keys, combined, message, 2));
+        assertFalse(m.verifyWide(keys, WideSignature.of(combined), message, 2));
+    }
+
     @Test
     public void testSuccess() throws InvalidKeyException, NoSuchAlgorithmException {
         MultisigHMAC m = new MultisigHMAC(MultisigHMAC.Algorithm.HmacSHA256);
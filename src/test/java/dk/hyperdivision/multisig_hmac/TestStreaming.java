@@ -0,0 +1,104 @@
+package dk.hyperdivision.multisig_hmac;
+
+import org.junit.jupiter.api.Test;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestStreaming {
+    byte[] message = new byte[100000];
+
+    {
+        new Random(1).nextBytes(message);
+    }
+
+    @Test
+    public void testSign() throws NoSuchAlgorithmException, InvalidKeyException, IOException {
+        for (MultisigHMAC.Algorithm alg : MultisigHMAC.Algorithm.values()) {
+            MultisigHMAC m = new MultisigHMAC(alg);
+            Key k1 = m.generate(1);
+            Signature expected = m.sign(k1, message);
+
+            assertArrayEquals(expected.signature, m.sign(k1, new ByteArrayInputStream(message)).signature);
+            assertArrayEquals(expected.signature, m.sign(k1, Channels.newChannel(new ByteArrayInputStream(message))).signature);
+            assertEquals(expected.index, m.sign(k1, new ByteArrayInputStream(message)).index);
+
+            // uneven pieces from a heap array, a direct buffer and a prepared key
+            ByteBuffer direct = ByteBuffer.allocateDirect(message.length).put(message).flip();
+            StreamingSigner heapSigner = m.signer(k1);
+            StreamingSigner directSigner = m.signer(m.prepare(k1));
+            int offset = 0;
+            for (int len = 1; offset < message.length; len = len * 3 + 1) {
+                int n = Math.min(len, message.length - offset);
+                heapSigner.update(message, offset, n);
+                direct.limit(offset + n);
+                directSigner.update(direct);
+                assertEquals(offset + n, direct.position());
+                offset += n;
+            }
+            assertArrayEquals(expected.signature, heapSigner.finish().signature);
+            assertArrayEquals(expected.signature, directSigner.finish().signature);
+
+            assertThrows(IllegalStateException.class, heapSigner::finish);
+            assertThrows(IllegalStateException.class, () -> directSigner.update(message));
+        }
+    }
+
+    @Test
+    public void testStoredKeys() throws NoSuchAlgorithmException, InvalidKeyException, IOException {
+        MultisigHMAC m = new MultisigHMAC(MultisigHMAC.Algorithm.HmacSHA256);
+        List<Key> keys = new ArrayList<>();
+        for (int i = 0; i < 3; i++) keys.add(m.generate(i));
+
+        List<Signature> signatures = new ArrayList<>();
+        signatures.add(m.sign(keys.get(0), message));
+        signatures.add(m.sign(keys.get(2), message));
+        Signature combined = m.combine(signatures);
+
+        assertTrue(m.verify(keys, combined, new ByteArrayInputStream(message), 2));
+        assertTrue(m.verify(keys, combined, Channels.newChannel(new ByteArrayInputStream(message)), 2));
+        assertFalse(m.verify(keys, combined, new ByteArrayInputStream(message, 0, message.length - 1), 2));
+        assertFalse(m.verify(keys, combined, new ByteArrayInputStream(message), 3));
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(message.length).put(message).flip();
+        assertTrue(m.verifier(keys, combined, 2).update(direct).finish());
+        assertEquals(direct.limit(), direct.position());
+
+        try {
+            m.verifier(keys.subList(0, 2), combined, 2);
+        } catch (IllegalArgumentException expected) {
+            assert(expected.getMessage()).contains("Not enough keys given based on index of the combined-Signature");
+        }
+    }
+
+    @Test
+    public void testDerivedKeys() throws NoSuchAlgorithmException, InvalidKeyException, IOException {
+        DerivedMultisigHMAC m = new DerivedMultisigHMAC(MultisigHMAC.Algorithm.HmacSHA512);
+        byte[] masterKey = m.generateMasterKey();
+
+        List<Signature> signatures = new ArrayList<>();
+        signatures.add(m.sign(m.generate(1, masterKey), message));
+        signatures.add(m.sign(m.generate(4, masterKey), message));
+        Signature combined = m.combine(signatures);
+
+        assertTrue(m.verify(masterKey, combined, new ByteArrayInputStream(message), 2));
+        assertTrue(m.verify(masterKey, combined, Channels.newChannel(new ByteArrayInputStream(message)), 2));
+        assertFalse(m.verify(m.generateMasterKey(), combined, new ByteArrayInputStream(message), 2));
+
+        StreamingVerifier verifier = m.verifier(masterKey, combined, 2);
+        verifier.update(message, 0, 10).update(ByteBuffer.wrap(message, 10, message.length - 10));
+        assertTrue(verifier.finish());
+        assertThrows(IllegalStateException.class, verifier::finish);
+    }
+}
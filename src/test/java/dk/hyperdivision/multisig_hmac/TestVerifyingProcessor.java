@@ -0,0 +1,180 @@
+package dk.hyperdivision.multisig_hmac;
+
+import org.junit.jupiter.api.Test;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestVerifyingProcessor {
+
+    static class Collector implements Flow.Subscriber<VerifyingProcessor.Result> {
+        final List<VerifyingProcessor.Result> results = new ArrayList<>();
+        final CountDownLatch done = new CountDownLatch(1);
+        final long initialDemand;
+        Flow.Subscription subscription;
+        Throwable error;
+
+        Collector(long initialDemand) {
+            this.initialDemand = initialDemand;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            if (initialDemand > 0) subscription.request(initialDemand);
+        }
+
+        @Override
+        public synchronized void onNext(VerifyingProcessor.Result item) {
+            results.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+            done.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            done.countDown();
+        }
+
+        synchronized int received() {
+            return results.size();
+        }
+    }
+
+    @Test
+    public void testStoredKeysInOrder() throws NoSuchAlgorithmException, InvalidKeyException, InterruptedException {
+        MultisigHMAC m = new MultisigHMAC(MultisigHMAC.Algorithm.HmacSHA256);
+        List<Key> keys = Arrays.asList(m.generate(0), m.generate(1), m.generate(2));
+
+        List<SignedMessage> items = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            byte[] message = ("message " + i).getBytes();
+            Signature combined = m.combine(Arrays.asList(m.sign(keys.get(0), message), m.sign(keys.get(i % 2 + 1), message)));
+            // Every third item is verified against a different message
+            items.add(new SignedMessage(i % 3 == 0 ? "tampered".getBytes() : message, combined));
+        }
+        items.add(new SignedMessage("short".getBytes(), new Signature(1, new byte[5])));
+
+        VerifyingProcessor processor = VerifyingProcessor.of(m, keys, 2, 16);
+        Collector collector = new Collector(Long.MAX_VALUE);
+        processor.subscribe(collector);
+        try (SubmissionPublisher<SignedMessage> publisher = new SubmissionPublisher<>()) {
+            publisher.subscribe(processor);
+            for (SignedMessage item : items) publisher.submit(item);
+        }
+
+        assertTrue(collector.done.await(30, TimeUnit.SECONDS));
+        assertEquals(items.size(), collector.results.size());
+        for (int i = 0; i < 500; i++) {
+            VerifyingProcessor.Result result = collector.results.get(i);
+            assertSame(items.get(i), result.getItem());
+            assertEquals(i % 3 != 0, result.isValid());
+        }
+
+        VerifyingProcessor.Result malformed = collector.results.get(500);
+        assertEquals(false, malformed.isValid());
+        assertTrue(malformed.getError() instanceof IllegalArgumentException);
+    }
+
+    @Test
+    public void testDerivedKeys() throws NoSuchAlgorithmException, InvalidKeyException, InterruptedException {
+        DerivedMultisigHMAC m = new DerivedMultisigHMAC(MultisigHMAC.Algorithm.HmacSHA512);
+        byte[] masterKey = m.generateMasterKey();
+
+        List<SignedMessage> items = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            byte[] message = ("message " + i).getBytes();
+            Signature combined = m.combine(Arrays.asList(m.sign(m.generate(3, masterKey), message), m.sign(m.generate(i % 28 + 4, masterKey), message)));
+            items.add(new SignedMessage(message, combined));
+        }
+
+        VerifyingProcessor processor = VerifyingProcessor.of(m, masterKey, 1, 4);
+        Collector collector = new Collector(Long.MAX_VALUE);
+        processor.subscribe(collector);
+        try (SubmissionPublisher<SignedMessage> publisher = new SubmissionPublisher<>()) {
+            publisher.subscribe(processor);
+            for (SignedMessage item : items) publisher.submit(item);
+        }
+
+        assertTrue(collector.done.await(30, TimeUnit.SECONDS));
+        assertEquals(50, collector.results.size());
+        for (VerifyingProcessor.Result result : collector.results) {
+            assertTrue(result.isValid());
+        }
+
+        // The processor's copy of the master key is zeroed once the stream completes
+        assertArrayEquals(new byte[masterKey.length], ((PreparedDerivedKeys) processor.keys).masterKey);
+    }
+
+    @Test
+    public void testCancelZeroesMasterKey() throws NoSuchAlgorithmException {
+        DerivedMultisigHMAC m = new DerivedMultisigHMAC(MultisigHMAC.Algorithm.HmacSHA256);
+        byte[] masterKey = m.generateMasterKey();
+
+        VerifyingProcessor processor = VerifyingProcessor.of(m, masterKey, 1, 4);
+        Collector collector = new Collector(1);
+        processor.subscribe(collector);
+        assertFalse(Arrays.equals(new byte[masterKey.length], ((PreparedDerivedKeys) processor.keys).masterKey));
+
+        collector.subscription.cancel();
+        assertArrayEquals(new byte[masterKey.length], ((PreparedDerivedKeys) processor.keys).masterKey);
+    }
+
+    @Test
+    public void testBackpressure() throws NoSuchAlgorithmException, InvalidKeyException, InterruptedException {
+        MultisigHMAC m = new MultisigHMAC(MultisigHMAC.Algorithm.HmacSHA256);
+        List<Key> keys = Arrays.asList(m.generate(0));
+        byte[] message = "hello world".getBytes();
+        SignedMessage item = new SignedMessage(message, m.sign(keys.get(0), message));
+
+        // An endless upstream which counts how many items have been requested
+        AtomicLong requested = new AtomicLong();
+        Flow.Publisher<SignedMessage> upstream = subscriber -> subscriber.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+                requested.addAndGet(n);
+                for (long i = 0; i < n; i++) subscriber.onNext(item);
+            }
+
+            @Override
+            public void cancel() {
+            }
+        });
+
+        VerifyingProcessor processor = VerifyingProcessor.of(m, keys, 1, 8);
+        Collector collector = new Collector(0);
+        processor.subscribe(collector);
+        upstream.subscribe(processor);
+        assertEquals(8, requested.get());
+
+        collector.subscription.request(3);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (collector.received() < 3 && System.nanoTime() < deadline) Thread.sleep(1);
+        Thread.sleep(50);
+
+        // Only delivered results make room for new items
+        assertEquals(3, collector.received());
+        assertEquals(11, requested.get());
+
+        collector.subscription.request(-1);
+        assertTrue(collector.done.await(10, TimeUnit.SECONDS));
+        assertNotNull(collector.error);
+    }
+}
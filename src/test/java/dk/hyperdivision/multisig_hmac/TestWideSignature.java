@@ -0,0 +1,112 @@
+package dk.hyperdivision.multisig_hmac;
+
+import org.junit.jupiter.api.Test;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestWideSignature {
+
+    @Test
+    public void testSignerSet() {
+        SignerSet small = SignerSet.of(0, 5, 63);
+        assertEquals(3, small.size());
+        assertEquals(64, small.length());
+        assertFalse(small.fitsInt());
+        assertEquals("{0, 5, 63}", small.toString());
+
+        SignerSet large = SignerSet.of(5, 64, 300);
+        assertEquals(3, large.size());
+        assertEquals(301, large.length());
+        assertTrue(large.contains(300));
+        assertFalse(large.contains(299));
+        assertEquals(64, large.nextSetBit(6));
+        assertEquals(-1, large.nextSetBit(301));
+
+        // Combining cancels indexes present in both, and shrinks back to a single word
+        SignerSet combined = small.xor(large);
+        assertEquals(SignerSet.of(0, 63, 64, 300), combined);
+        assertEquals(SignerSet.of(0, 63), combined.xor(SignerSet.of(64, 300)));
+        assertEquals(1, SignerSet.of(0, 63).toWords().length);
+
+        assertEquals(SignerSet.fromInt(-1), SignerSet.fromLong(0xFFFFFFFFL));
+        assertEquals(-1, SignerSet.fromInt(-1).toInt());
+        assertEquals(SignerSet.of(3, 200), SignerSet.fromWords(SignerSet.of(3, 200).toWords()));
+        assertTrue(SignerSet.fromWords(new long[3]).isEmpty());
+        assertTrue(SignerSet.of().isEmpty());
+        assertEquals(SignerSet.empty(), SignerSet.of());
+        assertEquals(0, SignerSet.of().size());
+        assertThrows(IllegalArgumentException.class, () -> SignerSet.of(-1));
+    }
+
+    @Test
+    public void testStoredKeys() throws NoSuchAlgorithmException, InvalidKeyException {
+        MultisigHMAC m = new MultisigHMAC(MultisigHMAC.Algorithm.HmacSHA256);
+        List<Key> keys = new ArrayList<>();
+        for (int i = 0; i < 300; i++) keys.add(m.generate(i));
+        byte[] message = "hello world".getBytes();
+
+        WideSignature s0 = m.signWide(keys.get(0), message);
+        WideSignature s40 = m.signWide(keys.get(40), message);
+        WideSignature s299 = m.signWide(keys.get(299), message);
+        assertArrayEquals(m.sign(keys.get(0), message).signature, s0.signature);
+
+        WideSignature combined = m.combineWide(Arrays.asList(s0, s40, s299));
+        assertEquals(SignerSet.of(0, 40, 299), combined.signers);
+        assertTrue(m.verifyWide(keys, combined, message, 3));
+        assertFalse(m.verifyWide(keys, combined, message, 4));
+        assertFalse(m.verifyWide(keys, combined, "hello".getBytes(), 2));
+        assertThrows(IllegalArgumentException.class, () -> m.verifyWide(keys.subList(0, 299), combined, message, 2));
+
+        // A missing signer makes the signature fail, not just the threshold
+        WideSignature forged = new WideSignature(SignerSet.of(0, 40, 299), m.combineWide(Arrays.asList(s0, s40)).signature);
+        assertFalse(m.verifyWide(keys, forged, message, 2));
+
+        m.setParallelVerify(true);
+        m.setParallelPolicy(new ParallelPolicy(Runnable::run, 4, 0, 2));
+        assertTrue(m.verifyWide(keys, combined, message, 3));
+        assertFalse(m.verifyWide(keys, forged, message, 2));
+    }
+
+    @Test
+    public void testNarrowCompatibility() throws NoSuchAlgorithmException, InvalidKeyException {
+        MultisigHMAC m = new MultisigHMAC(MultisigHMAC.Algorithm.HmacSHA512);
+        List<Key> keys = Arrays.asList(m.generate(0), m.generate(1), m.generate(2));
+        byte[] message = "hello world".getBytes();
+        Signature narrow = m.combine(Arrays.asList(m.sign(keys.get(0), message), m.sign(keys.get(2), message)));
+
+        WideSignature wide = WideSignature.of(narrow);
+        assertTrue(m.verifyWide(keys, wide, message, 2));
+        assertEquals(narrow.index, wide.toSignature().index);
+        assertTrue(m.verify(keys, wide.toSignature(), message, 2));
+
+        Key k32 = m.generate(32);
+        assertThrows(IllegalArgumentException.class, () -> m.sign(k32, message));
+        assertThrows(IllegalStateException.class, () -> m.signWide(k32, message).toSignature());
+    }
+
+    @Test
+    public void testDerivedKeys() throws NoSuchAlgorithmException, InvalidKeyException {
+        DerivedMultisigHMAC m = new DerivedMultisigHMAC(MultisigHMAC.Algorithm.HmacSHA384);
+        byte[] masterKey = m.generateMasterKey();
+        byte[] message = "hello world".getBytes();
+
+        WideSignature combined = m.combineWide(Arrays.asList(
+                m.signWide(m.generate(7, masterKey), message),
+                m.signWide(m.generate(1000, masterKey), message)));
+        assertTrue(m.verifyWide(masterKey, combined, message, 2));
+        assertFalse(m.verifyWide(masterKey, combined, message, 3));
+
+        m.setKeyCache(new DerivedKeyCache(16));
+        assertTrue(m.verifyWide(masterKey, combined, message, 2));
+        assertTrue(m.verifyWide(masterKey, combined, message, 2));
+        assertFalse(m.verifyWide(masterKey, new WideSignature(SignerSet.of(7, 1001), combined.signature), message, 2));
+    }
+}